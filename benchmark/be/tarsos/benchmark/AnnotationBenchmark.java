@@ -0,0 +1,257 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+
+package be.tarsos.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import be.tarsos.sampled.pitch.Annotation;
+import be.tarsos.sampled.pitch.AnnotationSelection;
+import be.tarsos.sampled.pitch.AnnotationTree;
+import be.tarsos.sampled.pitch.Pitch;
+import be.tarsos.sampled.pitch.PitchDetectionMode;
+import be.tarsos.sampled.pitch.PitchUnit;
+import be.tarsos.util.FileUtils;
+
+/**
+ * Measures the handling of annotations: constructing {@link Annotation}s,
+ * converting pitch with {@link PitchUnit}, reading annotations with
+ * {@link FileUtils#readPitchAnnotations(String)}, and adding to and selecting
+ * from an {@link AnnotationTree}. Construction is compared with annotations
+ * that convert their pitch to each unit up front, bulk conversion with
+ * converting value by value. The other timings are a baseline to detect
+ * regressions. The number
+ * of annotations can be set with <code>-Dbenchmark.size</code>, one million by
+ * default.
+ * 
+ * @author Joren Six
+ */
+public final class AnnotationBenchmark extends Benchmark.Group {
+
+	/**
+	 * Create the benchmarks with their default size and number of
+	 * iterations.
+	 */
+	AnnotationBenchmark() {
+		super(1000000, 3, 5);
+	}
+
+	/**
+	 * The number of selections made in the tree per invocation.
+	 */
+	private static final int SELECTIONS = 1000;
+
+	/**
+	 * An annotation as it was implemented before: the pitch is converted to
+	 * each unit when it is constructed.
+	 */
+	private static final class EagerAnnotation {
+		private final double start;
+		private final double[] pitchValues;
+		private final double probability;
+		private final PitchDetectionMode source;
+
+		private EagerAnnotation(final double timeStamp, final double pitchInHz,
+				final PitchDetectionMode annotationSource, final double salience) {
+			if (salience > 1.0 || 0.0 > salience || pitchInHz <= 0 || timeStamp < 0) {
+				throw new IllegalArgumentException("Invalid annotation.");
+			}
+			this.start = timeStamp;
+			this.probability = salience;
+			this.source = annotationSource;
+			final Pitch pitch = Pitch.getInstance(PitchUnit.HERTZ, pitchInHz);
+			this.pitchValues = new double[PitchUnit.values().length];
+			for (int i = 0; i < pitchValues.length; i++) {
+				pitchValues[i] = pitch.getPitch(PitchUnit.values()[i]);
+			}
+		}
+	}
+
+	/**
+	 * Runs the benchmarks, see {@link Benchmark.Group#run()}.
+	 * 
+	 * @param args
+	 *            Not used.
+	 */
+	public static void main(final String... args) {
+		new AnnotationBenchmark().run();
+	}
+
+	/**
+	 * Runs the benchmarks with the given parameters.
+	 * 
+	 * @param size
+	 *            The number of annotations.
+	 * @param warmups
+	 *            The number of warm up iterations.
+	 * @param iterations
+	 *            The number of measured iterations.
+	 */
+	@Override
+	protected void run(final int size, final int warmups, final int iterations) {
+		final List<Annotation> annotations = SyntheticData.annotations(size, SyntheticData.SEED);
+		final double[] times = new double[size];
+		final double[] hertz = new double[size];
+		final double[] saliences = new double[size];
+		for (int i = 0; i < size; i++) {
+			times[i] = annotations.get(i).getStart();
+			hertz[i] = annotations.get(i).getPitch(PitchUnit.HERTZ);
+			saliences[i] = annotations.get(i).getProbability();
+		}
+
+		final long lazy = new Benchmark("new Annotation(time, pitch, source, salience), n=" + size) {
+			@Override
+			protected void run() {
+				final List<Annotation> created = new ArrayList<Annotation>(size);
+				for (int i = 0; i < size; i++) {
+					created.add(new Annotation(times[i], hertz[i], PitchDetectionMode.TARSOS_YIN, saliences[i]));
+				}
+				consume(created);
+			}
+		}.measure(warmups, iterations);
+		final long eager = new Benchmark("Annotation with a value for each unit, n=" + size) {
+			@Override
+			protected void run() {
+				final List<EagerAnnotation> created = new ArrayList<EagerAnnotation>(size);
+				for (int i = 0; i < size; i++) {
+					created.add(new EagerAnnotation(times[i], hertz[i], PitchDetectionMode.TARSOS_YIN,
+							saliences[i]));
+				}
+				consume(created);
+			}
+		}.measure(warmups, iterations);
+		report("speed-up: %.1fx", eager / (double) lazy);
+
+		new Benchmark("PitchUnit.hertzToAbsoluteCent, n=" + size) {
+			@Override
+			protected void run() {
+				double sum = 0;
+				for (int i = 0; i < size; i++) {
+					sum += PitchUnit.hertzToAbsoluteCent(hertz[i]);
+				}
+				consume(sum);
+			}
+		}.measure(warmups, iterations);
+		new Benchmark("PitchUnit.hertzToRelativeCent, n=" + size) {
+			@Override
+			protected void run() {
+				double sum = 0;
+				for (int i = 0; i < size; i++) {
+					sum += PitchUnit.hertzToRelativeCent(hertz[i]);
+				}
+				consume(sum);
+			}
+		}.measure(warmups, iterations);
+		final double[] converted = new double[size];
+		final long bulk = new Benchmark("PitchUnit.RELATIVE_CENTS.convert(double[]), n=" + size) {
+			@Override
+			protected void run() {
+				PitchUnit.RELATIVE_CENTS.convert(hertz, PitchUnit.HERTZ, converted, size);
+				consume(converted[size - 1]);
+			}
+		}.measure(warmups, iterations);
+		final long perValue = new Benchmark("PitchUnit.RELATIVE_CENTS.convert(double), n=" + size) {
+			@Override
+			protected void run() {
+				double sum = 0;
+				for (int i = 0; i < size; i++) {
+					sum += PitchUnit.RELATIVE_CENTS.convert(hertz[i], PitchUnit.HERTZ);
+				}
+				consume(sum);
+			}
+		}.measure(warmups, iterations);
+		final double[] absoluteCents = PitchUnit.ABSOLUTE_CENTS.convert(hertz, PitchUnit.HERTZ);
+		final long fold = new Benchmark("PitchUnit.RELATIVE_CENTS.convert(absolute cents[]), n=" + size) {
+			@Override
+			protected void run() {
+				PitchUnit.RELATIVE_CENTS.convert(absoluteCents, PitchUnit.ABSOLUTE_CENTS, converted, size);
+				consume(converted[size - 1]);
+			}
+		}.measure(warmups, iterations);
+		report("speed-up: %.1fx from Hz, %.1fx from absolute cents",
+				perValue / (double) bulk, perValue / (double) fold);
+		new Benchmark("Annotation.getPitch(ABSOLUTE_CENTS), n=" + size) {
+			@Override
+			protected void run() {
+				double sum = 0;
+				for (final Annotation annotation : annotations) {
+					sum += annotation.getPitch(PitchUnit.ABSOLUTE_CENTS);
+				}
+				consume(sum);
+			}
+		}.measure(warmups, iterations);
+
+		final AnnotationTree[] tree = new AnnotationTree[1];
+		new Benchmark("AnnotationTree.add(list), n=" + size) {
+			@Override
+			protected void run() {
+				tree[0] = new AnnotationTree(PitchUnit.ABSOLUTE_CENTS);
+				tree[0].add(annotations);
+				consume(tree[0].size());
+			}
+		}.measure(warmups, iterations);
+		final double duration = times[size - 1];
+		final Random random = new Random(SyntheticData.SEED);
+		final AnnotationSelection[] selections = new AnnotationSelection[SELECTIONS];
+		for (int i = 0; i < SELECTIONS; i++) {
+			final double start = random.nextDouble() * duration;
+			final double startPitch = 4800 + random.nextDouble() * 2400;
+			selections[i] = new AnnotationSelection();
+			selections[i].setSelection(start, start + 10, startPitch, startPitch + 1200, 0.5);
+		}
+		new Benchmark("AnnotationTree.select, " + SELECTIONS + " windows of 10s, n=" + size) {
+			@Override
+			protected void run() {
+				int selected = 0;
+				for (final AnnotationSelection selection : selections) {
+					selected += tree[0].select(selection).size();
+				}
+				consume(selected);
+			}
+		}.measure(warmups, iterations);
+
+		final File csv;
+		try {
+			csv = File.createTempFile("tarsos_benchmark", ".csv");
+		} catch (final IOException e) {
+			throw new IllegalStateException("Could not create a temporary file.", e);
+		}
+		csv.deleteOnExit();
+		FileUtils.writePitchAnnotations(csv.getAbsolutePath(), annotations);
+		final long read = new Benchmark("FileUtils.readPitchAnnotations, n=" + size) {
+			@Override
+			protected void run() {
+				consume(FileUtils.readPitchAnnotations(csv.getAbsolutePath()));
+			}
+		}.measure(warmups, iterations);
+		report("%.1f MB/s, %.0f annotations/s", csv.length() * 1e3
+				/ read, size * 1e9 / read);
+	}
+}
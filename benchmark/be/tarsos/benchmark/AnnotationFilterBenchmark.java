@@ -0,0 +1,255 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+
+package be.tarsos.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import be.tarsos.sampled.pitch.Annotation;
+import be.tarsos.sampled.pitch.AnnotationPublisher;
+import be.tarsos.sampled.pitch.AnnotationPublisher.AnnotationFilter;
+import be.tarsos.sampled.pitch.AnnotationStore;
+import be.tarsos.sampled.pitch.PitchUnit;
+
+/**
+ * Compares the single pass steady state and pitch class filters, which work on
+ * the columns of an {@link AnnotationStore}, with the previous
+ * implementations, which removed elements from an <code>ArrayList</code> one
+ * by one. The number of annotations can be set with
+ * <code>-Dbenchmark.size</code>, one million by default. The previous
+ * implementations are quadratic: with a million annotations they take seconds.
+ * 
+ * @author Joren Six
+ */
+public final class AnnotationFilterBenchmark extends Benchmark.Group {
+
+	/**
+	 * Create the benchmarks with their default size and number of
+	 * iterations.
+	 */
+	AnnotationFilterBenchmark() {
+		super(1000000, 3, 5);
+	}
+
+	/**
+	 * The previous filter interface: filters a list in place.
+	 */
+	private interface LegacyFilter {
+		void filter(List<Annotation> listToFilter);
+	}
+
+	/**
+	 * The steady state filter as it was implemented before.
+	 */
+	private static final class LegacySteadyStateFilter implements LegacyFilter {
+		final double maxCentsDifference;
+		final double minDuration;
+
+		public LegacySteadyStateFilter(final double maxCentsDifference, final double minDuration) {
+			this.maxCentsDifference = maxCentsDifference;
+			this.minDuration = minDuration;
+		}
+
+		public void filter(final List<Annotation> listToFilter) {
+			for (int i = 0; i < listToFilter.size(); i++) {
+				double iCentsValue = listToFilter.get(i).getPitch(PitchUnit.ABSOLUTE_CENTS);
+				double iStart = listToFilter.get(i).getStart();
+				boolean stable = false;
+				int j = i + 1;
+				for (; j < listToFilter.size(); j++) {
+					double jCentsValue = listToFilter.get(j).getPitch(PitchUnit.ABSOLUTE_CENTS);
+					double jStart = listToFilter.get(j).getStart();
+					double centsDifference = Math.abs(iCentsValue - jCentsValue);
+					double timeDifference = jStart - iStart;
+					if (centsDifference > maxCentsDifference)
+						break;
+					if (timeDifference > minDuration) {
+						stable = true;
+					}
+				}
+				if (stable) {
+					i = j;
+				} else {
+					listToFilter.remove(i);
+					i--;
+				}
+			}
+		}
+	}
+
+	/**
+	 * The pitch class filter as it was implemented before.
+	 */
+	private static final class LegacyPitchClassFilter implements LegacyFilter {
+		private final double[] pitchClasses;
+		private final double maxCentsDifference;
+
+		public LegacyPitchClassFilter(final double[] pitchClasses, final double maxCentsDifference) {
+			this.pitchClasses = pitchClasses;
+			this.maxCentsDifference = maxCentsDifference;
+		}
+
+		public void filter(final List<Annotation> listToFilter) {
+			for (int i = 0; i < listToFilter.size(); i++) {
+				double annotationPitchClass = listToFilter.get(i).getPitch(PitchUnit.RELATIVE_CENTS);
+				boolean delete = true;
+				for (double scalePitchClass : pitchClasses) {
+					double normalDiff = Math.abs(scalePitchClass - annotationPitchClass);
+					double wrappedDiff = Math.min(Math.abs(scalePitchClass - annotationPitchClass + 1200),
+							Math.abs(scalePitchClass - annotationPitchClass - 1200));
+					if (normalDiff < maxCentsDifference || wrappedDiff < maxCentsDifference) {
+						delete = false;
+					}
+				}
+				if (delete) {
+					listToFilter.remove(i);
+					i--;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Benchmarks a filter, {@link #result()} returns the filtered annotations.
+	 */
+	private abstract static class FilterBenchmark extends Benchmark {
+		public FilterBenchmark(final String name) {
+			super(name);
+		}
+
+		public abstract List<Annotation> result();
+	}
+
+	/**
+	 * Benchmarks a filter on the columns of a store. The store is not
+	 * modified, so it is not copied for each invocation.
+	 */
+	private static final class StoreFilterBenchmark extends FilterBenchmark {
+		private final AnnotationStore data;
+		private final AnnotationFilter filter;
+		private AnnotationStore output;
+
+		public StoreFilterBenchmark(final String name, final AnnotationStore data, final AnnotationFilter filter) {
+			super(name);
+			this.data = data;
+			this.filter = filter;
+		}
+
+		@Override
+		protected void run() {
+			output = filter.filter(data);
+			consume(output.size());
+		}
+
+		@Override
+		public List<Annotation> result() {
+			run();
+			return output.toList();
+		}
+	}
+
+	/**
+	 * Benchmarks a previous filter: each invocation filters a fresh copy of
+	 * the data.
+	 */
+	private static final class LegacyFilterBenchmark extends FilterBenchmark {
+		private final List<Annotation> data;
+		private final LegacyFilter filter;
+		private List<Annotation> copy;
+
+		public LegacyFilterBenchmark(final String name, final List<Annotation> data, final LegacyFilter filter) {
+			super(name);
+			this.data = data;
+			this.filter = filter;
+		}
+
+		@Override
+		protected void setUp() {
+			copy = new ArrayList<Annotation>(data);
+		}
+
+		@Override
+		protected void run() {
+			filter.filter(copy);
+			consume(copy.size());
+		}
+
+		@Override
+		public List<Annotation> result() {
+			setUp();
+			run();
+			return copy;
+		}
+	}
+
+	/**
+	 * Runs the benchmarks, see {@link Benchmark.Group#run()}.
+	 * 
+	 * @param args
+	 *            Not used.
+	 */
+	public static void main(final String... args) {
+		new AnnotationFilterBenchmark().run();
+	}
+
+	/**
+	 * Runs the benchmarks with the given parameters.
+	 * 
+	 * @param size
+	 *            The number of annotations.
+	 * @param warmups
+	 *            The number of warm up iterations for the single pass filters.
+	 * @param iterations
+	 *            The number of measured iterations for the single pass
+	 *            filters. The previous implementations are measured only
+	 *            once.
+	 */
+	@Override
+	protected void run(final int size, final int warmups, final int iterations) {
+		final List<Annotation> data = SyntheticData.annotations(size, SyntheticData.SEED);
+		final AnnotationStore store = AnnotationStore.fromList(data);
+		final AnnotationPublisher publisher = AnnotationPublisher.getInstance();
+
+		final FilterBenchmark[][] pairs = {
+				{ new StoreFilterBenchmark("SteadyStateFilter (single pass), n=" + size, store,
+						publisher.new SteadyStateFilter(30, 0.1)),
+						new LegacyFilterBenchmark("SteadyStateFilter (ArrayList.remove), n=" + size, data,
+								new LegacySteadyStateFilter(30, 0.1)) },
+				{ new StoreFilterBenchmark("PitchClassFilter (lookup table), n=" + size, store,
+						publisher.new PitchClassFilter(SyntheticData.SCALE, 25)),
+						new LegacyFilterBenchmark("PitchClassFilter (ArrayList.remove), n=" + size, data,
+								new LegacyPitchClassFilter(SyntheticData.SCALE, 25)) } };
+
+		for (FilterBenchmark[] pair : pairs) {
+			final long current = pair[0].measure(warmups, iterations);
+			final long legacy = pair[1].measure(0, 1);
+			final boolean identical = pair[0].result().equals(pair[1].result());
+			report("speed-up: %.1fx, identical output: %s", legacy / (double) current,
+					identical);
+		}
+	}
+}
@@ -0,0 +1,232 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+
+package be.tarsos.benchmark;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * <p>
+ * A minimal micro benchmark harness. A benchmark is measured by calling
+ * {@link #setUp()} and {@link #run()} a number of times: first to warm up the
+ * JIT compiler, then to measure. Only the time spent in {@link #run()} is
+ * measured.
+ * </p>
+ * <p>
+ * The results of a benchmark should be passed to {@link #consume(Object)} or
+ * {@link #consume(double)} to prevent the JIT from eliminating the work.
+ * </p>
+ * <p>
+ * Benchmarks that share a data set, e.g. a hot path and the implementation it
+ * replaced, are measured together in a {@link Group}.
+ * </p>
+ * 
+ * @author Joren Six
+ */
+public abstract class Benchmark {
+
+	/**
+	 * Keeps consumed values reachable so the work can not be optimized away.
+	 */
+	private static volatile long sink;
+
+	private final String name;
+
+	/**
+	 * Create a new benchmark.
+	 * 
+	 * @param name
+	 *            The name used when reporting results.
+	 */
+	protected Benchmark(final String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Prepares the state for one invocation of {@link #run()}, not measured.
+	 * By default nothing is done.
+	 */
+	protected void setUp() {
+	}
+
+	/**
+	 * The operation to measure.
+	 */
+	protected abstract void run();
+
+	/**
+	 * @return The name of the benchmark.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Measures the benchmark and prints a line with the results to standard
+	 * out.
+	 * 
+	 * @param warmups
+	 *            The number of unmeasured invocations.
+	 * @param iterations
+	 *            The number of measured invocations.
+	 * @return The median time of one invocation in nanoseconds.
+	 */
+	public long measure(final int warmups, final int iterations) {
+		for (int i = 0; i < warmups; i++) {
+			setUp();
+			run();
+		}
+		final long[] times = new long[Math.max(1, iterations)];
+		for (int i = 0; i < times.length; i++) {
+			setUp();
+			final long start = System.nanoTime();
+			run();
+			times[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(times);
+		final long median = times[times.length / 2];
+		System.out.println(String.format(Locale.US, "%-60s %14.3f ms/op (min %.3f, max %.3f, n=%d)", name,
+				median / 1e6, times[0] / 1e6, times[times.length - 1] / 1e6, times.length));
+		return median;
+	}
+
+	/**
+	 * Consumes a result.
+	 * 
+	 * @param result
+	 *            The result of a benchmarked operation.
+	 */
+	public static void consume(final Object result) {
+		sink += System.identityHashCode(result);
+	}
+
+	/**
+	 * Consumes a result.
+	 * 
+	 * @param result
+	 *            The result of a benchmarked operation.
+	 */
+	public static void consume(final double result) {
+		sink += Double.doubleToLongBits(result);
+	}
+
+	/**
+	 * Reads an integer system property, used to configure benchmarks on the
+	 * command line e.g. <code>-Dbenchmark.size=1000000</code>.
+	 * 
+	 * @param key
+	 *            The name of the property.
+	 * @param defaultValue
+	 *            The value used if the property is not set.
+	 * @return The configured value.
+	 */
+	public static int intProperty(final String key, final int defaultValue) {
+		return Integer.parseInt(System.getProperty(key, String.valueOf(defaultValue)));
+	}
+
+	/**
+	 * <p>
+	 * A group of benchmarks measured on the same data set, e.g. the current
+	 * and the previous implementation of a hot path. The results are compared
+	 * with {@link #report(String, Object...)}.
+	 * </p>
+	 * <p>
+	 * Each group has a default size for its data set and a default number of
+	 * warm up and measured iterations. They can be set with the system
+	 * properties <code>benchmark.size</code>, <code>benchmark.warmups</code>
+	 * and <code>benchmark.iterations</code>.
+	 * </p>
+	 */
+	public abstract static class Group {
+		private final int defaultSize;
+		private final int defaultWarmups;
+		private final int defaultIterations;
+
+		/**
+		 * Create a new group of benchmarks.
+		 * 
+		 * @param defaultSize
+		 *            The size of the data set, its meaning depends on the
+		 *            group.
+		 * @param defaultWarmups
+		 *            The number of warm up iterations.
+		 * @param defaultIterations
+		 *            The number of measured iterations.
+		 */
+		protected Group(final int defaultSize, final int defaultWarmups, final int defaultIterations) {
+			this.defaultSize = defaultSize;
+			this.defaultWarmups = defaultWarmups;
+			this.defaultIterations = defaultIterations;
+		}
+
+		/**
+		 * @return The name of the group: the name of its class.
+		 */
+		public String getName() {
+			return getClass().getSimpleName();
+		}
+
+		/**
+		 * Runs the benchmarks with the default parameters or the values of
+		 * the system properties <code>benchmark.size</code>,
+		 * <code>benchmark.warmups</code> and
+		 * <code>benchmark.iterations</code>.
+		 */
+		public void run() {
+			run(intProperty("benchmark.size", defaultSize), intProperty("benchmark.warmups", defaultWarmups),
+					intProperty("benchmark.iterations", defaultIterations));
+		}
+
+		/**
+		 * Runs the benchmarks with the given parameters.
+		 * 
+		 * @param size
+		 *            The size of the data set.
+		 * @param warmups
+		 *            The number of warm up iterations.
+		 * @param iterations
+		 *            The number of measured iterations.
+		 */
+		protected abstract void run(int size, int warmups, int iterations);
+
+		/**
+		 * Prints a line with a comparison of the measured benchmarks, e.g. the
+		 * speed-up and whether the outputs are identical. It is indented
+		 * below the measurements and numbers are formatted the same in each
+		 * locale.
+		 * 
+		 * @param format
+		 *            The format string, see
+		 *            {@link String#format(Locale, String, Object...)}.
+		 * @param arguments
+		 *            The arguments of the format string.
+		 */
+		protected static void report(final String format, final Object... arguments) {
+			System.out.println("  " + String.format(Locale.US, format, arguments));
+		}
+	}
+}
@@ -0,0 +1,107 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+
+package be.tarsos.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * <p>
+ * Runs all benchmarks of the analysis hot paths, one after the other, with
+ * their default data sets: histograms, kernel density estimates, correlation,
+ * peak detection, annotations, annotation files, file fingerprints, audio
+ * access, power envelopes, waveforms and pitch detection. It is the default target of <code>ant benchmark</code>;
+ * run it before a release to spot regressions.
+ * </p>
+ * <p>
+ * The system property <code>benchmark.filter</code> selects the benchmarks
+ * whose name contains the value, e.g.
+ * <code>ant benchmark -Dbenchmark.filter=Histogram</code>. The properties
+ * <code>benchmark.warmups</code> and <code>benchmark.iterations</code> apply to
+ * all benchmarks, <code>benchmark.size</code> too: its meaning depends on the
+ * benchmark so it is best combined with a filter.
+ * </p>
+ * 
+ * @author Joren Six
+ */
+public final class BenchmarkSuite {
+
+	private BenchmarkSuite() {
+	}
+
+	/**
+	 * @return The benchmarks, in the order they are run.
+	 */
+	private static List<Benchmark.Group> benchmarks() {
+		return Arrays.<Benchmark.Group> asList(
+				new HistogramBenchmark(),
+				new KernelDensityBenchmark(),
+				new CorrelationBenchmark(),
+				new SimilarityBenchmark(),
+				new SlidingWindowBenchmark(),
+				new PeakDetectionBenchmark(),
+				new AnnotationBenchmark(),
+				new CsvBenchmark(),
+				new AnnotationFilterBenchmark(),
+				new FingerprintBenchmark(),
+				new PcmFileBenchmark(),
+				new PowerEnvelopeBenchmark(),
+				new WaveformBenchmark(),
+				new PitchDetectionBenchmark());
+	}
+
+	/**
+	 * Runs the benchmarks.
+	 * 
+	 * @param args
+	 *            Not used, see the system property
+	 *            <code>benchmark.filter</code>.
+	 */
+	public static void main(final String... args) {
+		final String filter = System.getProperty("benchmark.filter", "");
+		final List<String> failed = new ArrayList<String>();
+		final long start = System.nanoTime();
+		for (final Benchmark.Group benchmark : benchmarks()) {
+			if (benchmark.getName().contains(filter)) {
+				System.out.println("== " + benchmark.getName());
+				try {
+					benchmark.run();
+				} catch (final RuntimeException e) {
+					e.printStackTrace();
+					failed.add(benchmark.getName());
+				}
+			}
+		}
+		System.out.println(String.format(Locale.US, "== Finished in %.1fs", (System.nanoTime() - start) / 1e9));
+		if (!failed.isEmpty()) {
+			System.out.println("== Failed: " + failed);
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,190 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+
+package be.tarsos.benchmark;
+
+import java.util.List;
+
+import be.tarsos.sampled.pitch.Annotation;
+import be.tarsos.sampled.pitch.PitchUnit;
+import be.tarsos.util.KernelDensityEstimate;
+import be.tarsos.util.KernelDensityEstimate.Cosine;
+import be.tarsos.util.KernelDensityEstimate.KDECorrelation;
+import be.tarsos.util.histogram.CorrelationMeasure;
+import be.tarsos.util.histogram.Histogram;
+
+/**
+ * Compares the search for the optimal shift between two pitch class
+ * histograms or kernel density estimates with 1200 bins: the FFT based
+ * search with the exhaustive search that calculates the correlation for each
+ * shift. The number of annotations used to build the histograms can be set
+ * with <code>-Dbenchmark.size</code>, one hundred thousand by default.
+ * 
+ * @author Joren Six
+ */
+public final class CorrelationBenchmark extends Benchmark.Group {
+
+	/**
+	 * Create the benchmarks with their default size and number of
+	 * iterations.
+	 */
+	CorrelationBenchmark() {
+		super(100000, 5, 20);
+	}
+
+	private static final int BINS = 1200;
+
+	/**
+	 * The exhaustive search as it was implemented before.
+	 */
+	private static int exhaustiveDisplacement(final Histogram first, final Histogram second,
+			final CorrelationMeasure measure) {
+		int optimalDisplacement = 0;
+		double maximumCorrelation = -1;
+		final int numberOfClasses = first.getNumberOfClasses();
+		for (int displacement = 0; displacement < numberOfClasses; displacement++) {
+			final double correlation = first.correlationWithDisplacement(displacement, second, measure);
+			if (maximumCorrelation < correlation) {
+				maximumCorrelation = correlation;
+				optimalDisplacement = displacement;
+			}
+		}
+		if (optimalDisplacement > numberOfClasses / 2.0) {
+			optimalDisplacement = optimalDisplacement - numberOfClasses;
+		}
+		return optimalDisplacement;
+	}
+
+	/**
+	 * The exhaustive search as it was implemented before.
+	 */
+	private static int exhaustiveShift(final KernelDensityEstimate first, final KernelDensityEstimate second,
+			final KDECorrelation measure) {
+		int optimalShift = 0;
+		double maximumCorrelation = -1;
+		for (int shift = 0; shift < first.size(); shift++) {
+			final double correlation = measure.correlation(first, second, shift);
+			if (maximumCorrelation < correlation) {
+				maximumCorrelation = correlation;
+				optimalShift = shift;
+			}
+		}
+		return optimalShift;
+	}
+
+	private static double[] pitchClasses(final int size, final long seed, final double transposition) {
+		final List<Annotation> annotations = SyntheticData.annotations(size, seed);
+		final double[] values = new double[annotations.size()];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = (annotations.get(i).getPitch(PitchUnit.RELATIVE_CENTS) + transposition) % 1200;
+		}
+		return values;
+	}
+
+	private static Histogram histogram(final double[] values) {
+		final Histogram histogram = new Histogram(0, 1200, BINS, true);
+		for (final double value : values) {
+			histogram.add(value);
+		}
+		return histogram;
+	}
+
+	private static KernelDensityEstimate kde(final double[] values) {
+		final KernelDensityEstimate kde = new KernelDensityEstimate(new KernelDensityEstimate.GaussianKernel(7),
+				BINS);
+		for (final double value : values) {
+			kde.add(value);
+		}
+		return kde;
+	}
+
+	/**
+	 * Runs the benchmarks, see {@link Benchmark.Group#run()}.
+	 * 
+	 * @param args
+	 *            Not used.
+	 */
+	public static void main(final String... args) {
+		new CorrelationBenchmark().run();
+	}
+
+	/**
+	 * Runs the benchmarks with the given parameters.
+	 * 
+	 * @param size
+	 *            The number of annotations used to build the histograms.
+	 * @param warmups
+	 *            The number of warm up iterations.
+	 * @param iterations
+	 *            The number of measured iterations.
+	 */
+	@Override
+	protected void run(final int size, final int warmups, final int iterations) {
+		final double[] firstValues = pitchClasses(size, SyntheticData.SEED, 0);
+		final double[] secondValues = pitchClasses(size, SyntheticData.SEED + 1, 150);
+		final Histogram first = histogram(firstValues);
+		final Histogram second = histogram(secondValues);
+
+		for (final CorrelationMeasure measure : CorrelationMeasure.values()) {
+			final long current = new Benchmark("Histogram.displacementForOptimalCorrelation " + measure) {
+				@Override
+				protected void run() {
+					consume(first.displacementForOptimalCorrelation(second, measure));
+				}
+			}.measure(warmups, iterations);
+			final long exhaustive = new Benchmark("  exhaustive " + measure) {
+				@Override
+				protected void run() {
+					consume(exhaustiveDisplacement(first, second, measure));
+				}
+			}.measure(warmups, iterations);
+			report(current, exhaustive, first.displacementForOptimalCorrelation(second, measure) == exhaustiveDisplacement(
+					first, second, measure));
+		}
+
+		final KernelDensityEstimate firstKDE = kde(firstValues);
+		final KernelDensityEstimate secondKDE = kde(secondValues);
+		final KDECorrelation cosine = new Cosine();
+		final long current = new Benchmark("KernelDensityEstimate.shiftForOptimalCorrelation Cosine") {
+			@Override
+			protected void run() {
+				consume(firstKDE.shiftForOptimalCorrelation(cosine, secondKDE));
+			}
+		}.measure(warmups, iterations);
+		final long exhaustive = new Benchmark("  exhaustive Cosine") {
+			@Override
+			protected void run() {
+				consume(exhaustiveShift(firstKDE, secondKDE, cosine));
+			}
+		}.measure(warmups, iterations);
+		report(current, exhaustive,
+				firstKDE.shiftForOptimalCorrelation(cosine, secondKDE) == exhaustiveShift(firstKDE, secondKDE, cosine));
+	}
+
+	private static void report(final long current, final long exhaustive, final boolean identical) {
+		report("speed-up: %.1fx, identical output: %s", exhaustive / (double) current, identical);
+	}
+}
@@ -0,0 +1,193 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+
+package be.tarsos.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import be.tarsos.sampled.pitch.Annotation;
+import be.tarsos.sampled.pitch.AnnotationCsv;
+import be.tarsos.sampled.pitch.AnnotationStore;
+import be.tarsos.sampled.pitch.PitchDetectionMode;
+import be.tarsos.sampled.pitch.PitchUnit;
+import be.tarsos.util.FileUtils;
+
+/**
+ * Compares reading and writing annotation CSV files with {@link AnnotationCsv}
+ * with the previous implementation, which read the complete file into a
+ * string, split it in lines and parsed each line with
+ * {@link Annotation#parse(String)}, and built the complete file in a string
+ * before writing it. Both the written files and the annotations read are
+ * checked to be identical. The number of annotations can be set with
+ * <code>-Dbenchmark.size</code>, one million by default.
+ * 
+ * @author Joren Six
+ */
+public final class CsvBenchmark extends Benchmark.Group {
+
+	/**
+	 * Create the benchmarks with their default size and number of
+	 * iterations.
+	 */
+	CsvBenchmark() {
+		super(1000000, 3, 5);
+	}
+
+	private static void legacyWrite(final String fileName, final List<Annotation> samples) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("Start(s),Pitch(Hz),Probability[0-1.0],Source\n");
+		for (Annotation s : samples) {
+			sb.append(s.toString()).append("\n");
+		}
+		FileUtils.writeFile(sb.toString(), fileName);
+	}
+
+	private static List<Annotation> legacyRead(final String fileName) {
+		final List<Annotation> annotations = new ArrayList<Annotation>();
+		final String contents = FileUtils.readFile(fileName);
+		final String[] lines = contents.split("\n");
+		for (int i = 1; i < lines.length; i++) {
+			annotations.add(Annotation.parse(lines[i]));
+		}
+		return annotations;
+	}
+
+	private static boolean identical(final List<Annotation> first, final List<Annotation> second) {
+		boolean identical = first.size() == second.size();
+		for (int i = 0; identical && i < first.size(); i++) {
+			final Annotation a = first.get(i);
+			final Annotation b = second.get(i);
+			identical = a.getStart() == b.getStart()
+					&& a.getPitch(PitchUnit.HERTZ) == b.getPitch(PitchUnit.HERTZ)
+					&& a.getProbability() == b.getProbability() && a.getSource() == b.getSource();
+		}
+		return identical;
+	}
+
+	private static File temporaryFile() {
+		final File file;
+		try {
+			file = File.createTempFile("tarsos_benchmark", ".csv");
+		} catch (final IOException e) {
+			throw new IllegalStateException("Could not create a temporary file.", e);
+		}
+		file.deleteOnExit();
+		return file;
+	}
+
+	/**
+	 * Runs the benchmarks, see {@link Benchmark.Group#run()}.
+	 * 
+	 * @param args
+	 *            Not used.
+	 */
+	public static void main(final String... args) {
+		new CsvBenchmark().run();
+	}
+
+	/**
+	 * Runs the benchmarks with the given parameters.
+	 * 
+	 * @param size
+	 *            The number of annotations.
+	 * @param warmups
+	 *            The number of warm up iterations.
+	 * @param iterations
+	 *            The number of measured iterations.
+	 */
+	@Override
+	protected void run(final int size, final int warmups, final int iterations) {
+		final List<Annotation> annotations = SyntheticData.annotations(size, SyntheticData.SEED);
+		final File streamed = temporaryFile();
+		final File legacy = temporaryFile();
+
+		final long write = new Benchmark("AnnotationCsv.write, n=" + size) {
+			@Override
+			protected void run() {
+				AnnotationCsv.write(streamed.getAbsolutePath(), annotations);
+				consume(streamed.length());
+			}
+		}.measure(warmups, iterations);
+		final long legacyWrite = new Benchmark("Complete file in a string, n=" + size) {
+			@Override
+			protected void run() {
+				legacyWrite(legacy.getAbsolutePath(), annotations);
+				consume(legacy.length());
+			}
+		}.measure(warmups, iterations);
+		final boolean identicalFiles = FileUtils.readFile(streamed.getAbsolutePath()).equals(
+				FileUtils.readFile(legacy.getAbsolutePath()));
+		report("speed-up: %.1fx, %.1f MB/s, identical files: %s",
+				legacyWrite / (double) write, streamed.length() * 1e3 / write, identicalFiles);
+
+		final List<List<Annotation>> result = new ArrayList<List<Annotation>>();
+		final long read = new Benchmark("AnnotationCsv.read, n=" + size) {
+			@Override
+			protected void run() {
+				result.clear();
+				result.add(AnnotationCsv.read(legacy.getAbsolutePath()));
+				consume(result.get(0).size());
+			}
+		}.measure(warmups, iterations);
+		final long legacyRead = new Benchmark("Split lines and Annotation.parse, n=" + size) {
+			@Override
+			protected void run() {
+				result.add(legacyRead(legacy.getAbsolutePath()));
+				consume(result.get(result.size() - 1).size());
+			}
+		}.measure(warmups, iterations);
+		report("speed-up: %.1fx, %.1f MB/s, identical annotations: %s",
+				legacyRead / (double) read, legacy.length() * 1e3 / read,
+				identical(result.get(0), result.get(result.size() - 1)));
+		result.clear();
+
+		final long readStore = new Benchmark("AnnotationCsv.readStore, n=" + size) {
+			@Override
+			protected void run() {
+				final AnnotationStore store = AnnotationCsv.readStore(legacy.getAbsolutePath());
+				consume(store.size());
+			}
+		}.measure(warmups, iterations);
+		final long stream = new Benchmark("AnnotationCsv.read with a record handler, n=" + size) {
+			@Override
+			protected void run() {
+				final double[] sum = new double[1];
+				AnnotationCsv.read(legacy.getAbsolutePath(), new AnnotationCsv.RecordHandler() {
+					public void handleRecord(final double timeStamp, final double pitchInHz,
+							final PitchDetectionMode source, final double salience) {
+						sum[0] += pitchInHz;
+					}
+				});
+				consume(sum[0]);
+			}
+		}.measure(warmups, iterations);
+		report("speed-up: %.1fx to a store, %.1fx streamed",
+				legacyRead / (double) readStore, legacyRead / (double) stream);
+	}
+}
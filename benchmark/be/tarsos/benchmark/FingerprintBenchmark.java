@@ -0,0 +1,239 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+
+package be.tarsos.benchmark;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import be.tarsos.util.FileFingerprints;
+
+/**
+ * Compares fingerprinting files with {@link FileFingerprints} with the MD5
+ * checksum Tarsos used before: 1024 byte reads and a string concatenation per
+ * byte of the digest. The old checksum only covered the first 256kB of a
+ * file, here it hashes the complete file so both calculate the same hash.
+ * Hashing one file at a time, a list of files concurrently and a list of
+ * remembered files is measured. The files share their first megabyte, as
+ * recordings made with the same settings can: the old checksum can not tell
+ * them apart. The number of files can be set with
+ * <code>-Dbenchmark.size</code>, 16 files of 8MB by default.
+ * 
+ * @author Joren Six
+ */
+public final class FingerprintBenchmark extends Benchmark.Group {
+
+	/**
+	 * Create the benchmarks with their default size and number of
+	 * iterations.
+	 */
+	FingerprintBenchmark() {
+		super(16, 2, 5);
+	}
+
+	private static final int FILE_SIZE = 8 << 20;
+
+	/**
+	 * The size of the part all files have in common.
+	 */
+	private static final int SHARED_HEADER = 1 << 20;
+
+	/**
+	 * The part of a file the old checksum covered.
+	 */
+	private static final int LEGACY_PREFIX = 262144;
+
+	/**
+	 * Calculates an MD5 checksum as Tarsos did before, with a limit on the
+	 * number of bytes.
+	 */
+	private static String legacyChecksum(final File file, final long numberOfBytes) {
+		String result = "";
+		try {
+			final InputStream fis = new FileInputStream(file);
+			final byte[] buffer = new byte[1024];
+			final MessageDigest complete = MessageDigest.getInstance("MD5");
+			int numRead;
+			final long maxNumberOfBuffers = numberOfBytes / 1024;
+			long currentNumberOfBuffers = 0;
+			do {
+				numRead = fis.read(buffer);
+				if (numRead > 0) {
+					complete.update(buffer, 0, numRead);
+				}
+				currentNumberOfBuffers++;
+			} while (numRead != -1 && currentNumberOfBuffers < maxNumberOfBuffers);
+			fis.close();
+			final byte[] b = complete.digest();
+			for (int i = 0; i < b.length; i++) {
+				result += Integer.toString((b[i] & 0xff) + 0x100, 16).substring(1);
+			}
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		} catch (final IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return result;
+	}
+
+	private static String hash(final File file) {
+		try {
+			return FileFingerprints.hash(file);
+		} catch (final IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Creates temporary files of random bytes with a common header.
+	 */
+	private static List<File> files(final int numberOfFiles) {
+		final List<File> files = new ArrayList<File>(numberOfFiles);
+		final Random random = new Random(SyntheticData.SEED);
+		final byte[] header = new byte[SHARED_HEADER];
+		random.nextBytes(header);
+		final byte[] body = new byte[FILE_SIZE - SHARED_HEADER];
+		try {
+			for (int i = 0; i < numberOfFiles; i++) {
+				final File file = File.createTempFile("tarsos_benchmark", ".bin");
+				file.deleteOnExit();
+				random.nextBytes(body);
+				final FileOutputStream out = new FileOutputStream(file);
+				out.write(header);
+				out.write(body);
+				out.close();
+				files.add(file);
+			}
+		} catch (final IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return files;
+	}
+
+	private static File temporaryDirectory() {
+		try {
+			final File directory = File.createTempFile("tarsos_benchmark", "");
+			if (!directory.delete() || !directory.mkdir()) {
+				throw new IllegalStateException("Could not create " + directory);
+			}
+			directory.deleteOnExit();
+			return directory;
+		} catch (final IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Runs the benchmarks, see {@link Benchmark.Group#run()}.
+	 * 
+	 * @param args
+	 *            Not used.
+	 */
+	public static void main(final String... args) {
+		new FingerprintBenchmark().run();
+	}
+
+	/**
+	 * Runs the benchmarks with the given parameters.
+	 * 
+	 * @param numberOfFiles
+	 *            The number of files to fingerprint.
+	 * @param warmups
+	 *            The number of warm up iterations.
+	 * @param iterations
+	 *            The number of measured iterations.
+	 */
+	@Override
+	protected void run(final int numberOfFiles, final int warmups, final int iterations) {
+		final List<File> files = files(numberOfFiles);
+		final List<String> fileNames = new ArrayList<String>(numberOfFiles);
+		for (final File file : files) {
+			fileNames.add(file.getAbsolutePath());
+		}
+		final File directory = temporaryDirectory();
+		final String size = numberOfFiles + " files of " + (FILE_SIZE >> 20) + "MB";
+
+		final String[] legacy = new String[numberOfFiles];
+		final long old = new Benchmark("Hash " + size + " with 1kB reads") {
+			@Override
+			protected void run() {
+				for (int i = 0; i < numberOfFiles; i++) {
+					legacy[i] = legacyChecksum(files.get(i), Long.MAX_VALUE);
+				}
+				consume(legacy[0].length());
+			}
+		}.measure(warmups, iterations);
+		final String[] hashed = new String[numberOfFiles];
+		final long channel = new Benchmark("Hash " + size + " with a file channel") {
+			@Override
+			protected void run() {
+				for (int i = 0; i < numberOfFiles; i++) {
+					hashed[i] = hash(files.get(i));
+				}
+				consume(hashed[0].length());
+			}
+		}.measure(warmups, iterations);
+		final List<Map<String, String>> concurrent = new ArrayList<Map<String, String>>();
+		final long parallel = new Benchmark("Hash " + size + " concurrently") {
+			@Override
+			protected void run() {
+				concurrent.clear();
+				concurrent.add(FileFingerprints.open(directory).fingerprint(fileNames));
+				consume(concurrent.get(0).size());
+			}
+		}.measure(warmups, iterations);
+		final FileFingerprints fingerprints = FileFingerprints.open(directory);
+		fingerprints.fingerprint(fileNames);
+		final long remembered = new Benchmark("Look up " + size) {
+			@Override
+			protected void run() {
+				consume(fingerprints.fingerprint(fileNames).size());
+			}
+		}.measure(warmups, iterations);
+
+		boolean identical = true;
+		boolean distinct = true;
+		boolean legacyDistinct = true;
+		for (int i = 0; i < numberOfFiles; i++) {
+			identical &= legacy[i].equals(hashed[i]) && hashed[i].equals(concurrent.get(0).get(fileNames.get(i)));
+			distinct &= i == 0 || !hashed[i].equals(hashed[0]);
+			legacyDistinct &= i == 0
+					|| !legacyChecksum(files.get(i), LEGACY_PREFIX).equals(legacyChecksum(files.get(0), LEGACY_PREFIX));
+		}
+		report("speed-up: %.1fx with a file channel, %.1fx concurrently, %.0fx remembered (identical: %s)",
+				old / (double) channel, old / (double) parallel, old / (double) remembered, identical);
+		report("files told apart: %s, by the first 256kB: %s", distinct, legacyDistinct);
+	}
+}
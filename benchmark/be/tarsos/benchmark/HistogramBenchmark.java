@@ -0,0 +1,327 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+
+package be.tarsos.benchmark;
+
+import java.util.List;
+import java.util.TreeMap;
+
+import be.tarsos.sampled.pitch.Annotation;
+import be.tarsos.sampled.pitch.PitchUnit;
+import be.tarsos.util.histogram.Histogram;
+
+/**
+ * Compares the array backed {@link Histogram} with the previous
+ * implementation, which kept its classes in a <code>TreeMap</code> with boxed
+ * keys and counts. Adding values, Gaussian smoothing and the search for the
+ * displacement with optimal (intersection) correlation are measured on a pitch
+ * class histogram with 400 classes. The number of values added can be set
+ * with <code>-Dbenchmark.size</code>, one million by default.
+ * 
+ * @author Joren Six
+ */
+public final class HistogramBenchmark extends Benchmark.Group {
+
+	/**
+	 * Create the benchmarks with their default size and number of
+	 * iterations.
+	 */
+	HistogramBenchmark() {
+		super(1000000, 3, 5);
+	}
+
+	private static final double START = 0;
+	private static final double STOP = 1200;
+	private static final int CLASSES = 400;
+
+	/**
+	 * The parts of the histogram as they were implemented before: a wrapping
+	 * histogram backed by a red black tree.
+	 */
+	private static final class LegacyHistogram {
+		private final double classWidth;
+		private final int numberOfClasses;
+		private final TreeMap<Double, Long> freqTable;
+
+		public LegacyHistogram() {
+			classWidth = preventRoundingErrors((STOP - START) / CLASSES);
+			freqTable = new TreeMap<Double, Long>();
+			final double lastKey = STOP - classWidth / 2;
+			freqTable.put(preventRoundingErrors(START + classWidth / 2), 0L);
+			for (double current = START + classWidth / 2; current <= lastKey;) {
+				freqTable.put(valueToKey(current), 0L);
+				current = current + classWidth;
+			}
+			numberOfClasses = freqTable.size();
+		}
+
+		private double preventRoundingErrors(final double value) {
+			return Math.floor(value * 10000.0) / 10000.0;
+		}
+
+		private double valueToKey(final double value) {
+			final double interval = STOP - START;
+			double roundedValue = value;
+			while (roundedValue < freqTable.firstKey()) {
+				roundedValue = preventRoundingErrors(roundedValue + interval);
+			}
+			roundedValue = preventRoundingErrors(START + (roundedValue - START) % interval);
+			final double classes = Math.floor((roundedValue + START) / classWidth);
+			final double offset = classWidth / 2 - START;
+			return preventRoundingErrors(classes * classWidth + offset);
+		}
+
+		public void add(final double value) {
+			if (value > 0) {
+				final double key = valueToKey(value);
+				final Long count = freqTable.get(key);
+				if (count != null) {
+					freqTable.put(key, Long.valueOf(count.longValue() + 1));
+				}
+			}
+		}
+
+		public long getCount(final double value) {
+			final Long count = freqTable.get(valueToKey(value));
+			return count == null ? 0 : count.longValue();
+		}
+
+		public long getCountForClass(final int i) {
+			final int classIndex = (i % numberOfClasses + numberOfClasses) % numberOfClasses;
+			return getCount(preventRoundingErrors(START + classIndex * classWidth + classWidth / 2.0));
+		}
+
+		public void setCount(final double value, final long count) {
+			freqTable.put(valueToKey(value), count);
+		}
+
+		public long getSumFreq() {
+			long result = 0;
+			for (final Long count : freqTable.values()) {
+				result += count.longValue();
+			}
+			return result;
+		}
+
+		public void gaussianSmooth(final double standardDeviation) {
+			int numWeights = (int) (2 * 2.58 * standardDeviation + 0.5);
+			if (numWeights % 2 == 0) {
+				numWeights++;
+			}
+			final double[] weights = new double[numWeights];
+			final int m = numWeights / 2;
+			final double var = standardDeviation * standardDeviation;
+			final double gain = 1.0 / Math.sqrt(2.0 * Math.PI * var);
+			final double exp = -1.0 / (2.0 * var);
+			for (int i = m; i < numWeights; i++) {
+				final double del = i - m;
+				weights[i] = gain * Math.exp(exp * del * del);
+				weights[numWeights - 1 - i] = weights[i];
+			}
+			int sum = 0;
+			final int[] smoothedCounts = new int[numberOfClasses];
+			for (int b = 0; b < numberOfClasses; b++) {
+				final int min = Math.max(b - m, 0);
+				final int max = Math.min(b + m, numberOfClasses);
+				int offset = m > b ? m - b : 0;
+				double acc = 0;
+				double weightTotal = 0;
+				for (int i = min; i < max; i++) {
+					final double w = weights[offset++];
+					acc += getCountForClass(i) * w;
+					weightTotal += w;
+				}
+				smoothedCounts[b] = (int) (acc / weightTotal + 0.5);
+				sum += smoothedCounts[b];
+			}
+			final double factor = getSumFreq() / (double) sum;
+			for (int b = 0; b < numberOfClasses; b++) {
+				final double key = preventRoundingErrors(START + b * classWidth + classWidth / 2.0);
+				setCount(key, (int) (smoothedCounts[b] * factor + 0.5));
+			}
+		}
+
+		private double intersection(final int displacement, final LegacyHistogram other) {
+			double matchingArea = 0.0;
+			for (double current = START + classWidth / 2; current <= STOP; current += classWidth) {
+				final double displacedValue = (current + displacement * classWidth)
+						% (numberOfClasses * classWidth);
+				matchingArea += Math.min(getCount(current), other.getCount(displacedValue));
+			}
+			final double biggestHistogramArea = Math.max(getSumFreq(), other.getSumFreq());
+			return matchingArea == 0.0 ? 0.0 : matchingArea / biggestHistogramArea;
+		}
+
+		public int displacementForOptimalCorrelation(final LegacyHistogram other) {
+			int optimalDisplacement = 0;
+			double maximumCorrelation = -1;
+			for (int displacement = 0; displacement < numberOfClasses; displacement++) {
+				final double correlation = intersection(displacement, other);
+				if (maximumCorrelation < correlation) {
+					maximumCorrelation = correlation;
+					optimalDisplacement = displacement;
+				}
+			}
+			if (optimalDisplacement > numberOfClasses / 2.0) {
+				optimalDisplacement = optimalDisplacement - numberOfClasses;
+			}
+			return optimalDisplacement;
+		}
+
+		public String counts() {
+			final StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < numberOfClasses; i++) {
+				sb.append(getCountForClass(i)).append(' ');
+			}
+			return sb.toString();
+		}
+	}
+
+	private static String counts(final Histogram histogram) {
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < histogram.getNumberOfClasses(); i++) {
+			sb.append(histogram.getCountForClass(i)).append(' ');
+		}
+		return sb.toString();
+	}
+
+	private static Histogram histogram(final double[] values) {
+		final Histogram histogram = new Histogram(START, STOP, CLASSES, true);
+		for (final double value : values) {
+			histogram.add(value);
+		}
+		return histogram;
+	}
+
+	private static LegacyHistogram legacyHistogram(final double[] values) {
+		final LegacyHistogram histogram = new LegacyHistogram();
+		for (final double value : values) {
+			histogram.add(value);
+		}
+		return histogram;
+	}
+
+	/**
+	 * Runs the benchmarks, see {@link Benchmark.Group#run()}.
+	 * 
+	 * @param args
+	 *            Not used.
+	 */
+	public static void main(final String... args) {
+		new HistogramBenchmark().run();
+	}
+
+	/**
+	 * Runs the benchmarks with the given parameters.
+	 * 
+	 * @param size
+	 *            The number of values added to a histogram.
+	 * @param warmups
+	 *            The number of warm up iterations.
+	 * @param iterations
+	 *            The number of measured iterations.
+	 */
+	@Override
+	protected void run(final int size, final int warmups, final int iterations) {
+		final List<Annotation> annotations = SyntheticData.annotations(size, SyntheticData.SEED);
+		final double[] values = new double[annotations.size()];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = annotations.get(i).getPitch(PitchUnit.RELATIVE_CENTS);
+		}
+		final double[] otherValues = new double[values.length];
+		for (int i = 0; i < values.length; i++) {
+			// the same scale, transposed by 50 cents
+			otherValues[i] = (values[i] + 50) % 1200;
+		}
+
+		// add
+		final long current = new Benchmark("Histogram.add (array), n=" + size) {
+			@Override
+			protected void run() {
+				consume(histogram(values));
+			}
+		}.measure(warmups, iterations);
+		final long legacy = new Benchmark("Histogram.add (TreeMap), n=" + size) {
+			@Override
+			protected void run() {
+				consume(legacyHistogram(values));
+			}
+		}.measure(warmups, iterations);
+		final boolean identicalAdd = counts(histogram(values)).equals(legacyHistogram(values).counts());
+		report(current, legacy, identicalAdd);
+
+		// gaussianSmooth
+		final Histogram[] histogram = new Histogram[1];
+		final LegacyHistogram[] legacyHistogram = new LegacyHistogram[1];
+		final long currentSmooth = new Benchmark("Histogram.gaussianSmooth(1.0) (array)") {
+			@Override
+			protected void setUp() {
+				histogram[0] = histogram(values);
+			}
+
+			@Override
+			protected void run() {
+				histogram[0].gaussianSmooth(1.0);
+			}
+		}.measure(warmups * 10, iterations * 10);
+		final long legacySmooth = new Benchmark("Histogram.gaussianSmooth(1.0) (TreeMap)") {
+			@Override
+			protected void setUp() {
+				legacyHistogram[0] = legacyHistogram(values);
+			}
+
+			@Override
+			protected void run() {
+				legacyHistogram[0].gaussianSmooth(1.0);
+			}
+		}.measure(warmups * 10, iterations * 10);
+		report(currentSmooth, legacySmooth, counts(histogram[0]).equals(legacyHistogram[0].counts()));
+
+		// displacementForOptimalCorrelation
+		final Histogram first = histogram(values);
+		final Histogram second = histogram(otherValues);
+		final LegacyHistogram legacyFirst = legacyHistogram(values);
+		final LegacyHistogram legacySecond = legacyHistogram(otherValues);
+		final long currentDisplacement = new Benchmark("Histogram.displacementForOptimalCorrelation (array)") {
+			@Override
+			protected void run() {
+				consume(first.displacementForOptimalCorrelation(second));
+			}
+		}.measure(warmups, iterations);
+		final long legacyDisplacement = new Benchmark("Histogram.displacementForOptimalCorrelation (TreeMap)") {
+			@Override
+			protected void run() {
+				consume(legacyFirst.displacementForOptimalCorrelation(legacySecond));
+			}
+		}.measure(warmups, iterations);
+		report(currentDisplacement, legacyDisplacement, first.displacementForOptimalCorrelation(second) == legacyFirst
+				.displacementForOptimalCorrelation(legacySecond));
+	}
+
+	private static void report(final long current, final long legacy, final boolean identical) {
+		report("speed-up: %.1fx, identical output: %s", legacy / (double) current, identical);
+	}
+}
@@ -0,0 +1,207 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+
+package be.tarsos.benchmark;
+
+import java.util.List;
+
+import be.tarsos.sampled.pitch.Annotation;
+import be.tarsos.sampled.pitch.PitchUnit;
+import be.tarsos.util.ConfKey;
+import be.tarsos.util.Configuration;
+import be.tarsos.util.KernelDensityEstimate;
+import be.tarsos.util.KernelDensityEstimate.GaussianKernel;
+import be.tarsos.util.KernelDensityEstimateBuilder;
+import be.tarsos.util.histogram.HistogramFactory;
+import be.tarsos.util.histogram.PitchHistogram;
+
+/**
+ * Compares building kernel density estimates by counting values in bins and
+ * convolving once, with adding a kernel for each value. Both the pitch class
+ * estimate of {@link HistogramFactory#createPichClassKDE(List, double)} and
+ * the pitch accumulator of
+ * {@link PitchHistogram#createAccumulator(List, double)} are measured. The
+ * number of annotations can be set with <code>-Dbenchmark.size</code>, one
+ * million by default.
+ * 
+ * @author Joren Six
+ */
+public final class KernelDensityBenchmark extends Benchmark.Group {
+
+	/**
+	 * Create the benchmarks with their default size and number of
+	 * iterations.
+	 */
+	KernelDensityBenchmark() {
+		super(1000000, 3, 5);
+	}
+
+	private static final double WIDTH = 7;
+
+	/**
+	 * The pitch class estimate as it was built before: a new kernel and a
+	 * kernel added for each annotation.
+	 */
+	private static KernelDensityEstimate legacyPitchClassKDE(final List<Annotation> annotations) {
+		final KernelDensityEstimate kde = new KernelDensityEstimate(new GaussianKernel(WIDTH), 1200);
+		for (final Annotation annotation : annotations) {
+			kde.add(annotation.getPitch(PitchUnit.RELATIVE_CENTS));
+		}
+		return kde;
+	}
+
+	/**
+	 * The pitch accumulator as it was built before.
+	 */
+	private static double[] legacyAccumulator(final List<Annotation> annotations, final double width) {
+		final int pitchHistogramMaximum = Configuration.getInt(ConfKey.pitch_histogram_stop);
+		final int pitchHistogramMinimum = Configuration.getInt(ConfKey.pitch_histogram_start);
+		final int octaves = (int) Math.ceil((pitchHistogramMaximum - pitchHistogramMinimum) / 1200.0);
+		final double[] accumulator = new double[1200 * octaves];
+		final double calculationAria = 5 * width;
+		final double halfWidth = width / 2.0;
+		final double[] kernel = new double[(int) calculationAria * 2 + 1];
+		double difference = -calculationAria;
+		for (int i = 0; i < kernel.length; i++) {
+			final double power = Math.pow(difference / halfWidth, 2.0);
+			kernel[i] = Math.pow(Math.E, -0.5 * power);
+			difference++;
+		}
+		for (final Annotation annotation : annotations) {
+			final double pitch = annotation.getPitch(PitchUnit.ABSOLUTE_CENTS);
+			final int start = (int) (pitch - calculationAria);
+			final int stop = (int) (pitch + calculationAria);
+			int kernelIndex = 0;
+			for (int i = start; i < stop && i < pitchHistogramMaximum; i++) {
+				if (i > pitchHistogramMinimum) {
+					accumulator[i] += kernel[kernelIndex];
+				}
+				kernelIndex++;
+			}
+		}
+		return accumulator;
+	}
+
+	private static double relativeDifference(final double[] first, final double[] second) {
+		double difference = first.length == second.length ? 0 : Double.POSITIVE_INFINITY;
+		double maximum = 0;
+		for (int i = 0; i < Math.min(first.length, second.length); i++) {
+			difference = Math.max(difference, Math.abs(first[i] - second[i]));
+			maximum = Math.max(maximum, Math.abs(first[i]));
+		}
+		return maximum == 0 ? difference : difference / maximum;
+	}
+
+	/**
+	 * Runs the benchmarks, see {@link Benchmark.Group#run()}.
+	 * 
+	 * @param args
+	 *            Not used.
+	 */
+	public static void main(final String... args) {
+		new KernelDensityBenchmark().run();
+	}
+
+	/**
+	 * Runs the benchmarks with the given parameters.
+	 * 
+	 * @param size
+	 *            The number of annotations.
+	 * @param warmups
+	 *            The number of warm up iterations.
+	 * @param iterations
+	 *            The number of measured iterations.
+	 */
+	@Override
+	protected void run(final int size, final int warmups, final int iterations) {
+		final List<Annotation> annotations = SyntheticData.annotations(size, SyntheticData.SEED);
+		final double[] relativeCents = new double[size];
+		for (int i = 0; i < size; i++) {
+			relativeCents[i] = annotations.get(i).getPitch(PitchUnit.RELATIVE_CENTS);
+		}
+
+		final KernelDensityEstimate[] estimates = new KernelDensityEstimate[2];
+		final long binned = new Benchmark("KernelDensityEstimateBuilder, pitch classes, n=" + size) {
+			@Override
+			protected void run() {
+				final KernelDensityEstimateBuilder builder = new KernelDensityEstimateBuilder(
+						GaussianKernel.getInstance(WIDTH), 1200);
+				builder.add(relativeCents);
+				estimates[0] = builder.build();
+				consume(estimates[0].getSumFreq());
+			}
+		}.measure(warmups, iterations);
+		final long kernels = new Benchmark("KernelDensityEstimate.add, pitch classes, n=" + size) {
+			@Override
+			protected void run() {
+				final KernelDensityEstimate kde = new KernelDensityEstimate(new GaussianKernel(WIDTH), 1200);
+				for (final double value : relativeCents) {
+					kde.add(value);
+				}
+				estimates[1] = kde;
+				consume(kde.getSumFreq());
+			}
+		}.measure(warmups, iterations);
+		report("speed-up: %.1fx, relative difference: %.2e", kernels
+				/ (double) binned, relativeDifference(estimates[0].getEstimate(), estimates[1].getEstimate()));
+
+		final long factory = new Benchmark("HistogramFactory.createPichClassKDE, n=" + size) {
+			@Override
+			protected void run() {
+				estimates[0] = HistogramFactory.createPichClassKDE(annotations, WIDTH);
+				consume(estimates[0].getSumFreq());
+			}
+		}.measure(warmups, iterations);
+		final long legacy = new Benchmark("Kernel per annotation, n=" + size) {
+			@Override
+			protected void run() {
+				estimates[1] = legacyPitchClassKDE(annotations);
+				consume(estimates[1].getSumFreq());
+			}
+		}.measure(warmups, iterations);
+		report("speed-up: %.1fx, relative difference: %.2e", legacy
+				/ (double) factory, relativeDifference(estimates[0].getEstimate(), estimates[1].getEstimate()));
+
+		final double[][] accumulators = new double[2][];
+		final long binnedAccumulator = new Benchmark("PitchHistogram.createAccumulator, n=" + size) {
+			@Override
+			protected void run() {
+				accumulators[0] = PitchHistogram.createAccumulator(annotations, 3.0);
+				consume(accumulators[0]);
+			}
+		}.measure(warmups, iterations);
+		final long legacyAccumulator = new Benchmark("Accumulator kernel per annotation, n=" + size) {
+			@Override
+			protected void run() {
+				accumulators[1] = legacyAccumulator(annotations, 3.0);
+				consume(accumulators[1]);
+			}
+		}.measure(warmups, iterations);
+		report("speed-up: %.1fx, relative difference: %.2e",
+				legacyAccumulator / (double) binnedAccumulator,
+				relativeDifference(accumulators[0], accumulators[1]));
+	}
+}
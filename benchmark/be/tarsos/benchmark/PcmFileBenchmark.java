@@ -0,0 +1,237 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+
+package be.tarsos.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import be.tarsos.dsp.AudioEvent;
+import be.tarsos.dsp.AudioProcessor;
+import be.tarsos.dsp.io.TarsosDSPAudioFloatConverter;
+import be.tarsos.dsp.io.jvm.JVMAudioInputStream;
+import be.tarsos.sampled.ExtractionSession;
+import be.tarsos.sampled.PcmFile;
+import be.tarsos.util.BinaryFiles;
+import be.tarsos.util.SignalPowerExtractor;
+
+/**
+ * Compares reading a 16 bit WAV file through a {@link PcmFile} with
+ * streaming it through the Java sound API, as selection playback and the power
+ * extractor did before. Two access patterns are measured: selections at random
+ * times, read from a new stream each time, and the power of consecutive windows
+ * of the complete file. The samples and powers are checked to be identical.
+ * The length of the signal in seconds can be set with
+ * <code>-Dbenchmark.size</code>, ten minutes by default.
+ * 
+ * @author Joren Six
+ */
+public final class PcmFileBenchmark extends Benchmark.Group {
+
+	/**
+	 * Create the benchmarks with their default size and number of
+	 * iterations.
+	 */
+	PcmFileBenchmark() {
+		super(600, 2, 3);
+	}
+
+	private static final int SAMPLE_RATE = 44100;
+
+	/**
+	 * The number of selections read.
+	 */
+	private static final int SELECTIONS = 50;
+
+	/**
+	 * The length of a selection in seconds.
+	 */
+	private static final double SELECTION_LENGTH = 0.5;
+
+	/**
+	 * The window of the power extractor: 50 windows a second.
+	 */
+	private static final int POWER_WINDOW = SAMPLE_RATE / 50;
+
+	/**
+	 * Reads a selection as the selection playback did before: open a stream,
+	 * skip to the start and convert the bytes to floats.
+	 */
+	private static float[] streamSelection(final File wav, final double from) {
+		final float[] samples;
+		try {
+			final AudioInputStream stream = AudioSystem.getAudioInputStream(wav);
+			final int frameSize = stream.getFormat().getFrameSize();
+			final int bytesPerSecond = (int) (frameSize * stream.getFormat().getFrameRate());
+			final TarsosDSPAudioFloatConverter converter = TarsosDSPAudioFloatConverter
+					.getConverter(JVMAudioInputStream.toTarsosDSPFormat(stream.getFormat()));
+			final int start = (int) (bytesPerSecond * from) / frameSize * frameSize;
+			final int numberOfBytes = (int) (bytesPerSecond * SELECTION_LENGTH) / frameSize * frameSize;
+			long skipped = 0;
+			while (skipped < start) {
+				skipped += stream.skip(start - skipped);
+			}
+			final byte[] bytes = new byte[numberOfBytes];
+			int read = 0;
+			while (read < numberOfBytes) {
+				read += stream.read(bytes, read, numberOfBytes - read);
+			}
+			stream.close();
+			samples = new float[numberOfBytes / frameSize];
+			converter.toFloatArray(bytes, samples);
+		} catch (final UnsupportedAudioFileException e) {
+			throw new IllegalStateException(e);
+		} catch (final IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return samples;
+	}
+
+	private static PcmFile.Reader reader(final File wav) {
+		try {
+			return PcmFile.open(wav).reader();
+		} catch (final UnsupportedAudioFileException e) {
+			throw new IllegalStateException(e);
+		} catch (final IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Runs the benchmarks, see {@link Benchmark.Group#run()}.
+	 * 
+	 * @param args
+	 *            Not used.
+	 */
+	public static void main(final String... args) {
+		new PcmFileBenchmark().run();
+	}
+
+	/**
+	 * Runs the benchmarks with the given parameters.
+	 * 
+	 * @param seconds
+	 *            The length of the signal in seconds.
+	 * @param warmups
+	 *            The number of warm up iterations.
+	 * @param iterations
+	 *            The number of measured iterations.
+	 */
+	@Override
+	protected void run(final int seconds, final int warmups, final int iterations) {
+		final File wav = SyntheticData.wav(SyntheticData.signal(seconds, SAMPLE_RATE, SyntheticData.SEED),
+				SAMPLE_RATE);
+		final double[] starts = SyntheticData.uniform(SELECTIONS, 0, seconds - SELECTION_LENGTH, SyntheticData.SEED);
+		final int selectionLength = (int) (SAMPLE_RATE * SELECTION_LENGTH);
+
+		final float[][] streamed = new float[SELECTIONS][];
+		final long stream = new Benchmark("Stream " + SELECTIONS + " selections, " + seconds + "s") {
+			@Override
+			protected void run() {
+				for (int i = 0; i < SELECTIONS; i++) {
+					streamed[i] = streamSelection(wav, starts[i]);
+				}
+				consume(streamed[0][0]);
+			}
+		}.measure(warmups, iterations);
+		final float[][] selected = new float[SELECTIONS][selectionLength];
+		final long read = new Benchmark("Read " + SELECTIONS + " selections, " + seconds + "s") {
+			@Override
+			protected void run() {
+				final PcmFile.Reader reader = reader(wav);
+				try {
+					for (int i = 0; i < SELECTIONS; i++) {
+						reader.read((long) (starts[i] * SAMPLE_RATE), selected[i], 0, selectionLength);
+					}
+				} catch (final IOException e) {
+					throw new IllegalStateException(e);
+				} finally {
+					BinaryFiles.close(reader);
+				}
+				consume(selected[0][0]);
+			}
+		}.measure(warmups, iterations);
+		boolean identicalSelections = true;
+		for (int i = 0; i < SELECTIONS; i++) {
+			identicalSelections &= Arrays.equals(streamed[i], selected[i]);
+		}
+
+		final int windows = (int) ((long) seconds * SAMPLE_RATE / POWER_WINDOW) + 1;
+		final double[] decodedPowers = new double[windows];
+		final long decode = new Benchmark("Decode and calculate the power, " + seconds + "s") {
+			@Override
+			protected void run() {
+				final ExtractionSession session = new ExtractionSession(wav);
+				session.addAudioProcessor(new AudioProcessor() {
+					private int index = 0;
+
+					public boolean process(final AudioEvent audioEvent) {
+						if (index < decodedPowers.length) {
+							decodedPowers[index++] = SignalPowerExtractor.localEnergy(audioEvent.getFloatBuffer());
+						}
+						return true;
+					}
+
+					public void processingFinished() {
+					}
+				}, POWER_WINDOW, 0);
+				session.run();
+				consume(decodedPowers[0]);
+			}
+		}.measure(Math.min(1, warmups), 1);
+		final double[] readPowers = new double[windows];
+		final long power = new Benchmark("Read and calculate the power, " + seconds + "s") {
+			@Override
+			protected void run() {
+				final PcmFile.Reader reader = reader(wav);
+				final float[] buffer = new float[POWER_WINDOW];
+				try {
+					int read = POWER_WINDOW;
+					for (int index = 0; index < windows && read > 0; index++) {
+						read = reader.read((long) index * POWER_WINDOW, buffer, 0, POWER_WINDOW);
+						Arrays.fill(buffer, read, POWER_WINDOW, 0f);
+						readPowers[index] = SignalPowerExtractor.localEnergy(buffer);
+					}
+				} catch (final IOException e) {
+					throw new IllegalStateException(e);
+				} finally {
+					BinaryFiles.close(reader);
+				}
+				consume(readPowers[0]);
+			}
+		}.measure(warmups, iterations);
+
+		report("speed-up: %.1fx for selections (identical: %s), %.1fx for the power (identical: %s)",
+				stream / (double) read, identicalSelections, decode / (double) power,
+				Arrays.equals(decodedPowers, readPowers));
+	}
+}
@@ -0,0 +1,321 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+
+package be.tarsos.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Vector;
+
+import be.tarsos.util.histogram.Histogram;
+import be.tarsos.util.histogram.HistogramFactory;
+import be.tarsos.util.histogram.peaks.MultiScalePeakDetector;
+import be.tarsos.util.histogram.peaks.Peak;
+import be.tarsos.util.histogram.peaks.PeakDetector;
+
+/**
+ * Compares the multi-scale peak detection of {@link PeakDetector#detect(Histogram)}
+ * and {@link PeakDetector#detectNumberOfPeaks(Histogram, int)}, which sweep
+ * all window sizes at once with a {@link MultiScalePeakDetector}, with the
+ * implementation that detected peaks for each window size separately. The
+ * number of annotations used to build the pitch class histograms can be set
+ * with <code>-Dbenchmark.size</code>, one hundred thousand by default.
+ * 
+ * @author Joren Six
+ */
+public final class PeakDetectionBenchmark extends Benchmark.Group {
+
+	/**
+	 * Create the benchmarks with their default size and number of
+	 * iterations.
+	 */
+	PeakDetectionBenchmark() {
+		super(100000, 3, 5);
+	}
+
+	/**
+	 * The detection for one window size as it was implemented before.
+	 */
+	private static List<Peak> legacyDetect(final Histogram histogram, final int windowSize,
+			final int thresholdFactor) {
+		final double threshold = histogram.getMedian() * thresholdFactor / 10;
+		final List<Peak> peaks = new ArrayList<Peak>();
+		for (int i = 0; i < histogram.getNumberOfClasses(); i++) {
+			final double currentValue = histogram.getCountForClass(i);
+			final double previousValue = histogram.getCountForClass(i - 1);
+			final double nextValue = histogram.getCountForClass(i + 1);
+			if (currentValue >= previousValue && currentValue >= nextValue && currentValue > threshold) {
+				peaks.add(new Peak(i, currentValue));
+			}
+		}
+		Collections.sort(peaks);
+		Collections.reverse(peaks);
+		for (int i = 0; i < peaks.size(); i++) {
+			final int firstPeakIndex = (int) peaks.get(i).getPosition();
+			for (int j = i + 1; j < peaks.size(); j++) {
+				final int secondPeakIndex = (int) peaks.get(j).getPosition();
+				int diff = Math.abs(firstPeakIndex - secondPeakIndex);
+				final int halfSize = histogram.getNumberOfClasses() / 2;
+				if (diff > halfSize) {
+					diff = halfSize - (diff % halfSize);
+				}
+				if (diff < windowSize) {
+					peaks.remove(j);
+					j--;
+				}
+			}
+		}
+		for (final Peak peak : peaks) {
+			peak.setPosition(histogram.getKeyForClass((int) peak.getPosition()));
+		}
+		return peaks;
+	}
+
+	/**
+	 * The detection by local height score as it was implemented before, with
+	 * the same scores.
+	 */
+	private static List<Peak> legacyDetectByLocalHeightScore(final Histogram histogram, final int windowSize,
+			final int thresholdFactor) {
+		final MultiScalePeakDetector detector = new MultiScalePeakDetector(histogram);
+		final List<Peak> peaks = new ArrayList<Peak>();
+		for (int i = 0; i < histogram.getNumberOfClasses(); i++) {
+			final double currentValue = histogram.getCountForClass(i);
+			final double previousValue = histogram.getCountForClass(i - 1);
+			final double nextValue = histogram.getCountForClass(i + 1);
+			final double score;
+			if (currentValue >= previousValue && currentValue >= nextValue) {
+				score = detector.getLocalHeightScore(i, windowSize);
+			} else {
+				score = 0.0;
+			}
+			if (score > thresholdFactor / 10.0) {
+				peaks.add(new Peak(i, score));
+			}
+		}
+		Collections.sort(peaks, new Comparator<Peak>() {
+			public int compare(final Peak first, final Peak second) {
+				return Double.valueOf(second.getHeight()).compareTo(first.getHeight());
+			}
+		});
+		for (int i = 0; i < peaks.size(); i++) {
+			final int firstPeakIndex = (int) peaks.get(i).getPosition();
+			for (int j = i + 1; j < peaks.size(); j++) {
+				final int secondPeakIndex = (int) peaks.get(j).getPosition();
+				if (Math.abs(firstPeakIndex - secondPeakIndex) < windowSize) {
+					peaks.remove(j);
+					j--;
+				}
+			}
+		}
+		for (final Peak peak : peaks) {
+			final int peakIndex = (int) peak.getPosition();
+			peak.setPosition(histogram.getKeyForClass(peakIndex));
+			peak.setHeight(histogram.getCountForClass(peakIndex));
+		}
+		return peaks;
+	}
+
+	/**
+	 * The multi-scale detection as it was implemented before.
+	 */
+	private static List<Peak> legacyDetect(final Histogram histogram) {
+		List<Peak> peaks = new ArrayList<Peak>();
+		final HashMap<Integer, List<Peak>> peaksPerWindowSize = new HashMap<Integer, List<Peak>>();
+		for (int i = 3; i < histogram.getNumberOfClasses() / 5; i += 2) {
+			peaksPerWindowSize.put(i, legacyDetect(histogram, i, 15));
+		}
+		final HashMap<Integer, Integer> peakPositionCount = new HashMap<Integer, Integer>();
+		for (int i = 5; i < histogram.getNumberOfClasses() / 5; i += 2) {
+			final Integer key = peaksPerWindowSize.get(i).size();
+			if (peakPositionCount.containsKey(key)) {
+				peakPositionCount.put(key, peakPositionCount.get(key) + 1);
+			} else {
+				peakPositionCount.put(key, 1);
+			}
+		}
+		final List<Map.Entry<Integer, Integer>> entryList = new Vector<Map.Entry<Integer, Integer>>(
+				peakPositionCount.entrySet());
+		Collections.sort(entryList, new Comparator<Map.Entry<Integer, Integer>>() {
+			public int compare(final Entry<Integer, Integer> firstEntry, final Entry<Integer, Integer> secondEntry) {
+				return secondEntry.getValue().compareTo(firstEntry.getValue());
+			}
+		});
+		final Integer mostLikelyNumberOfPeaks = entryList.get(0).getKey();
+		for (int i = 3; i < histogram.getNumberOfClasses() / 5; i += 2) {
+			if (peaksPerWindowSize.get(i).size() == mostLikelyNumberOfPeaks) {
+				peaks = peaksPerWindowSize.get(i);
+				break;
+			}
+		}
+		return peaks;
+	}
+
+	/**
+	 * Finding a number of peaks as it was implemented before.
+	 */
+	private static List<Peak> legacyDetectNumberOfPeaks(final Histogram histogram, final int numberOfPeaks) {
+		final List<Peak> peaks = new ArrayList<Peak>();
+		final HashMap<Integer, List<Peak>> peaksPerWindowSize = new HashMap<Integer, List<Peak>>();
+		for (int i = 3; i < histogram.getNumberOfClasses() / 2; i += 2) {
+			peaksPerWindowSize.put(i, legacyDetect(histogram, i, 15));
+		}
+		final HashMap<Double, Integer> peakPositionCount = new HashMap<Double, Integer>();
+		for (int i = 5; i < histogram.getNumberOfClasses() / 2; i += 2) {
+			for (final Peak p : peaksPerWindowSize.get(i)) {
+				final Double key = p.getPosition();
+				if (peakPositionCount.containsKey(key)) {
+					peakPositionCount.put(key, peakPositionCount.get(key) + 1);
+				} else {
+					peakPositionCount.put(key, 1);
+				}
+			}
+		}
+		final List<Map.Entry<Double, Integer>> entryList = new Vector<Map.Entry<Double, Integer>>(
+				peakPositionCount.entrySet());
+		Collections.sort(entryList, new Comparator<Map.Entry<Double, Integer>>() {
+			public int compare(final Entry<Double, Integer> firstEntry, final Entry<Double, Integer> secondEntry) {
+				return secondEntry.getValue().compareTo(firstEntry.getValue());
+			}
+		});
+		for (int i = 0; i < numberOfPeaks; i++) {
+			final double positionOfPeak = entryList.get(i).getKey();
+			final Peak peak = new Peak(positionOfPeak, histogram.getCount(positionOfPeak));
+			peak.setStability(entryList.get(i).getValue());
+			peaks.add(peak);
+		}
+		return peaks;
+	}
+
+	private static boolean identical(final List<Peak> first, final List<Peak> second) {
+		boolean identical = first.size() == second.size();
+		for (int i = 0; identical && i < first.size(); i++) {
+			identical = first.get(i).getPosition() == second.get(i).getPosition()
+					&& first.get(i).getHeight() == second.get(i).getHeight();
+		}
+		return identical;
+	}
+
+	/**
+	 * Equally stable peaks used to be ordered by hash code, compare the
+	 * stability of the peaks instead of the peaks themselves.
+	 */
+	private static boolean equallyStable(final List<Peak> first, final List<Peak> second) {
+		boolean identical = first.size() == second.size();
+		for (int i = 0; identical && i < first.size(); i++) {
+			identical = first.get(i).getStability() == second.get(i).getStability();
+		}
+		return identical;
+	}
+
+	/**
+	 * Runs the benchmarks, see {@link Benchmark.Group#run()}.
+	 * 
+	 * @param args
+	 *            Not used.
+	 */
+	public static void main(final String... args) {
+		new PeakDetectionBenchmark().run();
+	}
+
+	/**
+	 * Runs the benchmarks with the given parameters.
+	 * 
+	 * @param size
+	 *            The number of annotations in each histogram.
+	 * @param warmups
+	 *            The number of warm up iterations.
+	 * @param iterations
+	 *            The number of measured iterations.
+	 */
+	@Override
+	protected void run(final int size, final int warmups, final int iterations) {
+		// Check the results for raw and smoothed histograms of a few melodies.
+		boolean identical = true;
+		double scoreDifference = 0;
+		for (int seed = 0; seed < 10; seed++) {
+			final Histogram raw = HistogramFactory.createPitchClassHistogram(SyntheticData.annotations(size,
+					SyntheticData.SEED + seed));
+			for (final Histogram histogram : new Histogram[] { raw, raw.gaussianSmooth(0.8) }) {
+				identical = identical && identical(PeakDetector.detect(histogram), legacyDetect(histogram));
+				identical = identical
+						&& equallyStable(PeakDetector.detectNumberOfPeaks(histogram, 5),
+								legacyDetectNumberOfPeaks(histogram, 5));
+				identical = identical
+						&& identical(PeakDetector.detect(histogram, 15, 15), legacyDetect(histogram, 15, 15));
+				for (int windowSize = 3; windowSize < 40; windowSize += 4) {
+					identical = identical
+							&& identical(PeakDetector.LOCALHEIGHTSCORE.detect(histogram, windowSize, 10),
+									legacyDetectByLocalHeightScore(histogram, windowSize, 10))
+							&& identical(PeakDetector.detect(histogram, windowSize, 5),
+									legacyDetect(histogram, windowSize, 5));
+				}
+				final MultiScalePeakDetector detector = new MultiScalePeakDetector(histogram);
+				for (int i = 0; i < histogram.getNumberOfClasses(); i++) {
+					final double expected = PeakDetector.calculateLocalHeightScore(histogram, i, 15);
+					final double actual = detector.getLocalHeightScore(i, 15);
+					if (expected != actual) {
+						scoreDifference = Math.max(scoreDifference, Math.abs(expected - actual));
+					}
+				}
+			}
+		}
+
+		final Histogram histogram = HistogramFactory.createPitchClassHistogram(
+				SyntheticData.annotations(size, SyntheticData.SEED)).gaussianSmooth(0.8);
+		final long current = new Benchmark("PeakDetector.detect(histogram), one sweep") {
+			@Override
+			protected void run() {
+				consume(PeakDetector.detect(histogram));
+			}
+		}.measure(warmups, iterations);
+		final long legacy = new Benchmark("PeakDetector.detect(histogram), each window size") {
+			@Override
+			protected void run() {
+				consume(legacyDetect(histogram));
+			}
+		}.measure(warmups, iterations);
+		final long currentNumber = new Benchmark("PeakDetector.detectNumberOfPeaks, one sweep") {
+			@Override
+			protected void run() {
+				consume(PeakDetector.detectNumberOfPeaks(histogram, 5));
+			}
+		}.measure(warmups, iterations);
+		final long legacyNumber = new Benchmark("PeakDetector.detectNumberOfPeaks, each window size") {
+			@Override
+			protected void run() {
+				consume(legacyDetectNumberOfPeaks(histogram, 5));
+			}
+		}.measure(warmups, iterations);
+		report("speed-up: %.1fx and %.1fx, identical output: %s, local height score difference: %.2e",
+				legacy / (double) current, legacyNumber / (double) currentNumber, identical, scoreDifference);
+	}
+}
@@ -0,0 +1,136 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+
+package be.tarsos.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import be.tarsos.dsp.AudioDispatcher;
+import be.tarsos.dsp.AudioEvent;
+import be.tarsos.dsp.io.jvm.AudioDispatcherFactory;
+import be.tarsos.dsp.pitch.PitchDetectionHandler;
+import be.tarsos.dsp.pitch.PitchDetectionResult;
+import be.tarsos.dsp.pitch.PitchProcessor;
+import be.tarsos.dsp.pitch.PitchProcessor.PitchEstimationAlgorithm;
+import be.tarsos.sampled.pitch.Annotation;
+import be.tarsos.sampled.pitch.PitchDetectionMode;
+import be.tarsos.sampled.pitch.TarsosPitchDetection;
+
+/**
+ * Measures the pitch detectors used by {@link TarsosPitchDetection} on a
+ * synthetic melody, see {@link SyntheticData#signal(double, int, long)}. The
+ * signal is processed from memory with the buffer size and overlap of
+ * {@link TarsosPitchDetection} so decoding is not measured. The duration of
+ * the signal in seconds can be set with <code>-Dbenchmark.size</code>, sixty
+ * seconds by default.
+ * 
+ * @author Joren Six
+ */
+public final class PitchDetectionBenchmark extends Benchmark.Group {
+
+	/**
+	 * Create the benchmarks with their default size and number of
+	 * iterations.
+	 */
+	PitchDetectionBenchmark() {
+		super(60, 2, 3);
+	}
+
+	private static final int SAMPLE_RATE = 44100;
+	private static final int BUFFER_SIZE = 2048;
+	private static final int OVERLAP = 1024;
+
+	private static List<Annotation> detect(final float[] signal, final PitchEstimationAlgorithm algorithm,
+			final PitchDetectionMode mode) {
+		final List<Annotation> annotations = new ArrayList<Annotation>();
+		final AudioDispatcher dispatcher;
+		try {
+			dispatcher = AudioDispatcherFactory.fromFloatArray(signal, SAMPLE_RATE, BUFFER_SIZE, OVERLAP);
+		} catch (final UnsupportedAudioFileException e) {
+			throw new IllegalStateException("Could not process the synthetic signal.", e);
+		}
+		dispatcher.addAudioProcessor(new PitchProcessor(algorithm, SAMPLE_RATE, BUFFER_SIZE,
+				new PitchDetectionHandler() {
+					public void handlePitch(final PitchDetectionResult result, final AudioEvent audioEvent) {
+						if (result.isPitched()) {
+							// As in TarsosPitchDetection.
+							final double probability = Math.max(0.0, Math.min(1.0, result.getProbability()));
+							annotations.add(new Annotation(audioEvent.getTimeStamp(), result.getPitch(), mode,
+									probability));
+						}
+					}
+				}));
+		dispatcher.run();
+		return annotations;
+	}
+
+	/**
+	 * Runs the benchmarks, see {@link Benchmark.Group#run()}.
+	 * 
+	 * @param args
+	 *            Not used.
+	 */
+	public static void main(final String... args) {
+		new PitchDetectionBenchmark().run();
+	}
+
+	/**
+	 * Runs the benchmarks with the given parameters.
+	 * 
+	 * @param seconds
+	 *            The duration of the synthetic signal in seconds.
+	 * @param warmups
+	 *            The number of warm up iterations.
+	 * @param iterations
+	 *            The number of measured iterations.
+	 */
+	@Override
+	protected void run(final int seconds, final int warmups, final int iterations) {
+		final float[] signal = SyntheticData.signal(seconds, SAMPLE_RATE, SyntheticData.SEED);
+		final PitchEstimationAlgorithm[] algorithms = { PitchEstimationAlgorithm.YIN,
+				PitchEstimationAlgorithm.FFT_YIN, PitchEstimationAlgorithm.MPM,
+				PitchEstimationAlgorithm.DYNAMIC_WAVELET };
+		final PitchDetectionMode[] modes = { PitchDetectionMode.TARSOS_YIN, PitchDetectionMode.TARSOS_FFT_YIN,
+				PitchDetectionMode.TARSOS_MPM, PitchDetectionMode.TARSOS_DYNAMIC_WAVELET };
+		for (int i = 0; i < algorithms.length; i++) {
+			final PitchEstimationAlgorithm algorithm = algorithms[i];
+			final PitchDetectionMode mode = modes[i];
+			final int[] detected = new int[1];
+			final long time = new Benchmark(mode.name() + ", " + seconds + "s at " + SAMPLE_RATE + "Hz") {
+				@Override
+				protected void run() {
+					detected[0] = detect(signal, algorithm, mode).size();
+					consume(detected[0]);
+				}
+			}.measure(warmups, iterations);
+			report("%.0fx real time, %d annotations", seconds * 1e9 / time,
+					detected[0]);
+		}
+	}
+}
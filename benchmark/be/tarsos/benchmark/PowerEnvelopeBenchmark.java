@@ -0,0 +1,155 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+
+package be.tarsos.benchmark;
+
+import java.io.File;
+import java.util.Arrays;
+
+import be.tarsos.dsp.AudioEvent;
+import be.tarsos.dsp.AudioProcessor;
+import be.tarsos.sampled.ExtractionSession;
+import be.tarsos.sampled.PowerEnvelope;
+import be.tarsos.util.SignalPowerExtractor;
+
+/**
+ * Compares the power envelope of a file calculated by decoding the audio once
+ * for each hop size, as the power extractor did before, with a
+ * {@link PowerEnvelope} of all hop sizes extracted in one pass and with
+ * reading a stored envelope. The powers are checked to be identical. The
+ * length of the signal in seconds can be set with
+ * <code>-Dbenchmark.size</code>, ten minutes by default.
+ * 
+ * @author Joren Six
+ */
+public final class PowerEnvelopeBenchmark extends Benchmark.Group {
+
+	/**
+	 * Create the benchmarks with their default size and number of
+	 * iterations.
+	 */
+	PowerEnvelopeBenchmark() {
+		super(600, 2, 3);
+	}
+
+	private static final int SAMPLE_RATE = 44100;
+
+	/**
+	 * 100, 50 and 10 windows a second.
+	 */
+	private static final int[] HOP_SIZES = { 441, 882, 4410 };
+
+	/**
+	 * Calculates the power of each window as the power extractor did before.
+	 */
+	private static double[] decodePowers(final File wav, final int hopSize, final int windows) {
+		final double[] powers = new double[windows];
+		final ExtractionSession session = new ExtractionSession(wav);
+		session.addAudioProcessor(new AudioProcessor() {
+			private int index = 0;
+
+			public boolean process(final AudioEvent audioEvent) {
+				if (index < powers.length) {
+					powers[index++] = SignalPowerExtractor.localEnergy(audioEvent.getFloatBuffer());
+				}
+				return true;
+			}
+
+			public void processingFinished() {
+			}
+		}, hopSize, 0);
+		session.run();
+		return powers;
+	}
+
+	/**
+	 * Runs the benchmarks, see {@link Benchmark.Group#run()}.
+	 * 
+	 * @param args
+	 *            Not used.
+	 */
+	public static void main(final String... args) {
+		new PowerEnvelopeBenchmark().run();
+	}
+
+	/**
+	 * Runs the benchmarks with the given parameters.
+	 * 
+	 * @param seconds
+	 *            The length of the signal in seconds.
+	 * @param warmups
+	 *            The number of warm up iterations.
+	 * @param iterations
+	 *            The number of measured iterations.
+	 */
+	@Override
+	protected void run(final int seconds, final int warmups, final int iterations) {
+		final File wav = SyntheticData.wav(SyntheticData.signal(seconds, SAMPLE_RATE, SyntheticData.SEED),
+				SAMPLE_RATE);
+		final File stored = new File(wav.getAbsolutePath() + ".bin");
+		stored.deleteOnExit();
+		final long samples = (long) seconds * SAMPLE_RATE;
+
+		final double[][] decoded = new double[HOP_SIZES.length][];
+		final long decode = new Benchmark("Decode once for each of " + HOP_SIZES.length + " hop sizes, " + seconds
+				+ "s") {
+			@Override
+			protected void run() {
+				for (int hop = 0; hop < HOP_SIZES.length; hop++) {
+					final int windows = (int) ((samples + HOP_SIZES[hop] - 1) / HOP_SIZES[hop]);
+					decoded[hop] = decodePowers(wav, HOP_SIZES[hop], windows);
+				}
+				consume(decoded[0][0]);
+			}
+		}.measure(Math.min(1, warmups), 1);
+		final PowerEnvelope[] envelope = new PowerEnvelope[1];
+		final long extract = new Benchmark("Extract " + HOP_SIZES.length + " hop sizes in one pass, " + seconds
+				+ "s") {
+			@Override
+			protected void run() {
+				envelope[0] = PowerEnvelope.extract(wav, "benchmark", HOP_SIZES);
+				consume(envelope[0].getNumberOfSamples());
+			}
+		}.measure(warmups, iterations);
+		envelope[0].write(stored.getAbsolutePath());
+		final long read = new Benchmark("Read the stored envelope, " + seconds + "s") {
+			@Override
+			protected void run() {
+				final PowerEnvelope readEnvelope = PowerEnvelope.read(stored.getAbsolutePath());
+				consume(readEnvelope.getPowers(HOP_SIZES[0])[0]);
+			}
+		}.measure(warmups, iterations);
+
+		final PowerEnvelope readEnvelope = PowerEnvelope.read(stored.getAbsolutePath());
+		boolean identical = true;
+		for (int hop = 0; hop < HOP_SIZES.length; hop++) {
+			identical &= Arrays.equals(decoded[hop], envelope[0].getPowers(HOP_SIZES[hop]));
+			identical &= Arrays.equals(decoded[hop], readEnvelope.getPowers(HOP_SIZES[hop]));
+		}
+		report("speed-up: %.1fx to extract, %.0fx to read, %.1f kB stored, identical: %s", decode
+						/ (double) extract, decode / (double) read, stored.length() / 1e3, identical);
+	}
+}
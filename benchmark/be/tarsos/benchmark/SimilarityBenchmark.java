@@ -0,0 +1,136 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+
+package be.tarsos.benchmark;
+
+import java.util.Random;
+
+import be.tarsos.util.ExtractionExecutor;
+import be.tarsos.util.KernelDensityEstimate;
+import be.tarsos.util.SimilarityMatrix;
+import be.tarsos.util.SimilarityMatrix.Measure;
+
+/**
+ * Compares scoring one pitch class kernel density estimate against a set of
+ * references with a {@link SimilarityMatrix} with calling
+ * {@link KernelDensityEstimate#correlation(KernelDensityEstimate, int)} for
+ * each reference and shift. The number of references can be set with
+ * <code>-Dbenchmark.size</code>, one thousand by default.
+ * 
+ * @author Joren Six
+ */
+public final class SimilarityBenchmark extends Benchmark.Group {
+
+	/**
+	 * Create the benchmarks with their default size and number of
+	 * iterations.
+	 */
+	SimilarityBenchmark() {
+		super(1000, 3, 5);
+	}
+
+	private static final int BINS = 1200;
+
+	private static KernelDensityEstimate tonescale(final Random random) {
+		final KernelDensityEstimate kde = new KernelDensityEstimate(new KernelDensityEstimate.GaussianKernel(7),
+				BINS);
+		final double tonic = random.nextDouble() * BINS;
+		for (int i = 0; i < 500; i++) {
+			final double pitchClass = SyntheticData.SCALE[random.nextInt(SyntheticData.SCALE.length)];
+			kde.add((tonic + pitchClass + random.nextGaussian() * 10 + 2 * BINS) % BINS);
+		}
+		return kde;
+	}
+
+	/**
+	 * Runs the benchmarks, see {@link Benchmark.Group#run()}.
+	 * 
+	 * @param args
+	 *            Not used.
+	 */
+	public static void main(final String... args) {
+		new SimilarityBenchmark().run();
+	}
+
+	/**
+	 * Runs the benchmarks with the given parameters.
+	 * 
+	 * @param size
+	 *            The number of references.
+	 * @param warmups
+	 *            The number of warm up iterations for the matrix.
+	 * @param iterations
+	 *            The number of measured iterations for the matrix. Calling
+	 *            the kernel density estimates is measured once.
+	 */
+	@Override
+	protected void run(final int size, final int warmups, final int iterations) {
+		final Random random = new Random(SyntheticData.SEED);
+		final KernelDensityEstimate needle = tonescale(random);
+		final KernelDensityEstimate[] references = new KernelDensityEstimate[size];
+		final SimilarityMatrix matrix = new SimilarityMatrix(BINS);
+		for (int i = 0; i < size; i++) {
+			references[i] = tonescale(random);
+			matrix.addRow(references[i]);
+		}
+		final double[] needleValues = needle.getEstimate();
+		final int[] shifts = new int[size];
+
+		final long current = new Benchmark("SimilarityMatrix.scoreBestShift OVERLAP, n=" + size) {
+			@Override
+			protected void run() {
+				consume(matrix.scoreBestShift(needleValues, Measure.OVERLAP, shifts));
+			}
+		}.measure(warmups, iterations);
+		final int[] objectShifts = new int[size];
+		final long objects = new Benchmark("KernelDensityEstimate.correlation per shift, n=" + size) {
+			@Override
+			protected void run() {
+				for (int i = 0; i < size; i++) {
+					objectShifts[i] = needle.shiftForOptimalCorrelation(references[i]);
+				}
+				consume(objectShifts);
+			}
+		}.measure(0, 1);
+		final long comparisons = (long) size * BINS;
+		report("speed-up: %.1fx, identical shifts: %s, %.0f comparisons/s on %d threads", objects
+						/ (double) current, java.util.Arrays.equals(shifts, objectShifts), comparisons * 1e9
+						/ current, ExtractionExecutor.numberOfThreads());
+
+		new Benchmark("SimilarityMatrix.scoreBestShift COSINE, n=" + size) {
+			@Override
+			protected void run() {
+				consume(matrix.scoreBestShift(needleValues, Measure.COSINE, shifts));
+			}
+		}.measure(warmups, iterations);
+		new Benchmark("SimilarityMatrix.score OVERLAP (no shift), n=" + size) {
+			@Override
+			protected void run() {
+				consume(matrix.score(needleValues, Measure.OVERLAP));
+			}
+		}.measure(warmups * 10, iterations * 10);
+	}
+}
@@ -0,0 +1,186 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+
+package be.tarsos.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import be.tarsos.sampled.pitch.Annotation;
+import be.tarsos.sampled.pitch.PitchUnit;
+import be.tarsos.util.KernelDensityEstimate;
+import be.tarsos.util.KernelDensityEstimate.GaussianKernel;
+import be.tarsos.util.SlidingKernelDensityEstimate;
+import be.tarsos.util.histogram.HistogramFactory;
+
+/**
+ * Compares the sliding window kernel density estimates of
+ * {@link SlidingKernelDensityEstimate} with building a new estimate for each
+ * window, and the windowed maximum of
+ * {@link HistogramFactory#createPichClassKDE(List, double, double)} with the
+ * implementation that took the maximum of all bins after each annotation. The number of
+ * annotations (at 100Hz) can be set with <code>-Dbenchmark.size</code>, one
+ * hundred thousand by default.
+ * 
+ * @author Joren Six
+ */
+public final class SlidingWindowBenchmark extends Benchmark.Group {
+
+	/**
+	 * Create the benchmarks with their default size and number of
+	 * iterations.
+	 */
+	SlidingWindowBenchmark() {
+		super(100000, 3, 5);
+	}
+
+	private static final int BINS = 1200;
+	private static final double WIDTH = 7;
+	private static final double WINDOW = 10;
+	private static final double HOP = 1;
+
+	/**
+	 * Builds a new estimate for each window, as a caller without a sliding
+	 * window had to.
+	 */
+	private static List<KernelDensityEstimate> rebuildEachWindow(final List<Annotation> annotations) {
+		final List<KernelDensityEstimate> series = new ArrayList<KernelDensityEstimate>();
+		final double first = annotations.get(0).getStart();
+		final double last = annotations.get(annotations.size() - 1).getStart();
+		long index = Math.max(0, (long) Math.floor((first - WINDOW) / HOP) + 1);
+		for (double start = index * HOP; start <= last; start = ++index * HOP) {
+			final double stop = start + WINDOW;
+			final KernelDensityEstimate kde = new KernelDensityEstimate(new GaussianKernel(WIDTH), BINS);
+			for (final Annotation annotation : annotations) {
+				if (annotation.getStart() >= start && annotation.getStart() < stop) {
+					kde.add(annotation.getPitch(PitchUnit.RELATIVE_CENTS));
+				}
+			}
+			series.add(kde);
+		}
+		return series;
+	}
+
+	/**
+	 * The windowed maximum as it was implemented before: the list is sorted in
+	 * place and the maximum is taken after each annotation.
+	 */
+	private static KernelDensityEstimate legacyWindowedMax(final List<Annotation> annotations) {
+		final KernelDensityEstimate maxKde = new KernelDensityEstimate(new GaussianKernel(WIDTH), BINS);
+		final KernelDensityEstimate currentKde = new KernelDensityEstimate(new GaussianKernel(WIDTH), BINS);
+		Collections.sort(annotations);
+		int startWindowIndex = -1;
+		for (int i = 0; i < annotations.size(); i++) {
+			currentKde.add(annotations.get(i).getPitch(PitchUnit.RELATIVE_CENTS));
+			if (startWindowIndex >= 0) {
+				currentKde.remove(annotations.get(startWindowIndex).getPitch(PitchUnit.RELATIVE_CENTS));
+				startWindowIndex++;
+				maxKde.max(currentKde);
+			} else if (annotations.get(i).getStart() - annotations.get(0).getStart() > WINDOW) {
+				startWindowIndex = 0;
+			}
+		}
+		return maxKde;
+	}
+
+	private static double maximumDifference(final List<KernelDensityEstimate> first,
+			final List<KernelDensityEstimate> second) {
+		double difference = first.size() == second.size() ? 0 : Double.POSITIVE_INFINITY;
+		for (int i = 0; i < Math.min(first.size(), second.size()); i++) {
+			for (int bin = 0; bin < BINS; bin++) {
+				difference = Math.max(difference,
+						Math.abs(first.get(i).getValue(bin) - second.get(i).getValue(bin)));
+			}
+		}
+		return difference;
+	}
+
+	/**
+	 * Runs the benchmarks, see {@link Benchmark.Group#run()}.
+	 * 
+	 * @param args
+	 *            Not used.
+	 */
+	public static void main(final String... args) {
+		new SlidingWindowBenchmark().run();
+	}
+
+	/**
+	 * Runs the benchmarks with the given parameters.
+	 * 
+	 * @param size
+	 *            The number of annotations.
+	 * @param warmups
+	 *            The number of warm up iterations.
+	 * @param iterations
+	 *            The number of measured iterations.
+	 */
+	@Override
+	protected void run(final int size, final int warmups, final int iterations) {
+		final List<Annotation> annotations = SyntheticData.annotations(size, SyntheticData.SEED);
+		final List<List<KernelDensityEstimate>> result = new ArrayList<List<KernelDensityEstimate>>();
+
+		final long sliding = new Benchmark("HistogramFactory.createPitchClassKDESeries, n=" + size) {
+			@Override
+			protected void run() {
+				result.clear();
+				result.add(HistogramFactory.createPitchClassKDESeries(annotations, WIDTH, WINDOW, HOP));
+				consume(result.get(0).size());
+			}
+		}.measure(warmups, iterations);
+		final long rebuild = new Benchmark("New estimate for each window, n=" + size) {
+			@Override
+			protected void run() {
+				result.add(rebuildEachWindow(annotations));
+				consume(result.get(result.size() - 1).size());
+			}
+		}.measure(0, 1);
+		report("speed-up: %.1fx, %d windows, maximum difference: %.2e",
+				rebuild / (double) sliding, result.get(0).size(),
+				maximumDifference(result.get(0), result.get(result.size() - 1)));
+
+		final List<KernelDensityEstimate> maxima = new ArrayList<KernelDensityEstimate>();
+		final long windowedMax = new Benchmark("HistogramFactory.createPichClassKDE windowed, n=" + size) {
+			@Override
+			protected void run() {
+				maxima.clear();
+				maxima.add(HistogramFactory.createPichClassKDE(annotations, WIDTH, WINDOW));
+				consume(maxima.get(0).getSumFreq());
+			}
+		}.measure(warmups, iterations);
+		final List<KernelDensityEstimate> legacyMaxima = new ArrayList<KernelDensityEstimate>();
+		final long legacy = new Benchmark("Maximum after each annotation, n=" + size) {
+			@Override
+			protected void run() {
+				legacyMaxima.add(legacyWindowedMax(new ArrayList<Annotation>(annotations)));
+				consume(legacyMaxima.get(0).getSumFreq());
+			}
+		}.measure(0, 1);
+		report("speed-up: %.1fx, maximum difference: %.2e", legacy / (double) windowedMax,
+				maximumDifference(maxima, legacyMaxima));
+	}
+}
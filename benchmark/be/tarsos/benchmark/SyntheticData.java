@@ -0,0 +1,199 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+
+package be.tarsos.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+import be.tarsos.sampled.pitch.Annotation;
+import be.tarsos.sampled.pitch.PitchDetectionMode;
+import be.tarsos.sampled.pitch.PitchUnit;
+
+/**
+ * Creates reproducible synthetic data sets for benchmarks. The same seed
+ * always results in the same data.
+ * 
+ * @author Joren Six
+ */
+public final class SyntheticData {
+
+	/**
+	 * The default seed.
+	 */
+	public static final long SEED = 1l;
+
+	/**
+	 * The pitch classes (in cents) of the scale used to generate melodies: a
+	 * pentatonic scale.
+	 */
+	public static final double[] SCALE = { 0, 200, 400, 700, 900 };
+
+	private SyntheticData() {
+	}
+
+	/**
+	 * Generates a melody as a list of annotations: notes from
+	 * {@link #SCALE} with a random duration, vibrato and noise, interleaved
+	 * with unstable glides. Annotations are generated at 100Hz, ordered by
+	 * time.
+	 * 
+	 * @param size
+	 *            The number of annotations.
+	 * @param seed
+	 *            The seed for the random generator.
+	 * @return A list of annotations.
+	 */
+	public static List<Annotation> annotations(final int size, final long seed) {
+		final Random random = new Random(seed);
+		final List<Annotation> annotations = new ArrayList<Annotation>(size);
+		final double frameDuration = 0.01;
+		double centsValue = 6000;
+		int remainingFrames = 0;
+		boolean glide = false;
+		double glideStep = 0;
+		for (int i = 0; i < size; i++) {
+			if (remainingFrames == 0) {
+				glide = random.nextDouble() < 0.3;
+				remainingFrames = glide ? 5 + random.nextInt(10) : 10 + random.nextInt(60);
+				final int octave = 4 + random.nextInt(3);
+				final double target = octave * 1200 + SCALE[random.nextInt(SCALE.length)];
+				glideStep = (target - centsValue) / remainingFrames;
+				if (!glide) {
+					centsValue = target;
+				}
+			}
+			final double pitch;
+			if (glide) {
+				centsValue += glideStep;
+				pitch = centsValue + random.nextGaussian() * 5;
+			} else {
+				// Vibrato and noise.
+				pitch = centsValue + 15 * Math.sin(i * 0.3) + random.nextGaussian() * 3;
+			}
+			remainingFrames--;
+			final double pitchInHz = PitchUnit.absoluteCentToHertz(pitch);
+			final double salience = 0.2 + 0.8 * random.nextDouble();
+			annotations.add(new Annotation(i * frameDuration, pitchInHz, PitchDetectionMode.TARSOS_YIN, salience));
+		}
+		return annotations;
+	}
+
+	/**
+	 * Generates random values uniformly distributed in a range.
+	 * 
+	 * @param size
+	 *            The number of values.
+	 * @param min
+	 *            The minimum value (inclusive).
+	 * @param max
+	 *            The maximum value (exclusive).
+	 * @param seed
+	 *            The seed for the random generator.
+	 * @return An array with random values.
+	 */
+	public static double[] uniform(final int size, final double min, final double max, final long seed) {
+		final Random random = new Random(seed);
+		final double[] values = new double[size];
+		for (int i = 0; i < size; i++) {
+			values[i] = min + random.nextDouble() * (max - min);
+		}
+		return values;
+	}
+
+	/**
+	 * Synthesizes the melody of {@link #annotations(int, long)}: a tone with a
+	 * few harmonics that follows the pitch of the annotations, with a little
+	 * noise. The phase is continuous so pitch detectors see a clean signal.
+	 * 
+	 * @param seconds
+	 *            The duration of the signal in seconds.
+	 * @param sampleRate
+	 *            The sample rate in Hz.
+	 * @param seed
+	 *            The seed for the random generator.
+	 * @return The samples, between -1 and 1.
+	 */
+	public static float[] signal(final double seconds, final int sampleRate, final long seed) {
+		final int frames = (int) Math.ceil(seconds * 100);
+		final List<Annotation> melody = annotations(Math.max(1, frames), seed);
+		final Random random = new Random(seed);
+		final float[] samples = new float[(int) (seconds * sampleRate)];
+		final int samplesPerFrame = sampleRate / 100;
+		double phase = 0;
+		for (int i = 0; i < samples.length; i++) {
+			final int frame = Math.min(melody.size() - 1, i / samplesPerFrame);
+			final double frequency = melody.get(frame).getPitch(PitchUnit.HERTZ);
+			phase += 2 * Math.PI * frequency / sampleRate;
+			if (phase > 2 * Math.PI) {
+				phase -= 2 * Math.PI;
+			}
+			final double tone = 0.5 * Math.sin(phase) + 0.25 * Math.sin(2 * phase) + 0.125 * Math.sin(3 * phase);
+			samples[i] = (float) (tone + 0.01 * random.nextGaussian());
+		}
+		return samples;
+	}
+
+	/**
+	 * Writes samples to a temporary 16 bit mono WAV file, deleted when the
+	 * virtual machine exits.
+	 * 
+	 * @param samples
+	 *            The samples, clipped to -1 and 1.
+	 * @param sampleRate
+	 *            The sample rate in Hz.
+	 * @return The WAV file.
+	 */
+	public static File wav(final float[] samples, final int sampleRate) {
+		final File wav;
+		try {
+			wav = File.createTempFile("tarsos_benchmark", ".wav");
+			wav.deleteOnExit();
+			final byte[] bytes = new byte[samples.length * 2];
+			for (int i = 0; i < samples.length; i++) {
+				final int value = Math.round(Math.max(-1f, Math.min(1f, samples[i])) * Short.MAX_VALUE);
+				bytes[2 * i] = (byte) value;
+				bytes[2 * i + 1] = (byte) (value >> 8);
+			}
+			final AudioFormat format = new AudioFormat(sampleRate, 16, 1, true, false);
+			final AudioInputStream stream = new AudioInputStream(new ByteArrayInputStream(bytes), format,
+					samples.length);
+			AudioSystem.write(stream, AudioFileFormat.Type.WAVE, wav);
+		} catch (final IOException e) {
+			throw new IllegalStateException("Could not write the synthetic signal.", e);
+		}
+		return wav;
+	}
+}
@@ -0,0 +1,170 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+
+package be.tarsos.benchmark;
+
+import java.io.File;
+
+import be.tarsos.dsp.AudioEvent;
+import be.tarsos.dsp.AudioProcessor;
+import be.tarsos.sampled.ExtractionSession;
+import be.tarsos.sampled.WaveformPyramid;
+
+/**
+ * Compares drawing a waveform from a stored {@link WaveformPyramid} with
+ * decoding the audio each time a file is opened, as the waveform view did
+ * before. A synthetic signal is written to a 16 bit WAV file, see
+ * {@link SyntheticData#wav(float[], int)}. The summary of each pixel
+ * column is checked against the minimum, maximum and RMS calculated from the
+ * samples. The length of the signal in seconds can be set with
+ * <code>-Dbenchmark.size</code>, ten minutes by default.
+ * 
+ * @author Joren Six
+ */
+public final class WaveformBenchmark extends Benchmark.Group {
+
+	/**
+	 * Create the benchmarks with their default size and number of
+	 * iterations.
+	 */
+	WaveformBenchmark() {
+		super(600, 2, 3);
+	}
+
+	private static final int SAMPLE_RATE = 44100;
+
+	/**
+	 * The number of pixel columns drawn.
+	 */
+	private static final int WIDTH = 2000;
+
+	/**
+	 * @return The largest difference between the summary and the minimum,
+	 *         maximum and RMS of the samples of each column.
+	 */
+	private static double maximumDifference(final float[] signal, final double duration, final float[] minima,
+			final float[] maxima, final float[] rms) {
+		double difference = 0;
+		final double samplesPerColumn = duration * SAMPLE_RATE / WIDTH;
+		for (int column = 0; column < WIDTH; column++) {
+			final int from = (int) Math.floor(column * samplesPerColumn);
+			final int to = Math.min(signal.length, (int) Math.floor((column + 1) * samplesPerColumn));
+			float minimum = Float.MAX_VALUE;
+			float maximum = -Float.MAX_VALUE;
+			double sumOfSquares = 0;
+			for (int i = from; i < to; i++) {
+				minimum = Math.min(minimum, signal[i]);
+				maximum = Math.max(maximum, signal[i]);
+				sumOfSquares += signal[i] * signal[i];
+			}
+			difference = Math.max(difference, Math.abs(minimum - minima[column]));
+			difference = Math.max(difference, Math.abs(maximum - maxima[column]));
+			difference = Math.max(difference, Math.abs(Math.sqrt(sumOfSquares / (to - from)) - rms[column]));
+		}
+		return difference;
+	}
+
+	/**
+	 * Runs the benchmarks, see {@link Benchmark.Group#run()}.
+	 * 
+	 * @param args
+	 *            Not used.
+	 */
+	public static void main(final String... args) {
+		new WaveformBenchmark().run();
+	}
+
+	/**
+	 * Runs the benchmarks with the given parameters.
+	 * 
+	 * @param seconds
+	 *            The length of the signal in seconds.
+	 * @param warmups
+	 *            The number of warm up iterations.
+	 * @param iterations
+	 *            The number of measured iterations.
+	 */
+	@Override
+	protected void run(final int seconds, final int warmups, final int iterations) {
+		final float[] signal = SyntheticData.signal(seconds, SAMPLE_RATE, SyntheticData.SEED);
+		final File wav = SyntheticData.wav(signal, SAMPLE_RATE);
+		final File stored = new File(wav.getAbsolutePath() + ".bin");
+		stored.deleteOnExit();
+
+		final WaveformPyramid[] pyramid = new WaveformPyramid[1];
+		final long build = new Benchmark("WaveformPyramid.decode, " + seconds + "s") {
+			@Override
+			protected void run() {
+				pyramid[0] = WaveformPyramid.decode(wav);
+				consume(pyramid[0].getNumberOfLevels());
+			}
+		}.measure(Math.min(1, warmups), 1);
+		pyramid[0].write(stored.getAbsolutePath());
+		report("%d levels, %.1f MB stored", pyramid[0].getNumberOfLevels(),
+				stored.length() / 1e6);
+
+		final float[] minima = new float[WIDTH];
+		final float[] maxima = new float[WIDTH];
+		final float[] rms = new float[WIDTH];
+		final long open = new Benchmark("Read stored pyramid and summarize " + WIDTH + " columns, " + seconds + "s") {
+			@Override
+			protected void run() {
+				final WaveformPyramid read = WaveformPyramid.read(stored.getAbsolutePath());
+				read.summarize(0, read.getDuration(), minima, maxima, rms);
+				consume(maxima[WIDTH / 2]);
+			}
+		}.measure(warmups, iterations);
+		final long zoom = new Benchmark("Summarize " + WIDTH + " columns of one second, " + seconds + "s") {
+			@Override
+			protected void run() {
+				final float[] zoomed = new float[WIDTH];
+				pyramid[0].summarize(seconds / 2.0, seconds / 2.0 + 1, zoomed, new float[WIDTH], new float[WIDTH]);
+				consume(zoomed[0]);
+			}
+		}.measure(warmups, iterations);
+		final long decode = new Benchmark("Decode the audio, " + seconds + "s") {
+			@Override
+			protected void run() {
+				final ExtractionSession session = new ExtractionSession(wav);
+				final float[] first = new float[1];
+				session.addAudioProcessor(new AudioProcessor() {
+					public boolean process(final AudioEvent audioEvent) {
+						first[0] += audioEvent.getFloatBuffer()[0];
+						return true;
+					}
+
+					public void processingFinished() {
+					}
+				}, SAMPLE_RATE * seconds / WIDTH / 8, 0);
+				session.run();
+				consume(first[0]);
+			}
+		}.measure(Math.min(1, warmups), 1);
+		report("speed-up: %.0fx to open, zoomed in %.3f ms, built in %.1fx the decoding time, "
+						+ "maximum difference: %.2e", decode / (double) open, zoom / 1e6, build / (double) decode,
+				maximumDifference(signal, pyramid[0].getDuration(), minima, maxima, rms));
+	}
+}
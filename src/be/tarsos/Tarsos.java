@@ -45,6 +45,8 @@ import be.tarsos.cli.AbstractTarsosApp;
 import be.tarsos.cli.Annotate;
 import be.tarsos.cli.AnnotationSynth;
 import be.tarsos.cli.AudioToScala;
+import be.tarsos.cli.BatchAnalysis;
+import be.tarsos.cli.Cache;
 import be.tarsos.cli.DetectPitch;
 import be.tarsos.cli.HistogramToScala;
 import be.tarsos.cli.MidiToWav;
@@ -308,6 +310,8 @@ public final class Tarsos {
 		applicationList.add(new HistogramToScala());
 		applicationList.add(new PitchHistogramRating());
 		applicationList.add(new PrintScalaIntervals());
+		applicationList.add(new BatchAnalysis());
+		applicationList.add(new Cache());
 		
 		for (final AbstractTarsosApp application : applicationList) {
 			registerApplication(application.name(), application);
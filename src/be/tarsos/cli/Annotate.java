@@ -36,9 +36,12 @@ import javax.sound.sampled.UnsupportedAudioFileException;
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
 import joptsimple.OptionSpec;
+import be.tarsos.sampled.ExtractionSession;
 import be.tarsos.sampled.pitch.Annotation;
+import be.tarsos.sampled.pitch.CachingDetector;
 import be.tarsos.sampled.pitch.PitchDetectionMode;
 import be.tarsos.sampled.pitch.PitchDetector;
+import be.tarsos.sampled.pitch.TarsosPitchDetection;
 import be.tarsos.util.AudioFile;
 import be.tarsos.util.ConfKey;
 import be.tarsos.util.Configuration;
@@ -76,7 +79,23 @@ public final class Annotate extends AbstractTarsosApp {
 
 		final AudioFile audioFile = new AudioFile(inputFile);
 
-		final PitchDetector pitchDetector = detectionMode.getPitchDetector(audioFile);
+		final SignalPowerExtractor powerExtractor = new SignalPowerExtractor(audioFile);
+		final PitchDetector pitchDetector;
+		if (TarsosPitchDetection.isTarsosMode(detectionMode)) {
+			// Decode the audio once for pitch detection and power extraction.
+			final TarsosPitchDetection tarsosDetector = new TarsosPitchDetection(audioFile, detectionMode);
+			final CachingDetector cachingDetector = new CachingDetector(audioFile, tarsosDetector,
+					detectionMode.getParameters());
+			final ExtractionSession session = new ExtractionSession(audioFile);
+			if (!cachingDetector.isCached()) {
+				tarsosDetector.addTo(session);
+			}
+			powerExtractor.addTo(session);
+			session.run();
+			pitchDetector = cachingDetector;
+		} else {
+			pitchDetector = detectionMode.getPitchDetector(audioFile);
+		}
 
 		pitchDetector.executePitchDetection();
 		final String baseName = audioFile.originalBasename();
@@ -111,7 +130,6 @@ public final class Annotate extends AbstractTarsosApp {
 				peaksTitle, peaks);
 
 		try {
-			final SignalPowerExtractor powerExtractor = new SignalPowerExtractor(audioFile);
 			powerExtractor.saveTextFile(FileUtils.combine(directory, prefix + "_power.txt"), true);
 			// powerExtractor.saveWaveFormPlot(FileUtils.combine(directory,
 			// prefix + "_wave.png"));
@@ -0,0 +1,405 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+
+package be.tarsos.cli;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+import be.tarsos.Tarsos;
+import be.tarsos.sampled.pitch.Annotation;
+import be.tarsos.sampled.pitch.PitchDetectionMode;
+import be.tarsos.sampled.pitch.PitchDetector;
+import be.tarsos.util.AudioFile;
+import be.tarsos.util.ConfKey;
+import be.tarsos.util.Configuration;
+import be.tarsos.util.ExtractionExecutor;
+import be.tarsos.util.FileUtils;
+import be.tarsos.util.StringUtils;
+import be.tarsos.util.histogram.HistogramFactory;
+import be.tarsos.util.histogram.PitchClassHistogram;
+import be.tarsos.util.histogram.PitchHistogram;
+import be.tarsos.util.histogram.peaks.Peak;
+import be.tarsos.util.histogram.peaks.PeakDetector;
+
+/**
+ * <p>
+ * Analyses a whole corpus of audio files. Every file goes through a pipeline
+ * of stages: transcoding, pitch detection, histogram construction and peak
+ * extraction. Files are processed concurrently on a thread pool, so the
+ * stages of different files overlap.
+ * </p>
+ * <p>
+ * The corpus is given as a manifest: a text file with an audio file or a
+ * directory on each line (lines starting with # are ignored). Directories
+ * and audio files can also be given directly on the command line.
+ * </p>
+ * <p>
+ * Completed files are written to a checkpoint file in the output directory,
+ * together with the pitch detection mode. When an interrupted run is restarted
+ * with the same output directory and mode it resumes where it stopped. The
+ * output of each file goes to a directory named after the file and a hash of
+ * its path, so files with the same name in different directories do not
+ * overwrite each other.
+ * </p>
+ * 
+ * @author Joren Six
+ */
+public final class BatchAnalysis extends AbstractTarsosApp {
+
+	/**
+	 * Log messages.
+	 */
+	private static final Logger LOG = Logger.getLogger(BatchAnalysis.class.getName());
+
+	/**
+	 * The name of the checkpoint file, in the output directory.
+	 */
+	private static final String CHECKPOINT_FILE = "batch_checkpoint.txt";
+
+	/**
+	 * Report throughput after each number of files.
+	 */
+	private static final int REPORT_INTERVAL = 10;
+
+	/**
+	 * The stages of the analysis pipeline, executed in order for each file.
+	 */
+	private enum Stage {
+		/**
+		 * Transcodes the audio to the configured format.
+		 */
+		TRANSCODE {
+			@Override
+			void execute(final FileJob job) {
+				job.audioFile = new AudioFile(job.file.getAbsolutePath());
+			}
+		},
+		/**
+		 * Detects (or reads cached) pitch annotations.
+		 */
+		DETECT_PITCH {
+			@Override
+			void execute(final FileJob job) {
+				final PitchDetector detector = job.mode.getPitchDetector(job.audioFile);
+				detector.executePitchDetection();
+				job.annotations = detector.getAnnotations();
+				FileUtils.writePitchAnnotations(job.outputFile("annotations.csv"), job.annotations);
+			}
+		},
+		/**
+		 * Builds the pitch and pitch class histogram.
+		 */
+		HISTOGRAM {
+			@Override
+			void execute(final FileJob job) {
+				final PitchHistogram pitchHistogram = HistogramFactory.createPitchHistogram(job.annotations);
+				pitchHistogram.export(job.outputFile("pitch_histogram.txt"));
+				job.pitchClassHistogram = pitchHistogram.pitchClassHistogram();
+				job.pitchClassHistogram.export(job.outputFile("pitch_class_histogram.txt"));
+			}
+		},
+		/**
+		 * Extracts the peaks of the pitch class histogram and exports them as
+		 * a scala file.
+		 */
+		PEAKS {
+			@Override
+			void execute(final FileJob job) {
+				job.pitchClassHistogram.gaussianSmooth(1.0);
+				final List<Peak> peaks = PeakDetector.detect(job.pitchClassHistogram, 15, 15);
+				PitchClassHistogram.exportPeaksToScalaFileFormat(job.outputFile("peaks.scl"),
+						FileUtils.basename(job.file.getAbsolutePath()), peaks);
+			}
+		};
+
+		abstract void execute(FileJob job);
+	}
+
+	@Override
+	public String description() {
+		return "Analyses a corpus of audio files: transcoding, pitch detection, histogram and peak extraction "
+				+ "for every file, using several threads. The corpus is a manifest file with an audio file or directory "
+				+ "on each line, or a list of audio files and directories. For each file the annotations, histograms and "
+				+ "a scala file are written to the output directory. An interrupted run resumes where it stopped.";
+	}
+
+	@Override
+	public String synopsis() {
+		return "[options] manifest_or_audio_file...";
+	}
+
+	@Override
+	public void run(final String... args) {
+		final OptionParser parser = new OptionParser();
+		final OptionSpec<PitchDetectionMode> detectionModeSpec = createDetectionModeSpec(parser);
+		final OptionSpec<Integer> threadsSpec = parser
+				.accepts("threads", "The number of files analysed concurrently.").withRequiredArg()
+				.ofType(Integer.class).defaultsTo(ExtractionExecutor.numberOfThreads());
+		final OptionSpec<File> outputSpec = parser.accepts("out", "The output directory.").withRequiredArg()
+				.ofType(File.class).defaultsTo(new File("batch"));
+		parser.accepts("restart", "Ignore the checkpoint and analyse every file again.");
+		final OptionSet options = parse(args, parser, this);
+
+		if (isHelpOptionSet(options) || options.nonOptionArguments().isEmpty()) {
+			printHelp(parser);
+		} else {
+			final List<File> files = readManifests(options.nonOptionArguments());
+			if (files.isEmpty()) {
+				printError(parser, "No audio files found in " + options.nonOptionArguments() + ".\n");
+			} else {
+				final File outputDirectory = options.valueOf(outputSpec);
+				FileUtils.mkdirs(outputDirectory.getAbsolutePath());
+				final String checkpoint = FileUtils.combine(outputDirectory.getAbsolutePath(), CHECKPOINT_FILE);
+				if (options.has("restart")) {
+					FileUtils.rm(checkpoint);
+				}
+				final int threads = Math.max(1, options.valueOf(threadsSpec));
+				executeBatch(files, options.valueOf(detectionModeSpec), outputDirectory, checkpoint, threads);
+			}
+		}
+	}
+
+	/**
+	 * Reads the audio files from manifests, directories or audio files.
+	 * 
+	 * @param arguments
+	 *            Manifests, directories or audio files.
+	 * @return A list of unique audio files, in the order of the manifests.
+	 */
+	private List<File> readManifests(final List<String> arguments) {
+		final Set<File> files = new LinkedHashSet<File>();
+		for (final String argument : arguments) {
+			final File file = new File(argument);
+			if (file.isDirectory() || FileUtils.isAudioFile(file)) {
+				addAudioFiles(file, files);
+			} else if (file.isFile()) {
+				final String[] lines = FileUtils.readFile(file.getAbsolutePath()).split("\n");
+				for (final String line : lines) {
+					final String entry = line.trim();
+					if (entry.length() > 0 && !entry.startsWith("#")) {
+						addAudioFiles(new File(entry), files);
+					}
+				}
+			} else {
+				LOG.warning(argument + " is not a manifest, directory or audio file.");
+			}
+		}
+		return new ArrayList<File>(files);
+	}
+
+	private void addAudioFiles(final File file, final Set<File> files) {
+		if (file.isDirectory()) {
+			final String pattern = Configuration.get(ConfKey.audio_file_name_pattern);
+			for (final String fileInDir : FileUtils.glob(file.getAbsolutePath(), pattern, true)) {
+				files.add(new File(fileInDir).getAbsoluteFile());
+			}
+		} else if (FileUtils.isAudioFile(file)) {
+			files.add(file.getAbsoluteFile());
+		} else {
+			LOG.warning(file.getAbsolutePath() + " is not a directory or a recognized audio file.");
+		}
+	}
+
+	/**
+	 * Analyses all files that are not checkpointed yet.
+	 */
+	private void executeBatch(final List<File> files, final PitchDetectionMode mode, final File outputDirectory,
+			final String checkpoint, final int threads) {
+		final Set<String> completed = readCheckpoint(checkpoint);
+		final List<FileJob> jobs = new ArrayList<FileJob>();
+		final Progress progress = new Progress(checkpoint);
+		for (final File file : files) {
+			if (!completed.contains(checkpointKey(mode, file))) {
+				jobs.add(new FileJob(file, mode, outputDirectory, progress));
+			}
+		}
+		progress.start(jobs.size());
+		Tarsos.println(String.format("Analysing %d files with %d threads, %d files were already analysed.",
+				jobs.size(), threads, files.size() - jobs.size()));
+
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		for (final FileJob job : jobs) {
+			executor.execute(job);
+		}
+		executor.shutdown();
+		try {
+			while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+				progress.report();
+			}
+		} catch (final InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+		progress.report();
+		progress.reportStages();
+	}
+
+	/**
+	 * @return The line of a completed file in the checkpoint: the detection
+	 *         mode and the path of the file, separated by a tab.
+	 */
+	private static String checkpointKey(final PitchDetectionMode mode, final File file) {
+		return mode.getParametername() + "\t" + file.getAbsolutePath();
+	}
+
+	private Set<String> readCheckpoint(final String checkpoint) {
+		final Set<String> completed = new HashSet<String>();
+		if (FileUtils.exists(checkpoint)) {
+			Collections.addAll(completed, FileUtils.readFile(checkpoint).split("\n"));
+		}
+		return completed;
+	}
+
+	/**
+	 * Runs all stages for one file.
+	 */
+	private static final class FileJob implements Runnable {
+		private final File file;
+		private final PitchDetectionMode mode;
+		private final File outputDirectory;
+		private final Progress progress;
+
+		/**
+		 * The name of the output directory of the file: its base name and the
+		 * hash of its path.
+		 */
+		private final String outputName;
+
+		private AudioFile audioFile;
+		private List<Annotation> annotations;
+		private PitchClassHistogram pitchClassHistogram;
+
+		private FileJob(final File audioFile, final PitchDetectionMode detectionMode, final File output,
+				final Progress batchProgress) {
+			file = audioFile;
+			mode = detectionMode;
+			outputDirectory = output;
+			progress = batchProgress;
+			outputName = FileUtils.basename(file.getAbsolutePath()) + "_"
+					+ StringUtils.messageDigestFive(file.getAbsolutePath()).toLowerCase();
+		}
+
+		private String outputFile(final String suffix) {
+			final String directory = FileUtils.combine(outputDirectory.getAbsolutePath(), outputName);
+			FileUtils.mkdirs(directory);
+			return FileUtils.combine(directory, FileUtils.basename(file.getAbsolutePath()) + "_"
+					+ mode.getParametername() + "_" + suffix);
+		}
+
+		public void run() {
+			try {
+				for (final Stage stage : Stage.values()) {
+					final long start = System.nanoTime();
+					stage.execute(this);
+					progress.stageExecuted(stage, System.nanoTime() - start);
+				}
+				progress.completed(checkpointKey(mode, file), audioFile.getLengthInMilliSeconds());
+			} catch (final RuntimeException e) {
+				// Not checkpointed: retried on the next run.
+				LOG.log(Level.SEVERE, "Failed to analyse " + file.getAbsolutePath(), e);
+				progress.failed();
+			}
+		}
+	}
+
+	/**
+	 * Keeps track of completed files, writes the checkpoint and reports
+	 * throughput.
+	 */
+	private static final class Progress {
+		private final String checkpoint;
+		private final AtomicInteger completedFiles;
+		private final AtomicInteger failedFiles;
+		private final AtomicLong audioMilliseconds;
+		private final AtomicLongArray stageNanoseconds;
+		private int totalFiles;
+		private long startTime;
+
+		private Progress(final String checkpointFile) {
+			checkpoint = checkpointFile;
+			completedFiles = new AtomicInteger();
+			failedFiles = new AtomicInteger();
+			audioMilliseconds = new AtomicLong();
+			stageNanoseconds = new AtomicLongArray(Stage.values().length);
+		}
+
+		private void start(final int numberOfFiles) {
+			totalFiles = numberOfFiles;
+			startTime = System.nanoTime();
+		}
+
+		private void stageExecuted(final Stage stage, final long nanoseconds) {
+			stageNanoseconds.addAndGet(stage.ordinal(), nanoseconds);
+		}
+
+		private void completed(final String checkpointKey, final long lengthInMilliseconds) {
+			synchronized (this) {
+				FileUtils.appendFile(checkpointKey + "\n", checkpoint);
+			}
+			audioMilliseconds.addAndGet(lengthInMilliseconds);
+			if (completedFiles.incrementAndGet() % REPORT_INTERVAL == 0) {
+				report();
+			}
+		}
+
+		private void failed() {
+			failedFiles.incrementAndGet();
+		}
+
+		private void report() {
+			final double seconds = (System.nanoTime() - startTime) / 1e9;
+			final int completed = completedFiles.get();
+			final double filesPerMinute = completed / seconds * 60.0;
+			final double audioPerSecond = audioMilliseconds.get() / 1000.0 / seconds;
+			Tarsos.println(String.format("%d/%d files analysed, %d failed: %.1f files/min, %.1f s audio/s",
+					completed, totalFiles, failedFiles.get(), filesPerMinute, audioPerSecond));
+		}
+
+		private void reportStages() {
+			for (final Stage stage : Stage.values()) {
+				Tarsos.println(String.format("%-14s %10.1f s (summed over threads)", stage.name(),
+						stageNanoseconds.get(stage.ordinal()) / 1e9));
+			}
+		}
+	}
+}
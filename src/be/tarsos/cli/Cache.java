@@ -0,0 +1,101 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+
+package be.tarsos.cli;
+
+import java.util.Locale;
+import java.util.Map;
+
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+import be.tarsos.Tarsos;
+import be.tarsos.util.AnalysisCache;
+
+/**
+ * Reports the disk use of the data directory per producer, the budget and
+ * the cache statistics. Optionally rescans the directory, evicts files until
+ * it is within the budget or deletes the files of an audio file.
+ * 
+ * @author Joren Six
+ */
+public final class Cache extends AbstractTarsosApp {
+
+	@Override
+	public void run(final String... args) {
+		final OptionParser parser = new OptionParser();
+		final OptionSpec<Void> rescanSpec = parser.accepts("rescan",
+				"Adopts untracked files and forgets deleted files.");
+		final OptionSpec<Void> evictSpec = parser.accepts("evict",
+				"Deletes the least recently used files until the data directory is within the budget.");
+		final OptionSpec<String> invalidateSpec = parser.accepts("invalidate",
+				"Deletes the analysis files of the audio with the given MD5 hash.").withRequiredArg()
+				.ofType(String.class);
+		final OptionSet options = parse(args, parser, this);
+
+		if (isHelpOptionSet(options)) {
+			printHelp(parser);
+		} else {
+			final AnalysisCache cache = AnalysisCache.getInstance();
+			if (options.has(rescanSpec)) {
+				cache.rescan();
+			}
+			if (options.has(invalidateSpec)) {
+				final String md5 = invalidateSpec.value(options);
+				Tarsos.println(String.format("Deleted %s files of %s.", cache.invalidate(md5), md5));
+			}
+			if (options.has(evictSpec)) {
+				Tarsos.println(String.format("Evicted %s files.", cache.evict()));
+			}
+			for (final Map.Entry<String, Long> entry : cache.getSizeByProducer().entrySet()) {
+				Tarsos.println(String.format(Locale.US, "%-24s %10.1f MB", entry.getKey(), megabytes(entry.getValue())));
+			}
+			final long budget = AnalysisCache.getBudget();
+			Tarsos.println(String.format(Locale.US, "%-24s %10.1f MB in %s files", "total",
+					megabytes(cache.getSize()), cache.getNumberOfFiles()));
+			Tarsos.println(budget > 0 ? String.format(Locale.US, "%-24s %10.1f MB", "budget", megabytes(budget))
+					: String.format("%-24s %13s", "budget", "none"));
+			Tarsos.println("");
+			Tarsos.println(cache.getStatistics().toString());
+			cache.flush();
+		}
+	}
+
+	private static double megabytes(final long bytes) {
+		return bytes / (1024.0 * 1024.0);
+	}
+
+	@Override
+	public String synopsis() {
+		return "[--rescan] [--evict] [--invalidate md5]";
+	}
+
+	@Override
+	public String description() {
+		return "Reports the disk space the analysis files in the data directory use per producer, "
+				+ "the budget and the cache hits and misses.";
+	}
+}
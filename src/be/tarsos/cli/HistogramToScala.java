@@ -90,7 +90,7 @@ public class HistogramToScala extends AbstractTarsosApp {
 		for(int i = 0 ; i < data.size(); i++){
 			accumulator[i] = Double.valueOf(data.get(i)[1]);
 		}
-		KernelDensityEstimate kde = new KernelDensityEstimate(new KernelDensityEstimate.GaussianKernel(5),accumulator);
+		KernelDensityEstimate kde = new KernelDensityEstimate(KernelDensityEstimate.GaussianKernel.getInstance(5),accumulator);
 		PitchClassHistogram pch = HistogramFactory.createPitchClassHistogram(kde);
 		List<Peak> peaks = PeakDetector.detect(pch);
 		double[] peakArray = new double[peaks.size()];
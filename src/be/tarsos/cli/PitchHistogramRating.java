@@ -125,7 +125,7 @@ public class PitchHistogramRating extends AbstractTarsosApp {
 		for(int i = start ; i < data.size();i++){
 			accumulator[i] = Double.valueOf(data.get(i)[1]) * 1000;
 		}
-		KernelDensityEstimate kde = new KernelDensityEstimate(new GaussianKernel(5),accumulator);
+		KernelDensityEstimate kde = new KernelDensityEstimate(GaussianKernel.getInstance(5),accumulator);
 		Histogram h = HistogramFactory.createPitchClassHistogram(kde);
 		h = h.gaussianSmooth(1.0);
 		
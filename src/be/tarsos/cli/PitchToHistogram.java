@@ -33,6 +33,7 @@ import be.tarsos.Tarsos;
 import be.tarsos.sampled.pitch.PitchUnit;
 import be.tarsos.util.FileUtils;
 import be.tarsos.util.KernelDensityEstimate;
+import be.tarsos.util.KernelDensityEstimateBuilder;
 import be.tarsos.util.KernelDensityEstimate.GaussianKernel;
 
 /**
@@ -147,7 +148,7 @@ public class PitchToHistogram extends AbstractTarsosApp {
 			start = 1;	
 		}
 		int size = histogramType == HistogramType.PITCH_CLASS_HISTOGRAM ? 1200 : 9600;  
-		KernelDensityEstimate kde = new KernelDensityEstimate(new GaussianKernel(5),size);
+		KernelDensityEstimateBuilder builder = new KernelDensityEstimateBuilder(GaussianKernel.getInstance(5),size);
 		
 		for(int i = start ; i < data.size();i++){
 			double pitch = 0;
@@ -156,10 +157,10 @@ public class PitchToHistogram extends AbstractTarsosApp {
 			} else {
 				pitch = PitchUnit.hertzToAbsoluteCent(Double.valueOf(data.get(i)[1]));
 			}
-			kde.add(pitch);
+			builder.add(pitch);
 		}
 		
-		double[] estimate = kde.getEstimate();
+		double[] estimate = builder.build().getEstimate();
 		for(int i = 0; i< estimate.length ;i++){
 			sb.append(i).append(",").append(estimate[i]).append("\n");
 		}
@@ -176,15 +177,16 @@ public class PitchToHistogram extends AbstractTarsosApp {
 			start = 1;	
 		}
 		int size = 256;  
-		KernelDensityEstimate kde = new KernelDensityEstimate(new GaussianKernel(5),size);
+		KernelDensityEstimateBuilder builder = new KernelDensityEstimateBuilder(GaussianKernel.getInstance(5),size);
 		
 		double scaleFactor = 256.0/1200.0;
 		for(int i = start ; i < data.size();i++){
 			double pitch = 0;
 			pitch = PitchUnit.hertzToRelativeCent(Double.valueOf(data.get(i)[1]));
-			kde.add(pitch * scaleFactor);
+			builder.add(pitch * scaleFactor);
 		}
 		
+		KernelDensityEstimate kde = builder.build();
 		kde.normalize(256);
 		double[] estimate = kde.getEstimate();
 		for(int i = 0; i< estimate.length ;i++){
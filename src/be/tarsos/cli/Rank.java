@@ -22,14 +22,14 @@
 */
 
 
-
 package be.tarsos.cli;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
-import java.util.TreeMap;
+import java.util.Set;
+import java.util.logging.Logger;
 
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
@@ -41,8 +41,10 @@ import be.tarsos.sampled.pitch.PitchDetector;
 import be.tarsos.util.AudioFile;
 import be.tarsos.util.ConfKey;
 import be.tarsos.util.Configuration;
+import be.tarsos.util.FileFingerprints;
 import be.tarsos.util.FileUtils;
 import be.tarsos.util.ScalaFile;
+import be.tarsos.util.histogram.CorpusIndex;
 import be.tarsos.util.histogram.HistogramFactory;
 import be.tarsos.util.histogram.PitchClassHistogram;
 import be.tarsos.util.histogram.PitchHistogram;
@@ -52,17 +54,37 @@ import be.tarsos.util.histogram.peaks.PeakDetector;
 /**
  * Ranks a list of audio files on tone scale similarity with an input file
  * (scala or audio). The audio file with the most similar tone scale (using
- * histogram correlation) is listed first.
+ * histogram correlation) is listed first. The tone scales of the haystack are
+ * kept in a persistent {@link CorpusIndex}: only new or changed files are
+ * analysed.
  * 
  * @author Joren Six
  */
 public final class Rank extends AbstractTarsosApp {
 
+	/**
+	 * Log messages.
+	 */
+	private static final Logger LOG = Logger.getLogger(Rank.class.getName());
+
+	/**
+	 * Write the index after each number of analysed files, so an interrupted
+	 * indexing run can be resumed.
+	 */
+	private static final int WRITE_INTERVAL = 100;
+
 	@Override
 	public String description() {
 		return "Ranks a list of audio files on tone scale similarity "
 				+ "with an input file (scala or audio). The audio file with the "
-				+ "most similar tone scale (using histogram correlation) is listed first.";
+				+ "most similar tone scale (using histogram correlation) is listed first. "
+				+ "The tone scales are stored in an index: 'rank index' adds (changed) files to the index, "
+				+ "'rank query' ranks all indexed files. Without a command the haystack is indexed and ranked.";
+	}
+
+	@Override
+	public String synopsis() {
+		return "[index|query] [options] [haystack_file...]";
 	}
 
 	@Override
@@ -80,70 +102,151 @@ public final class Rank extends AbstractTarsosApp {
 								+ " directory it is traversed recursively.").withRequiredArg()
 				.ofType(File.class).withValuesSeparatedBy(' ');
 
+		final OptionSpec<File> indexSpec = parser
+				.accepts("index", "The index file. (default: rank_index_'detector'.bin in the data directory)")
+				.withRequiredArg().ofType(File.class);
+
+		final OptionSpec<Integer> limitSpec = parser.accepts("limit", "The number of results to print.")
+				.withRequiredArg().ofType(Integer.class).defaultsTo(100);
+
+		parser.accepts("shift-invariant", "Compare each tone scale at the displacement with the best correlation, "
+				+ "so transposed tone scales match. The displacement in cents is printed as a fourth column.");
+
 		final OptionSpec<PitchDetectionMode> detectionModeSpec = createDetectionModeSpec(parser);
 
 		final OptionSet options = parse(args, parser, this);
 
-		if (isHelpOptionSet(options) || !options.has(needleSpec) || !options.has(haystackSpec)) {
+		if (isHelpOptionSet(options)) {
 			printHelp(parser);
-		} else {
-			final File needleFile = options.valueOf(needleSpec);
-			final List<File> hayStack = new ArrayList<File>();
-			for (final File hay : options.valuesOf(haystackSpec)) {
-				if (hay.isDirectory()) {
-					iterateDirectory(hay, hayStack);
-				} else {
-					if(hay.getName().endsWith("txt")){
-						String[] data = FileUtils.readFile(hay.getAbsolutePath()).split("\n");
-						for(String csvFile:data){
-							try{
-								hayStack.add(new File(csvFile));
-							}catch(Exception e){
-								e.printStackTrace();
-							}
+			return;
+		}
+
+		final List<String> arguments = new ArrayList<String>(options.nonOptionArguments());
+		String command = null;
+		if (!arguments.isEmpty() && (arguments.get(0).equals("index") || arguments.get(0).equals("query"))) {
+			command = arguments.remove(0);
+		}
+
+		final List<File> hayStack = new ArrayList<File>();
+		for (final File hay : options.valuesOf(haystackSpec)) {
+			if (hay.isDirectory()) {
+				iterateDirectory(hay, hayStack);
+			} else {
+				if(hay.getName().endsWith("txt")){
+					String[] data = FileUtils.readFile(hay.getAbsolutePath()).split("\n");
+					for(String csvFile:data){
+						try{
+							hayStack.add(new File(csvFile));
+						}catch(Exception e){
+							e.printStackTrace();
 						}
-					}else{
-						hayStack.add(hay);	
 					}
-					
+				}else{
+					hayStack.add(hay);	
 				}
+				
 			}
-			for (final String nonArgumentOption : options.nonOptionArguments()) {
-				final File hay = new File(nonArgumentOption);
-				if (hay.isDirectory()) {
-					iterateDirectory(hay, hayStack);
-				} else {
-					hayStack.add(hay);
-				}
+		}
+		for (final String nonArgumentOption : arguments) {
+			final File hay = new File(nonArgumentOption);
+			if (hay.isDirectory()) {
+				iterateDirectory(hay, hayStack);
+			} else {
+				hayStack.add(hay);
 			}
-			final PitchDetectionMode detectionMode = options.valueOf(detectionModeSpec);
-
-			final PitchClassHistogram needleHisto = createHisto(needleFile, detectionMode);
-
-			final TreeMap<Double, String> tree = new TreeMap<Double, String>();
+		}
 
-			for (final File hay : hayStack) {
-				System.out.println("Handling " + hay);
-				final PitchClassHistogram hayHisto = createHisto(hay, detectionMode);
-				//final int displacement = needleHisto.displacementForOptimalCorrelation(hayHisto);
-				final Double correlation = needleHisto.correlationWithDisplacement(0, hayHisto);
-				//final String plotFileName = hay.getName() + "_" + needleFile.getName() + ".png";
-				//final String title = correlation.toString();
-				//needleHisto.plotCorrelation(hayHisto, CorrelationMeasure.INTERSECTION, plotFileName, title);
-				tree.put(correlation, hay.getName());
+		final boolean indexCommand = "index".equals(command);
+		final boolean queryCommand = "query".equals(command);
+		if (indexCommand && hayStack.isEmpty()) {
+			printError(parser, "Index needs a haystack: a list of audio or scala files or directories.\n");
+		} else if (!indexCommand && !options.has(needleSpec)) {
+			printError(parser, "Ranking needs a needle: a scala or audio file.\n");
+		} else if (options.valueOf(limitSpec) < 0) {
+			printError(parser, "The limit should be zero or more, it is " + options.valueOf(limitSpec) + ".\n");
+		} else if (command == null && hayStack.isEmpty()) {
+			printHelp(parser);
+		} else {
+			final PitchDetectionMode detectionMode = options.valueOf(detectionModeSpec);
+			final String indexFile;
+			if (options.has(indexSpec)) {
+				indexFile = options.valueOf(indexSpec).getAbsolutePath();
+			} else {
+				indexFile = FileUtils.combine(Configuration.get(ConfKey.data_directory), "rank_index_"
+						+ detectionMode.name() + ".bin");
+			}
+			final CorpusIndex index = CorpusIndex.read(indexFile, detectionMode.name());
+			updateIndex(index, indexFile, hayStack, detectionMode);
+			if (!indexCommand) {
+				// Rank only the haystack, or every indexed file for a query
+				// without haystack.
+				Set<String> fileNames = null;
+				if (!queryCommand || !hayStack.isEmpty()) {
+					fileNames = new HashSet<String>();
+					for (final File hay : hayStack) {
+						fileNames.add(hay.getAbsolutePath());
+					}
+				}
+				final File needleFile = options.valueOf(needleSpec);
+				final PitchClassHistogram needleHisto = PitchClassHistogram.createToneScale(peaks(needleFile,
+						detectionMode));
+				final boolean shiftInvariant = options.has("shift-invariant");
+				final List<CorpusIndex.Match> matches = index.query(needleHisto, options.valueOf(limitSpec),
+						fileNames, shiftInvariant);
+				final double classWidth = needleHisto.getClassWidth();
+				int count = 0;
+				for (final CorpusIndex.Match match : matches) {
+					final StringBuilder line = new StringBuilder();
+					line.append(count).append(";").append(match.getCorrelation()).append(";")
+							.append(new File(match.getFileName()).getName());
+					if (shiftInvariant) {
+						line.append(";").append(match.getDisplacement() * classWidth);
+					}
+					Tarsos.println(line.toString());
+					count++;
+				}
 			}
+		}
+	}
 
-			int max = 100;
-			int count =0;
-			ArrayList<Double> keys = new ArrayList<Double>(tree.keySet());
-			Collections.reverse(keys);
-			for (final Double correlation : keys) {
-				if(count < max){
-					Tarsos.println(count +";" + correlation + ";" + tree.get(correlation));
+	/**
+	 * Adds new or changed files to the index and writes the index.
+	 */
+	private void updateIndex(final CorpusIndex index, final String indexFile, final List<File> hayStack,
+			final PitchDetectionMode detectionMode) {
+		int analysed = 0;
+		boolean changed = false;
+		// Hash new files concurrently, AudioFile.md5 finds the result.
+		final List<String> paths = new ArrayList<String>(hayStack.size());
+		for (final File hay : hayStack) {
+			paths.add(hay.getAbsolutePath());
+		}
+		FileFingerprints.getInstance().fingerprint(paths);
+		for (final File hay : hayStack) {
+			final String path = hay.getAbsolutePath();
+			if (!hay.exists()) {
+				LOG.warning(path + " does not exist.");
+				continue;
+			}
+			final String md5 = AudioFile.md5(path);
+			if (!index.isIndexed(path, md5)) {
+				if (index.containsProfile(md5)) {
+					index.put(path, md5, null);
+				} else {
+					System.out.println("Handling " + hay);
+					index.put(path, md5, peaks(hay, detectionMode));
+					analysed++;
+					if (analysed % WRITE_INTERVAL == 0) {
+						index.write(indexFile);
+					}
 				}
-				count++;
+				changed = true;
 			}
 		}
+		if (changed) {
+			index.write(indexFile);
+		}
+		LOG.info(String.format("Analysed %d files, %d files indexed in %s.", analysed, index.size(), indexFile));
 	}
 
 	private void iterateDirectory(final File file, final List<File> files) {
@@ -163,35 +266,39 @@ public final class Rank extends AbstractTarsosApp {
 		}
 	}
 
-	private PitchClassHistogram createHisto(final File file, final PitchDetectionMode detectionMode) {
-		PitchClassHistogram histo = null;
+	/**
+	 * Determines the positions of the peaks of the tone scale of a scala or
+	 * audio file.
+	 * 
+	 * @param file
+	 *            The scala or audio file.
+	 * @param detectionMode
+	 *            The pitch detector to use for audio files.
+	 * @return The positions of the peaks, in cents.
+	 */
+	private double[] peaks(final File file, final PitchDetectionMode detectionMode) {
+		final double[] peaks;
 		final String path = file.getAbsolutePath();
 		final String extension = FileUtils.extension(path);
 		if (extension.equalsIgnoreCase("scl")) {
-			histo = HistogramFactory.createPitchClassHistogram(new ScalaFile(path));
+			peaks = new ScalaFile(path).getPitches().clone();
 		} else if (path.matches(Configuration.get(ConfKey.audio_file_name_pattern))) {
-			AudioFile audioFile;
-			
-				audioFile = new AudioFile(path);
-				final PitchDetector pitchDetector = detectionMode.getPitchDetector(audioFile);
-				pitchDetector.executePitchDetection();
-				final List<Annotation> samples = pitchDetector.getAnnotations();
-				final PitchHistogram pitchHistogram = HistogramFactory.createPitchHistogram(samples);
-				final List<Peak> peakList = PeakDetector.detect(pitchHistogram.pitchClassHistogram()
-						.gaussianSmooth(0.8), 15,15);
-				final double[] peaks = new double[peakList.size()];
-				for (int i = 0; i < peaks.length; i++) {
-					peaks[i] = peakList.get(i).getPosition();
-				}
-				histo = PitchClassHistogram.createToneScale(peaks);
-				return histo;
-			
-
+			final AudioFile audioFile = new AudioFile(path);
+			final PitchDetector pitchDetector = detectionMode.getPitchDetector(audioFile);
+			pitchDetector.executePitchDetection();
+			final List<Annotation> samples = pitchDetector.getAnnotations();
+			final PitchHistogram pitchHistogram = HistogramFactory.createPitchHistogram(samples);
+			final List<Peak> peakList = PeakDetector.detect(pitchHistogram.pitchClassHistogram()
+					.gaussianSmooth(0.8), 15,15);
+			peaks = new double[peakList.size()];
+			for (int i = 0; i < peaks.length; i++) {
+				peaks[i] = peakList.get(i).getPosition();
+			}
 		} else {
 			throw new IllegalArgumentException("Tone scale creation failed: " + path
 					+ " should be a scala or audio file!");
 		}
-		return histo;
+		return peaks;
 	}
 
 }
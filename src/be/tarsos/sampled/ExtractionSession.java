@@ -0,0 +1,317 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+
+package be.tarsos.sampled;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import be.tarsos.dsp.AudioDispatcher;
+import be.tarsos.dsp.AudioEvent;
+import be.tarsos.dsp.AudioProcessor;
+import be.tarsos.dsp.io.TarsosDSPAudioFormat;
+import be.tarsos.dsp.io.jvm.AudioDispatcherFactory;
+import be.tarsos.util.AudioFile;
+
+/**
+ * <p>
+ * Decodes an audio file once and hands the samples to several audio
+ * processors. Each processor can have its own buffer size and overlap: the
+ * decoded blocks are re-buffered for every distinct buffer size and overlap.
+ * Processors with the same buffer size and overlap share one buffer, as if
+ * they were added to the same {@link AudioDispatcher}.
+ * </p>
+ * <p>
+ * The audio events are compatible with the ones of an {@link AudioDispatcher}
+ * (time stamps, zero padding of the last buffer) so the results of e.g. a
+ * pitch processor do not change when it is moved to a shared session.
+ * </p>
+ * <p>
+ * The session stops when {@link #stop()} is called or when the thread that
+ * runs the session is interrupted.
+ * </p>
+ * 
+ * @author Joren Six
+ */
+public final class ExtractionSession implements Runnable {
+
+	/**
+	 * Log messages.
+	 */
+	private static final Logger LOG = Logger.getLogger(ExtractionSession.class.getName());
+
+	/**
+	 * The number of samples decoded at a time.
+	 */
+	private static final int BLOCK_SIZE = 1024;
+
+	/**
+	 * Is notified of the progress of a session.
+	 */
+	public interface ProgressListener {
+		/**
+		 * Called after each decoded block.
+		 * 
+		 * @param progress
+		 *            The fraction of the audio decoded, between 0 and 1.
+		 */
+		void progressChanged(double progress);
+	}
+
+	private final File file;
+	private final List<Channel> channels;
+	private final List<ProgressListener> progressListeners;
+
+	private AudioDispatcher dispatcher;
+	private volatile boolean stopped;
+	private long framesDecoded;
+	private long frameLength;
+
+	/**
+	 * Create a new session for the transcoded audio of a file.
+	 * 
+	 * @param audioFile
+	 *            The audio file to decode.
+	 */
+	public ExtractionSession(final AudioFile audioFile) {
+		this(new File(audioFile.transcodedPath()));
+	}
+
+	/**
+	 * Create a new session for an audio file readable by the Java sound API.
+	 * 
+	 * @param audioFile
+	 *            The file to decode.
+	 */
+	public ExtractionSession(final File audioFile) {
+		this.file = audioFile;
+		channels = new ArrayList<Channel>();
+		progressListeners = new ArrayList<ProgressListener>();
+	}
+
+	/**
+	 * Adds an audio processor to the session.
+	 * 
+	 * @param processor
+	 *            The processor to add.
+	 * @param bufferSize
+	 *            The number of samples in each buffer handed to the processor.
+	 * @param overlap
+	 *            The number of samples each buffer overlaps with the previous
+	 *            one.
+	 */
+	public void addAudioProcessor(final AudioProcessor processor, final int bufferSize, final int overlap) {
+		if (bufferSize <= 0 || overlap < 0 || overlap >= bufferSize) {
+			throw new IllegalArgumentException("Invalid buffer size " + bufferSize + " and overlap " + overlap);
+		}
+		Channel channel = null;
+		for (final Channel other : channels) {
+			if (other.bufferSize == bufferSize && other.overlap == overlap) {
+				channel = other;
+			}
+		}
+		if (channel == null) {
+			channel = new Channel(bufferSize, overlap);
+			channels.add(channel);
+		}
+		channel.processors.add(processor);
+	}
+
+	/**
+	 * @param listener
+	 *            Notified after each decoded block.
+	 */
+	public void addProgressListener(final ProgressListener listener) {
+		progressListeners.add(listener);
+	}
+
+	/**
+	 * @return The fraction of the audio decoded, between 0 and 1.
+	 */
+	public double progress() {
+		final double progress;
+		if (frameLength > 0) {
+			progress = Math.min(1.0, framesDecoded / (double) frameLength);
+		} else {
+			progress = 0;
+		}
+		return progress;
+	}
+
+	/**
+	 * Stops the session. The processors are notified that processing has
+	 * finished, the last (incomplete) buffers are not processed.
+	 */
+	public void stop() {
+		stopped = true;
+	}
+
+	/**
+	 * Decodes the audio and hands the samples to every processor. Blocks until
+	 * the audio is decoded or the session is stopped. Nothing is decoded if no
+	 * processors are added.
+	 */
+	public void run() {
+		stopped = false;
+		framesDecoded = 0;
+		if (channels.isEmpty()) {
+			LOG.fine("No processors for " + file.getAbsolutePath() + ", nothing to decode.");
+			return;
+		}
+		try {
+			frameLength = AudioSystem.getAudioFileFormat(file).getFrameLength();
+			dispatcher = AudioDispatcherFactory.fromFile(file, BLOCK_SIZE, 0);
+			// The last block contains only the decoded samples, each channel
+			// pads its own last buffer.
+			dispatcher.setZeroPadLastBuffer(false);
+			final TarsosDSPAudioFormat format = dispatcher.getFormat();
+			for (final Channel channel : channels) {
+				channel.reset(format);
+			}
+			dispatcher.addAudioProcessor(new AudioProcessor() {
+				public boolean process(final AudioEvent audioEvent) {
+					final float[] block = audioEvent.getFloatBuffer();
+					for (final Channel channel : channels) {
+						channel.push(block);
+					}
+					framesDecoded += block.length;
+					for (final ProgressListener listener : progressListeners) {
+						listener.progressChanged(progress());
+					}
+					if (stopped || Thread.currentThread().isInterrupted()) {
+						stopped = true;
+						dispatcher.stop();
+					}
+					return true;
+				}
+
+				public void processingFinished() {
+					for (final Channel channel : channels) {
+						channel.finish(!stopped);
+					}
+				}
+			});
+			dispatcher.run();
+		} catch (final UnsupportedAudioFileException e) {
+			LOG.log(Level.SEVERE, "Could not decode " + file.getAbsolutePath(), e);
+		} catch (final IOException e) {
+			LOG.log(Level.SEVERE, "Could not read " + file.getAbsolutePath(), e);
+		}
+	}
+
+	/**
+	 * Re-buffers the decoded blocks for processors with a certain buffer size
+	 * and overlap.
+	 */
+	private static final class Channel {
+		private final int bufferSize;
+		private final int overlap;
+		private final List<AudioProcessor> processors;
+
+		private float[] buffer;
+		private AudioEvent audioEvent;
+		private int frameSize;
+		/**
+		 * The number of samples in the buffer.
+		 */
+		private int fill;
+		/**
+		 * The number of samples in the buffer that were not processed yet.
+		 */
+		private int unprocessed;
+		/**
+		 * The number of samples pushed to this channel.
+		 */
+		private long samplesPushed;
+		private boolean processing;
+
+		private Channel(final int size, final int overlapInSamples) {
+			bufferSize = size;
+			overlap = overlapInSamples;
+			processors = new ArrayList<AudioProcessor>();
+		}
+
+		private void reset(final TarsosDSPAudioFormat format) {
+			buffer = new float[bufferSize];
+			audioEvent = new AudioEvent(format);
+			audioEvent.setOverlap(overlap);
+			frameSize = format.getFrameSize();
+			fill = 0;
+			unprocessed = 0;
+			samplesPushed = 0;
+			processing = true;
+		}
+
+		private void push(final float[] block) {
+			int offset = 0;
+			while (offset < block.length && processing) {
+				final int length = Math.min(bufferSize - fill, block.length - offset);
+				System.arraycopy(block, offset, buffer, fill, length);
+				fill += length;
+				unprocessed += length;
+				samplesPushed += length;
+				offset += length;
+				if (fill == bufferSize) {
+					process();
+				}
+			}
+		}
+
+		private void process() {
+			// Same time stamps as an audio dispatcher: the number of samples
+			// read before the new samples in this buffer.
+			audioEvent.setBytesProcessed((samplesPushed - unprocessed) * frameSize);
+			audioEvent.setFloatBuffer(buffer);
+			for (final AudioProcessor processor : processors) {
+				if (!processor.process(audioEvent)) {
+					break;
+				}
+			}
+			System.arraycopy(buffer, bufferSize - overlap, buffer, 0, overlap);
+			fill = overlap;
+			unprocessed = 0;
+		}
+
+		private void finish(final boolean processLastBuffer) {
+			if (processLastBuffer && processing && unprocessed > 0) {
+				Arrays.fill(buffer, fill, bufferSize, 0);
+				process();
+			}
+			processing = false;
+			for (final AudioProcessor processor : processors) {
+				processor.processingFinished();
+			}
+		}
+	}
+}
@@ -0,0 +1,460 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+
+package be.tarsos.sampled;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import be.tarsos.util.AudioFile;
+import be.tarsos.util.BinaryFiles;
+
+/**
+ * <p>
+ * Random access to the samples of a 16 bit PCM WAV file, e.g. the transcoded
+ * audio of an {@link AudioFile}. The RIFF header is parsed once, after that
+ * any frame can be read without decoding the file from the start: playing a
+ * selection, calculating the power or drawing a part of a waveform only reads
+ * the bytes it needs.
+ * </p>
+ * <p>
+ * Samples are read with a {@link Reader}: positional reads on a file channel
+ * into a small buffer. Nothing is mapped into memory and a reader holds the
+ * file open only until it is closed, so a file can be replaced or deleted, also
+ * on Windows. {@link Reader#read(long, float[], int, int)} converts samples to
+ * floats the same way the TarsosDSP converters do, so the values are identical
+ * to those of a decoded audio event.
+ * </p>
+ * <p>
+ * A PCM file only keeps the format of the audio and can be shared by several
+ * threads, see {@link #open(AudioFile)}. A reader is used by one thread at a
+ * time.
+ * </p>
+ * 
+ * @author Joren Six
+ */
+public final class PcmFile {
+
+	/**
+	 * Log messages.
+	 */
+	private static final Logger LOG = Logger.getLogger(PcmFile.class.getName());
+
+	/**
+	 * The factor to convert a 16 bit sample to a float, as in the TarsosDSP
+	 * float converters.
+	 */
+	private static final float SCALE = 1.0f / 32767.0f;
+
+	/**
+	 * The WAV format tags for PCM data.
+	 */
+	private static final int WAVE_FORMAT_PCM = 1;
+	private static final int WAVE_FORMAT_EXTENSIBLE = 0xFFFE;
+
+	/**
+	 * The number of bytes a reader reads at a time.
+	 */
+	private static final int READ_BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * The number of shared files kept.
+	 */
+	private static final int MAX_SHARED = 4;
+
+	/**
+	 * The shared files by path, the least recently used first. Only the
+	 * parsed headers are kept, no open files.
+	 */
+	private static final Map<String, PcmFile> SHARED = new LinkedHashMap<String, PcmFile>(MAX_SHARED * 2,
+			0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String, PcmFile> eldest) {
+			return size() > MAX_SHARED;
+		}
+	};
+
+	private final File file;
+	private final long fileLength;
+	private final long fileModified;
+	private final float sampleRate;
+	private final int channels;
+	private final long dataOffset;
+	private final long dataLength;
+
+	private PcmFile(final File file, final float sampleRate, final int channels, final long dataOffset,
+			final long dataLength) {
+		this.file = file;
+		this.fileLength = file.length();
+		this.fileModified = file.lastModified();
+		this.sampleRate = sampleRate;
+		this.channels = channels;
+		this.dataOffset = dataOffset;
+		this.dataLength = dataLength;
+	}
+
+	/**
+	 * Opens a 16 bit PCM WAV file and parses its header. The file is closed
+	 * again, samples are read with {@link #reader()}.
+	 * 
+	 * @param file
+	 *            The WAV file.
+	 * @return The PCM file.
+	 * @throws UnsupportedAudioFileException
+	 *             If the file is not a 16 bit PCM WAV file.
+	 * @throws IOException
+	 *             If the file can not be read.
+	 */
+	public static PcmFile open(final File file) throws UnsupportedAudioFileException, IOException {
+		final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			final long size = channel.size();
+			final ByteBuffer header = ByteBuffer.allocate(40).order(ByteOrder.LITTLE_ENDIAN);
+			if (readFully(channel, header, 0, 12) < 12 || header.getInt(0) != chunkId("RIFF")
+					|| header.getInt(8) != chunkId("WAVE")) {
+				throw new UnsupportedAudioFileException(file.getName() + " is not a WAV file.");
+			}
+			// Walk the chunks up to the data chunk, chunks are word aligned.
+			long position = 12;
+			long dataOffset = -1;
+			long dataLength = 0;
+			int formatTag = -1;
+			int channels = 0;
+			int sampleRate = 0;
+			int blockAlign = 0;
+			int bitsPerSample = 0;
+			while (dataOffset < 0 && readFully(channel, header, position, 8) == 8) {
+				final int id = header.getInt(0);
+				final long chunkLength = header.getInt(4) & 0xFFFFFFFFL;
+				if (id == chunkId("fmt ")) {
+					final int read = readFully(channel, header, position + 8, (int) Math.min(chunkLength, 40));
+					if (read < 16) {
+						throw new UnsupportedAudioFileException(file.getName() + " has a truncated format chunk.");
+					}
+					formatTag = header.getShort(0) & 0xFFFF;
+					channels = header.getShort(2) & 0xFFFF;
+					sampleRate = header.getInt(4);
+					blockAlign = header.getShort(12) & 0xFFFF;
+					bitsPerSample = header.getShort(14) & 0xFFFF;
+					if (formatTag == WAVE_FORMAT_EXTENSIBLE && read >= 26) {
+						// The first two bytes of the sub format GUID.
+						formatTag = header.getShort(24) & 0xFFFF;
+					}
+				} else if (id == chunkId("data")) {
+					dataOffset = position + 8;
+					// Streaming writers leave the length at zero or at its
+					// maximum: the data runs to the end of the file.
+					final long available = size - dataOffset;
+					dataLength = chunkLength == 0 || chunkLength > available ? available : chunkLength;
+				}
+				position += 8 + chunkLength + (chunkLength & 1);
+			}
+			if (dataOffset < 0 || formatTag < 0) {
+				throw new UnsupportedAudioFileException(file.getName() + " has no format or data chunk.");
+			}
+			if (formatTag != WAVE_FORMAT_PCM || bitsPerSample != 16 || channels == 0
+					|| blockAlign != 2 * channels || sampleRate <= 0) {
+				throw new UnsupportedAudioFileException(String.format(
+						"%s is not 16 bit PCM: format %s, %s bits, %s channels.", file.getName(), formatTag,
+						bitsPerSample, channels));
+			}
+			// Only complete frames.
+			dataLength -= dataLength % blockAlign;
+			return new PcmFile(file, sampleRate, channels, dataOffset, dataLength);
+		} finally {
+			BinaryFiles.close(channel);
+		}
+	}
+
+	/**
+	 * Returns the transcoded audio of a file. The last few opened files are
+	 * shared, so the header of a file is parsed once for the player, the power
+	 * extractor and the waveform views. A file that changed on disk is opened
+	 * again.
+	 * 
+	 * @param audioFile
+	 *            The audio file.
+	 * @return The transcoded audio or null if it is not a 16 bit PCM WAV file
+	 *         or it could not be read.
+	 */
+	public static synchronized PcmFile open(final AudioFile audioFile) {
+		final File transcoded = new File(audioFile.transcodedPath());
+		final String key = transcoded.getAbsolutePath();
+		PcmFile pcm = SHARED.get(key);
+		if (pcm != null && !pcm.matches(transcoded)) {
+			SHARED.remove(key);
+			pcm = null;
+		}
+		if (pcm == null) {
+			try {
+				pcm = open(transcoded);
+				SHARED.put(key, pcm);
+			} catch (final UnsupportedAudioFileException e) {
+				LOG.log(Level.FINE, "Transcoded audio is not 16 bit PCM.", e);
+			} catch (final IOException e) {
+				LOG.log(Level.WARNING, "Could not read " + transcoded.getAbsolutePath(), e);
+			}
+		}
+		return pcm;
+	}
+
+	/**
+	 * Reads up to length bytes from a position into the start of the buffer.
+	 * 
+	 * @return The number of bytes read.
+	 */
+	private static int readFully(final FileChannel channel, final ByteBuffer buffer, final long position,
+			final int length) throws IOException {
+		buffer.clear();
+		buffer.limit(length);
+		int read = 0;
+		int count = 0;
+		while (count >= 0 && buffer.hasRemaining()) {
+			count = channel.read(buffer, position + read);
+			read += Math.max(0, count);
+		}
+		return read;
+	}
+
+	/**
+	 * @return A four character chunk identifier as a little endian int.
+	 */
+	private static int chunkId(final String id) {
+		return id.charAt(0) | id.charAt(1) << 8 | id.charAt(2) << 16 | id.charAt(3) << 24;
+	}
+
+	/**
+	 * Opens the file to read samples. Close the reader when done.
+	 * 
+	 * @return A new reader.
+	 * @throws IOException
+	 *             If the file can not be opened.
+	 */
+	public Reader reader() throws IOException {
+		return new Reader(FileChannel.open(file.toPath(), StandardOpenOption.READ));
+	}
+
+	/**
+	 * @param audio
+	 *            A WAV file.
+	 * @return True if this is the header of the file as it is on disk now.
+	 */
+	public boolean matches(final File audio) {
+		return audio.getAbsoluteFile().equals(file.getAbsoluteFile()) && audio.length() == fileLength
+				&& audio.lastModified() == fileModified;
+	}
+
+	/**
+	 * @return The WAV file.
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return The format of the audio data: signed 16 bit little endian PCM.
+	 */
+	public AudioFormat getFormat() {
+		return new AudioFormat(sampleRate, 16, channels, true, false);
+	}
+
+	/**
+	 * @return The sample rate in Hz.
+	 */
+	public float getSampleRate() {
+		return sampleRate;
+	}
+
+	/**
+	 * @return The number of channels.
+	 */
+	public int getNumberOfChannels() {
+		return channels;
+	}
+
+	/**
+	 * @return The number of bytes of a frame: a sample for each channel.
+	 */
+	public int getFrameSize() {
+		return 2 * channels;
+	}
+
+	/**
+	 * @return The number of frames.
+	 */
+	public long getNumberOfFrames() {
+		return dataLength / getFrameSize();
+	}
+
+	/**
+	 * @return The duration of the audio in seconds.
+	 */
+	public double getDuration() {
+		return getNumberOfFrames() / sampleRate;
+	}
+
+	/**
+	 * @return The position of the first audio byte in the file.
+	 */
+	public long getDataOffset() {
+		return dataOffset;
+	}
+
+	/**
+	 * @param seconds
+	 *            A time in seconds.
+	 * @return The index of the frame at the time, limited to the start and
+	 *         the end of the audio.
+	 */
+	public long frameAt(final double seconds) {
+		return Math.max(0, Math.min(getNumberOfFrames(), (long) (seconds * sampleRate)));
+	}
+
+	/**
+	 * @param frame
+	 *            The index of a frame.
+	 * @return The time of the frame in seconds.
+	 */
+	public double timeAt(final long frame) {
+		return frame / (double) sampleRate;
+	}
+
+	/**
+	 * Reads the samples of a PCM file with positional reads on an open file
+	 * channel. Not thread safe: use a reader per thread.
+	 */
+	public final class Reader implements Closeable {
+		private final FileChannel channel;
+
+		/**
+		 * The bytes last read, little endian.
+		 */
+		private final ByteBuffer bytes;
+
+		private Reader(final FileChannel channel) {
+			this.channel = channel;
+			this.bytes = ByteBuffer.allocate(READ_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		/**
+		 * Reads samples as floats between -1 and 1, channels interleaved.
+		 * 
+		 * @param frame
+		 *            The frame to start reading from.
+		 * @param buffer
+		 *            The buffer to fill.
+		 * @param offset
+		 *            The first index in the buffer to fill.
+		 * @param length
+		 *            The number of samples to read.
+		 * @return The number of samples read: less than length at the end of
+		 *         the audio.
+		 * @throws IOException
+		 *             If the file can not be read.
+		 */
+		public int read(final long frame, final float[] buffer, final int offset, final int length)
+				throws IOException {
+			final long start = Math.max(0, frame) * channels;
+			final int count = (int) Math.max(0, Math.min(length, dataLength / 2 - start));
+			int done = 0;
+			while (done < count) {
+				final int samples = Math.min(count - done, READ_BUFFER_SIZE / 2);
+				final int read = readFully(channel, bytes, dataOffset + (start + done) * 2, samples * 2) / 2;
+				for (int i = 0; i < read; i++) {
+					buffer[offset + done + i] = bytes.getShort(i * 2) * SCALE;
+				}
+				done += read;
+				if (read < samples) {
+					// The file was truncated.
+					break;
+				}
+			}
+			return done;
+		}
+
+		/**
+		 * Reads the bytes of consecutive frames, e.g. to write them to an
+		 * audio line.
+		 * 
+		 * @param frame
+		 *            The frame to start reading from.
+		 * @param buffer
+		 *            The buffer to fill, from the start.
+		 * @param numberOfFrames
+		 *            The number of frames to read, they should fit in the
+		 *            buffer.
+		 * @return The number of frames read: less than requested at the end
+		 *         of the audio.
+		 * @throws IOException
+		 *             If the file can not be read.
+		 */
+		public int read(final long frame, final byte[] buffer, final int numberOfFrames) throws IOException {
+			final int frameSize = getFrameSize();
+			final long start = Math.max(0, frame);
+			final int count = (int) Math.max(0, Math.min(numberOfFrames, getNumberOfFrames() - start));
+			final ByteBuffer target = ByteBuffer.wrap(buffer, 0, count * frameSize);
+			return readFully(channel, target, dataOffset + start * frameSize, count * frameSize) / frameSize;
+		}
+
+		/**
+		 * @param frame
+		 *            The index of a frame.
+		 * @param channel
+		 *            The channel, starting at zero.
+		 * @return The sample of a channel as a float between -1 and 1.
+		 * @throws IOException
+		 *             If the file can not be read or the frame is not in the
+		 *             file.
+		 */
+		public float sample(final long frame, final int channel) throws IOException {
+			if (readFully(this.channel, bytes, dataOffset + (frame * channels + channel) * 2, 2) < 2) {
+				throw new IOException("No sample at frame " + frame + " in " + file.getName());
+			}
+			return bytes.getShort(0) * SCALE;
+		}
+
+		/**
+		 * Closes the file.
+		 */
+		public void close() {
+			BinaryFiles.close(channel);
+		}
+	}
+}
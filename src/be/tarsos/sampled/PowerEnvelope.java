@@ -0,0 +1,640 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+
+package be.tarsos.sampled;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import be.tarsos.dsp.AudioEvent;
+import be.tarsos.dsp.AudioProcessor;
+import be.tarsos.util.AnalysisCache;
+import be.tarsos.util.AudioFile;
+import be.tarsos.util.BinaryFiles;
+import be.tarsos.util.ConfKey;
+import be.tarsos.util.Configuration;
+import be.tarsos.util.FileUtils;
+import be.tarsos.util.StopWatch;
+
+/**
+ * <p>
+ * The power envelope of a file: the linear power, the sum of the squared
+ * samples, of consecutive windows. Envelopes for several hop sizes are
+ * calculated while the audio is read once. A window is as long as its hop, the
+ * last window is padded with zeros.
+ * </p>
+ * <p>
+ * Envelopes are stored next to the transcoded audio, together with the MD5 of
+ * the file, see {@link #create(AudioFile, int...)}. After the first run the
+ * power of a file is read from disk instead of calculated. The hop sizes
+ * stored for each file are configured with {@link ConfKey#power_hop_sizes}.
+ * </p>
+ * 
+ * @author Joren Six
+ */
+public final class PowerEnvelope {
+
+	/**
+	 * Log messages.
+	 */
+	private static final Logger LOG = Logger.getLogger(PowerEnvelope.class.getName());
+
+	/**
+	 * Identifies a power envelope file: "TPWE".
+	 */
+	private static final int MAGIC = 0x54505745;
+
+	/**
+	 * The version of the format. Files with another version are ignored (and
+	 * recalculated).
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * The producer of stored envelopes, see {@link AnalysisCache}.
+	 */
+	private static final String PRODUCER = "power_envelope";
+
+	/**
+	 * The number of samples handed to the builder at a time while decoding.
+	 */
+	private static final int DECODE_BUFFER_SIZE = 4096;
+
+	/**
+	 * The last created envelope, shared by e.g. the power extractor and the
+	 * session that calculated it.
+	 */
+	private static PowerEnvelope last;
+
+	private final String md5;
+	private final float sampleRate;
+	private final long numberOfSamples;
+	private final long sourceLength;
+
+	/**
+	 * The hop sizes, ascending.
+	 */
+	private final int[] hopSizes;
+
+	/**
+	 * For each hop size the power of each window.
+	 */
+	private final double[][] powers;
+
+	private PowerEnvelope(final String md5, final float sampleRate, final long numberOfSamples,
+			final long sourceLength, final int[] hopSizes, final double[][] powers) {
+		this.md5 = md5;
+		this.sampleRate = sampleRate;
+		this.numberOfSamples = numberOfSamples;
+		this.sourceLength = sourceLength;
+		this.hopSizes = hopSizes;
+		this.powers = powers;
+	}
+
+	/**
+	 * @return The MD5 hash of the file the envelope belongs to, see
+	 *         {@link AudioFile#md5()}.
+	 */
+	public String getMd5() {
+		return md5;
+	}
+
+	/**
+	 * @return The sample rate of the audio.
+	 */
+	public float getSampleRate() {
+		return sampleRate;
+	}
+
+	/**
+	 * @return The number of samples of the audio.
+	 */
+	public long getNumberOfSamples() {
+		return numberOfSamples;
+	}
+
+	/**
+	 * @return The duration of the audio in seconds.
+	 */
+	public double getDuration() {
+		return numberOfSamples / (double) sampleRate;
+	}
+
+	/**
+	 * @return The hop sizes in samples, ascending.
+	 */
+	public int[] getHopSizes() {
+		return hopSizes.clone();
+	}
+
+	/**
+	 * @param hopSize
+	 *            A hop size in samples.
+	 * @return True if the envelope contains the power for the hop size.
+	 */
+	public boolean hasHopSize(final int hopSize) {
+		return Arrays.binarySearch(hopSizes, hopSize) >= 0;
+	}
+
+	/**
+	 * @param hopSize
+	 *            A hop size in samples, one of {@link #getHopSizes()}.
+	 * @return The linear power of each window of hopSize samples.
+	 */
+	public double[] getPowers(final int hopSize) {
+		return powers[index(hopSize)].clone();
+	}
+
+	/**
+	 * @param hopSize
+	 *            A hop size in samples, one of {@link #getHopSizes()}.
+	 * @return The root mean square of each window of hopSize samples.
+	 */
+	public double[] getRms(final int hopSize) {
+		final double[] power = powers[index(hopSize)];
+		final double[] rms = new double[power.length];
+		for (int i = 0; i < power.length; i++) {
+			rms[i] = Math.sqrt(power[i] / hopSize);
+		}
+		return rms;
+	}
+
+	private int index(final int hopSize) {
+		final int index = Arrays.binarySearch(hopSizes, hopSize);
+		if (index < 0) {
+			throw new IllegalArgumentException("No envelope with hop size " + hopSize);
+		}
+		return index;
+	}
+
+	/**
+	 * @return True if the envelope belongs to the audio file as it is
+	 *         transcoded now and contains all hop sizes.
+	 */
+	private boolean matches(final AudioFile audioFile, final int[] requiredHopSizes) {
+		boolean matches = md5.equals(audioFile.md5())
+				&& sourceLength == new File(audioFile.transcodedPath()).length();
+		for (int i = 0; matches && i < requiredHopSizes.length; i++) {
+			matches = hasHopSize(requiredHopSizes[i]);
+		}
+		return matches;
+	}
+
+	/**
+	 * Builds an envelope from samples added in order.
+	 */
+	public static final class Builder {
+		private final float sampleRate;
+		private final int[] hopSizes;
+		private final double[][] powers;
+		private final int[] numberOfWindows;
+		private long numberOfSamples;
+
+		/**
+		 * The power and the number of samples of the current window of each
+		 * hop size.
+		 */
+		private final double[] power;
+		private final int[] samplesInWindow;
+
+		/**
+		 * @param sampleRate
+		 *            The sample rate of the audio.
+		 * @param hopSizes
+		 *            The hop sizes in samples.
+		 */
+		public Builder(final float sampleRate, final int... hopSizes) {
+			this.sampleRate = sampleRate;
+			this.hopSizes = sortedHopSizes(hopSizes);
+			powers = new double[this.hopSizes.length][1024];
+			numberOfWindows = new int[this.hopSizes.length];
+			power = new double[this.hopSizes.length];
+			samplesInWindow = new int[this.hopSizes.length];
+		}
+
+		/**
+		 * Adds samples. The power of a window is summed in the same order as
+		 * {@link be.tarsos.util.SignalPowerExtractor#localEnergy(float[])},
+		 * so the values are identical.
+		 * 
+		 * @param samples
+		 *            An array with samples.
+		 * @param offset
+		 *            The index of the first sample to add.
+		 * @param length
+		 *            The number of samples to add.
+		 */
+		public void add(final float[] samples, final int offset, final int length) {
+			final int end = offset + length;
+			for (int hop = 0; hop < hopSizes.length; hop++) {
+				int start = offset;
+				while (start < end) {
+					final int stop = Math.min(end, start + hopSizes[hop] - samplesInWindow[hop]);
+					double windowPower = power[hop];
+					for (int i = start; i < stop; i++) {
+						windowPower += samples[i] * samples[i];
+					}
+					power[hop] = windowPower;
+					samplesInWindow[hop] += stop - start;
+					if (samplesInWindow[hop] == hopSizes[hop]) {
+						finishWindow(hop);
+					}
+					start = stop;
+				}
+			}
+			numberOfSamples += length;
+		}
+
+		private void finishWindow(final int hop) {
+			if (numberOfWindows[hop] == powers[hop].length) {
+				powers[hop] = Arrays.copyOf(powers[hop], powers[hop].length * 2);
+			}
+			powers[hop][numberOfWindows[hop]++] = power[hop];
+			power[hop] = 0;
+			samplesInWindow[hop] = 0;
+		}
+
+		/**
+		 * @param md5
+		 *            The MD5 of the file the samples belong to.
+		 * @param audio
+		 *            The transcoded audio, or null.
+		 * @return The envelope of the added samples.
+		 */
+		public PowerEnvelope build(final String md5, final File audio) {
+			final double[][] built = new double[hopSizes.length][];
+			for (int hop = 0; hop < hopSizes.length; hop++) {
+				if (samplesInWindow[hop] > 0) {
+					// Padded with zeros.
+					finishWindow(hop);
+				}
+				built[hop] = Arrays.copyOf(powers[hop], numberOfWindows[hop]);
+			}
+			return new PowerEnvelope(md5, sampleRate, numberOfSamples, audio == null ? 0 : audio.length(),
+					hopSizes, built);
+		}
+	}
+
+	/**
+	 * @return Distinct, positive hop sizes in ascending order.
+	 */
+	private static int[] sortedHopSizes(final int... hopSizes) {
+		final TreeSet<Integer> sorted = new TreeSet<Integer>();
+		for (final int hopSize : hopSizes) {
+			if (hopSize <= 0) {
+				throw new IllegalArgumentException("Invalid hop size " + hopSize);
+			}
+			sorted.add(hopSize);
+		}
+		final int[] result = new int[sorted.size()];
+		int index = 0;
+		for (final Integer hopSize : sorted) {
+			result[index++] = hopSize;
+		}
+		return result;
+	}
+
+	/**
+	 * @param hopSizes
+	 *            Hop sizes in samples.
+	 * @return The configured hop sizes together with the given ones.
+	 */
+	public static int[] hopSizes(final int... hopSizes) {
+		// Any separator between the numbers.
+		final String[] configured = Configuration.get(ConfKey.power_hop_sizes).trim().split("[^0-9]+");
+		final int[] all = Arrays.copyOf(hopSizes, hopSizes.length + configured.length);
+		int length = hopSizes.length;
+		for (final String value : configured) {
+			if (value.length() > 0) {
+				all[length++] = Integer.parseInt(value);
+			}
+		}
+		return sortedHopSizes(Arrays.copyOf(all, length));
+	}
+
+	/**
+	 * Returns the envelope of the transcoded audio of a file, for the
+	 * configured hop sizes and the given ones. A stored envelope is used if it
+	 * belongs to the file, otherwise the audio is read and the new envelope is
+	 * stored. Files are not locked: several files can be processed in
+	 * parallel.
+	 * 
+	 * @param audioFile
+	 *            The audio file.
+	 * @param hopSizes
+	 *            Hop sizes in samples needed besides the configured ones.
+	 * @return The envelope, or null if the audio could not be read.
+	 */
+	public static PowerEnvelope create(final AudioFile audioFile, final int... hopSizes) {
+		final int[] required = hopSizes(hopSizes);
+		PowerEnvelope envelope = readStored(audioFile, required);
+		if (envelope == null) {
+			envelope = extract(new File(audioFile.transcodedPath()), audioFile.md5(), required);
+			if (envelope != null && !Thread.currentThread().isInterrupted()) {
+				store(audioFile, envelope);
+			}
+		}
+		return envelope;
+	}
+
+	/**
+	 * Returns the stored envelope of a file, if it belongs to the file and
+	 * contains the hop sizes. The audio is never read.
+	 * 
+	 * @param audioFile
+	 *            The audio file.
+	 * @param hopSizes
+	 *            The required hop sizes in samples.
+	 * @return The envelope or null if it is not stored, out of date or it
+	 *         misses a hop size.
+	 */
+	public static PowerEnvelope readStored(final AudioFile audioFile, final int... hopSizes) {
+		PowerEnvelope envelope;
+		synchronized (PowerEnvelope.class) {
+			envelope = last;
+		}
+		if (envelope == null || !envelope.matches(audioFile, hopSizes)) {
+			final String fileName = fileName(audioFile);
+			final boolean stored = AnalysisCache.getInstance().lookup(fileName, audioFile.md5(), PRODUCER,
+					"version=" + VERSION);
+			envelope = stored ? read(fileName) : null;
+			if (envelope != null && !envelope.matches(audioFile, hopSizes)) {
+				envelope = null;
+			}
+		}
+		return envelope;
+	}
+
+	/**
+	 * Stores the envelope of a file and keeps it in memory.
+	 */
+	private static void store(final AudioFile audioFile, final PowerEnvelope envelope) {
+		if (envelope.write(fileName(audioFile))) {
+			AnalysisCache.getInstance().put(fileName(audioFile), audioFile.md5(), PRODUCER, "version=" + VERSION);
+		}
+		synchronized (PowerEnvelope.class) {
+			last = envelope;
+		}
+	}
+
+	/**
+	 * @param audioFile
+	 *            The audio file.
+	 * @return The name of the file the envelope is stored in, next to the
+	 *         transcoded audio.
+	 */
+	public static String fileName(final AudioFile audioFile) {
+		return FileUtils.combine(audioFile.transcodedDirectory(), audioFile.transcodedBasename() + "_power.bin");
+	}
+
+	/**
+	 * Adds a processor to a session that calculates and stores the envelope of
+	 * a file, unless an envelope is stored already. This way the power is
+	 * extracted while the audio is decoded for e.g. pitch detection:
+	 * {@link #create(AudioFile, int...)} returns it after the session has run.
+	 * 
+	 * @param session
+	 *            The session decoding the transcoded audio of the file.
+	 * @param audioFile
+	 *            The audio file.
+	 * @param hopSizes
+	 *            Hop sizes in samples needed besides the configured ones.
+	 */
+	public static void addTo(final ExtractionSession session, final AudioFile audioFile, final int... hopSizes) {
+		final int[] required = hopSizes(hopSizes);
+		if (readStored(audioFile, required) == null) {
+			final File audio = new File(audioFile.transcodedPath());
+			try {
+				final AudioFileFormat format = AudioSystem.getAudioFileFormat(audio);
+				final long frameLength = format.getFrameLength();
+				final Builder builder = new Builder(format.getFormat().getSampleRate(), required);
+				session.addAudioProcessor(new EnvelopeProcessor(builder, frameLength) {
+					public void processingFinished() {
+						if (!Thread.currentThread().isInterrupted()) {
+							store(audioFile, builder.build(audioFile.md5(), audio));
+						}
+					}
+				}, DECODE_BUFFER_SIZE, 0);
+			} catch (final UnsupportedAudioFileException e) {
+				LOG.log(Level.SEVERE, "Could not decode " + audio.getAbsolutePath(), e);
+			} catch (final IOException e) {
+				LOG.log(Level.SEVERE, "Could not read " + audio.getAbsolutePath(), e);
+			}
+		}
+	}
+
+	/**
+	 * Hands decoded samples to a builder, without the zeros that pad the last
+	 * buffer.
+	 */
+	private abstract static class EnvelopeProcessor implements AudioProcessor {
+		private final Builder builder;
+		private final long samplesToAdd;
+
+		EnvelopeProcessor(final Builder builder, final long frameLength) {
+			this.builder = builder;
+			this.samplesToAdd = frameLength < 0 ? Long.MAX_VALUE : frameLength;
+		}
+
+		public boolean process(final AudioEvent audioEvent) {
+			final float[] buffer = audioEvent.getFloatBuffer();
+			final long remaining = samplesToAdd - audioEvent.getSamplesProcessed();
+			builder.add(buffer, 0, (int) Math.max(0, Math.min(buffer.length, remaining)));
+			return true;
+		}
+	}
+
+	/**
+	 * Calculates the envelope of an audio file. Mono 16 bit WAV files, as
+	 * transcoded by Tarsos, are read from a {@link PcmFile}; other files
+	 * are decoded with an {@link ExtractionSession}.
+	 * 
+	 * @param audio
+	 *            The file to read.
+	 * @param md5
+	 *            The MD5 of the file, see {@link AudioFile#md5()}.
+	 * @param hopSizes
+	 *            The hop sizes in samples.
+	 * @return The envelope or null if the file could not be read or the
+	 *         thread was interrupted.
+	 */
+	public static PowerEnvelope extract(final File audio, final String md5, final int... hopSizes) {
+		final StopWatch watch = new StopWatch();
+		PcmFile pcm = null;
+		try {
+			pcm = PcmFile.open(audio);
+		} catch (final UnsupportedAudioFileException e) {
+			LOG.fine("Decoding " + audio.getName() + ": " + e.getMessage());
+		} catch (final IOException e) {
+			LOG.log(Level.FINE, "Could not read " + audio.getAbsolutePath(), e);
+		}
+		final PowerEnvelope envelope;
+		if (pcm != null && pcm.getNumberOfChannels() == 1) {
+			envelope = extract(pcm, md5, hopSizes);
+		} else {
+			envelope = decode(audio, md5, hopSizes);
+		}
+		if (envelope != null) {
+			LOG.fine(String.format("Extracted power envelope with hop sizes %s for %s in %s",
+					Arrays.toString(envelope.hopSizes), audio.getName(), watch.formattedToString()));
+		}
+		return envelope;
+	}
+
+	/**
+	 * Calculates the envelope from the samples of a mono PCM file.
+	 */
+	private static PowerEnvelope extract(final PcmFile pcm, final String md5, final int[] hopSizes) {
+		final Builder builder = new Builder(pcm.getSampleRate(), hopSizes);
+		final float[] buffer = new float[DECODE_BUFFER_SIZE];
+		final long numberOfFrames = pcm.getNumberOfFrames();
+		long frame = 0;
+		boolean interrupted = false;
+		PcmFile.Reader reader = null;
+		try {
+			reader = pcm.reader();
+			int read = 1;
+			while (frame < numberOfFrames && read > 0 && !interrupted) {
+				read = reader.read(frame, buffer, 0, buffer.length);
+				builder.add(buffer, 0, read);
+				frame += read;
+				interrupted = Thread.currentThread().isInterrupted();
+			}
+		} catch (final IOException e) {
+			LOG.log(Level.WARNING, "Could not read " + pcm.getFile().getAbsolutePath(), e);
+			return null;
+		} finally {
+			BinaryFiles.close(reader);
+		}
+		return interrupted ? null : builder.build(md5, pcm.getFile());
+	}
+
+	/**
+	 * Decodes a file with an extraction session and calculates its envelope.
+	 */
+	private static PowerEnvelope decode(final File audio, final String md5, final int[] hopSizes) {
+		PowerEnvelope envelope = null;
+		try {
+			final AudioFileFormat format = AudioSystem.getAudioFileFormat(audio);
+			final Builder builder = new Builder(format.getFormat().getSampleRate(), hopSizes);
+			final boolean[] finished = new boolean[1];
+			final ExtractionSession session = new ExtractionSession(audio);
+			session.addAudioProcessor(new EnvelopeProcessor(builder, format.getFrameLength()) {
+				public void processingFinished() {
+					finished[0] = !Thread.currentThread().isInterrupted();
+				}
+			}, DECODE_BUFFER_SIZE, 0);
+			session.run();
+			if (finished[0]) {
+				envelope = builder.build(md5, audio);
+			}
+		} catch (final UnsupportedAudioFileException e) {
+			LOG.log(Level.SEVERE, "Could not decode " + audio.getAbsolutePath(), e);
+		} catch (final IOException e) {
+			LOG.log(Level.SEVERE, "Could not read " + audio.getAbsolutePath(), e);
+		}
+		return envelope;
+	}
+
+	/**
+	 * Writes the envelope to a file. It is written to a temporary file first,
+	 * so readers never see a partial envelope.
+	 * 
+	 * @param fileName
+	 *            The file to write to.
+	 * @return True if the envelope is written, false otherwise.
+	 */
+	public boolean write(final String fileName) {
+		return BinaryFiles.write(new File(fileName), new BinaryFiles.Writer() {
+			public void write(final DataOutputStream out) throws IOException {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				BinaryFiles.writeString(out, md5);
+				out.writeFloat(sampleRate);
+				out.writeLong(numberOfSamples);
+				out.writeLong(sourceLength);
+				out.writeInt(hopSizes.length);
+				for (int hop = 0; hop < hopSizes.length; hop++) {
+					out.writeInt(hopSizes[hop]);
+					out.writeInt(powers[hop].length);
+					for (final double value : powers[hop]) {
+						out.writeDouble(value);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Reads an envelope from a file. The file is read at once and the powers
+	 * are read in bulk.
+	 * 
+	 * @param fileName
+	 *            The file to read.
+	 * @return The envelope or null if the file is not a (valid) envelope file.
+	 */
+	public static PowerEnvelope read(final String fileName) {
+		PowerEnvelope envelope = null;
+		try {
+			final ByteBuffer buffer = BinaryFiles.read(new File(fileName));
+			if (buffer.remaining() >= 8 && buffer.getInt() == MAGIC && buffer.getInt() == VERSION) {
+				final String md5 = BinaryFiles.readString(buffer);
+				final float sampleRate = buffer.getFloat();
+				final long numberOfSamples = buffer.getLong();
+				final long sourceLength = buffer.getLong();
+				// A hop size and the number of powers take eight bytes.
+				final int[] hopSizes = new int[BinaryFiles.readLength(buffer, 8)];
+				final double[][] powers = new double[hopSizes.length][];
+				for (int hop = 0; hop < hopSizes.length; hop++) {
+					hopSizes[hop] = buffer.getInt();
+					powers[hop] = new double[BinaryFiles.readLength(buffer, 8)];
+					buffer.asDoubleBuffer().get(powers[hop]);
+					buffer.position(buffer.position() + powers[hop].length * 8);
+				}
+				envelope = new PowerEnvelope(md5, sampleRate, numberOfSamples, sourceLength, hopSizes, powers);
+			} else {
+				LOG.fine("Unsupported power envelope " + fileName);
+			}
+		} catch (final IOException e) {
+			LOG.log(Level.WARNING, "Could not read power envelope " + fileName, e);
+		} catch (final RuntimeException e) {
+			// Truncated files.
+			LOG.log(Level.WARNING, "Corrupt power envelope " + fileName, e);
+			envelope = null;
+		}
+		return envelope;
+	}
+}
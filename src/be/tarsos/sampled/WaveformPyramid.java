@@ -0,0 +1,698 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+
+package be.tarsos.sampled;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import be.tarsos.dsp.AudioEvent;
+import be.tarsos.dsp.AudioProcessor;
+import be.tarsos.util.AnalysisCache;
+import be.tarsos.util.AudioFile;
+import be.tarsos.util.BinaryFiles;
+import be.tarsos.util.FileUtils;
+import be.tarsos.util.StopWatch;
+
+/**
+ * <p>
+ * A multi-resolution summary of a waveform: for consecutive blocks of samples
+ * the minimum, maximum and RMS are kept. The first level summarizes blocks of
+ * {@link #BLOCK_SIZE} samples, each next level combines two blocks of the
+ * previous level, up to a single block for the complete audio. A waveform can
+ * be drawn at any zoom level by combining a few blocks for each pixel, without
+ * decoding the audio.
+ * </p>
+ * <p>
+ * The pyramid is stored next to the transcoded audio, see
+ * {@link #create(AudioFile)}. Values are stored as 16 bit integers: for an
+ * hour of audio at 44.1kHz the file is about 7MB and it is read in a fraction
+ * of a second.
+ * </p>
+ * <p>
+ * Pyramids of different files are created concurrently. Threads that ask for
+ * the pyramid of a file that is being created wait for it instead of
+ * decoding the audio again. Reading a stored pyramid never waits.
+ * </p>
+ * 
+ * @author Joren Six
+ */
+public final class WaveformPyramid {
+
+	/**
+	 * Log messages.
+	 */
+	private static final Logger LOG = Logger.getLogger(WaveformPyramid.class.getName());
+
+	/**
+	 * Identifies a waveform pyramid file: "TWFP".
+	 */
+	private static final int MAGIC = 0x54574650;
+
+	/**
+	 * The version of the format. Files with another version are ignored (and
+	 * recalculated).
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * The number of samples summarized by a block of the first level.
+	 */
+	public static final int BLOCK_SIZE = 256;
+
+	/**
+	 * The number of values kept for a block: minimum, maximum and RMS.
+	 */
+	private static final int VALUES_PER_BLOCK = 3;
+
+	/**
+	 * The factor to store an amplitude between -1 and 1 as a short.
+	 */
+	private static final float SCALE = Short.MAX_VALUE;
+
+	/**
+	 * The producer of stored pyramids, see {@link AnalysisCache}.
+	 */
+	private static final String PRODUCER = "waveform_pyramid";
+
+	/**
+	 * The number of samples handed to the builder at a time while decoding.
+	 */
+	private static final int DECODE_BUFFER_SIZE = BLOCK_SIZE * 16;
+
+	/**
+	 * The last created pyramid. The waveform views of the same file share it.
+	 */
+	private static volatile Loaded last;
+
+	/**
+	 * The pyramids being created, by the name of the file they are stored in.
+	 */
+	private static final ConcurrentMap<String, FutureTask<WaveformPyramid>> LOADING =
+			new ConcurrentHashMap<String, FutureTask<WaveformPyramid>>();
+
+	/**
+	 * A pyramid with the name of the file it is stored in.
+	 */
+	private static final class Loaded {
+		private final String fileName;
+		private final WaveformPyramid pyramid;
+
+		private Loaded(final String fileName, final WaveformPyramid pyramid) {
+			this.fileName = fileName;
+			this.pyramid = pyramid;
+		}
+	}
+
+	private final float sampleRate;
+	private final long numberOfSamples;
+	private final long sourceLength;
+	private final long sourceModified;
+
+	/**
+	 * For each level the minimum, maximum and RMS of each block, interleaved.
+	 */
+	private final short[][] levels;
+
+	private WaveformPyramid(final float sampleRate, final long numberOfSamples, final long sourceLength,
+			final long sourceModified, final short[][] levels) {
+		this.sampleRate = sampleRate;
+		this.numberOfSamples = numberOfSamples;
+		this.sourceLength = sourceLength;
+		this.sourceModified = sourceModified;
+		this.levels = levels;
+	}
+
+	/**
+	 * @return The sample rate of the summarized audio.
+	 */
+	public float getSampleRate() {
+		return sampleRate;
+	}
+
+	/**
+	 * @return The number of summarized samples.
+	 */
+	public long getNumberOfSamples() {
+		return numberOfSamples;
+	}
+
+	/**
+	 * @return The duration of the summarized audio in seconds.
+	 */
+	public double getDuration() {
+		return numberOfSamples / (double) sampleRate;
+	}
+
+	/**
+	 * @return The number of levels, each level has blocks twice as large as
+	 *         the previous one.
+	 */
+	public int getNumberOfLevels() {
+		return levels.length;
+	}
+
+	/**
+	 * @param level
+	 *            The level.
+	 * @return The number of blocks on the level.
+	 */
+	public int getNumberOfBlocks(final int level) {
+		return levels[level].length / VALUES_PER_BLOCK;
+	}
+
+	/**
+	 * Checks if the pyramid summarizes the current version of a file: the
+	 * length and modification time of the file are compared.
+	 * 
+	 * @param audio
+	 *            The summarized file.
+	 * @return True if the file did not change since the pyramid was built.
+	 */
+	public boolean matches(final File audio) {
+		return audio.length() == sourceLength && audio.lastModified() == sourceModified;
+	}
+
+	/**
+	 * Summarizes a part of the waveform in a number of columns, e.g. one for
+	 * each pixel. For each column the minimum, maximum and RMS of the samples
+	 * are combined from the largest aligned blocks that fit in the column, so
+	 * the summary is exact up to half a block of the first level at each side
+	 * and takes a logarithmic number of blocks. Columns outside the audio are
+	 * zero.
+	 * 
+	 * @param startTime
+	 *            The start of the first column, in seconds.
+	 * @param stopTime
+	 *            The end of the last column, in seconds.
+	 * @param minima
+	 *            Filled with the minimum of each column. Its length defines
+	 *            the number of columns.
+	 * @param maxima
+	 *            Filled with the maximum of each column.
+	 * @param rms
+	 *            Filled with the RMS of each column.
+	 */
+	public void summarize(final double startTime, final double stopTime, final float[] minima,
+			final float[] maxima, final float[] rms) {
+		final int columns = minima.length;
+		final double blocksPerColumn = (stopTime - startTime) * sampleRate / BLOCK_SIZE / columns;
+		final double startBlock = startTime * sampleRate / BLOCK_SIZE;
+		final long numberOfBlocks = getNumberOfBlocks(0);
+		for (int column = 0; column < columns; column++) {
+			final long from = Math.max(0, Math.round(startBlock + column * blocksPerColumn));
+			final long to = Math.min(numberOfBlocks,
+					Math.max(from + 1, Math.round(startBlock + (column + 1) * blocksPerColumn)));
+			float minimum = 0;
+			float maximum = 0;
+			double sumOfSquares = 0;
+			long count = 0;
+			long block = from;
+			while (block < to) {
+				// The largest block starting here that does not pass the end.
+				int level = 0;
+				while (level + 1 < levels.length && (block & ((1L << (level + 1)) - 1)) == 0
+						&& block + (1L << (level + 1)) <= to) {
+					level++;
+				}
+				final long blockSize = (long) BLOCK_SIZE << level;
+				final int index = (int) (block >> level) * VALUES_PER_BLOCK;
+				final short[] blocks = levels[level];
+				final long samples = Math.min(blockSize, numberOfSamples - block * BLOCK_SIZE);
+				final float blockMinimum = blocks[index] / SCALE;
+				final float blockMaximum = blocks[index + 1] / SCALE;
+				final double blockRms = blocks[index + 2] / SCALE;
+				if (count == 0) {
+					minimum = blockMinimum;
+					maximum = blockMaximum;
+				} else {
+					minimum = Math.min(minimum, blockMinimum);
+					maximum = Math.max(maximum, blockMaximum);
+				}
+				sumOfSquares += blockRms * blockRms * samples;
+				count += samples;
+				block += 1L << level;
+			}
+			minima[column] = minimum;
+			maxima[column] = maximum;
+			rms[column] = count == 0 ? 0 : (float) Math.sqrt(sumOfSquares / count);
+		}
+	}
+
+	/**
+	 * Builds a pyramid from samples handed to it in order.
+	 */
+	public static final class Builder {
+		private final float sampleRate;
+		private short[] blocks;
+		private int numberOfBlocks;
+		private long numberOfSamples;
+
+		private float minimum;
+		private float maximum;
+		private double sumOfSquares;
+		private int samplesInBlock;
+
+		/**
+		 * @param sampleRate
+		 *            The sample rate of the audio.
+		 */
+		public Builder(final float sampleRate) {
+			this.sampleRate = sampleRate;
+			blocks = new short[VALUES_PER_BLOCK * 1024];
+		}
+
+		/**
+		 * Adds samples.
+		 * 
+		 * @param samples
+		 *            An array with samples.
+		 * @param offset
+		 *            The index of the first sample to add.
+		 * @param length
+		 *            The number of samples to add.
+		 */
+		public void add(final float[] samples, final int offset, final int length) {
+			final int end = offset + length;
+			int start = offset;
+			while (start < end) {
+				final int stop = Math.min(end, start + BLOCK_SIZE - samplesInBlock);
+				if (samplesInBlock == 0) {
+					minimum = samples[start];
+					maximum = samples[start];
+				}
+				float blockMinimum = minimum;
+				float blockMaximum = maximum;
+				double blockSumOfSquares = 0;
+				for (int i = start; i < stop; i++) {
+					final float sample = samples[i];
+					blockMinimum = sample < blockMinimum ? sample : blockMinimum;
+					blockMaximum = sample > blockMaximum ? sample : blockMaximum;
+					blockSumOfSquares += sample * sample;
+				}
+				minimum = blockMinimum;
+				maximum = blockMaximum;
+				sumOfSquares += blockSumOfSquares;
+				samplesInBlock += stop - start;
+				if (samplesInBlock == BLOCK_SIZE) {
+					finishBlock();
+				}
+				start = stop;
+			}
+			numberOfSamples += length;
+		}
+
+		private void finishBlock() {
+			if (blocks.length < (numberOfBlocks + 1) * VALUES_PER_BLOCK) {
+				blocks = Arrays.copyOf(blocks, blocks.length * 2);
+			}
+			final int index = numberOfBlocks * VALUES_PER_BLOCK;
+			blocks[index] = quantize(minimum);
+			blocks[index + 1] = quantize(maximum);
+			blocks[index + 2] = quantize((float) Math.sqrt(sumOfSquares / samplesInBlock));
+			numberOfBlocks++;
+			sumOfSquares = 0;
+			samplesInBlock = 0;
+		}
+
+		/**
+		 * Builds the pyramid from the samples added.
+		 * 
+		 * @param audio
+		 *            The summarized file, to detect changes later on. Can be
+		 *            null.
+		 * @return A new pyramid.
+		 */
+		public WaveformPyramid build(final File audio) {
+			if (samplesInBlock > 0) {
+				finishBlock();
+			}
+			int numberOfLevels = 1;
+			while ((1L << (numberOfLevels - 1)) < numberOfBlocks) {
+				numberOfLevels++;
+			}
+			final short[][] levels = new short[numberOfLevels][];
+			levels[0] = Arrays.copyOf(blocks, numberOfBlocks * VALUES_PER_BLOCK);
+			for (int level = 1; level < numberOfLevels; level++) {
+				levels[level] = combine(levels[level - 1], (long) BLOCK_SIZE << (level - 1), numberOfSamples);
+			}
+			final long length = audio == null ? 0 : audio.length();
+			final long modified = audio == null ? 0 : audio.lastModified();
+			return new WaveformPyramid(sampleRate, numberOfSamples, length, modified, levels);
+		}
+
+		/**
+		 * Combines each two blocks of a level into a block of the next level.
+		 */
+		private static short[] combine(final short[] previous, final long blockSize, final long numberOfSamples) {
+			final int previousBlocks = previous.length / VALUES_PER_BLOCK;
+			final int numberOfBlocks = (previousBlocks + 1) / 2;
+			final short[] combined = new short[numberOfBlocks * VALUES_PER_BLOCK];
+			for (int block = 0; block < numberOfBlocks; block++) {
+				final int first = 2 * block * VALUES_PER_BLOCK;
+				final int index = block * VALUES_PER_BLOCK;
+				if (2 * block + 1 < previousBlocks) {
+					final int second = first + VALUES_PER_BLOCK;
+					final long secondSamples = Math.min(blockSize, numberOfSamples - (2 * block + 1) * blockSize);
+					final double firstRms = previous[first + 2] / SCALE;
+					final double secondRms = previous[second + 2] / SCALE;
+					final double meanSquare = (firstRms * firstRms * blockSize + secondRms * secondRms
+							* secondSamples)
+							/ (blockSize + secondSamples);
+					combined[index] = (short) Math.min(previous[first], previous[second]);
+					combined[index + 1] = (short) Math.max(previous[first + 1], previous[second + 1]);
+					combined[index + 2] = quantize((float) Math.sqrt(meanSquare));
+				} else {
+					System.arraycopy(previous, first, combined, index, VALUES_PER_BLOCK);
+				}
+			}
+			return combined;
+		}
+
+		private static short quantize(final float value) {
+			return (short) Math.round(Math.max(-1f, Math.min(1f, value)) * SCALE);
+		}
+	}
+
+	/**
+	 * Returns the pyramid for the transcoded audio of a file. A stored pyramid
+	 * is used if it is up to date, otherwise the audio is decoded and the new
+	 * pyramid is stored. This can take a while for long files: call it on a
+	 * background thread. If the pyramid of the file is already being created
+	 * by another thread, its result is awaited.
+	 * 
+	 * @param audioFile
+	 *            The audio file.
+	 * @return The pyramid, or null if the audio could not be decoded or the
+	 *         thread was interrupted.
+	 */
+	public static WaveformPyramid create(final AudioFile audioFile) {
+		final String fileName = fileName(audioFile);
+		WaveformPyramid pyramid = lastCreated(fileName, new File(audioFile.transcodedPath()));
+		if (pyramid == null) {
+			final FutureTask<WaveformPyramid> task = new FutureTask<WaveformPyramid>(
+					new Callable<WaveformPyramid>() {
+						public WaveformPyramid call() {
+							return load(audioFile, fileName);
+						}
+					});
+			FutureTask<WaveformPyramid> loading = LOADING.putIfAbsent(fileName, task);
+			if (loading == null) {
+				loading = task;
+				try {
+					task.run();
+				} finally {
+					LOADING.remove(fileName, task);
+				}
+			}
+			try {
+				pyramid = loading.get();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (final ExecutionException e) {
+				LOG.log(Level.WARNING, "Could not create the waveform pyramid " + fileName, e.getCause());
+			}
+		}
+		return pyramid;
+	}
+
+	/**
+	 * Reads the stored pyramid or decodes the audio, runs once per file at a
+	 * time.
+	 */
+	private static WaveformPyramid load(final AudioFile audioFile, final String fileName) {
+		final File audio = new File(audioFile.transcodedPath());
+		WaveformPyramid pyramid = lastCreated(fileName, audio);
+		if (pyramid == null) {
+			pyramid = readStored(audioFile, fileName, audio);
+		}
+		if (pyramid == null) {
+			pyramid = decode(audio);
+			if (pyramid != null && !Thread.currentThread().isInterrupted() && pyramid.write(fileName)) {
+				AnalysisCache.getInstance().put(fileName, audioFile.md5(), PRODUCER, "version=" + VERSION);
+			}
+		}
+		if (pyramid != null) {
+			last = new Loaded(fileName, pyramid);
+		}
+		return pyramid;
+	}
+
+	/**
+	 * Returns the stored pyramid for the transcoded audio of a file, if it is
+	 * up to date. The audio is never decoded and the method does not wait for
+	 * pyramids being created.
+	 * 
+	 * @param audioFile
+	 *            The audio file.
+	 * @return The pyramid or null if it is not stored or out of date.
+	 */
+	public static WaveformPyramid readStored(final AudioFile audioFile) {
+		final String fileName = fileName(audioFile);
+		final File audio = new File(audioFile.transcodedPath());
+		WaveformPyramid pyramid = lastCreated(fileName, audio);
+		if (pyramid == null) {
+			pyramid = readStored(audioFile, fileName, audio);
+		}
+		return pyramid;
+	}
+
+	private static WaveformPyramid readStored(final AudioFile audioFile, final String fileName, final File audio) {
+		WaveformPyramid pyramid = null;
+		if (AnalysisCache.getInstance().lookup(fileName, audioFile.md5(), PRODUCER, "version=" + VERSION)) {
+			pyramid = read(fileName);
+			if (pyramid != null && !pyramid.matches(audio)) {
+				LOG.info("Ignored stale waveform pyramid " + fileName);
+				pyramid = null;
+			}
+		}
+		return pyramid;
+	}
+
+	/**
+	 * @return The last created pyramid if it belongs to the file and is up
+	 *         to date, null otherwise.
+	 */
+	private static WaveformPyramid lastCreated(final String fileName, final File audio) {
+		final Loaded loaded = last;
+		WaveformPyramid pyramid = null;
+		if (loaded != null && loaded.fileName.equals(fileName) && loaded.pyramid.matches(audio)) {
+			pyramid = loaded.pyramid;
+		}
+		return pyramid;
+	}
+
+	/**
+	 * @param audioFile
+	 *            The audio file.
+	 * @return The name of the file the pyramid is stored in, next to the
+	 *         transcoded audio.
+	 */
+	public static String fileName(final AudioFile audioFile) {
+		return FileUtils.combine(audioFile.transcodedDirectory(), audioFile.transcodedBasename() + "_waveform.bin");
+	}
+
+	/**
+	 * Decodes an audio file and builds its pyramid. Mono 16 bit WAV files, as
+	 * transcoded by Tarsos, are read from a {@link PcmFile}; other files
+	 * are decoded with an {@link ExtractionSession}.
+	 * 
+	 * @param audio
+	 *            The file to decode.
+	 * @return The pyramid or null if the file could not be decoded or the
+	 *         decoding was interrupted.
+	 */
+	public static WaveformPyramid decode(final File audio) {
+		final StopWatch watch = new StopWatch();
+		PcmFile pcm = null;
+		try {
+			pcm = PcmFile.open(audio);
+		} catch (final UnsupportedAudioFileException e) {
+			LOG.fine("Decoding " + audio.getName() + ": " + e.getMessage());
+		} catch (final IOException e) {
+			LOG.log(Level.FINE, "Could not read " + audio.getAbsolutePath(), e);
+		}
+		final WaveformPyramid pyramid;
+		if (pcm != null && pcm.getNumberOfChannels() == 1) {
+			pyramid = build(pcm);
+		} else {
+			pyramid = decodeSession(audio);
+		}
+		if (pyramid != null) {
+			LOG.fine(String.format("Built waveform pyramid with %s levels for %s in %s",
+					pyramid.getNumberOfLevels(), audio.getName(), watch.formattedToString()));
+		}
+		return pyramid;
+	}
+
+	/**
+	 * Builds a pyramid from the samples of a mono PCM file.
+	 * 
+	 * @return The pyramid or null if the thread was interrupted.
+	 */
+	private static WaveformPyramid build(final PcmFile pcm) {
+		final Builder builder = new Builder(pcm.getSampleRate());
+		final float[] buffer = new float[DECODE_BUFFER_SIZE];
+		final long numberOfFrames = pcm.getNumberOfFrames();
+		long frame = 0;
+		boolean interrupted = false;
+		PcmFile.Reader reader = null;
+		try {
+			reader = pcm.reader();
+			int read = 1;
+			while (frame < numberOfFrames && read > 0 && !interrupted) {
+				read = reader.read(frame, buffer, 0, buffer.length);
+				builder.add(buffer, 0, read);
+				frame += read;
+				interrupted = Thread.currentThread().isInterrupted();
+			}
+		} catch (final IOException e) {
+			LOG.log(Level.WARNING, "Could not read " + pcm.getFile().getAbsolutePath(), e);
+			return null;
+		} finally {
+			BinaryFiles.close(reader);
+		}
+		return interrupted ? null : builder.build(pcm.getFile());
+	}
+
+	/**
+	 * Decodes a file with an extraction session and builds its pyramid.
+	 */
+	private static WaveformPyramid decodeSession(final File audio) {
+		WaveformPyramid pyramid = null;
+		try {
+			final AudioFileFormat format = AudioSystem.getAudioFileFormat(audio);
+			final long frameLength = format.getFrameLength();
+			final long samplesToAdd = frameLength < 0 ? Long.MAX_VALUE : frameLength;
+			final Builder builder = new Builder(format.getFormat().getSampleRate());
+			final boolean[] finished = new boolean[1];
+			final ExtractionSession session = new ExtractionSession(audio);
+			session.addAudioProcessor(new AudioProcessor() {
+				public boolean process(final AudioEvent audioEvent) {
+					final float[] buffer = audioEvent.getFloatBuffer();
+					// The last buffer is padded with zeros.
+					final long remaining = samplesToAdd - audioEvent.getSamplesProcessed();
+					builder.add(buffer, 0, (int) Math.max(0, Math.min(buffer.length, remaining)));
+					return true;
+				}
+
+				public void processingFinished() {
+					finished[0] = !Thread.currentThread().isInterrupted();
+				}
+			}, DECODE_BUFFER_SIZE, 0);
+			session.run();
+			if (finished[0]) {
+				pyramid = builder.build(audio);
+			}
+		} catch (final UnsupportedAudioFileException e) {
+			LOG.log(Level.SEVERE, "Could not decode " + audio.getAbsolutePath(), e);
+		} catch (final IOException e) {
+			LOG.log(Level.SEVERE, "Could not read " + audio.getAbsolutePath(), e);
+		}
+		return pyramid;
+	}
+
+	/**
+	 * Writes the pyramid to a file. It is written to a temporary file first,
+	 * so readers never see a partial pyramid.
+	 * 
+	 * @param fileName
+	 *            The file to write to.
+	 * @return True if the pyramid is written, false otherwise.
+	 */
+	public boolean write(final String fileName) {
+		return BinaryFiles.write(new File(fileName), new BinaryFiles.Writer() {
+			public void write(final DataOutputStream out) throws IOException {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(BLOCK_SIZE);
+				out.writeFloat(sampleRate);
+				out.writeLong(numberOfSamples);
+				out.writeLong(sourceLength);
+				out.writeLong(sourceModified);
+				out.writeInt(levels.length);
+				for (final short[] level : levels) {
+					out.writeInt(level.length);
+					for (final short value : level) {
+						out.writeShort(value);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Reads a pyramid from a file. The file is read at once and the levels
+	 * are read in bulk.
+	 * 
+	 * @param fileName
+	 *            The file to read.
+	 * @return The pyramid or null if the file is not a (valid) pyramid file.
+	 */
+	public static WaveformPyramid read(final String fileName) {
+		WaveformPyramid pyramid = null;
+		try {
+			final ByteBuffer buffer = BinaryFiles.read(new File(fileName));
+			if (buffer.remaining() >= 12 && buffer.getInt() == MAGIC && buffer.getInt() == VERSION
+					&& buffer.getInt() == BLOCK_SIZE) {
+				final float sampleRate = buffer.getFloat();
+				final long numberOfSamples = buffer.getLong();
+				final long sourceLength = buffer.getLong();
+				final long sourceModified = buffer.getLong();
+				final short[][] levels = new short[BinaryFiles.readLength(buffer, 4)][];
+				for (int level = 0; level < levels.length; level++) {
+					levels[level] = new short[BinaryFiles.readLength(buffer, 2)];
+					buffer.asShortBuffer().get(levels[level]);
+					buffer.position(buffer.position() + levels[level].length * 2);
+				}
+				pyramid = new WaveformPyramid(sampleRate, numberOfSamples, sourceLength, sourceModified, levels);
+			} else {
+				LOG.fine("Unsupported waveform pyramid " + fileName);
+			}
+		} catch (final IOException e) {
+			LOG.log(Level.WARNING, "Could not read waveform pyramid " + fileName, e);
+		} catch (final RuntimeException e) {
+			// Truncated files.
+			LOG.log(Level.WARNING, "Corrupt waveform pyramid " + fileName, e);
+			pyramid = null;
+		}
+		return pyramid;
+	}
+}
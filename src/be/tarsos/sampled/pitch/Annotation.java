@@ -43,10 +43,15 @@ public final class Annotation implements Comparable<Annotation> {
 	private final double start;
 
 	/**
-	 * A lookup table with pitch values in different units. The calculation is
-	 * cached to prevent a lot of unnecessary unit conversion calculations.
+	 * The pitch in Hz.
 	 */
-	private final double[] pitchValues;
+	private final double pitchInHz;
+
+	/**
+	 * The pitch in absolute cents, the unit used most. Relative cents are
+	 * derived from it, other units are converted on request.
+	 */
+	private final double pitchInAbsoluteCents;
 
 	/**
 	 * The probability or salience. A value between zero and one (inclusive).
@@ -90,16 +95,8 @@ public final class Annotation implements Comparable<Annotation> {
 		this.start = timeStamp;
 		this.probability = salience;
 		this.source = annotationSource;
-
-		// Pitch object to calculate unit conversions.
-		final Pitch pitch = Pitch.getInstance(PitchUnit.HERTZ, pitchInHz);
-
-		// Cache pitch in different units.
-		this.pitchValues = new double[PitchUnit.values().length];
-		for (int i = 0; i < pitchValues.length; i++) {
-			pitchValues[i] = pitch.getPitch(PitchUnit.values()[i]);
-		}
-
+		this.pitchInHz = pitchInHz;
+		this.pitchInAbsoluteCents = PitchUnit.hertzToAbsoluteCent(pitchInHz);
 	}
 
 	/**
@@ -141,15 +138,31 @@ public final class Annotation implements Comparable<Annotation> {
 	}
 
 	/**
-	 * Return the pitch in the requested unit. The conversion is cached
-	 * automatically.
+	 * Return the pitch in the requested unit. The pitch in Hz and absolute
+	 * cents is kept, relative cents are folded from absolute cents. Other units
+	 * are converted each time they are requested.
 	 * 
 	 * @param unit
 	 *            The unit requested.
 	 * @return The converted value.
 	 */
 	public double getPitch(final PitchUnit unit) {
-		return pitchValues[unit.ordinal()];
+		final double value;
+		switch (unit) {
+		case HERTZ:
+			value = pitchInHz;
+			break;
+		case ABSOLUTE_CENTS:
+			value = pitchInAbsoluteCents;
+			break;
+		case RELATIVE_CENTS:
+			value = PitchUnit.absoluteCentToRelativeCent(pitchInAbsoluteCents);
+			break;
+		default:
+			value = unit.convert(pitchInHz, PitchUnit.HERTZ);
+			break;
+		}
+		return value;
 	}
 
 	/*
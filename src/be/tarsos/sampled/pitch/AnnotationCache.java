@@ -0,0 +1,332 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+
+package be.tarsos.sampled.pitch;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import be.tarsos.util.BinaryFiles;
+
+/**
+ * <p>
+ * Reads and writes annotations in a compact, versioned binary format. It is
+ * used by the {@link CachingDetector} to store the results of a pitch detector:
+ * parsing CSV text line by line is a lot slower than reading a file with
+ * primitive columns in bulk. A file is replaced atomically when it is written,
+ * see {@link BinaryFiles}.
+ * </p>
+ * <p>
+ * The layout of the file is as follows (big endian):
+ * </p>
+ * <ol>
+ * <li>A header: the magic number, the format version, the name of the
+ * detector, a hash identifying the source audio, the number of annotations and
+ * a table with the names of the sources used.</li>
+ * <li>The time column: a <code>double</code> per annotation, in seconds.</li>
+ * <li>The pitch column: a <code>double</code> per annotation, in Hz.</li>
+ * <li>The salience column: a <code>double</code> per annotation.</li>
+ * <li>The source column: a <code>byte</code> per annotation, an index in the
+ * source table.</li>
+ * </ol>
+ * <p>
+ * The CSV format, see {@link AnnotationCsv},
+ * remains the format to import and export annotations.
+ * </p>
+ *
+ * @author Joren Six
+ */
+public final class AnnotationCache {
+
+	/**
+	 * Log messages.
+	 */
+	private static final Logger LOG = Logger.getLogger(AnnotationCache.class.getName());
+
+	/**
+	 * Identifies a binary annotation file: "TANN".
+	 */
+	private static final int MAGIC = 0x54414E4E;
+
+	/**
+	 * The version of the format. Increment it when the layout changes, files
+	 * with another version are ignored (and recalculated).
+	 */
+	public static final int VERSION = 2;
+
+	/**
+	 * The extension used for binary annotation files.
+	 */
+	public static final String EXTENSION = "bin";
+
+	/**
+	 * The number of bytes read to check a header: more than enough for the
+	 * name of a detector and a hash.
+	 */
+	private static final int HEADER_READ_SIZE = 1024;
+
+	/**
+	 * The number of bytes of an annotation in the columns: time, pitch,
+	 * salience and source.
+	 */
+	private static final int ANNOTATION_SIZE = 8 + 8 + 8 + 1;
+
+	private AnnotationCache() {
+	}
+
+	/**
+	 * The header of a binary annotation file.
+	 */
+	public static final class Header {
+		private final int version;
+		private final String detectorName;
+		private final String sourceHash;
+		private final int numberOfAnnotations;
+
+		private Header(final int version, final String detectorName, final String sourceHash,
+				final int numberOfAnnotations) {
+			this.version = version;
+			this.detectorName = detectorName;
+			this.sourceHash = sourceHash;
+			this.numberOfAnnotations = numberOfAnnotations;
+		}
+
+		/**
+		 * @return The version of the file format.
+		 */
+		public int getVersion() {
+			return version;
+		}
+
+		/**
+		 * @return The name of the detector that created the annotations.
+		 */
+		public String getDetectorName() {
+			return detectorName;
+		}
+
+		/**
+		 * @return A hash identifying the annotated audio.
+		 */
+		public String getSourceHash() {
+			return sourceHash;
+		}
+
+		/**
+		 * @return The number of annotations stored.
+		 */
+		public int getNumberOfAnnotations() {
+			return numberOfAnnotations;
+		}
+
+		/**
+		 * Checks if the file was written by the given detector for the given
+		 * audio, using the current version of the format.
+		 *
+		 * @param detector
+		 *            The name of the detector.
+		 * @param hash
+		 *            The hash identifying the audio.
+		 * @return True if the cached annotations can be used, false otherwise.
+		 */
+		public boolean matches(final String detector, final String hash) {
+			return version == VERSION && detectorName.equals(detector) && sourceHash.equals(hash);
+		}
+	}
+
+	/**
+	 * Writes annotations to a binary file. The annotations are written to a
+	 * temporary file which then replaces the file, so a crash never leaves a
+	 * partial cache behind.
+	 *
+	 * @param fileName
+	 *            The file to write to.
+	 * @param detectorName
+	 *            The name of the detector that created the annotations.
+	 * @param sourceHash
+	 *            A hash identifying the annotated audio.
+	 * @param annotations
+	 *            The annotations to store.
+	 * @return True if the annotations are written, false otherwise.
+	 */
+	public static boolean write(final String fileName, final String detectorName, final String sourceHash,
+			final List<Annotation> annotations) {
+		final List<PitchDetectionMode> sources = new ArrayList<PitchDetectionMode>();
+		final byte[] sourceIndexes = new byte[annotations.size()];
+		for (int i = 0; i < annotations.size(); i++) {
+			final PitchDetectionMode source = annotations.get(i).getSource();
+			int index = sources.indexOf(source);
+			if (index == -1) {
+				index = sources.size();
+				sources.add(source);
+			}
+			sourceIndexes[i] = (byte) index;
+		}
+
+		return BinaryFiles.write(new File(fileName), new BinaryFiles.Writer() {
+			public void write(final DataOutputStream out) throws IOException {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				BinaryFiles.writeString(out, detectorName);
+				BinaryFiles.writeString(out, sourceHash);
+				out.writeInt(annotations.size());
+				out.writeInt(sources.size());
+				for (final PitchDetectionMode source : sources) {
+					BinaryFiles.writeString(out, source.name());
+				}
+				for (final Annotation annotation : annotations) {
+					out.writeDouble(annotation.getStart());
+				}
+				for (final Annotation annotation : annotations) {
+					out.writeDouble(annotation.getPitch(PitchUnit.HERTZ));
+				}
+				for (final Annotation annotation : annotations) {
+					out.writeDouble(annotation.getProbability());
+				}
+				out.write(sourceIndexes);
+			}
+		});
+	}
+
+	/**
+	 * Reads only the header of a binary annotation file, with a single small
+	 * read at the start of the file.
+	 *
+	 * @param fileName
+	 *            The file to read.
+	 * @return The header or null if the file is not a (valid) binary annotation
+	 *         file.
+	 */
+	public static Header readHeader(final String fileName) {
+		Header header = null;
+		try {
+			header = readHeader(BinaryFiles.readStart(new File(fileName), HEADER_READ_SIZE));
+		} catch (final IOException e) {
+			LOG.log(Level.WARNING, "Could not read annotation header from " + fileName, e);
+		} catch (final RuntimeException e) {
+			// Truncated header.
+			LOG.log(Level.WARNING, "Corrupt annotation file " + fileName, e);
+			header = null;
+		}
+		return header;
+	}
+
+	/**
+	 * Reads annotations from a binary file. The file is read at once and the
+	 * columns are read in bulk.
+	 *
+	 * @param fileName
+	 *            The file to read.
+	 * @return A list of annotations or null if the file is not a (valid)
+	 *         binary annotation file.
+	 */
+	public static List<Annotation> read(final String fileName) {
+		final AnnotationStore store = readStore(fileName);
+		final List<Annotation> annotations;
+		if (store == null) {
+			annotations = null;
+		} else {
+			annotations = store.toList();
+		}
+		return annotations;
+	}
+
+	/**
+	 * Reads annotations from a binary file directly into an
+	 * {@link AnnotationStore}, without creating an annotation object per
+	 * sample. The file is read at once and the columns are read in bulk.
+	 *
+	 * @param fileName
+	 *            The file to read.
+	 * @return A store with the annotations or null if the file is not a
+	 *         (valid) binary annotation file.
+	 */
+	public static AnnotationStore readStore(final String fileName) {
+		AnnotationStore store = null;
+		try {
+			final ByteBuffer buffer = BinaryFiles.read(new File(fileName));
+			final Header header = readHeader(buffer);
+			if (header != null) {
+				// A source name takes at least four bytes.
+				final int numberOfSources = BinaryFiles.readLength(buffer, 4);
+				final PitchDetectionMode[] sources = new PitchDetectionMode[numberOfSources];
+				for (int i = 0; i < numberOfSources; i++) {
+					sources[i] = PitchDetectionMode.valueOf(BinaryFiles.readString(buffer));
+				}
+				final int size = header.getNumberOfAnnotations();
+				if (size < 0 || (long) size * ANNOTATION_SIZE != buffer.remaining()) {
+					throw new IOException(String.format("%s annotations do not fit in %s bytes.", size,
+							buffer.remaining()));
+				}
+				final double[] times = new double[size];
+				final double[] pitches = new double[size];
+				final double[] saliences = new double[size];
+				final byte[] sourceIndexes = new byte[size];
+				buffer.asDoubleBuffer().get(times);
+				buffer.position(buffer.position() + size * 8);
+				buffer.asDoubleBuffer().get(pitches);
+				buffer.position(buffer.position() + size * 8);
+				buffer.asDoubleBuffer().get(saliences);
+				buffer.position(buffer.position() + size * 8);
+				buffer.get(sourceIndexes);
+
+				store = new AnnotationStore(size);
+				for (int i = 0; i < size; i++) {
+					store.add(times[i], pitches[i], sources[sourceIndexes[i]], saliences[i]);
+				}
+			}
+		} catch (final IOException e) {
+			LOG.log(Level.WARNING, "Could not read annotations from " + fileName, e);
+		} catch (final RuntimeException e) {
+			// Truncated files or unknown sources.
+			LOG.log(Level.WARNING, "Corrupt annotation file " + fileName, e);
+			store = null;
+		}
+		return store;
+	}
+
+	private static Header readHeader(final ByteBuffer buffer) throws IOException {
+		Header header = null;
+		if (buffer.remaining() >= 8 && buffer.getInt() == MAGIC) {
+			final int version = buffer.getInt();
+			if (version == VERSION) {
+				final String detectorName = BinaryFiles.readString(buffer);
+				final String sourceHash = BinaryFiles.readString(buffer);
+				final int numberOfAnnotations = buffer.getInt();
+				header = new Header(version, detectorName, sourceHash, numberOfAnnotations);
+			} else {
+				LOG.fine("Unsupported annotation file version " + version);
+			}
+		}
+		return header;
+	}
+}
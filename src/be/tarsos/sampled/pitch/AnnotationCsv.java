@@ -0,0 +1,601 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+
+package be.tarsos.sampled.pitch;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * Reads and writes annotations in the CSV format Tarsos uses to import and
+ * export annotations: a header followed by a line per annotation with the
+ * start time in seconds, the pitch in Hz, the salience and the source, e.g.
+ * <code>0.01000,440.00000,0.95000,TARSOS_YIN</code>. The output is identical
+ * to {@link Annotation#toString()}, lines written by other tools are parsed as
+ * {@link Annotation#parse(String)} does.
+ * </p>
+ * <p>
+ * Files are streamed through a fixed size buffer: numbers are parsed and
+ * formatted directly from and to bytes, without a <code>String</code> per line
+ * or field. The memory used does not depend on the size of the file, unless
+ * the annotations themselves are kept, see {@link #read(String, RecordHandler)}
+ * to handle them one by one.
+ * </p>
+ * 
+ * @author Joren Six
+ */
+public final class AnnotationCsv {
+
+	/**
+	 * Log messages.
+	 */
+	private static final Logger LOG = Logger.getLogger(AnnotationCsv.class.getName());
+
+	/**
+	 * The first line of each CSV file.
+	 */
+	public static final String HEADER = "Start(s),Pitch(Hz),Probability[0-1.0],Source";
+
+	/**
+	 * The source of annotations without one.
+	 */
+	private static final PitchDetectionMode DEFAULT_SOURCE = PitchDetectionMode.TARSOS_FFT_YIN;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * The number of decimals written for each number.
+	 */
+	private static final int DECIMALS = 5;
+
+	private static final long DECIMALS_FACTOR = 100000;
+
+	/**
+	 * Values with a larger magnitude are formatted with {@link String#format}.
+	 */
+	private static final double MAXIMUM_FAST_FORMAT = 1e9;
+
+	/**
+	 * Powers of ten that are exactly representable as a double.
+	 */
+	private static final double[] POWERS_OF_TEN = new double[23];
+
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	private static final PitchDetectionMode[] SOURCES = PitchDetectionMode.values();
+
+	private static final byte[][] SOURCE_NAMES = new byte[SOURCES.length][];
+
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+		}
+		for (int i = 0; i < SOURCES.length; i++) {
+			SOURCE_NAMES[i] = SOURCES[i].name().getBytes(ASCII);
+		}
+	}
+
+	private AnnotationCsv() {
+	}
+
+	/**
+	 * Handles the fields of each annotation read, without creating an
+	 * annotation object.
+	 */
+	public interface RecordHandler {
+		/**
+		 * Called for each line in the file, in order.
+		 * 
+		 * @param timeStamp
+		 *            The starting time (in seconds).
+		 * @param pitchInHz
+		 *            The pitch in Hz.
+		 * @param source
+		 *            The source of the annotation.
+		 * @param salience
+		 *            The salience of the pitch.
+		 */
+		void handleRecord(double timeStamp, double pitchInHz, PitchDetectionMode source, double salience);
+	}
+
+	/**
+	 * Reads annotations from a CSV file into a list.
+	 * 
+	 * @param fileName
+	 *            The file to read.
+	 * @return The annotations in the file.
+	 * @throws IllegalArgumentException
+	 *             If the file does not exist or contains an invalid line.
+	 */
+	public static List<Annotation> read(final String fileName) {
+		final List<Annotation> annotations = new ArrayList<Annotation>();
+		read(fileName, new AnnotationHandler() {
+			public void handleAnnotation(final Annotation annotation) {
+				annotations.add(annotation);
+			}
+		});
+		return annotations;
+	}
+
+	/**
+	 * Reads annotations from a CSV file directly into an
+	 * {@link AnnotationStore}, without creating an annotation object per line.
+	 * 
+	 * @param fileName
+	 *            The file to read.
+	 * @return A store with the annotations in the file.
+	 * @throws IllegalArgumentException
+	 *             If the file does not exist or contains an invalid line.
+	 */
+	public static AnnotationStore readStore(final String fileName) {
+		final AnnotationStore store = new AnnotationStore();
+		read(fileName, new RecordHandler() {
+			public void handleRecord(final double timeStamp, final double pitchInHz,
+					final PitchDetectionMode source, final double salience) {
+				store.add(timeStamp, pitchInHz, source, salience);
+			}
+		});
+		return store;
+	}
+
+	/**
+	 * Streams the annotations in a CSV file to a handler, one by one.
+	 * 
+	 * @param fileName
+	 *            The file to read.
+	 * @param handler
+	 *            The handler called for each annotation.
+	 * @throws IllegalArgumentException
+	 *             If the file does not exist or contains an invalid line.
+	 */
+	public static void read(final String fileName, final AnnotationHandler handler) {
+		read(fileName, new RecordHandler() {
+			public void handleRecord(final double timeStamp, final double pitchInHz,
+					final PitchDetectionMode source, final double salience) {
+				handler.handleAnnotation(new Annotation(timeStamp, pitchInHz, source, salience));
+			}
+		});
+	}
+
+	/**
+	 * Streams the fields of the annotations in a CSV file to a handler, one
+	 * line at a time. The first line, the header, is skipped, as are empty
+	 * lines. A line without a source is attributed to
+	 * {@link PitchDetectionMode#TARSOS_FFT_YIN}.
+	 * 
+	 * @param fileName
+	 *            The file to read.
+	 * @param handler
+	 *            The handler called for each line.
+	 * @throws IllegalArgumentException
+	 *             If the file does not exist or contains an invalid line.
+	 */
+	public static void read(final String fileName, final RecordHandler handler) {
+		final File file = new File(fileName);
+		if (!file.exists()) {
+			throw new IllegalArgumentException("File " + fileName + " does not exist");
+		}
+		FileInputStream stream = null;
+		try {
+			stream = new FileInputStream(file);
+			final FileChannel channel = stream.getChannel();
+			final LineParser parser = new LineParser(handler);
+			byte[] bytes = new byte[BUFFER_SIZE];
+			ByteBuffer buffer = ByteBuffer.wrap(bytes);
+			boolean header = true;
+			boolean endOfFile = false;
+			int lineNumber = 0;
+			while (!endOfFile) {
+				endOfFile = channel.read(buffer) == -1;
+				final int end = buffer.position();
+				int lineStart = 0;
+				for (int index = 0; index < end; index++) {
+					if (bytes[index] == '\n') {
+						lineNumber++;
+						if (header) {
+							header = false;
+						} else {
+							parser.parse(bytes, lineStart, index, lineNumber);
+						}
+						lineStart = index + 1;
+					}
+				}
+				if (endOfFile) {
+					// The last line does not need to end with a newline.
+					if (lineStart < end && !header) {
+						parser.parse(bytes, lineStart, end, lineNumber + 1);
+					}
+				} else if (lineStart == 0 && end == bytes.length) {
+					// A line longer than the buffer.
+					final byte[] larger = new byte[bytes.length * 2];
+					System.arraycopy(bytes, 0, larger, 0, end);
+					bytes = larger;
+					buffer = ByteBuffer.wrap(bytes);
+					buffer.position(end);
+				} else {
+					// Keep the incomplete line for the next read.
+					System.arraycopy(bytes, lineStart, bytes, 0, end - lineStart);
+					buffer.clear();
+					buffer.position(end - lineStart);
+				}
+			}
+		} catch (final IOException e) {
+			LOG.log(Level.SEVERE, "Could not read annotations from " + fileName, e);
+		} finally {
+			close(stream);
+		}
+	}
+
+	/**
+	 * Parses the fields of a line of bytes.
+	 */
+	private static final class LineParser {
+		private final RecordHandler handler;
+		private final double[] fields = new double[3];
+		private int sourceIndex;
+
+		private LineParser(final RecordHandler recordHandler) {
+			handler = recordHandler;
+		}
+
+		private void parse(final byte[] bytes, final int start, final int lineEnd, final int lineNumber) {
+			int end = lineEnd;
+			while (end > start && (bytes[end - 1] == '\r' || bytes[end - 1] == ' ')) {
+				end--;
+			}
+			if (end > start) {
+				int fieldStart = start;
+				int fieldIndex = 0;
+				PitchDetectionMode source = DEFAULT_SOURCE;
+				for (int i = start; i <= end; i++) {
+					if (i == end || bytes[i] == ',') {
+						if (fieldIndex < fields.length) {
+							fields[fieldIndex] = parseDouble(bytes, fieldStart, i);
+						} else if (fieldIndex == fields.length && i > fieldStart) {
+							source = parseSource(bytes, fieldStart, i);
+						}
+						fieldIndex++;
+						fieldStart = i + 1;
+					}
+				}
+				if (fieldIndex < fields.length) {
+					throw new IllegalArgumentException("Line " + lineNumber + " has " + fieldIndex
+							+ " fields, at least three are expected: "
+							+ new String(bytes, start, end - start, ASCII));
+				}
+				handler.handleRecord(fields[0], fields[1], source, fields[2]);
+			}
+		}
+
+		/**
+		 * Looks up the source by name. Sources are usually the same for each
+		 * line, the previous one is tried first.
+		 */
+		private PitchDetectionMode parseSource(final byte[] bytes, final int start, final int end) {
+			if (!matches(SOURCE_NAMES[sourceIndex], bytes, start, end)) {
+				int index = 0;
+				while (index < SOURCES.length && !matches(SOURCE_NAMES[index], bytes, start, end)) {
+					index++;
+				}
+				if (index == SOURCES.length) {
+					// Throws the same exception as Annotation.parse.
+					PitchDetectionMode.valueOf(new String(bytes, start, end - start, ASCII));
+				}
+				sourceIndex = index;
+			}
+			return SOURCES[sourceIndex];
+		}
+
+		private static boolean matches(final byte[] name, final byte[] bytes, final int start, final int end) {
+			boolean matches = name.length == end - start;
+			for (int i = 0; matches && i < name.length; i++) {
+				matches = name[i] == bytes[start + i];
+			}
+			return matches;
+		}
+	}
+
+	/**
+	 * Parses a decimal number. Numbers with at most 15 significant digits and
+	 * no exponent, as written by Tarsos, are calculated with a single, exactly
+	 * rounded division. Others are left to {@link Double#parseDouble(String)},
+	 * the result is the same.
+	 */
+	static double parseDouble(final byte[] bytes, final int start, final int end) {
+		int index = start;
+		final boolean negative = index < end && bytes[index] == '-';
+		if (negative || index < end && bytes[index] == '+') {
+			index++;
+		}
+		long mantissa = 0;
+		int decimals = 0;
+		int digits = 0;
+		boolean point = false;
+		boolean fast = index < end;
+		boolean anyDigit = false;
+		while (fast && index < end) {
+			final int digit = bytes[index] - '0';
+			if (digit >= 0 && digit <= 9) {
+				mantissa = mantissa * 10 + digit;
+				anyDigit = true;
+				if (mantissa != 0) {
+					digits++;
+				}
+				if (point) {
+					decimals++;
+				}
+			} else if (bytes[index] == '.' && !point) {
+				point = true;
+			} else {
+				fast = false;
+			}
+			index++;
+		}
+		final double value;
+		if (fast && anyDigit && digits <= 15 && decimals < POWERS_OF_TEN.length) {
+			final double absolute = mantissa / POWERS_OF_TEN[decimals];
+			value = negative ? -absolute : absolute;
+		} else {
+			value = Double.parseDouble(new String(bytes, start, end - start, ASCII));
+		}
+		return value;
+	}
+
+	/**
+	 * Writes annotations to a CSV file, a header first.
+	 * 
+	 * @param fileName
+	 *            The file to write to.
+	 * @param annotations
+	 *            The annotations to write.
+	 */
+	public static void write(final String fileName, final List<Annotation> annotations) {
+		Writer writer = null;
+		try {
+			writer = new Writer(fileName);
+			for (final Annotation annotation : annotations) {
+				writer.write(annotation);
+			}
+		} catch (final IOException e) {
+			LOG.log(Level.SEVERE, "Could not write annotations to " + fileName, e);
+		} finally {
+			close(writer);
+		}
+	}
+
+	/**
+	 * Writes the annotations in a store to a CSV file, a header first.
+	 * 
+	 * @param fileName
+	 *            The file to write to.
+	 * @param store
+	 *            The annotations to write.
+	 */
+	public static void write(final String fileName, final AnnotationStore store) {
+		Writer writer = null;
+		try {
+			writer = new Writer(fileName);
+			for (int i = 0; i < store.size(); i++) {
+				writer.write(store.getStart(i), store.getPitch(i, PitchUnit.HERTZ), store.getSource(i),
+						store.getProbability(i));
+			}
+		} catch (final IOException e) {
+			LOG.log(Level.SEVERE, "Could not write annotations to " + fileName, e);
+		} finally {
+			close(writer);
+		}
+	}
+
+	/**
+	 * Writes annotations to a CSV file as they arrive. It can be attached to an
+	 * {@link AnnotationPublisher} or a pitch detector directly: annotations are
+	 * written through a buffer and are not kept in memory. Do not forget to
+	 * close the writer.
+	 */
+	public static final class Writer implements AnnotationHandler, Closeable {
+		private final FileOutputStream stream;
+		private final FileChannel channel;
+		private final ByteBuffer buffer;
+		private final byte[] bytes;
+		private int position;
+
+		/**
+		 * Creates (or overwrites) a CSV file and writes the header.
+		 * 
+		 * @param fileName
+		 *            The file to write to.
+		 * @throws IOException
+		 *             If the file can not be created.
+		 */
+		public Writer(final String fileName) throws IOException {
+			stream = new FileOutputStream(fileName);
+			channel = stream.getChannel();
+			bytes = new byte[BUFFER_SIZE];
+			buffer = ByteBuffer.wrap(bytes);
+			final byte[] header = HEADER.getBytes(ASCII);
+			System.arraycopy(header, 0, bytes, 0, header.length);
+			position = header.length;
+			bytes[position++] = '\n';
+		}
+
+		/**
+		 * Writes an annotation as a line.
+		 * 
+		 * @param annotation
+		 *            The annotation to write.
+		 * @throws IOException
+		 *             If writing fails.
+		 */
+		public void write(final Annotation annotation) throws IOException {
+			write(annotation.getStart(), annotation.getPitch(PitchUnit.HERTZ), annotation.getSource(),
+					annotation.getProbability());
+		}
+
+		/**
+		 * Writes the fields of an annotation as a line.
+		 * 
+		 * @param timeStamp
+		 *            The starting time (in seconds).
+		 * @param pitchInHz
+		 *            The pitch in Hz.
+		 * @param source
+		 *            The source of the annotation.
+		 * @param salience
+		 *            The salience of the pitch.
+		 * @throws IOException
+		 *             If writing fails.
+		 */
+		public void write(final double timeStamp, final double pitchInHz, final PitchDetectionMode source,
+				final double salience) throws IOException {
+			final byte[] name = SOURCE_NAMES[source.ordinal()];
+			// Three formatted numbers fit easily, unless they are huge.
+			if (position + 3 * 32 + name.length + 4 > bytes.length) {
+				flush();
+			}
+			appendDouble(timeStamp);
+			bytes[position++] = ',';
+			appendDouble(pitchInHz);
+			bytes[position++] = ',';
+			appendDouble(salience);
+			bytes[position++] = ',';
+			System.arraycopy(name, 0, bytes, position, name.length);
+			position += name.length;
+			bytes[position++] = '\n';
+		}
+
+		/**
+		 * Writes an annotation, errors are logged.
+		 * 
+		 * @param annotation
+		 *            The annotation to write.
+		 */
+		public void handleAnnotation(final Annotation annotation) {
+			try {
+				write(annotation);
+			} catch (final IOException e) {
+				LOG.log(Level.SEVERE, "Could not write annotation " + annotation, e);
+			}
+		}
+
+		/**
+		 * Appends a number with five decimals, the same as
+		 * <code>String.format("%.5f")</code> does. The digits of the number
+		 * scaled by 10^5 are written directly, unless it is (almost) halfway
+		 * two values: the rounding of <code>String.format</code> is used for
+		 * those, and for huge values.
+		 */
+		private void appendDouble(final double value) {
+			final double absolute = Math.abs(value);
+			final double scaled = absolute * DECIMALS_FACTOR;
+			final double fraction = scaled - Math.floor(scaled);
+			if (absolute < MAXIMUM_FAST_FORMAT && Math.abs(fraction - 0.5) > 1e-3) {
+				final long rounded = (long) (scaled + 0.5);
+				if (value < 0 && rounded != 0) {
+					bytes[position++] = '-';
+				}
+				appendLong(rounded / DECIMALS_FACTOR);
+				bytes[position++] = '.';
+				long decimals = rounded % DECIMALS_FACTOR;
+				for (int i = position + DECIMALS - 1; i >= position; i--) {
+					bytes[i] = (byte) ('0' + decimals % 10);
+					decimals /= 10;
+				}
+				position += DECIMALS;
+			} else {
+				final byte[] formatted = String.format(Locale.US, "%.5f", value).getBytes(ASCII);
+				System.arraycopy(formatted, 0, bytes, position, formatted.length);
+				position += formatted.length;
+			}
+		}
+
+		private void appendLong(final long value) {
+			long remaining = value;
+			int digits = 1;
+			while (remaining >= 10) {
+				remaining /= 10;
+				digits++;
+			}
+			remaining = value;
+			for (int i = position + digits - 1; i >= position; i--) {
+				bytes[i] = (byte) ('0' + remaining % 10);
+				remaining /= 10;
+			}
+			position += digits;
+		}
+
+		/**
+		 * Writes the buffered lines to the file.
+		 * 
+		 * @throws IOException
+		 *             If writing fails.
+		 */
+		public void flush() throws IOException {
+			buffer.clear();
+			buffer.limit(position);
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			position = 0;
+		}
+
+		/**
+		 * Writes the buffered lines and closes the file.
+		 * 
+		 * @throws IOException
+		 *             If writing or closing fails.
+		 */
+		public void close() throws IOException {
+			try {
+				flush();
+			} finally {
+				stream.close();
+			}
+		}
+	}
+
+	private static void close(final Closeable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			} catch (final IOException e) {
+				LOG.log(Level.WARNING, "Could not close annotation file.", e);
+			}
+		}
+	}
+}
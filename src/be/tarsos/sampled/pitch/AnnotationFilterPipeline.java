@@ -0,0 +1,137 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+
+package be.tarsos.sampled.pitch;
+
+import java.util.logging.Logger;
+
+import be.tarsos.sampled.pitch.AnnotationPublisher.AnnotationFilter;
+import be.tarsos.util.StopWatch;
+
+/**
+ * A chain of annotation filters. The annotations are kept in
+ * {@link AnnotationStore}s, the filters work on their columns. The output of
+ * each stage is cached: when the filter of a stage changes only that stage and
+ * the stages after it are recalculated. Until a filter is set, and after the
+ * filters are cleared, a stage passes its input unmodified.
+ * 
+ * @author Joren Six
+ */
+public final class AnnotationFilterPipeline {
+
+	private static final Logger LOG = Logger.getLogger(AnnotationFilterPipeline.class.getName());
+
+	private final AnnotationFilter[] filters;
+	
+	/**
+	 * The cached output of each stage, null if it needs to be recalculated.
+	 */
+	private final AnnotationStore[] outputs;
+	
+	private AnnotationStore input;
+
+	/**
+	 * Create a new pipeline with a number of stages. Initially no stage has a
+	 * filter.
+	 * 
+	 * @param numberOfStages
+	 *            The number of stages.
+	 */
+	public AnnotationFilterPipeline(final int numberOfStages) {
+		filters = new AnnotationFilter[numberOfStages];
+		outputs = new AnnotationStore[numberOfStages];
+		input = new AnnotationStore();
+	}
+
+	/**
+	 * Sets the annotations to filter. The store is not modified. When
+	 * annotations are added to it, it should be set again.
+	 * 
+	 * @param annotations
+	 *            The unfiltered annotations.
+	 */
+	public void setInput(final AnnotationStore annotations) {
+		input = annotations;
+		invalidate(0);
+	}
+
+	/**
+	 * Sets the filter of a stage. Only this stage and the following stages are
+	 * recalculated.
+	 * 
+	 * @param stage
+	 *            The index of the stage.
+	 * @param filter
+	 *            The new filter.
+	 */
+	public void setFilter(final int stage, final AnnotationFilter filter) {
+		filters[stage] = filter;
+		invalidate(stage);
+	}
+
+	/**
+	 * Removes the filters of every stage.
+	 */
+	public void clearFilters() {
+		for (int i = 0; i < filters.length; i++) {
+			filters[i] = null;
+		}
+		invalidate(0);
+	}
+
+	/**
+	 * Returns the output of the last stage. Stages with a cached output are
+	 * not recalculated. The returned store should not be modified.
+	 * 
+	 * @return The filtered annotations.
+	 */
+	public AnnotationStore getOutput() {
+		AnnotationStore previous = input;
+		for (int stage = 0; stage < filters.length; stage++) {
+			AnnotationStore output = outputs[stage];
+			if (output == null) {
+				if (filters[stage] == null) {
+					output = previous;
+				} else {
+					final StopWatch watch = new StopWatch();
+					output = filters[stage].filter(previous);
+					LOG.fine(String.format("Filter stage %s (%s) reduced %s annotations to %s in %s.", stage,
+							filters[stage].getClass().getSimpleName(), previous.size(), output.size(),
+							watch.formattedToString()));
+				}
+				outputs[stage] = output;
+			}
+			previous = output;
+		}
+		return previous;
+	}
+
+	private void invalidate(final int fromStage) {
+		for (int stage = fromStage; stage < filters.length; stage++) {
+			outputs[stage] = null;
+		}
+	}
+}
@@ -45,6 +45,16 @@ public interface AnnotationListener {
 	 */
 	void addAnnotation(Annotation annotation);
 
+	/**
+	 * Removes an annotation from the element. It is used to update elements
+	 * incrementally, e.g. after a filter changed, instead of clearing and
+	 * adding every annotation again.
+	 * 
+	 * @param annotation
+	 *            The annotation to remove, an annotation added before.
+	 */
+	void removeAnnotation(Annotation annotation);
+
 	/**
 	 * Clears all annotations.
 	 */
@@ -43,8 +43,23 @@ public final class AnnotationPublisher{
 	private AnnotationTree tree;
 	private final List<AnnotationListener> listeners;
 	private final AnnotationSelection selection;
-	private final List<Annotation> originalAnnotationList;
+	private final AnnotationStore originalAnnotations;
 	private final PitchUnit unit;
+	
+	/**
+	 * The chain of filters applied to the original annotations.
+	 */
+	private final AnnotationFilterPipeline pipeline;
+	
+	/**
+	 * True if the input of the pipeline does not reflect the original
+	 * annotations any more.
+	 */
+	private boolean pipelineInputChanged;
+	
+	private static final int STEADY_STATE_STAGE = 0;
+	private static final int PITCH_CLASS_STAGE = 1;
+	private static final int WAVELET_COMPRESSION_STAGE = 2;
 
 	/**
 	 * Log messages.
@@ -57,9 +72,11 @@ public final class AnnotationPublisher{
 	private AnnotationPublisher() {
 		listeners = new ArrayList<AnnotationListener>();
 		selection = new AnnotationSelection();
-		originalAnnotationList = new ArrayList<Annotation>();
+		originalAnnotations = new AnnotationStore();
 		unit = PitchUnit.valueOf(Configuration.get(ConfKey.pitch_contour_unit));
 		tree = new AnnotationTree(unit);
+		pipeline = new AnnotationFilterPipeline(3);
+		pipelineInputChanged = true;
 	}
 
 	/**
@@ -78,64 +95,93 @@ public final class AnnotationPublisher{
 	public void addAnnotations(final List<Annotation> annotations) {
 		int beforeSize = tree.size();
 		tree.add(annotations);
-		originalAnnotationList.addAll(annotations);
+		originalAnnotations.addAll(annotations);
+		pipelineInputChanged = true;
 		assert tree.size() == beforeSize+annotations.size();
 	}
+
+	/**
+	 * Adds the annotations in a store. The original annotations are kept in
+	 * the compact form of the store.
+	 * 
+	 * @param annotations
+	 *            The annotations to add.
+	 */
+	public void addAnnotations(final AnnotationStore annotations) {
+		int beforeSize = tree.size();
+		tree.add(annotations);
+		originalAnnotations.addAll(annotations);
+		pipelineInputChanged = true;
+		assert tree.size() == beforeSize+annotations.size();
+	}
+	
 	
+	/*
+	 * The filters are chained: steady state, pitch class and wavelet
+	 * compression. Changing the parameters of a filter only recalculates the
+	 * filters after it.
+	 */
 	
 	public void applySteadyStateFilter(final double maxCentsDifference, final double minDuration){
-		rebuildTree(new SteadyStateFilter(maxCentsDifference, minDuration));
+		rebuildTree(STEADY_STATE_STAGE, new SteadyStateFilter(maxCentsDifference, minDuration));
 	}
 	
 	public void applyPitchClassFilter(final double pitchClasses[],final double maxCentsDifference){
-		rebuildTree(new PitchClassFilter(pitchClasses, maxCentsDifference));
+		rebuildTree(PITCH_CLASS_STAGE, new PitchClassFilter(pitchClasses, maxCentsDifference));
 	}
 	
 	public void applyWaveletCompressionFilter(final double maxCentsDifference){
-		rebuildTree(new WaveletCompressionFilter(maxCentsDifference));
+		rebuildTree(WAVELET_COMPRESSION_STAGE, new WaveletCompressionFilter(maxCentsDifference));
 	}
 	
-	
-	
-	
 	/**
-	 * Filter annotations to include only annotations close to the pitch classes
-	 * defined in scale.
+	 * Replaces the annotations in the tree with the filtered annotations.
+	 * The tree is updated in place and listeners are notified of the
+	 * difference between the previously and currently selected annotations,
+	 * instead of being cleared and refilled.
 	 * 
-	 * @param annotations
-	 *            The annotations;
-	 * @param scale
-	 *            The list of pitch classes.
-	 * @param maxCentsDifference
-	 *            The number of cents.
+	 * @param stage
+	 *            The stage of the filter pipeline to change.
+	 * @param filter
+	 *            The filter to apply at the stage.
 	 */
-
-	
-	/**
-	 * Rebuilds the tree with the filtered annotations.
-	 * @param filter The filter to apply on the original list of annotations to filter.
-	 */
-	private void rebuildTree(AnnotationFilter filter){
-		tree = new AnnotationTree(unit);
-		List<Annotation> listToFilter = new ArrayList<Annotation>(originalAnnotationList);
-		filter.filter(listToFilter);
-		tree.add(listToFilter);
-		//clear the current state
-		clear();
-		//add annotations
-		delegateAddAnnotations(selection.getMinProbability());
+	private void rebuildTree(final int stage, final AnnotationFilter filter){
+		final StopWatch watch = new StopWatch();
+		if (pipelineInputChanged) {
+			pipeline.setInput(originalAnnotations);
+			pipelineInputChanged = false;
+		}
+		pipeline.setFilter(stage, filter);
+		
+		final List<Annotation> removed = new ArrayList<Annotation>();
+		final List<Annotation> added = new ArrayList<Annotation>();
+		tree.replace(pipeline.getOutput(), selection, removed, added);
+		delegateDifference(removed, added);
+		LOG.fine(String.format("Updated annotation tree with %s annotations in %s.", tree.size(),
+				watch.formattedToString()));
 	}
 	
 	/**
-	 * Steady state filter: only keep annotations that are repeated for x seconds within y cents.
-	 * @param annotations The list of annotations to filter.
-	 * @param maxCentsDifference The number of cents the next annotation may differ.
-	 * @param minDuration The minimum duration of the 'note'.
+	 * Notifies listeners of the annotations removed and added.
+	 * 
+	 * @param removed
+	 *            The annotations the listeners should forget.
+	 * @param added
+	 *            The annotations the listeners should add.
 	 */
-	public void steadyStateAnnotationFilter(final List<Annotation> annotations,final double maxCentsDifference,final double minDuration){
-		
+	private void delegateDifference(final List<Annotation> removed, final List<Annotation> added) {
+		for (AnnotationListener listener : listeners) {
+			for (Annotation annotation : removed) {
+				listener.removeAnnotation(annotation);
+			}
+			for (Annotation annotation : added) {
+				listener.addAnnotation(annotation);
+			}
+			listener.annotationsAdded();
+		}
+		LOG.fine(String.format("Filter update removed %s and added %s annotations.", removed.size(), added.size()));
 	}
-
+	
 	public AnnotationTree getAnnotationTree() {
 		return tree;
 	}
@@ -152,7 +198,9 @@ public final class AnnotationPublisher{
 	
 	public void clearTree(){
 		tree = new AnnotationTree(unit);
-		originalAnnotationList.clear();
+		originalAnnotations.clear();
+		pipeline.clearFilters();
+		pipelineInputChanged = true;
 	}
 
 	/**
@@ -280,59 +328,133 @@ public final class AnnotationPublisher{
 	
 	/************FILTERS***************/
 	
+	/**
+	 * Filters the annotations in a store. The filter works on the columns of
+	 * the store, no annotation objects are created.
+	 */
 	public interface AnnotationFilter{
-		void filter(List<Annotation> listToFilter);
+		/**
+		 * @param annotations
+		 *            The annotations to filter, the store is not modified.
+		 * @return A store with the filtered annotations, in the order of the
+		 *         given store.
+		 */
+		AnnotationStore filter(AnnotationStore annotations);
 	}
 	
 	
+	/**
+	 * Keeps only annotations close to one of the pitch classes. A lookup
+	 * table with an entry for each cent decides for most annotations in
+	 * constant time whether they are kept: only annotations in a cent bin at
+	 * the border of a pitch class window are compared with the pitch classes.
+	 */
 	public class PitchClassFilter implements AnnotationFilter {
+		private static final byte DROP = 0;
+		private static final byte KEEP = 1;
+		private static final byte CHECK = 2;
+
 		private final double[] pitchClasses;
 		private final double maxCentsDifference;
+		private final byte[] lookupTable;
 
 		public PitchClassFilter(final double[] pitchClasses,
 				final double maxCentsDifference) {
 			this.pitchClasses = pitchClasses;
 			this.maxCentsDifference = maxCentsDifference;
+			this.lookupTable = new byte[1200];
+			for (int cent = 0; cent < lookupTable.length; cent++) {
+				lookupTable[cent] = classify(cent);
+			}
 		}
 
-		
-		public void filter(final List<Annotation> listToFilter) {
-			for (int i = 0; i < listToFilter.size(); i++) {
-				double annotationPitchClass = listToFilter.get(i).getPitch(
-						PitchUnit.RELATIVE_CENTS);
-				// delete all annotations (except those that are close to a
-				// pitch class)
-				boolean delete = true;
-				for (double scalePitchClass : pitchClasses) {
-					// Calculate the difference e.g. between 3 and 1193 there is
-					// 1190 cents
-					double normalDiff = Math.abs(scalePitchClass
-							- annotationPitchClass);
-					// Distance between 3 and 1193 cents is also 10 cents,
-					// calculate it:
-					double wrappedDiff = Math.min(
-							Math.abs(scalePitchClass - annotationPitchClass
-									+ 1200),
-							Math.abs(scalePitchClass - annotationPitchClass
-									- 1200));
-					// Do not delete an annotation if it is close to a pitch
-					// class
-					if (normalDiff < maxCentsDifference
-							|| wrappedDiff < maxCentsDifference) {
-						delete = false;
+		/**
+		 * Decides for all values in the bin [cent,cent+1[ if they are kept,
+		 * dropped or need to be checked individually.
+		 */
+		private byte classify(final int cent) {
+			boolean inside = false;
+			double minimumDistance = Double.MAX_VALUE;
+			for (double scalePitchClass : pitchClasses) {
+				// The pitch class and its neighbours in the previous and
+				// next octave.
+				for (int octave = -1; octave <= 1; octave++) {
+					final double pitchClass = scalePitchClass + octave * 1200;
+					inside = inside || (pitchClass - maxCentsDifference < cent 
+							&& cent + 1 < pitchClass + maxCentsDifference);
+					final double distance;
+					if (pitchClass >= cent && pitchClass <= cent + 1) {
+						distance = 0;
+					} else {
+						distance = Math.min(Math.abs(pitchClass - cent), Math.abs(pitchClass - cent - 1));
 					}
+					minimumDistance = Math.min(minimumDistance, distance);
+				}
+			}
+			final byte classification;
+			if (inside) {
+				classification = KEEP;
+			} else if (minimumDistance >= maxCentsDifference) {
+				classification = DROP;
+			} else {
+				classification = CHECK;
+			}
+			return classification;
+		}
+
+		/**
+		 * @return True if the pitch class is close to a pitch class of the
+		 *         scale.
+		 */
+		private boolean isClose(final double annotationPitchClass) {
+			boolean close = false;
+			for (int i = 0; i < pitchClasses.length && !close; i++) {
+				final double scalePitchClass = pitchClasses[i];
+				// Calculate the difference e.g. between 3 and 1193 there is
+				// 1190 cents
+				final double normalDiff = Math.abs(scalePitchClass - annotationPitchClass);
+				// Distance between 3 and 1193 cents is also 10 cents,
+				// calculate it:
+				final double wrappedDiff = Math.min(
+						Math.abs(scalePitchClass - annotationPitchClass + 1200),
+						Math.abs(scalePitchClass - annotationPitchClass - 1200));
+				close = normalDiff < maxCentsDifference || wrappedDiff < maxCentsDifference;
+			}
+			return close;
+		}
+
+		public AnnotationStore filter(final AnnotationStore annotations) {
+			final int size = annotations.size();
+			final double[] pitchClasses = annotations.getPitches(PitchUnit.RELATIVE_CENTS);
+			final int[] survivors = new int[size];
+			int kept = 0;
+			for (int i = 0; i < size; i++) {
+				final double annotationPitchClass = pitchClasses[i];
+				final int cent = (int) Math.floor(annotationPitchClass);
+				final byte classification;
+				if (cent >= 0 && cent < lookupTable.length) {
+					classification = lookupTable[cent];
+				} else {
+					classification = CHECK;
 				}
-				// delete marked annotations
-				if (delete) {
-					listToFilter.remove(i);
-					// do not forget to evaluate the new annotation
-					// on the current place
-					i--;
+				if (classification == KEEP || (classification == CHECK && isClose(annotationPitchClass))) {
+					survivors[kept] = i;
+					kept++;
 				}
 			}
+			return annotations.subset(survivors, kept);
 		}
 	}
 	
+	/**
+	 * Keeps only annotations that are part of a 'note': a sequence of
+	 * annotations that stay within a number of cents for a minimum duration.
+	 * Survivors are collected in a single pass. A
+	 * sequence is extended until an annotation differs more than the number of
+	 * cents from its first annotation, also when the minimum duration is
+	 * already reached: a long note is kept as a whole and the search goes on
+	 * after it.
+	 */
 	public class SteadyStateFilter implements AnnotationFilter{
 		final double maxCentsDifference;
 		final double minDuration;
@@ -343,30 +465,39 @@ public final class AnnotationPublisher{
 		}
 
 		
-		public void filter(final List<Annotation> listToFilter) {
-			for(int i = 0 ; i < listToFilter.size(); i++){
-				double iCentsValue = listToFilter.get(i).getPitch(PitchUnit.ABSOLUTE_CENTS);
-				double iStart = listToFilter.get(i).getStart();
+		public AnnotationStore filter(final AnnotationStore annotations) {
+			final int size = annotations.size();
+			final double[] cents = annotations.getPitches(PitchUnit.ABSOLUTE_CENTS);
+			final double[] starts = annotations.getStarts();
+			
+			final int[] survivors = new int[size];
+			int kept = 0;
+			int i = 0;
+			while (i < size) {
+				final double iCentsValue = cents[i];
+				final double iStart = starts[i];
 				boolean stable = false;
-				int j = i+1;
-				for( ; j  < listToFilter.size() ; j++){
-					double jCentsValue = listToFilter.get(j).getPitch(PitchUnit.ABSOLUTE_CENTS);
-					double jStart = listToFilter.get(j).getStart();
-					double centsDifference = Math.abs(iCentsValue - jCentsValue);
-					double timeDifference = jStart-iStart;
-					if(centsDifference > maxCentsDifference)
+				int j = i + 1;
+				for (; j < size; j++) {
+					if (Math.abs(iCentsValue - cents[j]) > maxCentsDifference) {
 						break;
-					if(timeDifference > minDuration){
-						stable = true;
 					}
+					stable = stable || starts[j] - iStart > minDuration;
 				}
-				if(stable){
-					i = j;
-				}else{
-					listToFilter.remove(i);
-					i--;
+				if (stable) {
+					// Keep the stable sequence and the annotation that ends
+					// it.
+					final int stop = Math.min(j + 1, size);
+					for (int k = i; k < stop; k++) {
+						survivors[kept] = k;
+						kept++;
+					}
+					i = j + 1;
+				} else {
+					i++;
 				}
 			}
+			return annotations.subset(survivors, kept);
 		}
 		
 	}
@@ -381,16 +512,18 @@ public final class AnnotationPublisher{
 		}
 
 		
-		public void filter(final List<Annotation> listToFilter) {
-			int size = nextPowerOf2(listToFilter.size());
+		public AnnotationStore filter(final AnnotationStore annotations) {
+			final int count = annotations.size();
+			final double[] cents = annotations.getPitches(PitchUnit.ABSOLUTE_CENTS);
+			int size = nextPowerOf2(count);
 			float[] values = new float[size];
-			for(int i = 0;i<listToFilter.size();i++){
-				values[i] = (float) listToFilter.get(i).getPitch(PitchUnit.ABSOLUTE_CENTS);
+			for(int i = 0;i<count;i++){
+				values[i] = (float) cents[i];
 			}
 			ht.transform(values);
 			
 			
-			for(int i = 0;i<listToFilter.size();i++){
+			for(int i = 0;i<count;i++){
 				if(Math.abs(values[i]) < maxCentsDifference){
 					values[i]=0;
 				}
@@ -398,13 +531,14 @@ public final class AnnotationPublisher{
 			
 			ht.inverseTransform(values);
 			
-			for(int i = 0;i<listToFilter.size();i++){
-				Annotation unmodified = listToFilter.get(i);
-				double modifiedPitchInHz =  PitchUnit.absoluteCentToHertz(values[i]);
-				Annotation modified = new Annotation(unmodified.getStart(),modifiedPitchInHz,unmodified.getSource(),unmodified.getProbability());
-				listToFilter.set(i, modified);
+			final double[] modifiedPitchesInHz = new double[count];
+			for(int i = 0;i<count;i++){
+				modifiedPitchesInHz[i] = values[i];
 			}
+			PitchUnit.HERTZ.convert(modifiedPitchesInHz, PitchUnit.ABSOLUTE_CENTS, modifiedPitchesInHz,
+					modifiedPitchesInHz.length);
 			
+			return annotations.withPitches(modifiedPitchesInHz);
 		}
 		
 		private int nextPowerOf2(final int a)
@@ -0,0 +1,437 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+
+package be.tarsos.sampled.pitch;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>
+ * A compact, append-only store for annotations. Instead of an
+ * {@link Annotation} object per sample, the time, pitch (in Hz), salience and
+ * source of each annotation are kept in primitive columns. Millions of
+ * annotations of a long recording fit in a fraction of the memory a list of
+ * annotations needs.
+ * </p>
+ * <p>
+ * Pitch values in other units are calculated on demand, or for a complete
+ * column with {@link #getPitches(PitchUnit)}. Such a column is cached and
+ * only extended with the annotations added since it was calculated.
+ * </p>
+ * <p>
+ * The store keeps no annotation objects: {@link #get(int)} creates one for
+ * each call. Annotations are equal if their time and source are equal, so
+ * code that removes an annotation from a listener can use a new object.
+ * Filters work on the columns and return a new store with
+ * {@link #subset(int[], int)} or {@link #withPitches(double[])}.
+ * </p>
+ * 
+ * @author Joren Six
+ */
+public final class AnnotationStore {
+
+	private static final int DEFAULT_CAPACITY = 1024;
+
+	private static final PitchDetectionMode[] SOURCES = PitchDetectionMode.values();
+
+	private double[] times;
+	private double[] pitchesInHz;
+	private double[] saliences;
+	private byte[] sources;
+	private int size;
+
+	/**
+	 * A cache for pitch columns in other units, indexed by the ordinal of the
+	 * unit.
+	 */
+	private final double[][] unitColumns;
+
+	/**
+	 * The number of annotations each cached column covers. Annotations added
+	 * later are converted when the column is requested again.
+	 */
+	private final int[] unitColumnSizes;
+
+	/**
+	 * Create a new, empty store.
+	 */
+	public AnnotationStore() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Create a new, empty store with room for a number of annotations.
+	 * 
+	 * @param initialCapacity
+	 *            The expected number of annotations.
+	 */
+	public AnnotationStore(final int initialCapacity) {
+		final int capacity = Math.max(1, initialCapacity);
+		times = new double[capacity];
+		pitchesInHz = new double[capacity];
+		saliences = new double[capacity];
+		sources = new byte[capacity];
+		unitColumns = new double[PitchUnit.values().length][];
+		unitColumnSizes = new int[unitColumns.length];
+	}
+
+	/**
+	 * Adds an annotation to the store. The same sanity checks as in
+	 * {@link Annotation} are applied.
+	 * 
+	 * @param timeStamp
+	 *            The starting time (in seconds).
+	 * @param pitchInHz
+	 *            The pitch in Hz.
+	 * @param source
+	 *            The source of the annotation.
+	 * @param salience
+	 *            A probability between zero and one (inclusive).
+	 */
+	public void add(final double timeStamp, final double pitchInHz, final PitchDetectionMode source,
+			final double salience) {
+		if (salience > 1.0 || 0.0 > salience) {
+			throw new IllegalArgumentException(
+					"The salience should be a value between zero and one (inclusive): " + salience);
+		}
+		if (pitchInHz <= 0) {
+			throw new IllegalArgumentException("The pitch in Hz should be a value above zero, it is: "
+					+ pitchInHz);
+		}
+		if (timeStamp < 0) {
+			throw new IllegalArgumentException(
+					"The timestamp in seconds should be equal or above zero, it is: " + timeStamp);
+		}
+		ensureCapacity(size + 1);
+		times[size] = timeStamp;
+		pitchesInHz[size] = pitchInHz;
+		saliences[size] = salience;
+		sources[size] = (byte) source.ordinal();
+		size++;
+	}
+
+	/**
+	 * Adds an annotation to the store. The values are copied, the annotation
+	 * object is not kept.
+	 * 
+	 * @param annotation
+	 *            The annotation to add.
+	 */
+	public void add(final Annotation annotation) {
+		add(annotation.getStart(), annotation.getPitch(PitchUnit.HERTZ), annotation.getSource(),
+				annotation.getProbability());
+	}
+
+	/**
+	 * Adds a list of annotations to the store.
+	 * 
+	 * @param annotations
+	 *            The annotations to add.
+	 */
+	public void addAll(final List<Annotation> annotations) {
+		ensureCapacity(size + annotations.size());
+		for (final Annotation annotation : annotations) {
+			add(annotation);
+		}
+	}
+
+	/**
+	 * Adds the contents of another store to this store.
+	 * 
+	 * @param other
+	 *            The store to copy the annotations from.
+	 */
+	public void addAll(final AnnotationStore other) {
+		ensureCapacity(size + other.size);
+		System.arraycopy(other.times, 0, times, size, other.size);
+		System.arraycopy(other.pitchesInHz, 0, pitchesInHz, size, other.size);
+		System.arraycopy(other.saliences, 0, saliences, size, other.size);
+		System.arraycopy(other.sources, 0, sources, size, other.size);
+		size += other.size;
+	}
+
+	/**
+	 * Removes all annotations from the store.
+	 */
+	public void clear() {
+		size = 0;
+		Arrays.fill(unitColumns, null);
+		Arrays.fill(unitColumnSizes, 0);
+	}
+
+	/**
+	 * @return The number of annotations in the store.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return True if the store contains no annotations.
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @param index
+	 *            The index of the annotation.
+	 * @return The starting time of the annotation, in seconds.
+	 */
+	public double getStart(final int index) {
+		checkIndex(index);
+		return times[index];
+	}
+
+	/**
+	 * @param index
+	 *            The index of the annotation.
+	 * @return The probability or salience of the annotation.
+	 */
+	public double getProbability(final int index) {
+		checkIndex(index);
+		return saliences[index];
+	}
+
+	/**
+	 * @param index
+	 *            The index of the annotation.
+	 * @return The source of the annotation.
+	 */
+	public PitchDetectionMode getSource(final int index) {
+		checkIndex(index);
+		return SOURCES[sources[index]];
+	}
+
+	/**
+	 * Returns the pitch of an annotation in the requested unit. If the column
+	 * for the unit is cached it is used, otherwise the value is converted.
+	 * 
+	 * @param index
+	 *            The index of the annotation.
+	 * @param unit
+	 *            The unit requested.
+	 * @return The converted value.
+	 */
+	public double getPitch(final int index, final PitchUnit unit) {
+		checkIndex(index);
+		final double value;
+		final double[] column = unitColumns[unit.ordinal()];
+		if (unit == PitchUnit.HERTZ) {
+			value = pitchesInHz[index];
+		} else if (column != null && index < unitColumnSizes[unit.ordinal()]) {
+			value = column[index];
+		} else {
+			value = unit.convert(pitchesInHz[index], PitchUnit.HERTZ);
+		}
+		return value;
+	}
+
+	/**
+	 * Returns the pitch of every annotation in the requested unit. The column
+	 * is calculated once and cached, annotations added later are converted
+	 * when the column is requested again. The returned array should not be
+	 * modified.
+	 * 
+	 * @param unit
+	 *            The unit requested.
+	 * @return An array with a pitch value for each annotation, in the order
+	 *         of the store.
+	 */
+	public double[] getPitches(final PitchUnit unit) {
+		final int ordinal = unit.ordinal();
+		double[] column = unitColumns[ordinal];
+		final int converted = unitColumnSizes[ordinal];
+		if (column == null || converted != size) {
+			column = column == null ? new double[size] : Arrays.copyOf(column, size);
+			final int absoluteCentsOrdinal = PitchUnit.ABSOLUTE_CENTS.ordinal();
+			final double[] values;
+			final PitchUnit valueUnit;
+			if (unit == PitchUnit.RELATIVE_CENTS && unitColumns[absoluteCentsOrdinal] != null
+					&& unitColumnSizes[absoluteCentsOrdinal] == size) {
+				values = unitColumns[absoluteCentsOrdinal];
+				valueUnit = PitchUnit.ABSOLUTE_CENTS;
+			} else {
+				values = pitchesInHz;
+				valueUnit = PitchUnit.HERTZ;
+			}
+			final double[] added = new double[size - converted];
+			System.arraycopy(values, converted, added, 0, added.length);
+			unit.convert(added, valueUnit, added, added.length);
+			System.arraycopy(added, 0, column, converted, added.length);
+			unitColumns[ordinal] = column;
+			unitColumnSizes[ordinal] = size;
+		}
+		return column;
+	}
+
+	/**
+	 * @return An array with the starting time of each annotation, in seconds.
+	 *         A copy is returned.
+	 */
+	public double[] getStarts() {
+		return Arrays.copyOf(times, size);
+	}
+
+	/**
+	 * Creates an annotation object for an element in the store. The object is
+	 * not kept: each call returns a new, equal object.
+	 * 
+	 * @param index
+	 *            The index of the annotation.
+	 * @return A new annotation object.
+	 */
+	public Annotation get(final int index) {
+		checkIndex(index);
+		return new Annotation(times[index], pitchesInHz[index], SOURCES[sources[index]], saliences[index]);
+	}
+
+	/**
+	 * Creates a store with a subset of the annotations in this store. The
+	 * cached pitch columns are copied for the subset.
+	 * 
+	 * @param indices
+	 *            The indices of the annotations to keep, in ascending order.
+	 * @param count
+	 *            The number of indices to use.
+	 * @return A new store with the selected annotations, in the order of this
+	 *         store.
+	 */
+	public AnnotationStore subset(final int[] indices, final int count) {
+		final AnnotationStore subset = new AnnotationStore(count);
+		for (int i = 0; i < count; i++) {
+			final int index = indices[i];
+			checkIndex(index);
+			subset.times[i] = times[index];
+			subset.pitchesInHz[i] = pitchesInHz[index];
+			subset.saliences[i] = saliences[index];
+			subset.sources[i] = sources[index];
+		}
+		subset.size = count;
+		for (int unit = 0; unit < unitColumns.length; unit++) {
+			if (unitColumns[unit] != null && unitColumnSizes[unit] == size) {
+				final double[] column = new double[count];
+				for (int i = 0; i < count; i++) {
+					column[i] = unitColumns[unit][indices[i]];
+				}
+				subset.unitColumns[unit] = column;
+				subset.unitColumnSizes[unit] = count;
+			}
+		}
+		return subset;
+	}
+
+	/**
+	 * Creates a copy of this store with other pitch values, e.g. smoothed
+	 * pitches. Time, salience and source are copied.
+	 * 
+	 * @param newPitchesInHz
+	 *            A pitch in Hz for each annotation in the store.
+	 * @return A new store with the given pitches.
+	 */
+	public AnnotationStore withPitches(final double[] newPitchesInHz) {
+		if (newPitchesInHz.length != size) {
+			throw new IllegalArgumentException("Expected " + size + " pitches, got " + newPitchesInHz.length);
+		}
+		for (int i = 0; i < size; i++) {
+			if (newPitchesInHz[i] <= 0) {
+				throw new IllegalArgumentException("The pitch in Hz should be a value above zero, it is: "
+						+ newPitchesInHz[i]);
+			}
+		}
+		final AnnotationStore copy = new AnnotationStore(size);
+		System.arraycopy(times, 0, copy.times, 0, size);
+		System.arraycopy(newPitchesInHz, 0, copy.pitchesInHz, 0, size);
+		System.arraycopy(saliences, 0, copy.saliences, 0, size);
+		System.arraycopy(sources, 0, copy.sources, 0, size);
+		copy.size = size;
+		return copy;
+	}
+
+	/**
+	 * @return A new, modifiable list with an annotation object for each
+	 *         element in the store.
+	 */
+	public List<Annotation> toList() {
+		final List<Annotation> annotations = new ArrayList<Annotation>(size);
+		for (int i = 0; i < size; i++) {
+			annotations.add(get(i));
+		}
+		return annotations;
+	}
+
+	/**
+	 * Returns a read-only list view on the store. An annotation object is
+	 * created for each request, see {@link #get(int)}.
+	 * 
+	 * @return A read-only list backed by the store.
+	 */
+	public List<Annotation> asList() {
+		return new AbstractList<Annotation>() {
+			@Override
+			public Annotation get(final int index) {
+				return AnnotationStore.this.get(index);
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	/**
+	 * Creates a store with the contents of a list of annotations.
+	 * 
+	 * @param annotations
+	 *            The list of annotations.
+	 * @return A new store containing the annotations.
+	 */
+	public static AnnotationStore fromList(final List<Annotation> annotations) {
+		final AnnotationStore store = new AnnotationStore(annotations.size());
+		store.addAll(annotations);
+		return store;
+	}
+
+	private void ensureCapacity(final int minCapacity) {
+		if (minCapacity > times.length) {
+			final int newCapacity = Math.max(minCapacity, times.length + (times.length >> 1));
+			times = Arrays.copyOf(times, newCapacity);
+			pitchesInHz = Arrays.copyOf(pitchesInHz, newCapacity);
+			saliences = Arrays.copyOf(saliences, newCapacity);
+			sources = Arrays.copyOf(sources, newCapacity);
+		}
+	}
+
+	private void checkIndex(final int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+		}
+	}
+}
@@ -23,32 +23,77 @@
 
 
 
+
 package be.tarsos.sampled.pitch;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Logger;
 
 import be.tarsos.util.StopWatch;
-import edu.wlu.cs.levy.CG.KDTree;
-import edu.wlu.cs.levy.CG.KeyDuplicateException;
-import edu.wlu.cs.levy.CG.KeySizeException;
 
 /**
- * Annotation tree can be used for range selection on a list of annotations. To
- * make the range search efficient it backed by a KD-tree. One dimension is
- * time, the second dimension pitch and the third dimension is salience. 
- * The unit of pitch is defined during the construction phase.
+ * <p>
+ * Annotation tree can be used for range selection on a list of annotations.
+ * One dimension is time, the second dimension pitch and the third dimension is
+ * salience. The unit of pitch is defined during the construction phase.
+ * </p>
+ * <p>
+ * To make the range search efficient the annotations are kept sorted by time
+ * in primitive columns: a time window is found with a binary search. The
+ * sorted annotations are divided in blocks, for each block the minimum and
+ * maximum pitch and the maximum salience is kept. Blocks that can not contain
+ * selected annotations are skipped without scanning them.
+ * </p>
+ * <p>
+ * The tree keeps no annotation objects. A selection creates objects for the
+ * selected annotations only, the visitor variant creates none.
+ * </p>
  */
 public final class AnnotationTree {
 
 	private static final Logger LOG = Logger.getLogger(AnnotationTree.class.getName());
 
 	/**
-	 * The backing kd-tree.
+	 * The number of annotations summarized in one block.
+	 */
+	private static final int BLOCK_SIZE = 256;
+
+	private static final PitchDetectionMode[] SOURCES = PitchDetectionMode.values();
+
+	/**
+	 * Visits annotations in a selection without creating annotation objects.
 	 */
-	private final KDTree<Annotation> tree;
+	public interface AnnotationVisitor {
+		/**
+		 * Called for each selected annotation, in order of time.
+		 * 
+		 * @param start
+		 *            The starting time in seconds.
+		 * @param pitch
+		 *            The pitch in the unit of the tree.
+		 * @param probability
+		 *            The probability or salience.
+		 * @param source
+		 *            The source of the annotation.
+		 */
+		void visit(double start, double pitch, double probability, PitchDetectionMode source);
+	}
+
 	private final PitchUnit unit;
 
+	private double[] times;
+	private double[] pitches;
+	private double[] pitchesInHz;
+	private double[] probabilities;
+	private byte[] sources;
+	private int size;
+
+	private double[] blockMinPitch;
+	private double[] blockMaxPitch;
+	private double[] blockMaxProbability;
+
 	/**
 	 * Create a new annotation tree. 
 	 * @param pitchUnit
@@ -57,73 +102,443 @@ public final class AnnotationTree {
 	 *            
 	 */
 	public AnnotationTree(final PitchUnit pitchUnit) {
-		// Three dimensional tree
-		tree = new KDTree<Annotation>(3);
 		unit = pitchUnit;
+		times = new double[0];
+		pitches = new double[0];
+		pitchesInHz = new double[0];
+		probabilities = new double[0];
+		sources = new byte[0];
+		size = 0;
+		blockMinPitch = new double[0];
+		blockMaxPitch = new double[0];
+		blockMaxProbability = new double[0];
 	}
 	
 	/**
-	 * Add a list of annotations to the KD-tree.
+	 * Add a list of annotations to the tree.
 	 * @param annotations
 	 *            The annotations to add to the tree.
 	 */
 	public void add(final List<Annotation> annotations){
 		StopWatch watch = new StopWatch();
-		for (Annotation annotation : annotations) {
-			add(annotation);
+		final int n = annotations.size();
+		final double[] newTimes = new double[n];
+		final double[] newPitches = new double[n];
+		final double[] newPitchesInHz = new double[n];
+		final double[] newProbabilities = new double[n];
+		final byte[] newSources = new byte[n];
+		for (int i = 0; i < n; i++) {
+			final Annotation annotation = annotations.get(i);
+			newTimes[i] = annotation.getStart();
+			newPitches[i] = annotation.getPitch(unit);
+			newPitchesInHz[i] = annotation.getPitch(PitchUnit.HERTZ);
+			newProbabilities[i] = annotation.getProbability();
+			newSources[i] = (byte) annotation.getSource().ordinal();
 		}
-		LOG.fine(String.format("Added %s annotations (new size %s) to KD Tree in %s.", annotations.size(),tree.size(), watch));
+		merge(newTimes, newPitches, newPitchesInHz, newProbabilities, newSources);
+		LOG.fine(String.format("Added %s annotations (new size %s) to the annotation tree in %s.", n, size, watch));
+	}
+
+	/**
+	 * Add the annotations in a store to the tree, without creating annotation
+	 * objects.
+	 * 
+	 * @param annotations
+	 *            The annotations to add to the tree.
+	 */
+	public void add(final AnnotationStore annotations) {
+		StopWatch watch = new StopWatch();
+		final int n = annotations.size();
+		final double[] newPitchesInHz = annotations.getPitches(PitchUnit.HERTZ);
+		final double[] newPitches = annotations.getPitches(unit);
+		final double[] newTimes = annotations.getStarts();
+		final double[] newProbabilities = new double[n];
+		final byte[] newSources = new byte[n];
+		for (int i = 0; i < n; i++) {
+			newProbabilities[i] = annotations.getProbability(i);
+			newSources[i] = (byte) annotations.getSource(i).ordinal();
+		}
+		merge(newTimes, newPitches, newPitchesInHz, newProbabilities, newSources);
+		LOG.fine(String.format("Added %s annotations (new size %s) to the annotation tree in %s.", n, size, watch));
+	}
+
+	/**
+	 * Add one annotation to the tree.
+	 * @param annotation
+	 *            The annotation to add.
+	 */
+	public void add(final Annotation annotation) {
+		final List<Annotation> annotations = new ArrayList<Annotation>(1);
+		annotations.add(annotation);
+		add(annotations);
 	}
 
 	/**
 	 * Select a subset of all annotations within a pitch - time range.
 	 * @param selection A selection defines a pitch-time range.
 	 * 
-	 * @return A range selection of annotations.
+	 * @return A range selection of annotations, ordered by time. New
+	 *         annotation objects are created for each selection.
 	 */
 	public List<Annotation> select(final AnnotationSelection selection) {
 		final StopWatch watch = new StopWatch();
-		double startTime = selection.getStartTime();
-		double stopTime = selection.getStopTime();
-		double startPitch = selection.getStartPitch();
-		double stopPitch = selection.getStopPitch();
-		double startProbability = selection.getMinProbability();
-		double stopProbability = AnnotationSelection.MAX_PROBABILITY;
-
-		double[] lowKey = { startTime, startPitch, startProbability };
-		double[] upperKey = { stopTime, stopPitch, stopProbability };
-
-		List<Annotation> selectedAnnotations = null;
-		try {
-			selectedAnnotations = tree.range(lowKey, upperKey);
-		} catch (KeySizeException e) {
-			new IllegalStateException("The dimenstion of the tree is two, the dimension of the key also.");
-		}
-		LOG.finer(String.format("Selected %s annotations from a KD-tree of %s annotations in %s.",
-				selectedAnnotations.size(), tree.size(), watch.formattedToString()));
+		final List<Annotation> selectedAnnotations = new ArrayList<Annotation>();
+		final double startPitch = selection.getStartPitch();
+		final double stopPitch = selection.getStopPitch();
+		final double minProbability = selection.getMinProbability();
+		final int from = lowerBound(selection.getStartTime());
+		final int to = upperBound(selection.getStopTime());
+		for (int block = from / BLOCK_SIZE; block * BLOCK_SIZE < to; block++) {
+			if (blockMaxPitch[block] < startPitch || blockMinPitch[block] > stopPitch
+					|| blockMaxProbability[block] < minProbability) {
+				continue;
+			}
+			final int blockStop = Math.min(to, (block + 1) * BLOCK_SIZE);
+			for (int i = Math.max(from, block * BLOCK_SIZE); i < blockStop; i++) {
+				if (isSelected(i, startPitch, stopPitch, minProbability)) {
+					selectedAnnotations.add(get(i));
+				}
+			}
+		}
+		LOG.finer(String.format("Selected %s annotations from a tree of %s annotations in %s.",
+				selectedAnnotations.size(), size, watch.formattedToString()));
 		return selectedAnnotations;
 	}
 
+	/**
+	 * Visits every annotation within a pitch - time range, in order of time.
+	 * No objects are allocated during the search.
+	 * 
+	 * @param selection
+	 *            A selection defines a pitch-time range.
+	 * @param visitor
+	 *            The visitor called for each selected annotation.
+	 * @return The number of visited annotations.
+	 */
+	public int select(final AnnotationSelection selection, final AnnotationVisitor visitor) {
+		final double startPitch = selection.getStartPitch();
+		final double stopPitch = selection.getStopPitch();
+		final double minProbability = selection.getMinProbability();
+		final int from = lowerBound(selection.getStartTime());
+		final int to = upperBound(selection.getStopTime());
+		int visited = 0;
+		for (int block = from / BLOCK_SIZE; block * BLOCK_SIZE < to; block++) {
+			if (blockMaxPitch[block] < startPitch || blockMinPitch[block] > stopPitch
+					|| blockMaxProbability[block] < minProbability) {
+				continue;
+			}
+			final int blockStop = Math.min(to, (block + 1) * BLOCK_SIZE);
+			for (int i = Math.max(from, block * BLOCK_SIZE); i < blockStop; i++) {
+				if (isSelected(i, startPitch, stopPitch, minProbability)) {
+					visitor.visit(times[i], pitches[i], probabilities[i], SOURCES[sources[i]]);
+					visited++;
+				}
+			}
+		}
+		return visited;
+	}
+
+	/**
+	 * Replaces the annotations in the tree with the annotations in a store,
+	 * e.g. the output of a filter. The columns of the tree are reused. The
+	 * annotations that change within a selection are reported: they are found
+	 * by walking the selected annotations before and after the replacement in
+	 * order of time, objects are only created for the changes.
+	 * 
+	 * @param annotations
+	 *            The new annotations.
+	 * @param selection
+	 *            The selection to report the changes for.
+	 * @param removed
+	 *            Receives the selected annotations that are removed, or that
+	 *            have a different pitch or probability.
+	 * @param added
+	 *            Receives the selected annotations that are added, or that
+	 *            have a different pitch or probability.
+	 */
+	public void replace(final AnnotationStore annotations, final AnnotationSelection selection,
+			final List<Annotation> removed, final List<Annotation> added) {
+		final StopWatch watch = new StopWatch();
+		// Only the previously selected annotations are compared, keep them.
+		final int[] previous = selectIndices(selection);
+		final int previousCount = previous.length;
+		final double[] previousTimes = new double[previousCount];
+		final double[] previousPitchesInHz = new double[previousCount];
+		final double[] previousProbabilities = new double[previousCount];
+		final byte[] previousSources = new byte[previousCount];
+		for (int i = 0; i < previousCount; i++) {
+			previousTimes[i] = times[previous[i]];
+			previousPitchesInHz[i] = pitchesInHz[previous[i]];
+			previousProbabilities[i] = probabilities[previous[i]];
+			previousSources[i] = sources[previous[i]];
+		}
+
+		size = 0;
+		add(annotations);
+
+		final int[] current = selectIndices(selection);
+		int i = 0;
+		int j = 0;
+		while (i < previousCount || j < current.length) {
+			if (j == current.length || (i < previousCount && previousTimes[i] < times[current[j]])) {
+				removed.add(new Annotation(previousTimes[i], previousPitchesInHz[i], SOURCES[previousSources[i]],
+						previousProbabilities[i]));
+				i++;
+			} else if (i == previousCount || times[current[j]] < previousTimes[i]) {
+				added.add(get(current[j]));
+				j++;
+			} else {
+				// Annotations at the same time are equal if their source is
+				// equal. A matched previous annotation is marked with source
+				// -1.
+				final double time = previousTimes[i];
+				int previousStop = i;
+				while (previousStop < previousCount && previousTimes[previousStop] == time) {
+					previousStop++;
+				}
+				for (; j < current.length && times[current[j]] == time; j++) {
+					final int index = current[j];
+					int match = -1;
+					for (int k = i; k < previousStop && match < 0; k++) {
+						if (previousSources[k] == sources[index]) {
+							match = k;
+						}
+					}
+					if (match < 0) {
+						added.add(get(index));
+					} else {
+						if (previousPitchesInHz[match] != pitchesInHz[index]
+								|| previousProbabilities[match] != probabilities[index]) {
+							removed.add(new Annotation(time, previousPitchesInHz[match],
+									SOURCES[previousSources[match]], previousProbabilities[match]));
+							added.add(get(index));
+						}
+						previousSources[match] = -1;
+					}
+				}
+				for (; i < previousStop; i++) {
+					if (previousSources[i] >= 0) {
+						removed.add(new Annotation(time, previousPitchesInHz[i], SOURCES[previousSources[i]],
+								previousProbabilities[i]));
+					}
+				}
+			}
+		}
+		LOG.fine(String.format("Replaced the annotations in the tree with %s annotations in %s, "
+				+ "%s removed and %s added in the selection.", size, watch.formattedToString(), removed.size(),
+				added.size()));
+	}
+
 	public int size() {
-		return tree.size();
+		return size;
 	}
-	
-	
 
 	/**
-	 * Add one annotation to the tree.
-	 * @param annotation
-	 *            The annotation to add.
+	 * @return The indices of the selected annotations, in order of time.
 	 */
-	public void add(final Annotation annotation) {
-		double[] key = { annotation.getStart(), annotation.getPitch(unit), annotation.getProbability() };
-		try {
-			tree.insert(key, annotation);
-		} catch (KeySizeException e) {
-			new IllegalStateException("The dimenstion of the tree is 3," + " the dimension of the key also.");
-		} catch (KeyDuplicateException e) {
-			new IllegalStateException("No two annotations with the same timestamp and starttime should be present!");
+	private int[] selectIndices(final AnnotationSelection selection) {
+		final double startPitch = selection.getStartPitch();
+		final double stopPitch = selection.getStopPitch();
+		final double minProbability = selection.getMinProbability();
+		final int from = lowerBound(selection.getStartTime());
+		final int to = upperBound(selection.getStopTime());
+		final int[] indices = new int[Math.max(0, to - from)];
+		int count = 0;
+		for (int block = from / BLOCK_SIZE; block * BLOCK_SIZE < to; block++) {
+			if (blockMaxPitch[block] < startPitch || blockMinPitch[block] > stopPitch
+					|| blockMaxProbability[block] < minProbability) {
+				continue;
+			}
+			final int blockStop = Math.min(to, (block + 1) * BLOCK_SIZE);
+			for (int i = Math.max(from, block * BLOCK_SIZE); i < blockStop; i++) {
+				if (isSelected(i, startPitch, stopPitch, minProbability)) {
+					indices[count] = i;
+					count++;
+				}
+			}
 		}
+		return Arrays.copyOf(indices, count);
+	}
+
+	/**
+	 * @return A new annotation object for the annotation at an index.
+	 */
+	private Annotation get(final int i) {
+		return new Annotation(times[i], pitchesInHz[i], SOURCES[sources[i]], probabilities[i]);
+	}
+
+	private boolean isSelected(final int i, final double startPitch, final double stopPitch,
+			final double minProbability) {
+		return pitches[i] >= startPitch && pitches[i] <= stopPitch && probabilities[i] >= minProbability;
+	}
 
+	/**
+	 * @return The index of the first annotation with a time equal to or
+	 *         larger than the given time.
+	 */
+	private int lowerBound(final double time) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			if (times[mid] < time) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @return The index of the first annotation with a time larger than the
+	 *         given time.
+	 */
+	private int upperBound(final double time) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			if (times[mid] <= time) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Merges a batch of new annotations with the sorted annotations already in
+	 * the tree. The columns grow with spare capacity, so the existing
+	 * annotations are not copied for each batch. Detectors deliver
+	 * annotations in order of time: the batch is appended and only the blocks
+	 * at the end are updated. Otherwise the batch is merged in place from the
+	 * end and the blocks are updated from the first moved annotation on. The
+	 * given arrays are copied, not kept.
+	 */
+	private void merge(final double[] newTimes, final double[] newPitches, final double[] newPitchesInHz,
+			final double[] newProbabilities, final byte[] newSources) {
+		final int n = newTimes.length;
+		if (n == 0) {
+			return;
+		}
+		final int[] order = sortedOrder(newTimes);
+		ensureCapacity(size + n);
+		final int firstChanged;
+		if (order == null && (size == 0 || times[size - 1] <= newTimes[0])) {
+			// Append: the common case for a detector delivering its results.
+			System.arraycopy(newTimes, 0, times, size, n);
+			System.arraycopy(newPitches, 0, pitches, size, n);
+			System.arraycopy(newPitchesInHz, 0, pitchesInHz, size, n);
+			System.arraycopy(newProbabilities, 0, probabilities, size, n);
+			System.arraycopy(newSources, 0, sources, size, n);
+			firstChanged = size;
+		} else {
+			// Merge from the end: the free capacity is filled first, existing
+			// annotations are only read before they are overwritten.
+			int i = size - 1;
+			int j = n - 1;
+			for (int k = size + n - 1; j >= 0; k--) {
+				final int newIndex = order == null ? j : order[j];
+				if (i >= 0 && times[i] > newTimes[newIndex]) {
+					times[k] = times[i];
+					pitches[k] = pitches[i];
+					pitchesInHz[k] = pitchesInHz[i];
+					probabilities[k] = probabilities[i];
+					sources[k] = sources[i];
+					i--;
+				} else {
+					times[k] = newTimes[newIndex];
+					pitches[k] = newPitches[newIndex];
+					pitchesInHz[k] = newPitchesInHz[newIndex];
+					probabilities[k] = newProbabilities[newIndex];
+					sources[k] = newSources[newIndex];
+					j--;
+				}
+			}
+			firstChanged = i + 1;
+		}
+		size += n;
+		updateBlocks(firstChanged / BLOCK_SIZE);
+	}
+
+	private void ensureCapacity(final int minCapacity) {
+		if (minCapacity > times.length) {
+			final int newCapacity = Math.max(minCapacity, times.length + (times.length >> 1));
+			times = Arrays.copyOf(times, newCapacity);
+			pitches = Arrays.copyOf(pitches, newCapacity);
+			pitchesInHz = Arrays.copyOf(pitchesInHz, newCapacity);
+			probabilities = Arrays.copyOf(probabilities, newCapacity);
+			sources = Arrays.copyOf(sources, newCapacity);
+		}
+	}
+
+	/**
+	 * Returns the order of the values when sorted or null when the values are
+	 * already sorted. The sort is stable.
+	 */
+	private static int[] sortedOrder(final double[] values) {
+		boolean sorted = true;
+		for (int i = 1; i < values.length && sorted; i++) {
+			sorted = values[i - 1] <= values[i];
+		}
+		int[] order = null;
+		if (!sorted) {
+			order = new int[values.length];
+			for (int i = 0; i < order.length; i++) {
+				order[i] = i;
+			}
+			mergeSort(order, new int[order.length], 0, order.length, values);
+		}
+		return order;
+	}
+
+	private static void mergeSort(final int[] order, final int[] buffer, final int from, final int to,
+			final double[] values) {
+		if (to - from < 2) {
+			return;
+		}
+		final int mid = (from + to) >>> 1;
+		mergeSort(order, buffer, from, mid, values);
+		mergeSort(order, buffer, mid, to, values);
+		int i = from;
+		int j = mid;
+		for (int k = from; k < to; k++) {
+			if (j >= to || (i < mid && values[order[i]] <= values[order[j]])) {
+				buffer[k] = order[i++];
+			} else {
+				buffer[k] = order[j++];
+			}
+		}
+		System.arraycopy(buffer, from, order, from, to - from);
+	}
+
+	/**
+	 * Recalculates the summaries of the blocks from a block on, the blocks
+	 * before it did not change.
+	 */
+	private void updateBlocks(final int fromBlock) {
+		final int numberOfBlocks = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		if (numberOfBlocks > blockMinPitch.length) {
+			final int newCapacity = (times.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+			blockMinPitch = Arrays.copyOf(blockMinPitch, newCapacity);
+			blockMaxPitch = Arrays.copyOf(blockMaxPitch, newCapacity);
+			blockMaxProbability = Arrays.copyOf(blockMaxProbability, newCapacity);
+		}
+		for (int block = fromBlock; block < numberOfBlocks; block++) {
+			double min = Double.POSITIVE_INFINITY;
+			double max = Double.NEGATIVE_INFINITY;
+			double maxProbability = Double.NEGATIVE_INFINITY;
+			final int stop = Math.min(size, (block + 1) * BLOCK_SIZE);
+			for (int i = block * BLOCK_SIZE; i < stop; i++) {
+				min = Math.min(min, pitches[i]);
+				max = Math.max(max, pitches[i]);
+				maxProbability = Math.max(maxProbability, probabilities[i]);
+			}
+			blockMinPitch[block] = min;
+			blockMaxPitch[block] = max;
+			blockMaxProbability[block] = maxProbability;
+		}
 	}
 }
@@ -25,24 +25,32 @@
 
 package be.tarsos.sampled.pitch;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Logger;
 
+import be.tarsos.util.AnalysisCache;
 import be.tarsos.util.AudioFile;
 import be.tarsos.util.FileUtils;
 
 /**
  * Caches the results of a pitch detector by serializing annotations to a file.
  * If a file with annotations exists it reads the contents, otherwise the pitch
- * detector is executed and the annotations are stored.
+ * detector is executed and the annotations are stored. The binary
+ * {@link AnnotationCache} format is used, caches in the older CSV text format
+ * are migrated the first time they are read. Cached files are tracked by the
+ * {@link AnalysisCache}.
  * 
  * @author Joren Six
  */
 public final class CachingDetector implements PitchDetector {
+	/**
+	 * The annotations as annotation objects, only created when requested.
+	 */
 	private List<Annotation> annotations;
+	private AnnotationStore store;
 	private final AudioFile file;
 	private final PitchDetector detector;
+	private final String parameters;
 
 	/**
 	 * Log messages.
@@ -56,39 +64,121 @@ public final class CachingDetector implements PitchDetector {
 	 *            The file to cache results for.
 	 * @param pitchDetector
 	 *            The detector used.
+	 * @param detectorParameters
+	 *            The parameters of the detector, see
+	 *            {@link PitchDetectionMode#getParameters()}. Cached annotations
+	 *            created with other parameters are not used.
 	 */
-	public CachingDetector(final AudioFile audioFile, final PitchDetector pitchDetector) {
+	public CachingDetector(final AudioFile audioFile, final PitchDetector pitchDetector,
+			final String detectorParameters) {
 		file = audioFile;
 		detector = pitchDetector;
-		annotations = new ArrayList<Annotation>();
+		parameters = detectorParameters;
+		annotations = null;
+		store = new AnnotationStore();
 	}
 
 	/* (non-Javadoc)
 	 * @see be.tarsos.sampled.pitch.PitchDetector#executePitchDetection()
 	 */
 	public List<Annotation> executePitchDetection() {
-		String directory = file.transcodedDirectory();
-		String annotationsFileName = detector.getName() + "_" + file.originalBasename() + ".txt";
-		annotationsFileName = FileUtils.combine(directory, annotationsFileName);
-		if (FileUtils.exists(annotationsFileName)) {
-			annotations = FileUtils.readPitchAnnotations(annotationsFileName);
-			LOG.info(String.format("Read " + annotations.size() +  " cached annotations for %s from %s", detector.getName(),
-					annotationsFileName));
+		final String cacheFileName = cacheFileName();
+		final String textFileName = textFileName();
+		final AnalysisCache cache = AnalysisCache.getInstance();
+
+		AnnotationStore cached = null;
+		annotations = null;
+		if (cache.lookup(cacheFileName, file.md5(), detector.getName(), parameters)) {
+			final AnnotationCache.Header header = AnnotationCache.readHeader(cacheFileName);
+			if (header != null && header.matches(detector.getName(), file.md5())) {
+				cached = AnnotationCache.readStore(cacheFileName);
+			} else {
+				LOG.info(String.format("Ignored stale or incompatible annotation cache %s", cacheFileName));
+			}
+		}
+
+		if (cached == null && FileUtils.exists(textFileName)) {
+			// Migrate caches in the old CSV format to the binary format.
+			annotations = FileUtils.readPitchAnnotations(textFileName);
+			cached = AnnotationStore.fromList(annotations);
+			if (AnnotationCache.write(cacheFileName, detector.getName(), file.md5(), annotations)) {
+				cache.put(cacheFileName, file.md5(), detector.getName(), parameters);
+				FileUtils.rm(textFileName);
+				LOG.info(String.format("Migrated cached annotations for %s from %s to %s", detector.getName(),
+						textFileName, cacheFileName));
+			}
+		}
+
+		if (cached != null) {
+			store = cached;
+			LOG.info(String.format("Read " + store.size() +  " cached annotations for %s from %s", detector.getName(),
+					cacheFileName));
 		} else {
 			detector.executePitchDetection();
 			// Do not copy the annotations, use the same list:
 			annotations = detector.getAnnotations();
-			FileUtils.writePitchAnnotations(annotationsFileName, annotations);
-			LOG.info(String.format("Cached annotation results for %s to %s", detector.getName(),
-					annotationsFileName));
+			store = AnnotationStore.fromList(annotations);
+			if (Thread.currentThread().isInterrupted()) {
+				// The detection was cancelled, the results are incomplete.
+				LOG.info(String.format("Detection with %s interrupted, results are not cached.", detector.getName()));
+			} else if (AnnotationCache.write(cacheFileName, detector.getName(), file.md5(), annotations)) {
+				cache.put(cacheFileName, file.md5(), detector.getName(), parameters);
+				LOG.info(String.format("Cached annotation results for %s to %s", detector.getName(),
+						cacheFileName));
+			}
 		}
-		return annotations;
+		
+		final List<Annotation> result;
+		if (annotations == null) {
+			// Do not create annotation objects unless they are needed.
+			result = store.asList();
+		} else {
+			result = annotations;
+		}
+		return result;
+	}
+
+	/**
+	 * Checks if there are cached annotations for the detector and file,
+	 * without reading them.
+	 * 
+	 * @return True if executing the detection reads cached annotations.
+	 */
+	public boolean isCached() {
+		final String cacheFileName = cacheFileName();
+		final AnnotationCache.Header header;
+		if (AnalysisCache.getInstance().isCached(cacheFileName, file.md5(), detector.getName(), parameters)) {
+			header = AnnotationCache.readHeader(cacheFileName);
+		} else {
+			header = null;
+		}
+		return (header != null && header.matches(detector.getName(), file.md5()))
+				|| FileUtils.exists(textFileName());
+	}
+	
+	private String baseName() {
+		return FileUtils.combine(file.transcodedDirectory(), detector.getName() + "_" + file.originalBasename());
+	}
+	
+	private String cacheFileName() {
+		return baseName() + "." + AnnotationCache.EXTENSION;
+	}
+	
+	private String textFileName() {
+		return baseName() + ".txt";
 	}
 
 	public List<Annotation> getAnnotations() {
+		if (annotations == null) {
+			annotations = store.toList();
+		}
 		return annotations;
 	}
 
+	public AnnotationStore getAnnotationStore() {
+		return store;
+	}
+
 	public String getName() {
 		return "cached_" + detector.getName();
 	}
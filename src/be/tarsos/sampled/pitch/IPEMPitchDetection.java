@@ -278,6 +278,10 @@ public final class IPEMPitchDetection implements PitchDetector {
 		return this.annotations;
 	}
 
+	public AnnotationStore getAnnotationStore() {
+		return AnnotationStore.fromList(getAnnotations());
+	}
+
 	
 	public double progress() {
 		return -1;
@@ -196,7 +196,29 @@ public enum PitchDetectionMode {
 			detector = new VampPitchDetection(audioFile, this);
 			break;
 		}
-		return new CachingDetector(audioFile, detector);
+		return new CachingDetector(audioFile, detector, getParameters());
+	}
+
+	/**
+	 * @return The configured parameters that change the annotations of the
+	 *         detector, empty if there are none. Cached annotations created
+	 *         with other parameters are detected again.
+	 */
+	public String getParameters() {
+		final String parameters;
+		switch (this) {
+		case IPEM_SIX:
+			parameters = "ipem_pitch_threshold=" + Configuration.get(ConfKey.ipem_pitch_threshold);
+			break;
+		case VAMP_CONSTANT_Q_200:
+		case VAMP_CONSTANT_Q_400:
+			parameters = "pitch_histogram_start=" + Configuration.get(ConfKey.pitch_histogram_start);
+			break;
+		default:
+			parameters = "";
+			break;
+		}
+		return parameters;
 	}
 
 	public String getDetectionModeName() {
@@ -36,7 +36,9 @@ public interface PitchDetector {
 
 	/**
 	 * Execute the pitch detection process.
-	 * @return Returns a list of detected pitches, encapsulated in an annotation object.
+	 * @return Returns a list of detected pitches, encapsulated in an annotation
+	 *         object. The list can be a read-only view, use
+	 *         {@link #getAnnotations()} for a modifiable list.
 	 */
 	List<Annotation> executePitchDetection();
 	
@@ -52,6 +54,11 @@ public interface PitchDetector {
 	 */
 	List<Annotation> getAnnotations();
 
+	/**
+	 * @return the annotated samples in a compact {@link AnnotationStore}.
+	 */
+	AnnotationStore getAnnotationStore();
+
 	/**
 	 * @return the name of the detector possibly with parameters e.g. aubio_YIN
 	 */
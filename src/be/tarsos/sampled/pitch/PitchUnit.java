@@ -184,6 +184,71 @@ public enum PitchUnit {
 		}
 		return convertedPitch;
 	}
+
+	/**
+	 * Converts an array of pitches in the given unit to this unit, see
+	 * {@link #convert(double, PitchUnit)}.
+	 * 
+	 * @param values
+	 *            The pitches in the given unit.
+	 * @param valueUnit
+	 *            The unit of the given pitches.
+	 * @return A new array with the pitches converted to this unit.
+	 */
+	public double[] convert(final double[] values, final PitchUnit valueUnit) {
+		final double[] converted = new double[values.length];
+		convert(values, valueUnit, converted, values.length);
+		return converted;
+	}
+
+	/**
+	 * Converts the first pitches of an array in the given unit to this unit.
+	 * The unit is checked once for the whole array instead of once per value.
+	 * Conversions from Hz give the same values as
+	 * {@link #convert(double, PitchUnit)}. Pitches already in this unit are
+	 * copied and absolute cents are folded to relative cents directly, both
+	 * without a round trip to Hz.
+	 * 
+	 * @param values
+	 *            The pitches in the given unit.
+	 * @param valueUnit
+	 *            The unit of the given pitches.
+	 * @param converted
+	 *            The array to store the pitches converted to this unit in. It
+	 *            can be the same array as values.
+	 * @param length
+	 *            The number of pitches to convert.
+	 */
+	public void convert(final double[] values, final PitchUnit valueUnit, final double[] converted,
+			final int length) {
+		if (valueUnit == this) {
+			System.arraycopy(values, 0, converted, 0, length);
+		} else if (valueUnit == HERTZ && this == ABSOLUTE_CENTS) {
+			for (int i = 0; i < length; i++) {
+				converted[i] = hertzToAbsoluteCent(values[i]);
+			}
+		} else if (valueUnit == HERTZ && this == RELATIVE_CENTS) {
+			for (int i = 0; i < length; i++) {
+				converted[i] = hertzToRelativeCent(values[i]);
+			}
+		} else if (valueUnit == HERTZ && this == MIDI_CENT) {
+			for (int i = 0; i < length; i++) {
+				converted[i] = hertzToMidiCent(values[i]);
+			}
+		} else if (valueUnit == ABSOLUTE_CENTS && this == RELATIVE_CENTS) {
+			for (int i = 0; i < length; i++) {
+				converted[i] = absoluteCentToRelativeCent(values[i]);
+			}
+		} else if (valueUnit == ABSOLUTE_CENTS && this == HERTZ) {
+			for (int i = 0; i < length; i++) {
+				converted[i] = absoluteCentToHertz(values[i]);
+			}
+		} else {
+			for (int i = 0; i < length; i++) {
+				converted[i] = convert(values[i], valueUnit);
+			}
+		}
+	}
 	
 	
 	
@@ -287,7 +352,19 @@ public enum PitchUnit {
 	 * @return A value in relative cents.
 	 */
 	public static double hertzToRelativeCent(final double hertzValue) {
-		double absoluteCentValue = PitchUnit.hertzToAbsoluteCent(hertzValue);
+		return absoluteCentToRelativeCent(PitchUnit.hertzToAbsoluteCent(hertzValue));
+	}
+
+	/**
+	 * Folds an absolute cent value to one octave. E.g. 6900 absolute cents is
+	 * 900 relative cents.
+	 * 
+	 * @param absoluteCent
+	 *            A value in absolute cents.
+	 * @return A value in relative cents.
+	 */
+	public static double absoluteCentToRelativeCent(final double absoluteCent) {
+		double absoluteCentValue = absoluteCent;
 		// make absoluteCentValue positive. E.g. -2410 => 1210
 		if (absoluteCentValue < 0) {
 			absoluteCentValue = Math.abs(1200 + absoluteCentValue);
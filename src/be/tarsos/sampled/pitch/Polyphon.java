@@ -85,6 +85,10 @@ public class Polyphon implements PitchDetector {
 		return annotations;
 	}
 
+	public AnnotationStore getAnnotationStore() {
+		return AnnotationStore.fromList(getAnnotations());
+	}
+
 	public String getName() {
 		return mode.getDetectionModeName();
 	}
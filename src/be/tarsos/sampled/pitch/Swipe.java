@@ -82,6 +82,10 @@ public class Swipe implements PitchDetector {
 		return annotations;
 	}
 
+	public AnnotationStore getAnnotationStore() {
+		return AnnotationStore.fromList(getAnnotations());
+	}
+
 	public String getName() {
 		return mode.getDetectionModeName();
 	}
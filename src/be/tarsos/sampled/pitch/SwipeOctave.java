@@ -81,6 +81,10 @@ public class SwipeOctave implements PitchDetector {
 		return annotations;
 	}
 
+	public AnnotationStore getAnnotationStore() {
+		return AnnotationStore.fromList(getAnnotations());
+	}
+
 	public String getName() {
 		return mode.getDetectionModeName();
 	}
@@ -24,57 +24,66 @@
 
 package be.tarsos.sampled.pitch;
 
-import java.io.File;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
-import javax.sound.sampled.UnsupportedAudioFileException;
-
-import be.tarsos.dsp.AudioDispatcher;
 import be.tarsos.dsp.AudioEvent;
 import be.tarsos.dsp.AudioProcessor;
-import be.tarsos.dsp.io.jvm.AudioDispatcherFactory;
 import be.tarsos.dsp.pitch.PitchDetectionHandler;
 import be.tarsos.dsp.pitch.PitchDetectionResult;
 import be.tarsos.dsp.pitch.PitchProcessor;
 import be.tarsos.dsp.pitch.PitchProcessor.PitchEstimationAlgorithm;
+import be.tarsos.sampled.ExtractionSession;
 import be.tarsos.util.AudioFile;
 
 public class TarsosPitchDetection implements PitchDetector {
 	
 	private final AudioFile audioFile;
 	private final PitchEstimationAlgorithm algorithm;
-	private final List<Annotation> annotations;
+	private final AnnotationStore annotations;
+	/**
+	 * The annotations as objects, created on request.
+	 */
+	private List<Annotation> annotationList;
 	private final PitchDetectionMode annotationSource;
 	
 	private double progress;
 	
+	/**
+	 * True if the detection was executed, e.g. together with other detectors
+	 * in a shared {@link ExtractionSession}.
+	 */
+	private boolean executed;
+	
 	private PitchDetectionHandler handler = new PitchDetectionHandler() {
 
 
 		public void handlePitch(PitchDetectionResult pitchDetectionResult,
 				AudioEvent audioEvent) {
 			if(pitchDetectionResult.isPitched()){
-				Annotation annotation = new Annotation(audioEvent.getTimeStamp(), pitchDetectionResult.getPitch(), annotationSource,pitchDetectionResult.getProbability());
-				annotations.add(annotation);
+				// MPM reports probabilities slightly above one for clean tones,
+				// the dynamic wavelet detector -1: keep them within [0,1].
+				double probability = Math.max(0.0, Math.min(1.0, pitchDetectionResult.getProbability()));
+				annotations.add(audioEvent.getTimeStamp(), pitchDetectionResult.getPitch(), annotationSource, probability);
+				annotationList = null;
 			}
 		}
 	};
 	
-	private AudioProcessor progressProcessor = new AudioProcessor() {
-		public void processingFinished() {
-		}		
-		public boolean process(AudioEvent audioEvent) {
-			progress = audioEvent.getProgress();
-			return true;
-		}
-	};
+	/**
+	 * The buffer size used by all Tarsos pitch detectors.
+	 */
+	private static final int BUFFER_SIZE = 2048;
+	
+	/**
+	 * The overlap used by all Tarsos pitch detectors.
+	 */
+	private static final int OVERLAP = 1024;
 	
 	public TarsosPitchDetection(AudioFile audioFile, PitchDetectionMode pitchDetectionMode) {
 		this.audioFile = audioFile;
 		annotationSource = pitchDetectionMode;
-		annotations = new ArrayList<Annotation>();
+		annotations = new AnnotationStore();
 		if(pitchDetectionMode == PitchDetectionMode.TARSOS_MPM){
 			algorithm = PitchEstimationAlgorithm.MPM;
 		} else if (pitchDetectionMode == PitchDetectionMode.TARSOS_YIN){
@@ -87,24 +96,72 @@ public class TarsosPitchDetection implements PitchDetector {
 			throw new IllegalArgumentException("Algorithm not recognized, should be MPM, YIN or Dynamic Wavelet, is " + pitchDetectionMode.name());
 		}
 	}
+	
+	/**
+	 * @param mode
+	 *            A pitch detection mode.
+	 * @return True if the mode is handled by a Tarsos pitch detector.
+	 */
+	public static boolean isTarsosMode(final PitchDetectionMode mode) {
+		return mode == PitchDetectionMode.TARSOS_MPM || mode == PitchDetectionMode.TARSOS_YIN
+				|| mode == PitchDetectionMode.TARSOS_DYNAMIC_WAVELET || mode == PitchDetectionMode.TARSOS_FFT_YIN;
+	}
 
 	public List<Annotation> executePitchDetection() {
-		try {
-			float sampleRate = audioFile.fileFormat().getFormat().getSampleRate();
-			int bufferSize = 2048;
-			int overlap = 1024;			
-			AudioDispatcher dispatcher = AudioDispatcherFactory.fromFile(new File(audioFile.transcodedPath()), bufferSize, overlap);
-			dispatcher.addAudioProcessor(new PitchProcessor(algorithm, sampleRate, bufferSize, handler ));
-			dispatcher.addAudioProcessor(progressProcessor );
-			dispatcher.run();
-		} catch (UnsupportedAudioFileException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+		if (!executed) {
+			final List<TarsosPitchDetection> detectors = new ArrayList<TarsosPitchDetection>();
+			detectors.add(this);
+			executePitchDetection(audioFile, detectors, null);
 		}
-		return annotations;
+		return getAnnotations();
+	}
+	
+	/**
+	 * Adds the processors of this detector to a session, so the audio can be
+	 * decoded once for several detectors or other feature extractors. The
+	 * annotations are available after the session has run.
+	 * 
+	 * @param session
+	 *            The session decoding the audio of the file to annotate.
+	 */
+	public void addTo(final ExtractionSession session) {
+		float sampleRate = audioFile.fileFormat().getFormat().getSampleRate();
+		session.addAudioProcessor(new PitchProcessor(algorithm, sampleRate, BUFFER_SIZE, handler), BUFFER_SIZE, OVERLAP);
+		session.addAudioProcessor(new AudioProcessor() {
+			public boolean process(AudioEvent audioEvent) {
+				progress = session.progress();
+				return true;
+			}
+			public void processingFinished() {
+				executed = true;
+			}
+		}, BUFFER_SIZE, OVERLAP);
+	}
+	
+	/**
+	 * Executes several Tarsos pitch detectors on the same file. The file is
+	 * decoded only once, each buffer is handed to every detector. The
+	 * detection stops when the executing thread is interrupted.
+	 * 
+	 * @param audioFile
+	 *            The file to annotate.
+	 * @param detectors
+	 *            The detectors to execute, they should annotate the same
+	 *            file.
+	 * @param progressListener
+	 *            An optional listener, notified of the progress of the
+	 *            decoding. Can be null.
+	 */
+	public static void executePitchDetection(final AudioFile audioFile, final List<TarsosPitchDetection> detectors,
+			final ExtractionSession.ProgressListener progressListener) {
+		final ExtractionSession session = new ExtractionSession(audioFile);
+		for (TarsosPitchDetection detector : detectors) {
+			detector.addTo(session);
+		}
+		if (progressListener != null) {
+			session.addProgressListener(progressListener);
+		}
+		session.run();
 	}
 	
 	
@@ -114,6 +171,13 @@ public class TarsosPitchDetection implements PitchDetector {
 	}
 
 	public List<Annotation> getAnnotations() {
+		if (annotationList == null) {
+			annotationList = annotations.toList();
+		}
+		return annotationList;
+	}
+
+	public AnnotationStore getAnnotationStore() {
 		return annotations;
 	}
 
@@ -32,6 +32,7 @@ import java.util.List;
 import java.util.Random;
 import java.util.logging.Logger;
 
+import be.tarsos.util.AnalysisCache;
 import be.tarsos.util.AudioFile;
 import be.tarsos.util.Command;
 import be.tarsos.util.ConfKey;
@@ -91,8 +92,10 @@ public final class VampPitchDetection implements PitchDetector {
 			
 		
 			
-			if(!FileUtils.exists(csvFile)){
+			final AnalysisCache cache = AnalysisCache.getInstance();
+			if (!cache.lookup(csvFile, file.md5(), getName(), mode.getParameters())) {
 				LOG.info(cmd.execute());
+				cache.put(csvFile, file.md5(), getName(), mode.getParameters());
 			}
 			
 			// CSV file should exist
@@ -237,6 +240,10 @@ public final class VampPitchDetection implements PitchDetector {
 		return annotations;
 	}
 
+	public AnnotationStore getAnnotationStore() {
+		return AnnotationStore.fromList(getAnnotations());
+	}
+
 	public String getName() {
 		return "vamp_" + mode.getParametername();
 	}
@@ -34,6 +34,8 @@ import java.awt.Cursor;
 import java.awt.Font;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.awt.image.BufferedImage;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
@@ -43,6 +45,7 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -68,12 +71,15 @@ import org.noos.xing.mydoggy.ToolWindowManager;
 import org.noos.xing.mydoggy.plaf.MyDoggyToolWindowManager;
 import org.noos.xing.mydoggy.plaf.ui.content.MyDoggyMultiSplitContentManagerUI;
 
+import be.tarsos.sampled.ExtractionSession;
 import be.tarsos.sampled.Player;
 import be.tarsos.sampled.pitch.Annotation;
 import be.tarsos.sampled.pitch.AnnotationListener;
 import be.tarsos.sampled.pitch.AnnotationPublisher;
+import be.tarsos.sampled.pitch.CachingDetector;
 import be.tarsos.sampled.pitch.PitchDetectionMode;
 import be.tarsos.sampled.pitch.PitchDetector;
+import be.tarsos.sampled.pitch.TarsosPitchDetection;
 import be.tarsos.ui.pitch.AudioFileChangedListener;
 import be.tarsos.ui.pitch.CommandPanel;
 import be.tarsos.ui.pitch.ConfigurationPanel;
@@ -93,6 +99,7 @@ import be.tarsos.ui.util.BackgroundTask.TaskHandler;
 import be.tarsos.util.AudioFile;
 import be.tarsos.util.ConfKey;
 import be.tarsos.util.Configuration;
+import be.tarsos.util.ExtractionExecutor;
 import be.tarsos.util.FileDrop;
 import be.tarsos.util.FileUtils;
 import be.tarsos.util.JLabelHandler;
@@ -167,6 +174,14 @@ public final class TarsosFrame extends JFrame implements ScaleChangedListener, A
 		// react to drag and drop 
 		addFileDropListener();
 		
+		// stop the background analysis on exit
+		addWindowListener(new WindowAdapter() {
+			@Override
+			public void windowClosing(WindowEvent e) {
+				cancelBackgroundAnalysis();
+			}
+		});
+		
 
 		// all the components to add to the frame
 		JComponent configurationPanel = makeConfigurationPanel();
@@ -414,6 +429,12 @@ public final class TarsosFrame extends JFrame implements ScaleChangedListener, A
 
 	/* -- Audio file publish subscribe -- */
 	private final List<AudioFileChangedListener> audioFileChangedListeners;
+	
+	/**
+	 * The background analysis of the files in a dropped directory, used on
+	 * the event dispatch thread only.
+	 */
+	private final List<Future<?>> backgroundAnalysis = new ArrayList<Future<?>>();
 
 	private void setAudioFile(final AudioFile newAudioFile) {
 		this.audioFile = newAudioFile;
@@ -453,6 +474,7 @@ public final class TarsosFrame extends JFrame implements ScaleChangedListener, A
 			ScalaFile scalaFile = new ScalaFile(newFile.getAbsolutePath());
 			scaleChanged(scalaFile.getPitches(), false, false);
 		} else if (FileUtils.isAudioFile(newFile)) {//add one audio file
+			cancelBackgroundAnalysis();
 			setNewAudioFile(newFile);
 		//find closest in scala directory	
 		} else if(newFile.isDirectory() && FileUtils.glob(newFile.getAbsolutePath(),".*\\.scl",false).size()!=0 ) {
@@ -461,8 +483,13 @@ public final class TarsosFrame extends JFrame implements ScaleChangedListener, A
 		} else if(newFile.isDirectory()){
 			String pattern = Configuration.get(ConfKey.audio_file_name_pattern);
 			List<String> audioFiles = FileUtils.glob(newFile.getAbsolutePath(), pattern, true);
-			for(String file:audioFiles){
-				setNewAudioFile(new File(file));
+			if(!audioFiles.isEmpty()){
+				//only the last file is shown, the others are analysed in the
+				//background once the shown file is done
+				cancelBackgroundAnalysis();
+				String shown = audioFiles.remove(audioFiles.size() - 1);
+				setNewAudioFile(new File(shown));
+				queueAnalysis(audioFiles);
 			}
 		}else{	
 			LOG.warning("Unrecognized file: " + newFile.getAbsolutePath());
@@ -509,6 +536,14 @@ public final class TarsosFrame extends JFrame implements ScaleChangedListener, A
 		AnnotationPublisher.getInstance().clear();
 		AnnotationPublisher.getInstance().extractionStarted();
 		final ProgressDialog dialog = new ProgressDialog(this,title,transcodingTask,detectorTasks);
+		dialog.addWindowListener(new WindowAdapter() {
+			@Override
+			public void windowClosing(WindowEvent e) {
+				// Closing the dialog stops the extraction, also in the
+				// background.
+				cancelBackgroundAnalysis();
+			}
+		});
 		dialog.addPropertyChangeListener(new PropertyChangeListener() {
 			public void propertyChange(PropertyChangeEvent evt) {
 				if(evt.getPropertyName().equals("allTasksFinished")){
@@ -521,16 +556,36 @@ public final class TarsosFrame extends JFrame implements ScaleChangedListener, A
 		dialog.setVisible(true);			
 	}
 	
+	/**
+	 * Creates the detector tasks for a file. The Tarsos pitch detectors are
+	 * grouped in one task so the audio is decoded only once, the other
+	 * detectors each get their own task.
+	 */
 	private List<BackgroundTask> createTasks(final File audioFile,final TranscodingTask transcodingTask){
 		final List<BackgroundTask> detectorTasks = new ArrayList<BackgroundTask>();
+		final List<PitchDetectionMode> tarsosModes = new ArrayList<PitchDetectionMode>();
+		final String baseName = FileUtils.basename(audioFile.getAbsolutePath());
 		for (final String name : Configuration
 				.getList(ConfKey.pitch_tracker_list)) {
 			final PitchDetectionMode mode = PitchDetectionMode
 					.valueOf(name);
-			final boolean determinatedLength = (mode == PitchDetectionMode.TARSOS_MPM || PitchDetectionMode.TARSOS_YIN == mode || PitchDetectionMode.TARSOS_DYNAMIC_WAVELET == mode);
-			DetectorTask task = new DetectorTask(mode.getDetectionModeName() + " " + FileUtils.basename(audioFile.getAbsolutePath()), determinatedLength, mode);
+			if (TarsosPitchDetection.isTarsosMode(mode)) {
+				tarsosModes.add(mode);
+			} else {
+				DetectorTask task = new DetectorTask(mode.getDetectionModeName() + " " + baseName, false, Arrays.asList(mode));
+				transcodingTask.addHandler(task);
+				detectorTasks.add(task);
+			}
+		}
+		if (!tarsosModes.isEmpty()) {
+			StringBuilder name = new StringBuilder();
+			for (PitchDetectionMode mode : tarsosModes) {
+				name.append(mode.getDetectionModeName()).append(" ");
+			}
+			name.append(baseName);
+			DetectorTask task = new DetectorTask(name.toString(), true, tarsosModes);
 			transcodingTask.addHandler(task);
-			detectorTasks.add(task);
+			detectorTasks.add(0, task);
 		}
 		return detectorTasks;
 	}
@@ -547,23 +602,8 @@ public final class TarsosFrame extends JFrame implements ScaleChangedListener, A
 
 		@Override
 		public Void doInBackground() {
-			Runnable runTranscoder = new Runnable(){
-				public void run() {
-						transcodedAudioFile = new AudioFile(newFile.getAbsolutePath());
-					
-				}
-			};
-			//Do the actual detection in the background
-			Thread t = new Thread(runTranscoder, getName());
-			t.start();
-			setProgress(0);
-			while (t.isAlive()) {
-				try {
-					setProgress(50);
-					Thread.sleep(30);
-				} catch (InterruptedException e) {
-				}
-			}
+			setProgress(50);
+			transcodedAudioFile = new AudioFile(newFile.getAbsolutePath());
 			setProgress(100);
 			return null;
 		}
@@ -575,45 +615,32 @@ public final class TarsosFrame extends JFrame implements ScaleChangedListener, A
 	
 	private class DetectorTask extends BackgroundTask implements TaskHandler{
 		private AudioFile file;
-		private final PitchDetectionMode mode;
+		private final List<PitchDetectionMode> modes;
 		
-		protected DetectorTask(String name, boolean lengthDetermined, PitchDetectionMode detectionMode) {
+		protected DetectorTask(String name, boolean lengthDetermined, List<PitchDetectionMode> detectionModes) {
 			super(name, lengthDetermined);
-			mode = detectionMode;
+			modes = detectionModes;
 		}
 
 		@Override
 		public Void doInBackground() {
-			final PitchDetector pitchDetector = mode
-					.getPitchDetector(file);
-			Runnable r = new Runnable() {
-				public void run() {
-					//Do pitch extraction
-					AnnotationPublisher publisher = AnnotationPublisher.getInstance();
-					List<Annotation> annotations = pitchDetector.executePitchDetection();
-					publisher.addAnnotations(annotations);
-				}
-			};
-			//Do the actual detection in the background
-			Thread t = new Thread(r, getName());
-			t.start();
-			
-			setProgress(0);
-			// So progress can be updated in this thread, every 30ms.
-			while (t.isAlive() && !isCancelled()) {
-				try {
-					if(lengthIsDetermined()){
-						setProgress((int) (pitchDetector.progress() * 100));
-					}else{
-						setProgress(50);
+			setProgress(lengthIsDetermined() ? 0 : 50);
+			List<PitchDetector> detectors = detect(file, modes, new ExtractionSession.ProgressListener() {
+				private int previousProgress = 0;
+				public void progressChanged(double fraction) {
+					int progress = (int) (fraction * 100);
+					// Only push changes, and never touch a cancelled task.
+					if (progress != previousProgress && !isCancelled()) {
+						setProgress(progress);
+						previousProgress = progress;
 					}
-					Thread.sleep(30);
-				} catch (InterruptedException e) {
 				}
-			}
-			if(isCancelled()){
-				t.interrupt();
-			} else {
+			});
+			if (!isCancelled()) {
+				AnnotationPublisher publisher = AnnotationPublisher.getInstance();
+				for (PitchDetector detector : detectors) {
+					publisher.addAnnotations(detector.getAnnotationStore());
+				}
 				setProgress(100);
 			}
 			return null;
@@ -630,6 +657,93 @@ public final class TarsosFrame extends JFrame implements ScaleChangedListener, A
 		}
 	}
 	
+	/**
+	 * Executes (or reads from cache) the pitch detectors for a file. Tarsos
+	 * pitch detectors that are not cached share one decode of the audio.
+	 * 
+	 * @param file
+	 *            The transcoded audio file.
+	 * @param modes
+	 *            The pitch detection modes.
+	 * @param progressListener
+	 *            Called for each buffer of the shared decode, can be null.
+	 * @return The executed (caching) detectors.
+	 */
+	private static List<PitchDetector> detect(final AudioFile file, final List<PitchDetectionMode> modes,
+			final ExtractionSession.ProgressListener progressListener) {
+		final List<PitchDetector> detectors = new ArrayList<PitchDetector>();
+		final List<TarsosPitchDetection> toExecute = new ArrayList<TarsosPitchDetection>();
+		for (PitchDetectionMode mode : modes) {
+			if (TarsosPitchDetection.isTarsosMode(mode)) {
+				TarsosPitchDetection detector = new TarsosPitchDetection(file, mode);
+				CachingDetector cachingDetector = new CachingDetector(file, detector, mode.getParameters());
+				if (!cachingDetector.isCached()) {
+					toExecute.add(detector);
+				}
+				detectors.add(cachingDetector);
+			} else {
+				detectors.add(mode.getPitchDetector(file));
+			}
+		}
+		if (!toExecute.isEmpty()) {
+			TarsosPitchDetection.executePitchDetection(file, toExecute, progressListener);
+		}
+		for (PitchDetector detector : detectors) {
+			if (Thread.currentThread().isInterrupted()) {
+				break;
+			}
+			// Reads the cache or caches the annotations of the shared run.
+			detector.executePitchDetection();
+		}
+		return detectors;
+	}
+	
+	/**
+	 * Transcodes and annotates audio files in the background, without showing
+	 * them. The results end up in the cache so opening the files later is
+	 * fast. The files are analysed with
+	 * {@link ExtractionExecutor#submitBackground(Runnable)}: they wait until
+	 * the extraction of the shown file is done. The analysis is cancelled
+	 * when another file is opened, the progress dialog is closed or Tarsos
+	 * exits, see {@link #cancelBackgroundAnalysis()}.
+	 * 
+	 * @param files
+	 *            The audio files to prepare.
+	 */
+	private void queueAnalysis(final List<String> files) {
+		final List<PitchDetectionMode> modes = new ArrayList<PitchDetectionMode>();
+		for (final String name : Configuration.getList(ConfKey.pitch_tracker_list)) {
+			modes.add(PitchDetectionMode.valueOf(name));
+		}
+		for (final String fileName : files) {
+			backgroundAnalysis.add(ExtractionExecutor.getInstance().submitBackground(new Runnable() {
+				public void run() {
+					LOG.fine("Analysing " + fileName + " in the background.");
+					AudioFile file = new AudioFile(fileName);
+					detect(file, modes, null);
+				}
+			}));
+		}
+	}
+	
+	/**
+	 * Cancels the background analysis of files, see
+	 * {@link #queueAnalysis(List)}. A running detection is interrupted, its
+	 * results are not cached.
+	 */
+	public void cancelBackgroundAnalysis() {
+		int cancelled = 0;
+		for (final Future<?> future : backgroundAnalysis) {
+			if (future.cancel(true)) {
+				cancelled++;
+			}
+		}
+		backgroundAnalysis.clear();
+		if (cancelled > 0) {
+			LOG.info(String.format("Cancelled the background analysis of %s files.", cancelled));
+		}
+	}
+	
 
 	private AudioFile getAudioFile() {
 		return audioFile;
@@ -701,6 +815,11 @@ public final class TarsosFrame extends JFrame implements ScaleChangedListener, A
 
 	}
 
+	public void removeAnnotation(Annotation annotation) {
+		// The frame only follows the start and end of an extraction, it
+		// keeps no annotations.
+	}
+
 	public void annotationsAdded() {
 		// TODO Auto-generated method stub
 
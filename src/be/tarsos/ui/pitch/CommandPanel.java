@@ -252,6 +252,10 @@ public class CommandPanel extends JPanel implements AudioFileChangedListener, Sc
 		}
 	}
 	
+	public void removeAnnotation(Annotation annotation) {
+		// A detector stays selectable when its annotations are filtered out.
+	}
+	
 	public void clearAnnotations() {		
 	}
 	
@@ -258,6 +258,10 @@ public class ControlPanel extends JPanel implements AudioFileChangedListener, An
 
 	}
 
+	public void removeAnnotation(Annotation annotation) {
+		// The control panel keeps no annotations, only the selection is used.
+	}
+
 	public void annotationsAdded() {
 		AnnotationSelection selection = AnnotationPublisher.getInstance().getCurrentSelection();
 
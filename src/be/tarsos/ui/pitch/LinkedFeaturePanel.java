@@ -45,7 +45,6 @@ import be.tarsos.dsp.ui.layers.PitchContourLayer;
 import be.tarsos.dsp.ui.layers.SelectionLayer;
 import be.tarsos.dsp.ui.layers.TimeAxisLayer;
 import be.tarsos.dsp.ui.layers.VerticalFrequencyAxisLayer;
-import be.tarsos.dsp.ui.layers.WaveFormLayer;
 import be.tarsos.sampled.pitch.Annotation;
 import be.tarsos.sampled.pitch.AnnotationListener;
 import be.tarsos.util.AudioFile;
@@ -91,7 +90,7 @@ public class LinkedFeaturePanel extends JPanel implements ScaleChangedListener,
 		LinkedPanel panel = new LinkedPanel(cs);
 		panel.addLayer(new BackgroundLayer(cs));
 		panel.addLayer(new AmplitudeAxisLayer(cs));
-		panel.addLayer(new WaveFormLayer(cs, new File(newAudioFile.transcodedPath())));
+		panel.addLayer(new WaveformPyramidLayer(cs, newAudioFile));
 		panel.addLayer(new BeatLayer(cs,new File(newAudioFile.transcodedPath()),true,true));
 		panel.addLayer(new TimeAxisLayer(cs));
 		panel.addLayer(new SelectionLayer(cs));
@@ -145,6 +144,12 @@ public class LinkedFeaturePanel extends JPanel implements ScaleChangedListener,
 		
 	}
 
+	@Override
+	public void removeAnnotation(Annotation annotation) {
+		// The layers read their features from the audio file, they keep no
+		// annotations.
+	}
+
 	@Override
 	public void clearAnnotations() {
 		// TODO Auto-generated method stub
@@ -578,6 +578,7 @@ public class Menu extends JMenuBar implements ScaleChangedListener, AudioFileCha
 
 	private ActionListener exitAction = new ActionListener() {
 		public void actionPerformed(ActionEvent arg0) {
+			TarsosFrame.getInstance().cancelBackgroundAnalysis();
 			System.exit(0);
 		}
 	};
@@ -406,6 +406,10 @@ public class PlayerControlPanel extends JPanel implements AudioFileChangedListen
 
 	}
 
+	public void removeAnnotation(Annotation annotation) {
+		// The player keeps no annotations.
+	}
+
 	public void clearAnnotations() {
 		// TODO Auto-generated method stub
 		
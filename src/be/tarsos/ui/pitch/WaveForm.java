@@ -29,30 +29,22 @@ import java.awt.Color;
 import java.awt.Font;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
-import java.awt.GraphicsConfiguration;
-import java.awt.GraphicsDevice;
-import java.awt.GraphicsEnvironment;
 import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Point2D;
-import java.awt.image.BufferedImage;
-import java.io.File;
-import java.io.IOException;
 import java.util.logging.Logger;
 
-import javax.sound.sampled.UnsupportedAudioFileException;
 import javax.swing.JPanel;
 import javax.swing.SwingUtilities;
 
-import be.tarsos.dsp.AudioDispatcher;
 import be.tarsos.dsp.AudioEvent;
 import be.tarsos.dsp.AudioProcessor;
-import be.tarsos.dsp.io.jvm.AudioDispatcherFactory;
 import be.tarsos.sampled.Player;
 import be.tarsos.sampled.PlayerState;
+import be.tarsos.sampled.WaveformPyramid;
 import be.tarsos.sampled.pitch.AnnotationPublisher;
 import be.tarsos.ui.TarsosFrame;
 import be.tarsos.util.AudioFile;
@@ -70,19 +62,29 @@ public final class WaveForm extends JPanel implements AudioFileChangedListener
 	 */
 	private static final Logger LOG = Logger.getLogger(TarsosFrame.class.getName());
 
-	private AudioFile audioFile;
+	private volatile AudioFile audioFile;
 	private double minMarkerPosition; // position in seconds
 	private double maxMarkerPosition; // position in seconds
 
 	/**
-	 * A cached waveform image used to scale to the correct height and width.
+	 * The summary of the waveform of the current file, or null while it is
+	 * loaded or built.
 	 */
-	private BufferedImage waveFormImage;
+	private volatile WaveformPyramid pyramid;
 
 	/**
-	 * The same image scaled to the current height and width.
+	 * The minimum, maximum and RMS of each pixel column, for the current width.
 	 */
-	private BufferedImage scaledWaveFormImage;
+	private float[] columnMinima;
+	private float[] columnMaxima;
+	private float[] columnRms;
+	private WaveformPyramid summarizedPyramid;
+
+	/**
+	 * The color of the minimum and maximum of the waveform. The RMS is drawn
+	 * on top in black.
+	 */
+	private static final Color PEAK_COLOR = new Color(0.55f, 0.55f, 0.55f);
 
 	/**
 	 * The font used to draw axis labels.
@@ -138,12 +140,6 @@ public final class WaveForm extends JPanel implements AudioFileChangedListener
 		setMarker(pixelsToSeconds * newPosition, minMarker);
 	}
 
-	private boolean waveFormCreationFinished = false;
-
-	private void setWaveFormCreationFinished(boolean isFinished) {
-		waveFormCreationFinished = isFinished;
-	}
-
 	/**
 	 * Sets the marker position in seconds.
 	 * 
@@ -189,13 +185,13 @@ public final class WaveForm extends JPanel implements AudioFileChangedListener
 	public void paint(final Graphics g) {
 		Graphics2D graphics = (Graphics2D) g;
 		initializeGraphics(graphics);
-		if (waveFormImage != null && waveFormCreationFinished) {
-			drawWaveForm(graphics);
-		} else {
-			graphics.transform(getSaneTransform());
-			drawReference(graphics);
-			graphics.transform(getInverseSaneTransform());
+		graphics.transform(getSaneTransform());
+		final WaveformPyramid currentPyramid = pyramid;
+		if (currentPyramid != null) {
+			drawWaveForm(graphics, currentPyramid);
 		}
+		drawReference(graphics);
+		graphics.transform(getInverseSaneTransform());
 		drawMarker(graphics);
 	}
 
@@ -258,51 +254,29 @@ public final class WaveForm extends JPanel implements AudioFileChangedListener
 		g.setColor(Color.BLACK);
 	}
 
-	private void drawWaveForm(final Graphics2D g) {
-		// Render the cached image.
-		scaleWaveFormImage();
-		g.drawImage(scaledWaveFormImage, 0, 0, null);
-	}
-
-	public BufferedImage scaleWaveFormImage() {
-		if (scaledWaveFormImage == null || scaledWaveFormImage.getHeight() != getHeight()
-				|| scaledWaveFormImage.getWidth() != getWidth()) {
-			StopWatch watch = new StopWatch();
-			int sourceWidth = waveFormImage.getWidth();
-			int sourceHeight = waveFormImage.getHeight();
-			int destWidth = getWidth();
-			int destHeight = getHeight();
-
-			double xScale = (double) getWidth() / (double) sourceWidth;
-			double yScale = (double) getHeight() / (double) sourceHeight;
-
-			GraphicsEnvironment ge = GraphicsEnvironment.getLocalGraphicsEnvironment();
-			GraphicsDevice gd = ge.getDefaultScreenDevice();
-			GraphicsConfiguration gc = gd.getDefaultConfiguration();
-
-			scaledWaveFormImage = gc.createCompatibleImage(destWidth, destHeight, waveFormImage
-					.getColorModel().getTransparency());
-			Graphics2D g2d = null;
-			try {
-				g2d = scaledWaveFormImage.createGraphics();
-				g2d.getTransform();
-				g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
-						RenderingHints.VALUE_INTERPOLATION_BICUBIC);
-				g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-				g2d.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS,
-						RenderingHints.VALUE_FRACTIONALMETRICS_ON);
-				AffineTransform at = AffineTransform.getScaleInstance(xScale, yScale);
-				g2d.drawRenderedImage(waveFormImage, at);
-				g2d.transform(getInverseSaneTransform());
-				drawReference(g2d);
-			} finally {
-				if (g2d != null) {
-					g2d.dispose();
-				}
-			}
-			LOG.finer("Rescaled wave form image in " + watch.formattedToString());
+	/**
+	 * Draws the minimum, maximum and RMS of each pixel column, summarized by
+	 * the pyramid. The audio is not decoded, so any width is drawn accurately.
+	 */
+	private void drawWaveForm(final Graphics2D g, final WaveformPyramid currentPyramid) {
+		final int width = getWidth();
+		if (columnMinima == null || columnMinima.length != width || summarizedPyramid != currentPyramid) {
+			columnMinima = new float[width];
+			columnMaxima = new float[width];
+			columnRms = new float[width];
+			currentPyramid.summarize(0, getLengthInMilliSeconds() / 1000.0, columnMinima, columnMaxima, columnRms);
+			summarizedPyramid = currentPyramid;
+		}
+		final int one = (int) (getHeight() / 2 * 0.85);
+		g.setColor(PEAK_COLOR);
+		for (int x = 0; x < width; x++) {
+			g.drawLine(x, (int) (columnMinima[x] * one), x, (int) (columnMaxima[x] * one));
+		}
+		g.setColor(Color.BLACK);
+		for (int x = 0; x < width; x++) {
+			final int rms = (int) (columnRms[x] * one);
+			g.drawLine(x, -rms, x, rms);
 		}
-		return scaledWaveFormImage;
 	}
 
 	/**
@@ -391,63 +365,19 @@ public final class WaveForm extends JPanel implements AudioFileChangedListener
 
 	public void audioFileChanged(final AudioFile newAudioFile) {
 		this.audioFile = newAudioFile;
-		this.waveFormImage = null;
-		this.scaledWaveFormImage = null;
-		setWaveFormCreationFinished(false);
-		createWaveFormImage();
+		this.pyramid = null;
 		requestRepaint();
-	}
-
-	private void createWaveFormImage() {
-		final StopWatch watch = new StopWatch();
-
-		try {
-			final int waveFormHeight = 200;
-			final int waveFormWidth = 2000;
-			waveFormImage = new BufferedImage(waveFormWidth, waveFormHeight, BufferedImage.TYPE_INT_RGB);
-			final Graphics2D waveFormGraphics = waveFormImage.createGraphics();
-			initializeGraphics(waveFormGraphics);
-			waveFormGraphics.clearRect(0, 0, waveFormWidth, waveFormHeight);
-			waveFormGraphics.transform(getSaneTransform(waveFormHeight));
-			final float frameRate = audioFile.fileFormat().getFormat().getFrameRate();
-			int framesPerPixel = audioFile.fileFormat().getFrameLength() / waveFormWidth / 8;
-
-			waveFormGraphics.setColor(Color.black);
-
-			final int one = (int) (waveFormHeight / 2 * 0.85);
-
-			final double secondsToX;
-			secondsToX = 1000 * waveFormWidth / (float) audioFile.getLengthInMilliSeconds();
-			AudioDispatcher adp = AudioDispatcherFactory.fromFile(new File(audioFile.transcodedPath()),framesPerPixel,0);
-			adp.addAudioProcessor(new AudioProcessor() {
-
-				private int frame = 0;
-
-				public void processingFinished() {
-					setWaveFormCreationFinished(true);
-					invalidate();
+		new Thread(new Runnable() {
+			public void run() {
+				final StopWatch watch = new StopWatch();
+				final WaveformPyramid newPyramid = WaveformPyramid.create(newAudioFile);
+				// Ignore the result if another file was loaded meanwhile.
+				if (audioFile == newAudioFile) {
+					pyramid = newPyramid;
 					requestRepaint();
-					LOG.fine("Created wave form image in " + watch.formattedToString());
+					LOG.fine("Loaded waveform in " + watch.formattedToString());
 				}
-
-				public boolean process(AudioEvent audioEvent) {
-					float[] audioFloatBuffer = audioEvent.getFloatBuffer();
-					double seconds = frame / frameRate;
-					frame += audioFloatBuffer.length;
-					int x = (int) (secondsToX * seconds);
-					int y = (int) (audioFloatBuffer[0] * one);
-					waveFormGraphics.drawLine(x, 0, x, y);
-					return true;
-				}
-			});
-
-			new Thread(adp, "Waveform image builder").start();
-		} catch (UnsupportedAudioFileException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
+			}
+		}, "Waveform loader").start();
 	}
 }
@@ -0,0 +1,118 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+
+package be.tarsos.ui.pitch;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.Line2D;
+
+import be.tarsos.dsp.ui.Axis;
+import be.tarsos.dsp.ui.CoordinateSystem;
+import be.tarsos.dsp.ui.layers.Layer;
+import be.tarsos.dsp.ui.layers.LayerUtilities;
+import be.tarsos.sampled.WaveformPyramid;
+import be.tarsos.util.AudioFile;
+
+/**
+ * Draws the waveform of an audio file from its {@link WaveformPyramid}: the
+ * minimum, maximum and RMS for each pixel column at the current zoom level.
+ * The x axis is in milliseconds. A stored pyramid is read immediately,
+ * otherwise it is built in the background and the waveform appears on the
+ * next repaint.
+ * 
+ * @author Joren Six
+ */
+public final class WaveformPyramidLayer implements Layer {
+
+	private static final Color PEAK_COLOR = new Color(0.55f, 0.55f, 0.55f);
+
+	private final CoordinateSystem cs;
+	private volatile WaveformPyramid pyramid;
+
+	private float[] minima = new float[0];
+	private float[] maxima = new float[0];
+	private float[] rms = new float[0];
+	private final Line2D.Float line = new Line2D.Float();
+
+	/**
+	 * @param coordinateSystem
+	 *            The coordinate system to draw in.
+	 * @param audioFile
+	 *            The audio file.
+	 */
+	public WaveformPyramidLayer(final CoordinateSystem coordinateSystem, final AudioFile audioFile) {
+		this.cs = coordinateSystem;
+		pyramid = WaveformPyramid.readStored(audioFile);
+		if (pyramid == null) {
+			new Thread(new Runnable() {
+				public void run() {
+					pyramid = WaveformPyramid.create(audioFile);
+				}
+			}, "Waveform layer loader").start();
+		}
+	}
+
+	public void draw(final Graphics2D graphics) {
+		final float xMin = cs.getMin(Axis.X);
+		final float xMax = cs.getMax(Axis.X);
+		graphics.setColor(Color.GRAY);
+		graphics.drawLine((int) xMin, 0, (int) xMax, 0);
+		final WaveformPyramid currentPyramid = pyramid;
+		final float millisecondsPerPixel = LayerUtilities.pixelsToUnits(graphics, 1, true);
+		if (currentPyramid != null && millisecondsPerPixel > 0) {
+			final float start = Math.max(0, xMin);
+			final float stop = Math.min(xMax, (float) (currentPyramid.getDuration() * 1000));
+			final int columns = (int) Math.ceil((stop - start) / millisecondsPerPixel);
+			if (columns > 0) {
+				if (minima.length != columns) {
+					minima = new float[columns];
+					maxima = new float[columns];
+					rms = new float[columns];
+				}
+				final float stopOfColumns = start + columns * millisecondsPerPixel;
+				currentPyramid.summarize(start / 1000.0, stopOfColumns / 1000.0, minima, maxima, rms);
+				final float amplitudeFactor = cs.getDelta(Axis.Y) / 2;
+				graphics.setColor(PEAK_COLOR);
+				for (int column = 0; column < columns; column++) {
+					final float x = start + column * millisecondsPerPixel;
+					line.setLine(x, minima[column] * amplitudeFactor, x, maxima[column] * amplitudeFactor);
+					graphics.draw(line);
+				}
+				graphics.setColor(Color.BLACK);
+				for (int column = 0; column < columns; column++) {
+					final float x = start + column * millisecondsPerPixel;
+					line.setLine(x, -rms[column] * amplitudeFactor, x, rms[column] * amplitudeFactor);
+					graphics.draw(line);
+				}
+			}
+		}
+	}
+
+	public String getName() {
+		return "Waveform layer";
+	}
+}
@@ -63,7 +63,7 @@ public class KDEData  implements AudioFileChangedListener, AnnotationListener{
 	/**
 	 * Defines the kernel used to build the KDE.
 	 */
-	private final Kernel kernel = new KernelDensityEstimate.GaussianKernel(6);
+	private final Kernel kernel = KernelDensityEstimate.GaussianKernel.getInstance(6);
 	
 	private KDEData(boolean containsPCH){
 		kdes = new HashMap<PitchDetectionMode, KernelDensityEstimate>();
@@ -87,6 +87,13 @@ public class KDEData  implements AudioFileChangedListener, AnnotationListener{
 			LOG.finer(message);
 		}
 	}
+
+	public void removeAnnotation(Annotation annotation) {
+		double pitchInAbsCents = annotation.getPitch(PitchUnit.ABSOLUTE_CENTS);
+		if (pitchInAbsCents > AMBITUS_START && pitchInAbsCents <= AMBITUS_STOP) {
+			kdes.get(annotation.getSource()).remove(pitchInAbsCents);
+		}
+	}
 	
 	public HashMap<PitchDetectionMode, KernelDensityEstimate> getKDEs(){
 		return kdes;
@@ -199,6 +199,11 @@ public final class PitchClassKdePanel extends JPanel implements ScaleChangedList
 
 	}
 
+	public void removeAnnotation(Annotation annotation) {
+		// KDEData removes the kernel, the panel is repainted in
+		// annotationsAdded.
+	}
+
 	public void clearAnnotations() {
 		
 	}
@@ -30,6 +30,7 @@ import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 
 import javax.swing.JComponent;
@@ -38,6 +39,8 @@ import javax.swing.JPanel;
 import javax.swing.JProgressBar;
 import javax.swing.SwingWorker;
 
+import be.tarsos.util.ExtractionExecutor;
+
 
 public abstract class BackgroundTask extends SwingWorker<Void, Void>   implements PropertyChangeListener{
 	
@@ -74,6 +77,15 @@ public abstract class BackgroundTask extends SwingWorker<Void, Void>   implement
 		handlers.add(handler);
 	}
 	
+	/**
+	 * Queues the task on the shared, bounded {@link ExtractionExecutor} in
+	 * stead of the default executor of SwingWorker. Progress is pushed by the
+	 * task itself using {@link #setProgress(int)}.
+	 */
+	public void schedule(){
+		ExtractionExecutor.getInstance().execute(this);
+	}
+	
 	public void done(){
 		try {
 			get();
@@ -84,6 +96,8 @@ public abstract class BackgroundTask extends SwingWorker<Void, Void>   implement
 			for(TaskHandler handler : handlers){
 				handler.taskDone(this);
 			}
+		} catch (CancellationException e) {
+			interrupt(this, e);
 		} catch (InterruptedException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
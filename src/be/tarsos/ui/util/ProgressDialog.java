@@ -47,8 +47,6 @@ public class ProgressDialog extends JDialog {
 	 */
 	private static final long serialVersionUID = 1545656;
 
-	private final int concurrentTasks;
-	
 	private final List<BackgroundTask> taskQueue;
 	private final List<BackgroundTask> runningTasks;
 	
@@ -59,7 +57,6 @@ public class ProgressDialog extends JDialog {
 		setMinimumSize(new Dimension(400,120));
 		taskQueue = detectorQueue;
 		runningTasks = new ArrayList<BackgroundTask>();
-		concurrentTasks = Runtime.getRuntime().availableProcessors();
 		
 		getContentPane().setLayout(new GridLayout(0, 1));		
 		setDefaultCloseOperation(JDialog.DO_NOTHING_ON_CLOSE);
@@ -81,7 +78,7 @@ public class ProgressDialog extends JDialog {
 			detectorTask.addHandler(handler);
 			getContentPane().add(detectorTask.ui());
 		}
-		transcodingTask.execute();
+		transcodingTask.schedule();
 		
 		this.addWindowListener(new WindowAdapter() {
 			
@@ -98,16 +95,19 @@ public class ProgressDialog extends JDialog {
 	private BackgroundTask.TaskHandler handler = new BackgroundTask.TaskHandler() {
 		public void taskDone(BackgroundTask backgroundTask) {
 			stopTask(backgroundTask);
-			startNextInQueue();
 		}
 
 		public void taskInterrupted(BackgroundTask backgroundTask,Exception e) {
-			
+			stopTask(backgroundTask);
 		}
 	};
 	
+	/**
+	 * Schedules all queued tasks. The number of tasks running concurrently
+	 * is bounded by the shared extraction executor.
+	 */
 	public synchronized void startOtherTasks(){
-		for (int i = 0; i < concurrentTasks && taskQueue.size() > 0; i++) {
+		while (taskQueue.size() > 0) {
 			startTask(taskQueue.get(0));
 		}
 		//empty queue => hide dialog
@@ -118,8 +118,8 @@ public class ProgressDialog extends JDialog {
 
 	private synchronized void startTask(BackgroundTask backgroundTask) {
 		taskQueue.remove(backgroundTask);
-		backgroundTask.execute();
 		runningTasks.add(backgroundTask);
+		backgroundTask.schedule();
 	}
 	
 	private synchronized void stopTask(BackgroundTask backgroundTask) {
@@ -131,11 +131,6 @@ public class ProgressDialog extends JDialog {
 			setVisible(false);
 		}
 	}
-	private synchronized void startNextInQueue(){
-		if (taskQueue.size() > 0) {
-			startTask(taskQueue.get(0));
-		}
-	}
 
 	private static void createAndShowGUI() {
 		// Create and set up the window.
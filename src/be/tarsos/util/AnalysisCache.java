@@ -0,0 +1,890 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+
+package be.tarsos.util;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * Keeps account of the files Tarsos derives from audio in the data directory
+ * (see {@link ConfKey#data_directory}): transcoded audio, cached annotations,
+ * power envelopes, waveform pyramids and the output of external detectors.
+ * Each file is tracked with the MD5 of the audio it belongs to (see
+ * {@link AudioFile#md5()}), the producer that created it, the parameters of
+ * the producer, its size and the time it was last used.
+ * </p>
+ * <p>
+ * A producer asks {@link #lookup(String, String, String, String)} before it
+ * reads a file and calls {@link #put(String, String, String, String)} after it
+ * wrote one. A file created with other parameters, e.g. another threshold, is
+ * deleted and counted as a miss. When the files take more space than the
+ * configured budget ({@link ConfKey#cache_budget}) the least recently used
+ * files are deleted. Transcoded audio is evicted last: it counts as used
+ * whenever a file derived from it is used, so it goes together with the
+ * analysis files of audio that was not used for the longest time.
+ * </p>
+ * <p>
+ * The account is stored in the data directory: shortly after it changes and
+ * when the virtual machine exits. Several processes can share a data
+ * directory; the account is locked while it is read and written, and the
+ * accounts of the processes are merged. Hits and misses are counted for each
+ * producer. Files that are not tracked yet, e.g. created by an older version
+ * or by a process that did not write its account, are adopted by
+ * {@link #rescan()}, which also runs when the account is older than the files
+ * in the data directory. Directories of versions that named them after a
+ * shorter hash are moved when their audio is opened again (see
+ * {@link #moved(File, File)}); until then their files are legacy files,
+ * evicted first.
+ * </p>
+ * 
+ * @author Joren Six
+ */
+public final class AnalysisCache {
+
+	/**
+	 * Log messages.
+	 */
+	private static final Logger LOG = Logger.getLogger(AnalysisCache.class.getName());
+
+	/**
+	 * Identifies an account file: "TACH".
+	 */
+	private static final int MAGIC = 0x54414348;
+
+	/**
+	 * The version of the format. Files with another version are ignored and
+	 * the data directory is scanned again.
+	 */
+	public static final int VERSION = 2;
+
+	/**
+	 * The name of the account file in the data directory.
+	 */
+	public static final String ACCOUNT_FILE = "analysis_cache.bin";
+
+	/**
+	 * The name of the file that is locked while the account is read or
+	 * written.
+	 */
+	private static final String LOCK_FILE = "analysis_cache.lock";
+
+	/**
+	 * The time between two writes of a changed account, in milliseconds.
+	 */
+	private static final long FLUSH_INTERVAL = 30 * 1000;
+
+	/**
+	 * The producer of transcoded audio, evicted last.
+	 */
+	public static final String TRANSCODED = "transcoded";
+
+	/**
+	 * The producer of files found in the data directory that were not
+	 * tracked.
+	 */
+	public static final String UNTRACKED = "untracked";
+
+	/**
+	 * The producer of files in directories of older versions, named after a
+	 * shorter hash. Evicted first.
+	 */
+	public static final String LEGACY = "legacy";
+
+	/**
+	 * When the budget is exceeded files are evicted until the cache is this
+	 * fraction of the budget, so not every new file causes an eviction.
+	 */
+	private static final double LOW_WATER_MARK = 0.9;
+
+	private static AnalysisCache instance;
+
+	/**
+	 * Guards the lock file within this virtual machine: a file lock is held
+	 * by the process, a second lock on the same file would fail.
+	 */
+	private static final Object ACCOUNT_LOCK = new Object();
+
+	/**
+	 * A tracked file.
+	 */
+	private static final class Entry {
+		private final String md5;
+		private final String producer;
+		private final String parameters;
+		private long size;
+		private long lastAccess;
+
+		private Entry(final String md5, final String producer, final String parameters, final long size,
+				final long lastAccess) {
+			this.md5 = md5;
+			this.producer = producer;
+			this.parameters = parameters;
+			this.size = size;
+			this.lastAccess = lastAccess;
+		}
+	}
+
+	/**
+	 * The number of hits, misses, invalidations and evictions of each
+	 * producer.
+	 */
+	public static final class Statistics {
+		private static final int HITS = 0;
+		private static final int MISSES = 1;
+		private static final int INVALIDATIONS = 2;
+		private static final int EVICTIONS = 3;
+
+		private final Map<String, long[]> counts;
+
+		private Statistics(final Map<String, long[]> counts) {
+			this.counts = new TreeMap<String, long[]>();
+			for (final Map.Entry<String, long[]> entry : counts.entrySet()) {
+				this.counts.put(entry.getKey(), entry.getValue().clone());
+			}
+		}
+
+		/**
+		 * @return The producers with counts.
+		 */
+		public List<String> getProducers() {
+			return new ArrayList<String>(counts.keySet());
+		}
+
+		private long count(final String producer, final int type) {
+			long count = 0;
+			for (final Map.Entry<String, long[]> entry : counts.entrySet()) {
+				if (producer == null || producer.equals(entry.getKey())) {
+					count += entry.getValue()[type];
+				}
+			}
+			return count;
+		}
+
+		/**
+		 * @param producer
+		 *            A producer, or null for all producers.
+		 * @return The number of lookups that found a valid file.
+		 */
+		public long getHits(final String producer) {
+			return count(producer, HITS);
+		}
+
+		/**
+		 * @param producer
+		 *            A producer, or null for all producers.
+		 * @return The number of lookups that found no valid file, including
+		 *         invalidated files.
+		 */
+		public long getMisses(final String producer) {
+			return count(producer, MISSES);
+		}
+
+		/**
+		 * @param producer
+		 *            A producer, or null for all producers.
+		 * @return The number of files deleted because their parameters
+		 *         changed.
+		 */
+		public long getInvalidations(final String producer) {
+			return count(producer, INVALIDATIONS);
+		}
+
+		/**
+		 * @param producer
+		 *            A producer, or null for all producers.
+		 * @return The number of files deleted to stay within the budget.
+		 */
+		public long getEvictions(final String producer) {
+			return count(producer, EVICTIONS);
+		}
+
+		/**
+		 * @param producer
+		 *            A producer, or null for all producers.
+		 * @return The fraction of lookups that were hits, zero without
+		 *         lookups.
+		 */
+		public double getHitRatio(final String producer) {
+			final long lookups = getHits(producer) + getMisses(producer);
+			return lookups == 0 ? 0 : getHits(producer) / (double) lookups;
+		}
+
+		@Override
+		public String toString() {
+			final StringBuilder builder = new StringBuilder(String.format(Locale.US, "%-24s %8s %8s %8s %8s %6s%n",
+					"producer", "hits", "misses", "invalid", "evicted", "ratio"));
+			final List<String> rows = getProducers();
+			rows.add(null);
+			for (final String producer : rows) {
+				builder.append(String.format(Locale.US, "%-24s %8d %8d %8d %8d %5.1f%%%n",
+						producer == null ? "total" : producer, getHits(producer), getMisses(producer),
+						getInvalidations(producer), getEvictions(producer), getHitRatio(producer) * 100));
+			}
+			return builder.toString();
+		}
+	}
+
+	private final File directory;
+	private final String directoryPath;
+
+	/**
+	 * The tracked files by path, relative to the data directory.
+	 */
+	private final Map<String, Entry> entries;
+	private final Map<String, long[]> counts;
+	private long size;
+	private boolean changed;
+
+	/**
+	 * The modification time of the account file when it was last read or
+	 * written by this cache.
+	 */
+	private long accountModified;
+
+	private AnalysisCache(final File dataDirectory) {
+		directory = dataDirectory.getAbsoluteFile();
+		directoryPath = directory.getPath() + File.separator;
+		entries = new HashMap<String, Entry>();
+		counts = new HashMap<String, long[]>();
+	}
+
+	/**
+	 * Returns the cache of the configured data directory. A changed account
+	 * is written periodically and when the virtual machine exits.
+	 * 
+	 * @return The cache of the configured data directory.
+	 */
+	public static synchronized AnalysisCache getInstance() {
+		final File dataDirectory = new File(Configuration.get(ConfKey.data_directory)).getAbsoluteFile();
+		if (instance == null) {
+			Runtime.getRuntime().addShutdownHook(new Thread("Analysis cache account") {
+				@Override
+				public void run() {
+					final AnalysisCache cache = getInstance();
+					cache.flush();
+					LOG.fine("Analysis cache statistics:\n" + cache.getStatistics());
+				}
+			});
+			new Timer("Analysis cache account", true).schedule(new TimerTask() {
+				@Override
+				public void run() {
+					final AnalysisCache cache = current();
+					if (cache != null) {
+						cache.flush();
+					}
+				}
+			}, FLUSH_INTERVAL, FLUSH_INTERVAL);
+		} else if (!instance.directory.equals(dataDirectory)) {
+			instance.flush();
+			instance = null;
+		}
+		if (instance == null) {
+			instance = open(dataDirectory);
+		}
+		return instance;
+	}
+
+	private static synchronized AnalysisCache current() {
+		return instance;
+	}
+
+	/**
+	 * Opens the cache of a data directory. If the account can not be read, or
+	 * it is older than the files in the directory, the directory is scanned.
+	 * 
+	 * @param dataDirectory
+	 *            The data directory.
+	 * @return The cache of the directory.
+	 */
+	public static AnalysisCache open(final File dataDirectory) {
+		final AnalysisCache cache = new AnalysisCache(dataDirectory);
+		if (!cache.read() || cache.isModifiedAfter(cache.directory, cache.accountModified)) {
+			cache.rescan();
+		}
+		return cache;
+	}
+
+	/**
+	 * @return True if a sub directory of the directory was modified after the
+	 *         time: a file in it was created or deleted.
+	 */
+	private boolean isModifiedAfter(final File scanned, final long time) {
+		final File[] files = scanned.listFiles();
+		boolean modified = false;
+		for (int i = 0; files != null && i < files.length && !modified; i++) {
+			if (files[i].isDirectory()) {
+				modified = files[i].lastModified() > time || isModifiedAfter(files[i], time);
+			}
+		}
+		return modified;
+	}
+
+	/**
+	 * @return The path of a file relative to the data directory, or null if it
+	 *         is not in the data directory.
+	 */
+	private String relativePath(final String fileName) {
+		final String path = new File(fileName).getAbsolutePath();
+		return path.startsWith(directoryPath) ? path.substring(directoryPath.length()) : null;
+	}
+
+	private long[] counts(final String producer) {
+		long[] producerCounts = counts.get(producer);
+		if (producerCounts == null) {
+			producerCounts = new long[4];
+			counts.put(producer, producerCounts);
+		}
+		return producerCounts;
+	}
+
+	/**
+	 * Checks if a valid file exists, without counting a hit or a miss and
+	 * without deleting anything.
+	 * 
+	 * @param fileName
+	 *            The file.
+	 * @param md5
+	 *            The MD5 of the audio the file belongs to.
+	 * @param producer
+	 *            The producer of the file, e.g. the name of a pitch detector.
+	 * @param parameters
+	 *            The parameters of the producer.
+	 * @return True if the file exists and was created with the parameters.
+	 *         Files that are not tracked are assumed to be valid.
+	 */
+	public synchronized boolean isCached(final String fileName, final String md5, final String producer,
+			final String parameters) {
+		final String path = relativePath(fileName);
+		final Entry entry = path == null ? null : entries.get(path);
+		final boolean valid = entry == null || UNTRACKED.equals(entry.producer)
+				|| entry.parameters.equals(parameters) && entry.md5.equals(md5);
+		return valid && new File(fileName).exists();
+	}
+
+	/**
+	 * Looks up a file before it is read: a hit if it exists and was created
+	 * with the same parameters for the same audio, a miss otherwise. A file
+	 * created with other parameters is deleted. A file that exists but is not
+	 * tracked, or only found by a {@link #rescan()}, e.g. created before the
+	 * cache kept account, is adopted.
+	 * 
+	 * @param fileName
+	 *            The file.
+	 * @param md5
+	 *            The MD5 of the audio the file belongs to.
+	 * @param producer
+	 *            The producer of the file, e.g. the name of a pitch detector.
+	 * @param parameters
+	 *            The parameters of the producer.
+	 * @return True if the file can be used, false if it has to be created.
+	 */
+	public synchronized boolean lookup(final String fileName, final String md5, final String producer,
+			final String parameters) {
+		final String path = relativePath(fileName);
+		final File file = new File(fileName);
+		boolean hit = file.exists();
+		if (path != null) {
+			final Entry entry = entries.get(path);
+			if (entry != null && hit && !UNTRACKED.equals(entry.producer)
+					&& (!entry.parameters.equals(parameters) || !entry.md5.equals(md5))) {
+				LOG.info(String.format("Parameters of %s changed from '%s' to '%s', %s is deleted.", producer,
+						entry.parameters, parameters, fileName));
+				if (delete(path, file)) {
+					counts(producer)[Statistics.INVALIDATIONS]++;
+				}
+				hit = false;
+			} else if (entry != null && !hit) {
+				forget(path);
+			} else if (hit) {
+				track(path, md5, producer, parameters, file.length());
+			}
+		}
+		counts(producer)[hit ? Statistics.HITS : Statistics.MISSES]++;
+		return hit;
+	}
+
+	/**
+	 * Tracks a file after it is written, and evicts the least recently used
+	 * files if the budget is exceeded.
+	 * 
+	 * @param fileName
+	 *            The file.
+	 * @param md5
+	 *            The MD5 of the audio the file belongs to.
+	 * @param producer
+	 *            The producer of the file, e.g. the name of a pitch detector.
+	 * @param parameters
+	 *            The parameters of the producer.
+	 */
+	public synchronized void put(final String fileName, final String md5, final String producer,
+			final String parameters) {
+		final String path = relativePath(fileName);
+		final File file = new File(fileName);
+		if (path != null && file.exists()) {
+			track(path, md5, producer, parameters, file.length());
+			evict(path);
+		}
+	}
+
+	private void track(final String path, final String md5, final String producer, final String parameters,
+			final long fileSize) {
+		final Entry previous = entries.get(path);
+		if (previous != null && previous.md5.equals(md5) && previous.producer.equals(producer)
+				&& previous.parameters.equals(parameters)) {
+			size += fileSize - previous.size;
+			previous.size = fileSize;
+			previous.lastAccess = System.currentTimeMillis();
+		} else {
+			forget(path);
+			entries.put(path, new Entry(md5, producer, parameters, fileSize, System.currentTimeMillis()));
+			size += fileSize;
+		}
+		changed = true;
+	}
+
+	private void forget(final String path) {
+		final Entry entry = entries.remove(path);
+		if (entry != null) {
+			size -= entry.size;
+			changed = true;
+		}
+	}
+
+	/**
+	 * Deletes a file. It is only forgotten if it is gone: a file that can not
+	 * be deleted, e.g. because it is open, still takes space.
+	 * 
+	 * @return True if the file is gone.
+	 */
+	private boolean delete(final String path, final File file) {
+		if (file.exists() && !file.delete()) {
+			LOG.warning("Could not delete " + file.getAbsolutePath());
+		}
+		final boolean deleted = !file.exists();
+		if (deleted) {
+			forget(path);
+		}
+		return deleted;
+	}
+
+	/**
+	 * Deletes all files of an audio file, except the transcoded audio.
+	 * 
+	 * @param md5
+	 *            The MD5 of the audio.
+	 * @return The number of deleted files.
+	 */
+	public synchronized int invalidate(final String md5) {
+		int deleted = 0;
+		for (final Map.Entry<String, Entry> entry : new ArrayList<Map.Entry<String, Entry>>(entries.entrySet())) {
+			if (entry.getValue().md5.equals(md5) && !TRANSCODED.equals(entry.getValue().producer)
+					&& delete(entry.getKey(), new File(directory, entry.getKey()))) {
+				counts(entry.getValue().producer)[Statistics.INVALIDATIONS]++;
+				deleted++;
+			}
+		}
+		if (deleted > 0) {
+			flush();
+		}
+		return deleted;
+	}
+
+	/**
+	 * @param md5
+	 *            The MD5 of an audio file.
+	 * @return The tracked files of the audio file.
+	 */
+	public synchronized List<File> getFiles(final String md5) {
+		final List<File> files = new ArrayList<File>();
+		for (final Map.Entry<String, Entry> entry : entries.entrySet()) {
+			if (entry.getValue().md5.equals(md5)) {
+				files.add(new File(directory, entry.getKey()));
+			}
+		}
+		return files;
+	}
+
+	/**
+	 * @return The size of all tracked files in bytes.
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return The size of the tracked files of each producer in bytes.
+	 */
+	public synchronized Map<String, Long> getSizeByProducer() {
+		final Map<String, Long> sizes = new TreeMap<String, Long>();
+		for (final Entry entry : entries.values()) {
+			final Long producerSize = sizes.get(entry.producer);
+			sizes.put(entry.producer, (producerSize == null ? 0 : producerSize) + entry.size);
+		}
+		return sizes;
+	}
+
+	/**
+	 * @return The number of tracked files.
+	 */
+	public synchronized int getNumberOfFiles() {
+		return entries.size();
+	}
+
+	/**
+	 * @return The configured budget in bytes, zero or less for no limit.
+	 */
+	public static long getBudget() {
+		return (long) (Configuration.getDouble(ConfKey.cache_budget) * 1024 * 1024);
+	}
+
+	/**
+	 * @return The hits and misses since the cache was opened.
+	 */
+	public synchronized Statistics getStatistics() {
+		return new Statistics(counts);
+	}
+
+	/**
+	 * Evicts the least recently used files until the cache is within the
+	 * budget.
+	 * 
+	 * @return The number of evicted files.
+	 */
+	public synchronized int evict() {
+		return evict(null);
+	}
+
+	/**
+	 * Evicts the least recently used files except the given one. Legacy files
+	 * go first. Transcoded audio is used whenever a file of the same audio is
+	 * used, and of files used at the same time it goes last.
+	 */
+	private int evict(final String keep) {
+		final long budget = getBudget();
+		int evicted = 0;
+		if (budget > 0 && size > budget) {
+			final Map<String, Long> audioAccess = new HashMap<String, Long>();
+			final List<Map.Entry<String, Entry>> candidates = new ArrayList<Map.Entry<String, Entry>>();
+			for (final Map.Entry<String, Entry> entry : entries.entrySet()) {
+				final Long access = audioAccess.get(entry.getValue().md5);
+				if (access == null || access < entry.getValue().lastAccess) {
+					audioAccess.put(entry.getValue().md5, entry.getValue().lastAccess);
+				}
+				if (!entry.getKey().equals(keep)) {
+					candidates.add(entry);
+				}
+			}
+			Collections.sort(candidates, new Comparator<Map.Entry<String, Entry>>() {
+				public int compare(final Map.Entry<String, Entry> first, final Map.Entry<String, Entry> second) {
+					int order = Boolean.valueOf(LEGACY.equals(second.getValue().producer)).compareTo(
+							LEGACY.equals(first.getValue().producer));
+					if (order == 0) {
+						order = Long.valueOf(access(first.getValue())).compareTo(access(second.getValue()));
+					}
+					if (order == 0) {
+						order = Boolean.valueOf(TRANSCODED.equals(first.getValue().producer)).compareTo(
+								TRANSCODED.equals(second.getValue().producer));
+					}
+					return order;
+				}
+
+				private long access(final Entry entry) {
+					return TRANSCODED.equals(entry.producer) ? audioAccess.get(entry.md5) : entry.lastAccess;
+				}
+			});
+			final long target = (long) (budget * LOW_WATER_MARK);
+			for (int i = 0; i < candidates.size() && size > target; i++) {
+				final String path = candidates.get(i).getKey();
+				if (delete(path, new File(directory, path))) {
+					counts(candidates.get(i).getValue().producer)[Statistics.EVICTIONS]++;
+					evicted++;
+				}
+			}
+			LOG.info(String.format("Evicted %s files from %s, %.1f MB in use.", evicted, directory, size
+					/ (1024.0 * 1024.0)));
+			if (evicted > 0) {
+				flush();
+			}
+		}
+		return evicted;
+	}
+
+	/**
+	 * Scans the data directory: files that are not tracked are adopted, with
+	 * their modification time as last access, and files that no longer exist
+	 * are forgotten. The transcoded audio is recognised by its name. Files in
+	 * directories of older versions are adopted as legacy files, directories
+	 * that do not end with a hash are skipped.
+	 */
+	public synchronized void rescan() {
+		for (final String path : new ArrayList<String>(entries.keySet())) {
+			if (!new File(directory, path).exists()) {
+				forget(path);
+			}
+		}
+		final File[] subDirectories = directory.listFiles();
+		if (subDirectories != null) {
+			for (final File subDirectory : subDirectories) {
+				final String name = subDirectory.getName();
+				final String md5 = FileFingerprints.fromDirectoryName(name, FileFingerprints.LENGTH);
+				final String legacy = FileFingerprints.fromDirectoryName(name, FileFingerprints.LEGACY_LENGTH);
+				if (subDirectory.isDirectory() && md5 != null) {
+					scan(subDirectory, name, md5, false);
+				} else if (subDirectory.isDirectory() && legacy != null) {
+					scan(subDirectory, name, legacy, true);
+				}
+			}
+		}
+		LOG.fine(String.format("Scanned %s: %s files, %.1f MB.", directory, entries.size(), size
+				/ (1024.0 * 1024.0)));
+	}
+
+	/**
+	 * Adopts the files in a directory of an audio file and its sub
+	 * directories, e.g. the output of VAMP plugins.
+	 */
+	private void scan(final File scanned, final String path, final String md5, final boolean legacy) {
+		final File[] files = scanned.listFiles();
+		for (int i = 0; files != null && i < files.length; i++) {
+			final String filePath = path + File.separator + files[i].getName();
+			if (files[i].isDirectory()) {
+				scan(files[i], filePath, md5, legacy);
+			} else if (!entries.containsKey(filePath) && !files[i].getName().endsWith(".tmp")) {
+				final String producer;
+				if (legacy) {
+					producer = LEGACY;
+				} else if (files[i].getName().contains("_transcoded.")) {
+					producer = TRANSCODED;
+				} else {
+					producer = UNTRACKED;
+				}
+				entries.put(filePath, new Entry(md5, producer, "", files[i].length(), files[i].lastModified()));
+				size += files[i].length();
+				changed = true;
+			}
+		}
+	}
+
+	/**
+	 * Tracks the files of a directory of the data directory that was moved,
+	 * e.g. a directory of an older version renamed after the new hash of its
+	 * audio. The files are adopted as files of the audio the new name refers
+	 * to.
+	 * 
+	 * @param from
+	 *            The old directory.
+	 * @param to
+	 *            The new directory.
+	 */
+	public synchronized void moved(final File from, final File to) {
+		final String fromPath = relativePath(from.getPath());
+		final String toPath = relativePath(to.getPath());
+		if (fromPath != null) {
+			for (final String path : new ArrayList<String>(entries.keySet())) {
+				if (path.startsWith(fromPath + File.separator)) {
+					forget(path);
+				}
+			}
+		}
+		final String md5 = FileFingerprints.fromDirectoryName(to.getName(), FileFingerprints.LENGTH);
+		if (toPath != null && md5 != null) {
+			scan(to.getAbsoluteFile(), toPath, md5, false);
+		}
+	}
+
+	/**
+	 * Writes the account to the data directory, if anything changed. The
+	 * account is locked, and entries written by other processes since it was
+	 * read are merged first.
+	 */
+	public synchronized void flush() {
+		if (changed && directory.isDirectory()) {
+			synchronized (ACCOUNT_LOCK) {
+				FileChannel lock = null;
+				try {
+					lock = lock();
+					merge();
+					final boolean written = BinaryFiles.write(accountFile(), new BinaryFiles.Writer() {
+						public void write(final DataOutputStream out) throws IOException {
+							out.writeInt(MAGIC);
+							out.writeInt(VERSION);
+							out.writeInt(entries.size());
+							for (final Map.Entry<String, Entry> entry : entries.entrySet()) {
+								BinaryFiles.writeString(out, entry.getKey());
+								BinaryFiles.writeString(out, entry.getValue().md5);
+								BinaryFiles.writeString(out, entry.getValue().producer);
+								BinaryFiles.writeString(out, entry.getValue().parameters);
+								out.writeLong(entry.getValue().size);
+								out.writeLong(entry.getValue().lastAccess);
+							}
+						}
+					});
+					if (written) {
+						accountModified = accountFile().lastModified();
+					}
+					changed = !written;
+				} catch (final IOException e) {
+					LOG.log(Level.WARNING, "Could not lock analysis cache account in " + directory, e);
+				} finally {
+					BinaryFiles.close(lock);
+				}
+			}
+		}
+	}
+
+	private File accountFile() {
+		return new File(directory, ACCOUNT_FILE);
+	}
+
+	/**
+	 * Locks the account against other processes, closing the channel releases
+	 * the lock.
+	 */
+	private FileChannel lock() throws IOException {
+		final FileChannel channel = FileChannel.open(new File(directory, LOCK_FILE).toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		try {
+			channel.lock();
+		} catch (final IOException e) {
+			BinaryFiles.close(channel);
+			throw e;
+		}
+		return channel;
+	}
+
+	/**
+	 * Merges the account written by another process since this cache read or
+	 * wrote it. The most recent use of a file wins; files that were deleted
+	 * are forgotten.
+	 */
+	private void merge() {
+		final File accountFile = accountFile();
+		final Map<String, Entry> written = accountFile.lastModified() == accountModified ? null : read(accountFile);
+		if (written != null) {
+			for (final Map.Entry<String, Entry> entry : written.entrySet()) {
+				final Entry other = entry.getValue();
+				final Entry own = entries.get(entry.getKey());
+				if (own == null || own.lastAccess < other.lastAccess) {
+					forget(entry.getKey());
+					if (new File(directory, entry.getKey()).exists()) {
+						entries.put(entry.getKey(), other);
+						size += other.size;
+					}
+				}
+			}
+			for (final String path : new ArrayList<String>(entries.keySet())) {
+				if (!new File(directory, path).exists()) {
+					forget(path);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the account from the data directory.
+	 * 
+	 * @return True if the account is read.
+	 */
+	private boolean read() {
+		Map<String, Entry> read = null;
+		if (accountFile().exists()) {
+			synchronized (ACCOUNT_LOCK) {
+				FileChannel lock = null;
+				try {
+					lock = lock();
+					read = read(accountFile());
+				} catch (final IOException e) {
+					LOG.log(Level.WARNING, "Could not lock analysis cache account in " + directory, e);
+				} finally {
+					BinaryFiles.close(lock);
+				}
+			}
+		}
+		if (read != null) {
+			for (final Map.Entry<String, Entry> entry : read.entrySet()) {
+				entries.put(entry.getKey(), entry.getValue());
+				size += entry.getValue().size;
+			}
+		}
+		return read != null;
+	}
+
+	/**
+	 * Reads an account file, remembers its modification time.
+	 * 
+	 * @return The entries or null if the file does not exist or can not be
+	 *         read.
+	 */
+	private Map<String, Entry> read(final File accountFile) {
+		Map<String, Entry> read = null;
+		if (accountFile.exists()) {
+			final long modified = accountFile.lastModified();
+			try {
+				read = read(BinaryFiles.read(accountFile));
+				accountModified = modified;
+			} catch (final IOException e) {
+				LOG.log(Level.WARNING, "Could not read analysis cache account " + accountFile, e);
+			} catch (final RuntimeException e) {
+				// Truncated file.
+				LOG.log(Level.WARNING, "Corrupt analysis cache account " + accountFile, e);
+			}
+		}
+		return read;
+	}
+
+	private static Map<String, Entry> read(final ByteBuffer buffer) throws IOException {
+		Map<String, Entry> read = null;
+		if (buffer.getInt() == MAGIC && buffer.getInt() == VERSION) {
+			final int numberOfEntries = buffer.getInt();
+			read = new HashMap<String, Entry>();
+			for (int i = 0; i < numberOfEntries; i++) {
+				final String path = BinaryFiles.readString(buffer);
+				final Entry entry = new Entry(BinaryFiles.readString(buffer), BinaryFiles.readString(buffer),
+						BinaryFiles.readString(buffer), buffer.getLong(), buffer.getLong());
+				read.put(path, entry);
+			}
+		}
+		return read;
+	}
+}
@@ -37,15 +37,13 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.sound.sampled.AudioFileFormat;
-import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
 import javax.sound.sampled.UnsupportedAudioFileException;
 
-import be.tarsos.dsp.AudioEvent;
-import be.tarsos.dsp.io.TarsosDSPAudioFloatConverter;
-import be.tarsos.dsp.io.jvm.AudioPlayer;
-import be.tarsos.dsp.io.jvm.JVMAudioInputStream;
+import be.tarsos.sampled.PcmFile;
 import be.tarsos.sampled.pitch.Annotation;
 import be.tarsos.sampled.pitch.PitchDetectionMode;
 import be.tarsos.sampled.pitch.PitchDetector;
@@ -105,13 +103,14 @@ public final class AudioFile {
 			File[] children = new File(path).listFiles(new FileFilter() {		
 				
 				public boolean accept(File pathname) {
-					return pathname.isDirectory() && pathname.getName().length() > 17;
+					return pathname.isDirectory()
+							&& FileFingerprints.fromDirectoryName(pathname.getName(), FileFingerprints.LENGTH) != null;
 				}
 			});
 			for(File child : children){
 				String childFileName = child.getName(); 
-				String md5 = childFileName.substring(childFileName.length()-16);
-				String name = childFileName.replace("_"+md5,"");
+				String md5 = FileFingerprints.fromDirectoryName(childFileName, FileFingerprints.LENGTH);
+				String name = childFileName.substring(0, childFileName.length() - md5.length() - 1);
 				currentFiles.put(md5, name);
 			}
 		}
@@ -147,20 +146,16 @@ public final class AudioFile {
 	 */
 	public AudioFile(final String filePath) {
 		this.originalPath = new File(filePath).getAbsolutePath();
-		try{
-			md5 = FileUtils.getMD5Checksum(originalPath).substring(16);
-		}catch(final StringIndexOutOfBoundsException e){
-			md5 = StringUtils.messageDigestFive(originalPath).substring(16);
-		}
+		md5 = md5(originalPath);
 		AudioFileList list = AudioFileList.getInstance();
 		
 
 		// The aim of the MD5 hash is twofold:
 		//
 		// 1) To prevent name clashes: track 01.mp3 and track
-		//    01.mp3 in different folders have other hashes. Only half of the hash
-		//    is used because a MD5 hash name clash of half the length is also really
-		//    improbable and you get shorter path names.
+		//    01.mp3 in different folders have other hashes. The hash covers
+		//    the complete file: recordings made with the same settings can
+		//    share their first part, see FileFingerprints.
 		// 2) To detect byte precise doubles: if two files with the same content are introduced
 		//    to the system transcoding and analysis is only done one. Even if the
 		//    files have a different name.
@@ -178,6 +173,10 @@ public final class AudioFile {
 		// Sub folder of data directory where annotations are stored =>
 		// /01._qsdfj_MD5HASH
 		final String subFolder = baseName + "_" + md5;
+		// keep the data of an older version, keyed by its shorter hash
+		if (!FileUtils.exists(FileUtils.combine(dataFolder, subFolder))) {
+			migrate(dataFolder, baseName, subFolder);
+		}
 		// create the directory if it is not already there
 		FileUtils.mkdirs(FileUtils.combine(dataFolder, subFolder));
 		// return the name where the transcoded file should go
@@ -204,9 +203,37 @@ public final class AudioFile {
 		if(!list.containsFile(md5)){
 			list.addFile(baseName, this);
 		}
+		if (FileUtils.exists(transcodedPath)) {
+			AnalysisCache.getInstance().put(transcodedPath, md5, AnalysisCache.TRANSCODED,
+					Configuration.get(ConfKey.transcoded_audio_to));
+		}
 		lengthInMilliSeconds = calculateLengthInMilliSeconds();
 	}
 
+	/**
+	 * Renames the directory an older version of Tarsos created for this file,
+	 * named after the hash of its first 256kB, to the directory of the
+	 * complete hash. The transcoded audio is kept; analysis files that store
+	 * the old hash are recreated when they are used.
+	 */
+	private void migrate(final String dataFolder, final String baseName, final String subFolder) {
+		try {
+			final File legacy = new File(dataFolder, baseName + "_"
+					+ FileFingerprints.legacyHash(new File(originalPath)));
+			final File directory = new File(dataFolder, subFolder);
+			if (legacy.isDirectory()) {
+				if (legacy.renameTo(directory)) {
+					AnalysisCache.getInstance().moved(legacy, directory);
+					LOG.info(String.format("Moved %s to %s.", legacy.getName(), directory.getName()));
+				} else {
+					LOG.warning(String.format("Could not move %s to %s.", legacy, directory));
+				}
+			}
+		} catch (final IOException e) {
+			LOG.log(Level.FINE, "No legacy data for " + originalPath, e);
+		}
+	}
+
 	/**
 	 * @return the path of the transcoded audio file.
 	 */
@@ -240,6 +267,31 @@ public final class AudioFile {
 		return this.toString();
 	}
 	
+	/**
+	 * @return The MD5 hash identifying the contents of the original file.
+	 */
+	public String md5() {
+		return md5;
+	}
+
+	/**
+	 * Calculates the MD5 hash used to identify the contents of a file, without
+	 * creating or transcoding an audio file. The hash of a file that did not
+	 * change is remembered, see {@link FileFingerprints}.
+	 * 
+	 * @param filePath
+	 *            The absolute path of the file.
+	 * @return The MD5 hash identifying the contents of the file, or the MD5
+	 *         hash of the path if the file can not be read.
+	 */
+	public static String md5(final String filePath) {
+		String hash = FileFingerprints.getInstance().fingerprint(filePath);
+		if (hash == null) {
+			hash = StringUtils.messageDigestFive(filePath).toLowerCase();
+		}
+		return hash;
+	}
+
 	/**
 	 * @return the name of the file (without extension)
 	 */
@@ -259,11 +311,14 @@ public final class AudioFile {
 	public static List<AudioFile> audioFiles(final String... folders) {
 		final List<AudioFile> files = new ArrayList<AudioFile>();
 		String pattern = Configuration.get(ConfKey.audio_file_name_pattern);
+		final List<String> audioFiles = new ArrayList<String>();
 		for (final String folder : folders) {
-			List<String> audioFiles = FileUtils.glob(folder, pattern, true);
-			for (final String originalFile : audioFiles) {
-				files.add(new AudioFile(originalFile));
-			}
+			audioFiles.addAll(FileUtils.glob(folder, pattern, true));
+		}
+		// Hash new files concurrently, the constructor finds the result.
+		FileFingerprints.getInstance().fingerprint(audioFiles);
+		for (final String originalFile : audioFiles) {
+			files.add(new AudioFile(originalFile));
 		}
 		return files;
 	}
@@ -359,7 +414,9 @@ public final class AudioFile {
 	}
 
 	/**
-	 * Play selections of the audio file.
+	 * Play selections of the audio file. The selections are read from the
+	 * transcoded audio, so playback starts without reading the audio
+	 * before the first selection. Returns when the selections are played.
 	 * 
 	 * @param selections
 	 *            An interleaved array with in the form
@@ -367,46 +424,42 @@ public final class AudioFile {
 	 *            in seconds.
 	 */
 	public void playSelections(final double[] selections) {
-
-		try {
-			final AudioInputStream stream = AudioSystem.getAudioInputStream(new File(transcodedPath()));
-			int frameSize = stream.getFormat().getFrameSize();
-			int bytesPerSecond = (int) (frameSize * stream.getFormat().getFrameRate());
-			AudioPlayer player = new AudioPlayer(stream.getFormat());
-			TarsosDSPAudioFloatConverter converter = TarsosDSPAudioFloatConverter.getConverter(JVMAudioInputStream.toTarsosDSPFormat(stream.getFormat()));
-
-			int previousStop = 0;
-			for (int i = 0; i < selections.length; i += 2) {
-				double from = selections[i];
-				double to = selections[i + 1];
-				int start = (int) (bytesPerSecond * from);
-				int stop = (int) (bytesPerSecond * to);
-				stream.skip(start - previousStop);
-				previousStop = stop;
-				int numberOfBytes = stop - start;
-				// only read complete frames
-				while (numberOfBytes % frameSize != 0) {
-					numberOfBytes++;
+		final PcmFile pcm = PcmFile.open(this);
+		if (pcm == null) {
+			LOG.severe("Could not read a transcoded audio file. Check your configuration.");
+		} else {
+			SourceDataLine line = null;
+			PcmFile.Reader reader = null;
+			try {
+				reader = pcm.reader();
+				final AudioFormat format = pcm.getFormat();
+				line = AudioSystem.getSourceDataLine(format);
+				line.open(format);
+				line.start();
+				// Only write complete frames.
+				final int bufferFrames = 4096;
+				final byte[] buffer = new byte[pcm.getFrameSize() * bufferFrames];
+				for (int i = 0; i < selections.length; i += 2) {
+					long frame = pcm.frameAt(selections[i]);
+					final long to = pcm.frameAt(selections[i + 1]);
+					int read = 1;
+					while (frame < to && read > 0) {
+						read = reader.read(frame, buffer, (int) Math.min(bufferFrames, to - frame));
+						line.write(buffer, 0, read * pcm.getFrameSize());
+						frame += read;
+					}
+				}
+				line.drain();
+			} catch (LineUnavailableException e) {
+				LOG.log(Level.WARNING, "Could not play an audio segment. Audio line not available.", e);
+			} catch (final IOException e) {
+				LOG.log(Level.WARNING, "Could not read the transcoded audio of " + originalBasename(), e);
+			} finally {
+				BinaryFiles.close(reader);
+				if (line != null) {
+					line.close();
 				}
-				byte[] audioInfo = new byte[numberOfBytes];
-				stream.read(audioInfo, 0, numberOfBytes);
-				/*
-				AudioEvent event = new AudioEvent(JVMAudioInputStream.toTarsosDSPFormat(stream.getFormat()),-1);
-				*/
-				float[] floatBuffer = new float[numberOfBytes/frameSize];
-				converter.toFloatArray(audioInfo, floatBuffer);
-				/*
-				event.setFloatBuffer(floatBuffer);
-				player.process(event);
-				*/
 			}
-
-		} catch (UnsupportedAudioFileException e) {
-			LOG.log(Level.SEVERE, "Unsupported audio for a transcoded file. Check your configuration.", e);
-		} catch (IOException e) {
-			LOG.log(Level.SEVERE, "Could not read a transcoded audio file. Check your configuration.", e);
-		} catch (LineUnavailableException e) {
-			LOG.log(Level.WARNING, "Could not play an audio segment. Audio line not available.", e);
 		}
 	}
 
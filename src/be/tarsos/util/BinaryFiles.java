@@ -0,0 +1,263 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+
+package be.tarsos.util;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * Writes and reads the small binary files Tarsos keeps in the data directory:
+ * cached annotations, waveform pyramids, power envelopes, histogram sketches,
+ * the corpus index and the accounts of the analysis cache.
+ * </p>
+ * <p>
+ * A file is written to a temporary file in the same directory, which replaces
+ * the file with an atomic move once it is completely written. A reader never
+ * sees a partial file and a crash leaves the old or the new version. Files
+ * are read through a file channel into a heap buffer: nothing stays mapped,
+ * so a file that was read can be replaced or deleted right away, also on
+ * Windows.
+ * </p>
+ * 
+ * @author Joren Six
+ */
+public final class BinaryFiles {
+
+	/**
+	 * Log messages.
+	 */
+	private static final Logger LOG = Logger.getLogger(BinaryFiles.class.getName());
+
+	/**
+	 * The encoding of strings.
+	 */
+	public static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private BinaryFiles() {
+	}
+
+	/**
+	 * Writes the contents of a binary file.
+	 */
+	public interface Writer {
+		/**
+		 * @param out
+		 *            The stream to write the contents to.
+		 * @throws IOException
+		 *             If the stream can not be written.
+		 */
+		void write(DataOutputStream out) throws IOException;
+	}
+
+	/**
+	 * Writes a file: the contents are written to a temporary file which then
+	 * replaces the file with an atomic move. Failures are logged.
+	 * 
+	 * @param file
+	 *            The file to write.
+	 * @param writer
+	 *            Writes the contents.
+	 * @return True if the file is written, false otherwise.
+	 */
+	public static boolean write(final File file, final Writer writer) {
+		final File target = file.getAbsoluteFile();
+		File temporaryFile = null;
+		FileOutputStream stream = null;
+		boolean written = false;
+		try {
+			temporaryFile = File.createTempFile(target.getName() + ".", ".tmp", target.getParentFile());
+			stream = new FileOutputStream(temporaryFile);
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, BUFFER_SIZE));
+			writer.write(out);
+			out.flush();
+			stream.getFD().sync();
+			stream.close();
+			stream = null;
+			move(temporaryFile, target);
+			written = true;
+		} catch (final IOException e) {
+			LOG.log(Level.SEVERE, "Could not write " + target, e);
+		} finally {
+			close(stream);
+			if (!written && temporaryFile != null && temporaryFile.exists() && !temporaryFile.delete()) {
+				LOG.warning("Could not delete " + temporaryFile);
+			}
+		}
+		return written;
+	}
+
+	/**
+	 * Replaces a file with another one, atomically if the file system allows
+	 * it.
+	 */
+	private static void move(final File source, final File target) throws IOException {
+		try {
+			Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (final AtomicMoveNotSupportedException e) {
+			Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Reads a complete file.
+	 * 
+	 * @param file
+	 *            The file to read.
+	 * @return A big endian buffer with the contents of the file.
+	 * @throws IOException
+	 *             If the file can not be read or is too large for a buffer.
+	 */
+	public static ByteBuffer read(final File file) throws IOException {
+		return read(file, -1);
+	}
+
+	/**
+	 * Reads the start of a file with a single positional read, e.g. to check
+	 * a header without reading the complete file.
+	 * 
+	 * @param file
+	 *            The file to read.
+	 * @param length
+	 *            The maximum number of bytes to read.
+	 * @return A big endian buffer with at most length bytes: less if the file
+	 *         is shorter.
+	 * @throws IOException
+	 *             If the file can not be read.
+	 */
+	public static ByteBuffer readStart(final File file, final int length) throws IOException {
+		return read(file, length);
+	}
+
+	private static ByteBuffer read(final File file, final int length) throws IOException {
+		final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			final long size = channel.size();
+			if (length < 0 && size > Integer.MAX_VALUE - 8) {
+				throw new IOException(String.format("%s is too large to read: %s bytes.", file, size));
+			}
+			final ByteBuffer buffer = ByteBuffer.allocate((int) (length < 0 ? size : Math.min(size, length)));
+			while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) >= 0) {
+				// Read until the buffer is full or the end of the file.
+			}
+			buffer.flip();
+			return buffer;
+		} finally {
+			close(channel);
+		}
+	}
+
+	/**
+	 * Writes a string: its length in bytes and its UTF-8 bytes.
+	 * 
+	 * @param out
+	 *            The stream to write to.
+	 * @param value
+	 *            The string.
+	 * @throws IOException
+	 *             If the stream can not be written.
+	 */
+	public static void writeString(final DataOutputStream out, final String value) throws IOException {
+		final byte[] bytes = value.getBytes(UTF8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Reads a string written by {@link #writeString(DataOutputStream, String)}.
+	 * 
+	 * @param buffer
+	 *            The buffer to read from.
+	 * @return The string.
+	 * @throws IOException
+	 *             If the length of the string is invalid.
+	 */
+	public static String readString(final ByteBuffer buffer) throws IOException {
+		final byte[] bytes = new byte[readLength(buffer, 1)];
+		buffer.get(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	/**
+	 * Reads the length of an array and checks it before the array is
+	 * allocated: a corrupt or truncated file must not cause an
+	 * {@link OutOfMemoryError}.
+	 *
+	 * @param buffer
+	 *            The buffer to read from.
+	 * @param elementSize
+	 *            The minimum number of bytes each element takes in the
+	 *            buffer.
+	 * @return The length, the elements fit in the remaining bytes.
+	 * @throws IOException
+	 *             If the length is negative or the elements do not fit in the
+	 *             remaining bytes.
+	 */
+	public static int readLength(final ByteBuffer buffer, final int elementSize) throws IOException {
+		if (buffer.remaining() < 4) {
+			throw new IOException("Truncated file: no length.");
+		}
+		final int length = buffer.getInt();
+		if (length < 0 || (long) length * elementSize > buffer.remaining()) {
+			throw new IOException(String.format("Invalid length %s: %s bytes remain for elements of %s bytes.",
+					length, buffer.remaining(), elementSize));
+		}
+		return length;
+	}
+
+	/**
+	 * Closes a stream or channel, failures are logged.
+	 * 
+	 * @param closeable
+	 *            The stream or channel to close, can be null.
+	 */
+	public static void close(final Closeable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			} catch (final IOException e) {
+				LOG.log(Level.WARNING, "Could not close a file.", e);
+			}
+		}
+	}
+}
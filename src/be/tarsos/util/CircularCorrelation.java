@@ -0,0 +1,239 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+
+package be.tarsos.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>
+ * Computes the circular cross-correlation of two sequences for every shift at
+ * once:
+ * </p>
+ * 
+ * <pre>
+ * profile[shift] = sum over i of first[i] * second[(i + shift) % n]
+ * </pre>
+ * <p>
+ * Trying each of the n shifts with an O(n) correlation is O(n&sup2;). Here the
+ * profile is calculated with the {@link FFT} in O(n log n): both real
+ * sequences are packed in one complex transform, zero padded to a power of two
+ * of at least 2n - 1 and the linear correlation is folded back to a circular
+ * one. Short sequences are correlated directly.
+ * </p>
+ * <p>
+ * The FFT works with floats, so the profile is an approximation. The absolute
+ * error on each element is smaller than {@link #tolerance(double[], double[])}.
+ * To find an optimal shift exactly: select the shifts with a value within the
+ * tolerance of the maximum and calculate the correlation only for those.
+ * Only measures that are (monotone in) a sum of products can be calculated
+ * this way; non linear measures like the intersection of two histograms need
+ * the direct calculation.
+ * </p>
+ * 
+ * @author Joren Six
+ */
+public final class CircularCorrelation {
+
+	/**
+	 * Sequences shorter than this are correlated directly, the FFT does not pay
+	 * off.
+	 */
+	private static final int MIN_FFT_LENGTH = 48;
+
+	/**
+	 * The relative error of the FFT based profile grows with the size of the
+	 * transform: the float twiddle factors are calculated with a recurrence.
+	 * The error is smaller than this factor times the size times the log of
+	 * the size, relative to the product of the norms of both sequences. The
+	 * factor has a safety margin of about ten.
+	 */
+	private static final double RELATIVE_ERROR = 2e-9;
+
+	/**
+	 * The relative error due to the rounding of the input to floats, for small
+	 * transforms.
+	 */
+	private static final double MIN_RELATIVE_ERROR = 2e-6;
+
+	/**
+	 * FFT instances are stateless and can be shared, they are cached by size.
+	 */
+	private static final ConcurrentMap<Integer, FFT> TRANSFORMS = new ConcurrentHashMap<Integer, FFT>();
+
+	private CircularCorrelation() {
+	}
+
+	/**
+	 * Calculates the circular cross-correlation of two sequences with the same
+	 * length, for each shift.
+	 * 
+	 * @param first
+	 *            The first sequence.
+	 * @param second
+	 *            The second sequence, shifted.
+	 * @return An array with, for each shift, the sum of
+	 *         <code>first[i] * second[(i + shift) % n]</code>.
+	 */
+	public static double[] crossCorrelation(final double[] first, final double[] second) {
+		if (first.length != second.length) {
+			throw new IllegalArgumentException("Both sequences should have the same length: " + first.length
+					+ " != " + second.length);
+		}
+		final double[] profile;
+		if (first.length < MIN_FFT_LENGTH) {
+			profile = direct(first, second);
+		} else {
+			profile = transformed(first, second);
+		}
+		return profile;
+	}
+
+	/**
+	 * Returns a bound on the absolute error of each element of
+	 * {@link #crossCorrelation(double[], double[])}.
+	 * 
+	 * @param first
+	 *            The first sequence.
+	 * @param second
+	 *            The second sequence.
+	 * @return The maximum error on an element of the cross-correlation
+	 *         profile.
+	 */
+	public static double tolerance(final double[] first, final double[] second) {
+		final int size = transformSize(first.length);
+		final double log2 = Math.log(size) / Math.log(2);
+		return (MIN_RELATIVE_ERROR + RELATIVE_ERROR * size * log2) * norm(first) * norm(second);
+	}
+
+	/**
+	 * @return The smallest power of two to calculate a linear correlation of
+	 *         sequences of the given length.
+	 */
+	private static int transformSize(final int length) {
+		int size = 1;
+		while (size < 2 * length - 1) {
+			size <<= 1;
+		}
+		return size;
+	}
+
+	private static double norm(final double[] values) {
+		double squaredSum = 0;
+		for (final double value : values) {
+			squaredSum += value * value;
+		}
+		return Math.sqrt(squaredSum);
+	}
+
+	private static double maxAbs(final double[] values) {
+		double max = 0;
+		for (final double value : values) {
+			max = Math.max(max, Math.abs(value));
+		}
+		return max;
+	}
+
+	private static double[] direct(final double[] first, final double[] second) {
+		final int n = first.length;
+		final double[] profile = new double[n];
+		for (int shift = 0; shift < n; shift++) {
+			double sum = 0;
+			for (int i = 0; i < n; i++) {
+				final int j = i + shift < n ? i + shift : i + shift - n;
+				sum += first[i] * second[j];
+			}
+			profile[shift] = sum;
+		}
+		return profile;
+	}
+
+	private static FFT transform(final int size) {
+		FFT fft = TRANSFORMS.get(size);
+		if (fft == null) {
+			fft = new FFT(size);
+			final FFT previous = TRANSFORMS.putIfAbsent(size, fft);
+			if (previous != null) {
+				fft = previous;
+			}
+		}
+		return fft;
+	}
+
+	private static double[] transformed(final double[] first, final double[] second) {
+		final int n = first.length;
+		final int size = transformSize(n);
+
+		// Scale both sequences to [-1,1] to make good use of the float
+		// precision.
+		final double firstScale = maxAbs(first);
+		final double secondScale = maxAbs(second);
+		if (firstScale == 0 || secondScale == 0) {
+			return new double[n];
+		}
+
+		// z = first + i * second, interleaved real and imaginary parts.
+		final float[] data = new float[2 * size];
+		for (int i = 0; i < n; i++) {
+			data[2 * i] = (float) (first[i] / firstScale);
+			data[2 * i + 1] = (float) (second[i] / secondScale);
+		}
+		final FFT fft = transform(size);
+		fft.forwardTransform(data);
+
+		// With Z[k] the transform of z: F[k] = (Z[k] + conj(Z[-k])) / 2 and
+		// S[k] = (Z[k] - conj(Z[-k])) / 2i. The correlation is the inverse
+		// transform of conj(F[k]) * S[k].
+		final float[] product = new float[2 * size];
+		for (int k = 0; k < size; k++) {
+			final int mirrored = k == 0 ? 0 : size - k;
+			final double zr = data[2 * k];
+			final double zi = data[2 * k + 1];
+			final double mr = data[2 * mirrored];
+			final double mi = -data[2 * mirrored + 1];
+			final double fr = (zr + mr) / 2;
+			final double fi = (zi + mi) / 2;
+			final double sr = (zi - mi) / 2;
+			final double si = -(zr - mr) / 2;
+			product[2 * k] = (float) (fr * sr + fi * si);
+			product[2 * k + 1] = (float) (fr * si - fi * sr);
+		}
+		fft.backwardsTransform(product);
+
+		// Fold the linear correlation: lag shift and lag shift - n.
+		final double scale = firstScale * secondScale / size;
+		final double[] profile = new double[n];
+		for (int shift = 0; shift < n; shift++) {
+			double sum = product[2 * shift];
+			if (shift > 0) {
+				sum += product[2 * (size - n + shift)];
+			}
+			profile[shift] = sum * scale;
+		}
+		return profile;
+	}
+}
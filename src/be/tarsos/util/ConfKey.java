@@ -107,7 +107,8 @@ public enum ConfKey {
 	/**
 	 * Defines the number of threads used to annotate files. Ideally this is the
 	 * same as the number of cores on your CPU. Use one thread less if you want
-	 * to keep your system responsive. My system has 4 so the default is 3.
+	 * to keep your system responsive. Zero or less uses the number of
+	 * available processors, the default.
 	 */
 	annotation_threads,
 
@@ -131,6 +132,21 @@ public enum ConfKey {
 	 */
 	silence_threshold,
 
+	/**
+	 * The hop sizes, in samples, of the power envelopes stored for each file,
+	 * see {@link be.tarsos.sampled.PowerEnvelope}. The power extractor adds
+	 * its own hop size of 882 samples: 50 windows a second at 44.1kHz.
+	 */
+	power_hop_sizes,
+
+	/**
+	 * The disk budget of the data directory in MB, see
+	 * {@link be.tarsos.util.AnalysisCache}. When it is exceeded the least
+	 * recently used analysis files are deleted. Zero or less means no limit,
+	 * the default.
+	 */
+	cache_budget,
+
 	/**
 	 * The marks used in plots the value should be one of the following: none,
 	 * points, dots, various, bigdots or pixels. The default value is points.
@@ -0,0 +1,284 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+
+package be.tarsos.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+import be.tarsos.util.Configuration.ConfigChangeListener;
+
+/**
+ * A shared, bounded pool of worker threads for the extraction of features:
+ * transcoding and pitch detection. Work is queued when all workers are busy,
+ * so analyzing a lot of files does not start a thread per file and detector.
+ * The number of workers is configured with {@link ConfKey#annotation_threads},
+ * a value of zero or less uses one worker per available processor.
+ * <p>
+ * Work that is only prepared ahead, e.g. analysing files that are not shown,
+ * is queued with {@link #submitBackground(Runnable)}. It runs on a separate
+ * worker and only starts while the workers are idle, so it never delays the
+ * tasks the user is waiting for.
+ * </p>
+ * 
+ * @author Joren Six
+ */
+public final class ExtractionExecutor {
+
+	private static final Logger LOG = Logger.getLogger(ExtractionExecutor.class.getName());
+
+	private static ExtractionExecutor instance;
+
+	private final ExtractionPool executor;
+
+	/**
+	 * A single worker for background tasks.
+	 */
+	private final ThreadPoolExecutor backgroundExecutor;
+
+	private ExtractionExecutor() {
+		final int threads = numberOfThreads();
+		final AtomicInteger threadCounter = new AtomicInteger();
+		executor = new ExtractionPool(threads, new ThreadFactory() {
+					public Thread newThread(final Runnable runnable) {
+						final Thread thread = new Thread(runnable, "Tarsos extraction "
+								+ threadCounter.incrementAndGet());
+						thread.setDaemon(true);
+						thread.setPriority(Thread.NORM_PRIORITY - 1);
+						return thread;
+					}
+				});
+		executor.allowCoreThreadTimeOut(true);
+		backgroundExecutor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					public Thread newThread(final Runnable runnable) {
+						final Thread thread = new Thread(runnable, "Tarsos background extraction");
+						thread.setDaemon(true);
+						thread.setPriority(Thread.MIN_PRIORITY);
+						return thread;
+					}
+				});
+		backgroundExecutor.allowCoreThreadTimeOut(true);
+		Configuration.addListener(new ConfigChangeListener() {
+			public void configurationChanged(final ConfKey key) {
+				if (key == ConfKey.annotation_threads) {
+					resize(numberOfThreads());
+				}
+			}
+		});
+		LOG.fine(String.format("Extraction executor started with %s workers.", threads));
+	}
+
+	/**
+	 * @return The single extraction executor.
+	 */
+	public static synchronized ExtractionExecutor getInstance() {
+		if (instance == null) {
+			instance = new ExtractionExecutor();
+		}
+		return instance;
+	}
+
+	/**
+	 * @return The configured number of worker threads.
+	 */
+	public static int numberOfThreads() {
+		final int configured = Configuration.getInt(ConfKey.annotation_threads);
+		final int threads;
+		if (configured > 0) {
+			threads = configured;
+		} else {
+			threads = Runtime.getRuntime().availableProcessors();
+		}
+		return threads;
+	}
+
+	private synchronized void resize(final int threads) {
+		// The maximum can not be smaller than the core pool size.
+		if (threads > executor.getMaximumPoolSize()) {
+			executor.setMaximumPoolSize(threads);
+			executor.setCorePoolSize(threads);
+		} else {
+			executor.setCorePoolSize(threads);
+			executor.setMaximumPoolSize(threads);
+		}
+		LOG.info(String.format("Extraction executor resized to %s workers.", threads));
+	}
+
+	/**
+	 * Queues a task.
+	 * 
+	 * @param task
+	 *            The task to execute.
+	 */
+	public void execute(final Runnable task) {
+		executor.execute(task);
+	}
+
+	/**
+	 * Queues a task.
+	 * 
+	 * @param task
+	 *            The task to execute.
+	 * @return A future to wait for or cancel the task.
+	 */
+	public Future<?> submit(final Runnable task) {
+		return executor.submit(task);
+	}
+
+	/**
+	 * Queues a task.
+	 * 
+	 * @param <T>
+	 *            The type of the result.
+	 * @param task
+	 *            The task to execute.
+	 * @return A future to wait for or cancel the task.
+	 */
+	public <T> Future<T> submit(final Callable<T> task) {
+		return executor.submit(task);
+	}
+
+	/**
+	 * Queues a task that prepares work ahead. Background tasks run one at a
+	 * time on a separate worker with the lowest priority. A background task
+	 * only starts when no other task is running or waiting, it is not
+	 * stopped when other tasks are queued later.
+	 * 
+	 * @param task
+	 *            The task to execute.
+	 * @return A future to cancel the task. A task waiting for idle workers
+	 *         is interrupted by cancel(true) and does not start.
+	 */
+	public Future<?> submitBackground(final Runnable task) {
+		return backgroundExecutor.submit(new Runnable() {
+			public void run() {
+				boolean cancelled = false;
+				try {
+					executor.awaitIdle();
+				} catch (final InterruptedException e) {
+					// Cancelled while waiting for idle workers.
+					Thread.currentThread().interrupt();
+					cancelled = true;
+				}
+				if (!cancelled) {
+					task.run();
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return The number of tasks waiting for a worker.
+	 */
+	public int getQueueSize() {
+		return executor.getQueue().size();
+	}
+
+	/**
+	 * @return The number of workers executing a task.
+	 */
+	public int getActiveCount() {
+		return executor.getActiveCount();
+	}
+
+	/**
+	 * A thread pool that counts its outstanding tasks, queued or running, and
+	 * signals when none are left.
+	 */
+	private static final class ExtractionPool extends ThreadPoolExecutor {
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Condition idle = lock.newCondition();
+		private int outstanding;
+
+		public ExtractionPool(final int threads, final ThreadFactory threadFactory) {
+			super(threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), threadFactory);
+		}
+
+		@Override
+		public void execute(final Runnable command) {
+			lock.lock();
+			try {
+				outstanding++;
+			} finally {
+				lock.unlock();
+			}
+			boolean queued = false;
+			try {
+				super.execute(command);
+				queued = true;
+			} finally {
+				if (!queued) {
+					finished();
+				}
+			}
+		}
+
+		@Override
+		protected void afterExecute(final Runnable task, final Throwable thrown) {
+			super.afterExecute(task, thrown);
+			finished();
+		}
+
+		private void finished() {
+			lock.lock();
+			try {
+				outstanding--;
+				if (outstanding == 0) {
+					idle.signalAll();
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Waits until no task is queued or running. A cancelled task that is
+		 * still queued counts until a worker takes it from the queue.
+		 * 
+		 * @throws InterruptedException
+		 *             If the waiting thread is interrupted.
+		 */
+		public void awaitIdle() throws InterruptedException {
+			lock.lock();
+			try {
+				while (outstanding > 0) {
+					idle.await();
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+}
@@ -0,0 +1,463 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+
+package be.tarsos.util;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * Identifies files by the MD5 hash of their complete contents: two files with
+ * the same contents get the same fingerprint, whatever their name. The whole
+ * file is read through a file channel in large blocks. A hash of only the
+ * first part of a file is not enough: long recordings made with the same
+ * recorder settings can share their first megabytes.
+ * </p>
+ * <p>
+ * Hashing a complete file takes time, so the fingerprints are remembered
+ * together with the size and modification time of the file. A file that did
+ * not change is never hashed again, also not in a next session: the
+ * fingerprints are stored in the data directory (see
+ * {@link ConfKey#data_directory}). A list of files, e.g. a corpus that is
+ * added, is hashed by several threads at once with
+ * {@link #fingerprint(List)}.
+ * </p>
+ * 
+ * @author Joren Six
+ */
+public final class FileFingerprints {
+
+	/**
+	 * Log messages.
+	 */
+	private static final Logger LOG = Logger.getLogger(FileFingerprints.class.getName());
+
+	/**
+	 * Identifies a fingerprint file: "TFPR".
+	 */
+	private static final int MAGIC = 0x54465052;
+
+	/**
+	 * The version of the file format.
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * The name of the file with fingerprints in the data directory.
+	 */
+	public static final String FINGERPRINT_FILE = "fingerprints.bin";
+
+	/**
+	 * The number of hexadecimal characters in a fingerprint.
+	 */
+	public static final int LENGTH = 32;
+
+	/**
+	 * The number of hexadecimal characters in a fingerprint of an older
+	 * version of Tarsos: half of the MD5 hash of the first 256kB of a file.
+	 */
+	public static final int LEGACY_LENGTH = 16;
+
+	/**
+	 * The number of bytes hashed for a legacy fingerprint.
+	 */
+	private static final int LEGACY_BYTES = 262144;
+
+	/**
+	 * The number of bytes read at a time.
+	 */
+	private static final int BLOCK_SIZE = 1 << 20;
+
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	/**
+	 * A read buffer per thread, direct so the channel reads without copying.
+	 */
+	private static final ThreadLocal<ByteBuffer> BUFFER = new ThreadLocal<ByteBuffer>() {
+		@Override
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocateDirect(BLOCK_SIZE);
+		}
+	};
+
+	private static FileFingerprints instance;
+
+	/**
+	 * A remembered fingerprint, valid as long as the file has the same size
+	 * and modification time.
+	 */
+	private static final class Entry {
+		private final long size;
+		private final long lastModified;
+		private final String fingerprint;
+
+		private Entry(final long fileSize, final long fileLastModified, final String fileFingerprint) {
+			size = fileSize;
+			lastModified = fileLastModified;
+			fingerprint = fileFingerprint;
+		}
+
+		private boolean matches(final File file) {
+			return size == file.length() && lastModified == file.lastModified();
+		}
+	}
+
+	private final File directory;
+	private final Map<String, Entry> entries;
+	private boolean changed;
+
+	private FileFingerprints(final File dataDirectory) {
+		directory = dataDirectory;
+		entries = new HashMap<String, Entry>();
+	}
+
+	/**
+	 * Returns the fingerprints stored in the configured data directory. They
+	 * are written when the virtual machine exits.
+	 * 
+	 * @return The fingerprints of the configured data directory.
+	 */
+	public static synchronized FileFingerprints getInstance() {
+		final File dataDirectory = new File(Configuration.get(ConfKey.data_directory)).getAbsoluteFile();
+		if (instance == null) {
+			Runtime.getRuntime().addShutdownHook(new Thread("File fingerprints") {
+				@Override
+				public void run() {
+					getInstance().flush();
+				}
+			});
+		} else if (!instance.directory.equals(dataDirectory)) {
+			instance.flush();
+			instance = null;
+		}
+		if (instance == null) {
+			instance = open(dataDirectory);
+		}
+		return instance;
+	}
+
+	/**
+	 * Opens the fingerprints stored in a data directory.
+	 * 
+	 * @param dataDirectory
+	 *            The data directory.
+	 * @return The fingerprints, empty if none are stored.
+	 */
+	public static FileFingerprints open(final File dataDirectory) {
+		final FileFingerprints fingerprints = new FileFingerprints(dataDirectory);
+		fingerprints.read();
+		return fingerprints;
+	}
+
+	/**
+	 * Returns the fingerprint of a file, it is only hashed if it is new or
+	 * changed.
+	 * 
+	 * @param fileName
+	 *            The file.
+	 * @return The fingerprint of the file, or null if it can not be read.
+	 */
+	public String fingerprint(final String fileName) {
+		final File file = new File(fileName).getAbsoluteFile();
+		String fingerprint = remembered(file);
+		if (fingerprint == null) {
+			fingerprint = compute(file);
+		}
+		return fingerprint;
+	}
+
+	/**
+	 * Returns the fingerprints of a list of files. New or changed files are
+	 * hashed concurrently, with as many threads as configured for the
+	 * extraction of features (see {@link ExtractionExecutor#numberOfThreads()}
+	 * ).
+	 * 
+	 * @param fileNames
+	 *            The files.
+	 * @return The fingerprint by file name, in the order of the list. Files
+	 *         that can not be read are missing.
+	 */
+	public Map<String, String> fingerprint(final List<String> fileNames) {
+		final Map<String, String> fingerprints = new LinkedHashMap<String, String>();
+		final List<File> unknown = new ArrayList<File>();
+		for (final String fileName : fileNames) {
+			final File file = new File(fileName).getAbsoluteFile();
+			final String fingerprint = remembered(file);
+			fingerprints.put(fileName, fingerprint);
+			if (fingerprint == null) {
+				unknown.add(file);
+			}
+		}
+		final int threads = Math.min(unknown.size(), ExtractionExecutor.numberOfThreads());
+		if (threads == 1) {
+			for (final File file : unknown) {
+				compute(file);
+			}
+		} else if (threads > 1) {
+			// Not the shared extraction executor: this can be called by one
+			// of its workers.
+			final ExecutorService executor = Executors.newFixedThreadPool(threads);
+			final List<Future<String>> futures = new ArrayList<Future<String>>(unknown.size());
+			for (final File file : unknown) {
+				futures.add(executor.submit(new Callable<String>() {
+					public String call() {
+						return compute(file);
+					}
+				}));
+			}
+			executor.shutdown();
+			try {
+				for (final Future<String> future : futures) {
+					future.get();
+				}
+			} catch (final InterruptedException e) {
+				executor.shutdownNow();
+				Thread.currentThread().interrupt();
+			} catch (final ExecutionException e) {
+				throw new IllegalStateException("Fingerprinting failed.", e.getCause());
+			}
+			LOG.fine(String.format("Fingerprinted %s files with %s threads.", unknown.size(), threads));
+		}
+		for (final Map.Entry<String, String> fingerprint : new ArrayList<Map.Entry<String, String>>(
+				fingerprints.entrySet())) {
+			if (fingerprint.getValue() == null) {
+				final String computed = remembered(new File(fingerprint.getKey()).getAbsoluteFile());
+				if (computed == null) {
+					fingerprints.remove(fingerprint.getKey());
+				} else {
+					fingerprint.setValue(computed);
+				}
+			}
+		}
+		return fingerprints;
+	}
+
+	private synchronized String remembered(final File file) {
+		final Entry entry = entries.get(file.getPath());
+		return entry != null && entry.matches(file) ? entry.fingerprint : null;
+	}
+
+	/**
+	 * Hashes a file and remembers the result.
+	 */
+	private String compute(final File file) {
+		// Read size and time before the contents: a file changed while it is
+		// hashed is hashed again next time.
+		final long size = file.length();
+		final long lastModified = file.lastModified();
+		String fingerprint = null;
+		try {
+			fingerprint = hash(file);
+			synchronized (this) {
+				entries.put(file.getPath(), new Entry(size, lastModified, fingerprint));
+				changed = true;
+			}
+		} catch (final IOException e) {
+			LOG.log(Level.WARNING, "Could not fingerprint " + file, e);
+		}
+		return fingerprint;
+	}
+
+	/**
+	 * Calculates the MD5 hash of the complete contents of a file. On Unix the
+	 * result can be checked with <code>md5sum</code>.
+	 * 
+	 * @param file
+	 *            The file.
+	 * @return The MD5 hash in 32 lower case hexadecimal characters.
+	 * @throws IOException
+	 *             If the file can not be read.
+	 */
+	public static String hash(final File file) throws IOException {
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("MD5");
+		} catch (final NoSuchAlgorithmException e) {
+			throw new Error("MD5 Algorithm not known, runtime outdated?", e);
+		}
+		final ByteBuffer buffer = BUFFER.get();
+		final FileInputStream stream = new FileInputStream(file);
+		try {
+			final FileChannel channel = stream.getChannel();
+			buffer.clear();
+			while (channel.read(buffer) != -1) {
+				buffer.flip();
+				digest.update(buffer);
+				buffer.clear();
+			}
+		} finally {
+			BinaryFiles.close(stream);
+		}
+		return hex(digest.digest());
+	}
+
+	/**
+	 * Calculates the fingerprint an older version of Tarsos used: the second
+	 * half of the MD5 hash of the first 256kB. Only used to find the data of
+	 * a file stored by such a version.
+	 * 
+	 * @param file
+	 *            The file.
+	 * @return The legacy fingerprint in 16 lower case hexadecimal characters.
+	 * @throws IOException
+	 *             If the file can not be read.
+	 */
+	public static String legacyHash(final File file) throws IOException {
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("MD5");
+		} catch (final NoSuchAlgorithmException e) {
+			throw new Error("MD5 Algorithm not known, runtime outdated?", e);
+		}
+		digest.update(BinaryFiles.readStart(file, LEGACY_BYTES));
+		return hex(digest.digest()).substring(LENGTH - LEGACY_LENGTH);
+	}
+
+	/**
+	 * Returns the fingerprint at the end of the name of a directory in the
+	 * data directory: a base name, an underscore and a fingerprint.
+	 * 
+	 * @param directoryName
+	 *            The name of the directory.
+	 * @param length
+	 *            The length of the fingerprint, {@link #LENGTH} or
+	 *            {@link #LEGACY_LENGTH}.
+	 * @return The fingerprint, or null if the name does not end with an
+	 *         underscore and a fingerprint of the length.
+	 */
+	public static String fromDirectoryName(final String directoryName, final int length) {
+		final int start = directoryName.length() - length;
+		boolean valid = start > 1 && directoryName.charAt(start - 1) == '_';
+		for (int i = start; valid && i < directoryName.length(); i++) {
+			final char c = directoryName.charAt(i);
+			valid = c >= '0' && c <= '9' || c >= 'a' && c <= 'f';
+		}
+		return valid ? directoryName.substring(start) : null;
+	}
+
+	private static String hex(final byte[] bytes) {
+		final char[] hex = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			hex[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+			hex[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xf];
+		}
+		return new String(hex);
+	}
+
+	/**
+	 * @return The number of remembered fingerprints.
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Forgets the fingerprints of files that no longer exist.
+	 * 
+	 * @return The number of forgotten fingerprints.
+	 */
+	public synchronized int prune() {
+		int pruned = 0;
+		for (final String fileName : new ArrayList<String>(entries.keySet())) {
+			if (!new File(fileName).exists()) {
+				entries.remove(fileName);
+				pruned++;
+			}
+		}
+		changed |= pruned > 0;
+		return pruned;
+	}
+
+	/**
+	 * Writes the fingerprints to the data directory, if anything changed.
+	 */
+	public synchronized void flush() {
+		if (changed && directory.isDirectory()) {
+			final boolean written = BinaryFiles.write(new File(directory, FINGERPRINT_FILE),
+					new BinaryFiles.Writer() {
+						public void write(final DataOutputStream out) throws IOException {
+							out.writeInt(MAGIC);
+							out.writeInt(VERSION);
+							out.writeInt(entries.size());
+							for (final Map.Entry<String, Entry> entry : entries.entrySet()) {
+								BinaryFiles.writeString(out, entry.getKey());
+								out.writeLong(entry.getValue().size);
+								out.writeLong(entry.getValue().lastModified);
+								BinaryFiles.writeString(out, entry.getValue().fingerprint);
+							}
+						}
+					});
+			changed = !written;
+		}
+	}
+
+	/**
+	 * Reads the fingerprints from the data directory.
+	 */
+	private void read() {
+		final File fingerprintFile = new File(directory, FINGERPRINT_FILE);
+		if (fingerprintFile.exists()) {
+			try {
+				final ByteBuffer buffer = BinaryFiles.read(fingerprintFile);
+				if (buffer.getInt() == MAGIC && buffer.getInt() == VERSION) {
+					final int numberOfEntries = buffer.getInt();
+					for (int i = 0; i < numberOfEntries; i++) {
+						final String fileName = BinaryFiles.readString(buffer);
+						final Entry entry = new Entry(buffer.getLong(), buffer.getLong(),
+								BinaryFiles.readString(buffer));
+						entries.put(fileName, entry);
+					}
+				}
+			} catch (final IOException e) {
+				LOG.log(Level.WARNING, "Could not read file fingerprints " + fingerprintFile, e);
+				entries.clear();
+			} catch (final RuntimeException e) {
+				// Truncated file.
+				LOG.log(Level.WARNING, "Corrupt file fingerprints " + fingerprintFile, e);
+				entries.clear();
+			}
+		}
+	}
+}
@@ -42,8 +42,6 @@ import java.net.URL;
 import java.net.URLConnection;
 import java.nio.channels.FileChannel;
 import java.security.CodeSource;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -61,6 +59,7 @@ import org.apache.commons.exec.DefaultExecutor;
 import org.apache.commons.exec.ExecuteException;
 
 import be.tarsos.sampled.pitch.Annotation;
+import be.tarsos.sampled.pitch.AnnotationCsv;
 import be.tarsos.sampled.pitch.Pitch;
 import be.tarsos.sampled.pitch.PitchDetectionMode;
 import be.tarsos.sampled.pitch.PitchUnit;
@@ -111,24 +110,30 @@ public final class FileUtils {
 		return samples;
 	}
 
+	/**
+	 * Writes annotations to a CSV file, streamed through a buffer by
+	 * {@link AnnotationCsv}.
+	 * 
+	 * @param fileName
+	 *            The file to write to.
+	 * @param samples
+	 *            The annotations to write.
+	 */
 	public static void writePitchAnnotations(final String fileName, final List<Annotation> samples) {
-		StringBuilder sb = new StringBuilder();
-		sb.append("Start(s),Pitch(Hz),Probability[0-1.0],Source\n");
-		for (Annotation s : samples) {
-			sb.append(s.toString()).append("\n");
-		}
-		writeFile(sb.toString(), fileName);
-	}	
+		AnnotationCsv.write(fileName, samples);
+	}
 
+	/**
+	 * Reads annotations from a CSV file, streamed through a buffer by
+	 * {@link AnnotationCsv}. Use {@link AnnotationCsv#read(String, AnnotationCsv.RecordHandler)}
+	 * to handle large files without keeping each annotation in memory.
+	 * 
+	 * @param fileName
+	 *            The file to read.
+	 * @return The annotations in the file.
+	 */
 	public static List<Annotation> readPitchAnnotations(final String fileName) {
-		final List<Annotation> annotations = new ArrayList<Annotation>();
-		final String contents = FileUtils.readFile(fileName);
-		final String[] lines = contents.split("\n");
-		// Skip the first line, the header.
-		for (int i = 1; i < lines.length; i++) {
-			annotations.add(Annotation.parse(lines[i]));
-		}
-		return annotations;
+		return AnnotationCsv.read(fileName);
 	}
 
 	public static String temporaryDirectory() {
@@ -184,61 +189,32 @@ public final class FileUtils {
 		return success;
 	}
 	
-	private static byte[] createChecksum(String filename,final int numberOfBytes)
-			throws NoSuchAlgorithmException, IOException {
-		InputStream fis = new FileInputStream(filename);
-		if(numberOfBytes%1024 != 0)
-			throw new IllegalArgumentException("Number of bytes should be dividable by 1024.");
-		byte[] buffer = new byte[1024];
-		MessageDigest complete = MessageDigest.getInstance("MD5");
-		int numRead;
-		//Alternative way to check correctness: head -c 262144 long.ogg | md5sum
-		int maxNumberOfBuffers = numberOfBytes/1024; 
-		int currentNumberOfBuffers = 0;
-		do {
-			numRead = fis.read(buffer);
-			if (numRead > 0) {
-				complete.update(buffer, 0, numRead);
-			}
-			currentNumberOfBuffers++;
-		} while (numRead != -1 && currentNumberOfBuffers < maxNumberOfBuffers);
-		fis.close();
-		return complete.digest();
-	}
-
 	/**
-	 * Calculate an MD5 checksum of <b>the first 256kB</b> of a file. The idea
-	 * is to get a unique hash for a file, quickly. A hash of the first 256kB is
-	 * 'unique enough' and much faster than calculating an md5 for a complete
-	 * file. On Unix this method can be checked using:
+	 * Calculate an MD5 checksum of the complete contents of a file. On Unix
+	 * this method can be checked using:
 	 * 
 	 * <pre>
-	 * head -c 262144 file_to_calculate_md5_for | md5sum
+	 * md5sum file_to_calculate_md5_for
+	 * </pre>
 	 * 
-	 * <pre/>
+	 * Use {@link FileFingerprints} to avoid hashing unchanged files again.
 	 * 
-	 * @param filename 
-	 * 		The absolute file name of a file used to calculate an md5 checksum of <b>the first 256kB</b> off.
-	 * @return An MD5 checksum of <b>the first 256kB</b> of a file.
+	 * @param filename
+	 *            The absolute file name of a file used to calculate an md5
+	 *            checksum of.
+	 * @return An MD5 checksum of the file, or an empty string if it can not be
+	 *         read.
 	 */
 	public static String getMD5Checksum(String filename) {
 		String result = "";
 		try {
-			byte[] b;
-			b = createChecksum(filename,262144);
-			for (int i = 0; i < b.length; i++) {
-				result += Integer.toString((b[i] & 0xff) + 0x100, 16).substring(1);
-			}
-		} catch (NoSuchAlgorithmException e) {
-			String message = "MD5 Algorithm not known, runtime outdated?";
-			LOG.severe(message);
-			throw new Error(message,e);
+			result = FileFingerprints.hash(new File(filename));
 		} catch (IOException e) {
 			String message = "Exception while computing file md5 " + filename;
 			LOG.severe(message);
 		}
 		return result;
-	}	
+	}
 
 	/**
 	 * @return The path where the program is executed.
@@ -26,6 +26,7 @@
 package be.tarsos.util;
 
 import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 
@@ -253,6 +254,35 @@ public class KernelDensityEstimate {
 		calculateSumFreq();
 	}
 	
+	/**
+	 * Takes the maximum of the value in the accumulator for two kde's, only for
+	 * the bins a kernel at the given value affects. If the other kde only
+	 * changed by adding that kernel since the last maximum, the result equals
+	 * {@link #max(KernelDensityEstimate)} at O(kernel width) instead of
+	 * O(bins).
+	 * 
+	 * @param other
+	 *            The other kde of the same size.
+	 * @param value
+	 *            The value of the kernel added to the other kde.
+	 */
+	public void max(KernelDensityEstimate other, double value){
+		assert other.size() == size() : "The kde size should be the same!";
+		int accumulatorSize = accumulator.length;
+		int calculationAria = kernel.size() / 2;
+		int start = (int) (value + accumulatorSize - calculationAria);
+		int stop = (int) (value + accumulatorSize + calculationAria);
+		if (kernel.size() % 2 != 0)
+			stop++;
+		for (int i = start; i < stop; i++) {
+			int index = i % accumulatorSize;
+			if (other.accumulator[index] > accumulator[index]) {
+				sum += other.accumulator[index] - accumulator[index];
+				accumulator[index] = other.accumulator[index];
+			}
+		}
+	}
+	
 	/**
 	 * Adds a KDE to this accumulator
 	 * @param other The other KDE of the same size.
@@ -284,10 +314,20 @@ public class KernelDensityEstimate {
 	 */
 	public double correlation(final KernelDensityEstimate other,
 			final int positionsToShiftOther) {
+		return correlation(other, positionsToShiftOther, Math.max(getSumFreq(), other.getSumFreq()));
+	}
+
+	/**
+	 * Calculates the correlation with another KernelDensityEstimate, see
+	 * {@link #correlation(KernelDensityEstimate, int)}. The area of the
+	 * biggest estimate does not depend on the shift, callers that try each
+	 * shift calculate it once.
+	 */
+	private double correlation(final KernelDensityEstimate other,
+			final int positionsToShiftOther, final double biggestKDEArea) {
 		assert other.size() == size() : "The kde size should be the same!";
 		double correlation;
 		double matchingArea = 0.0;
-		double biggestKDEArea = Math.max(getSumFreq(), other.getSumFreq());
 		//an if, else to prevent modulo calculation
 		if(positionsToShiftOther == 0){
 			for (int i = 0; i < accumulator.length; i++) {
@@ -321,9 +361,10 @@ public class KernelDensityEstimate {
 	public int shiftForOptimalCorrelation(final KernelDensityEstimate other) {
 		int optimalShift = 0; // displacement with best correlation
 		double maximumCorrelation = -1; // best found correlation
+		final double biggestKDEArea = Math.max(getSumFreq(), other.getSumFreq());
 
 		for (int shift = 0; shift < size(); shift++) {
-			final double currentCorrelation = correlation(other, shift);
+			final double currentCorrelation = correlation(other, shift, biggestKDEArea);
 			if (maximumCorrelation < currentCorrelation) {
 				maximumCorrelation = currentCorrelation;
 				optimalShift = shift;
@@ -379,8 +420,34 @@ public class KernelDensityEstimate {
 	 */
 	public static class GaussianKernel implements Kernel {
 
+		/**
+		 * Kernels are immutable, they are shared by width.
+		 */
+		private static final ConcurrentHashMap<Double, GaussianKernel> CACHE = new ConcurrentHashMap<Double, GaussianKernel>();
+
 		private final double kernel[];
 
+		/**
+		 * Returns a shared kernel with a defined width. Use it instead of the
+		 * constructor to calculate the lookup table only once per width.
+		 * 
+		 * @param kernelWidth
+		 *            The width of the kernel.
+		 * @return A kernel with the requested width.
+		 */
+		public static GaussianKernel getInstance(final double kernelWidth) {
+			final Double key = Double.valueOf(kernelWidth);
+			GaussianKernel kernel = CACHE.get(key);
+			if (kernel == null) {
+				kernel = new GaussianKernel(kernelWidth);
+				final GaussianKernel previous = CACHE.putIfAbsent(key, kernel);
+				if (previous != null) {
+					kernel = previous;
+				}
+			}
+			return kernel;
+		}
+
 		/**
 		 * Construct a kernel with a defined width.
 		 * 
@@ -470,15 +537,95 @@ public class KernelDensityEstimate {
 		int optimalShift = 0; // displacement with best correlation
 		double maximumCorrelation = -1; // best found correlation
 
-		for (int shift = 0; shift < size(); shift++) {
-			final double currentCorrelation = correlationMeasure.correlation(this,other, shift);
-			if (maximumCorrelation < currentCorrelation) {
-				maximumCorrelation = currentCorrelation;
-				optimalShift = shift;
+		if (correlationMeasure.getClass() == Cosine.class && other.size() == size()) {
+			// The cosine similarity is the cross-correlation divided by the
+			// norms, which do not depend on the shift. Only shifts within the
+			// precision of the FFT of the maximum can be optimal, the
+			// similarity is calculated exactly for those.
+			final double[] crossCorrelation = CircularCorrelation.crossCorrelation(accumulator, other.accumulator);
+			double maximum = Double.NEGATIVE_INFINITY;
+			for (final double value : crossCorrelation) {
+				maximum = Math.max(maximum, value);
+			}
+			final double threshold = maximum - CircularCorrelation.tolerance(accumulator, other.accumulator);
+			for (int shift = 0; shift < size(); shift++) {
+				// NaN values (and thresholds) are calculated exactly
+				if (!(crossCorrelation[shift] < threshold)) {
+					final double currentCorrelation = correlationMeasure.correlation(this, other, shift);
+					if (maximumCorrelation < currentCorrelation) {
+						maximumCorrelation = currentCorrelation;
+						optimalShift = shift;
+					}
+				}
+			}
+		} else {
+			for (int shift = 0; shift < size(); shift++) {
+				final double currentCorrelation = correlationMeasure.correlation(this,other, shift);
+				if (maximumCorrelation < currentCorrelation) {
+					maximumCorrelation = currentCorrelation;
+					optimalShift = shift;
+				}
 			}
 		}
 		return optimalShift;
 	}
+
+	/**
+	 * Calculates the correlation with the other KernelDensityEstimate for each
+	 * shift, so
+	 * <code>profile[shift] == correlationMeasure.correlation(this, other, shift)</code>.
+	 * The {@link Cosine} similarity is calculated for all shifts at once with
+	 * an FFT in O(n log n), up to the float precision of the FFT (see
+	 * {@link CircularCorrelation}). Other measures, like the {@link Overlap},
+	 * are not linear and are calculated exactly for each shift.
+	 * 
+	 * @param correlationMeasure
+	 *            The correlation measure.
+	 * @param other
+	 *            The other KernelDensityEstimate.
+	 * @return The correlation for each shift.
+	 */
+	public double[] correlationProfile(final KDECorrelation correlationMeasure, final KernelDensityEstimate other) {
+		final double[] profile;
+		if (correlationMeasure.getClass() == Cosine.class && other.size() == size()) {
+			profile = CircularCorrelation.crossCorrelation(accumulator, other.accumulator);
+			double firstSquaredSum = 0;
+			double otherSquaredSum = 0;
+			for (int i = 0; i < size(); i++) {
+				firstSquaredSum += accumulator[i] * accumulator[i];
+				otherSquaredSum += other.accumulator[i] * other.accumulator[i];
+			}
+			final double norms = Math.pow(firstSquaredSum, 0.5) * Math.pow(otherSquaredSum, 0.5);
+			for (int shift = 0; shift < profile.length; shift++) {
+				profile[shift] = profile[shift] / norms;
+			}
+		} else {
+			profile = new double[size()];
+			for (int shift = 0; shift < profile.length; shift++) {
+				profile[shift] = correlationMeasure.correlation(this, other, shift);
+			}
+		}
+		return profile;
+	}
+
+	/**
+	 * Calculates the (overlap) correlation with the other
+	 * KernelDensityEstimate for each shift, so
+	 * <code>profile[shift] == correlation(other, shift)</code>. The overlap is
+	 * not linear so it is calculated exactly for each shift, in O(n&sup2;).
+	 * 
+	 * @param other
+	 *            The other KernelDensityEstimate.
+	 * @return The correlation for each shift.
+	 */
+	public double[] correlationProfile(final KernelDensityEstimate other) {
+		final double[] profile = new double[size()];
+		final double biggestKDEArea = Math.max(getSumFreq(), other.getSumFreq());
+		for (int shift = 0; shift < profile.length; shift++) {
+			profile[shift] = correlation(other, shift, biggestKDEArea);
+		}
+		return profile;
+	}
 	
 	public static interface KDECorrelation{
 		public double correlation(KernelDensityEstimate first,KernelDensityEstimate other, int shift);
@@ -0,0 +1,133 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+
+package be.tarsos.util;
+
+import be.tarsos.util.KernelDensityEstimate.Kernel;
+
+/**
+ * <p>
+ * Builds a {@link KernelDensityEstimate} for a lot of values in two steps.
+ * First each value is counted in an integer bin, then the counts are
+ * convolved with the kernel once. Adding a value costs a single increment
+ * instead of adding a complete kernel, so building an estimate for millions
+ * of annotations becomes one linear pass plus one convolution of O(bins *
+ * kernel width).
+ * </p>
+ * <p>
+ * The result is the same as adding each value to a kernel density estimate:
+ * {@link KernelDensityEstimate#add(double)} positions the kernel on the
+ * integer part of a value, so values within the same bin add the same kernel.
+ * Only the rounding of the sums can differ.
+ * </p>
+ * 
+ * @author Joren Six
+ */
+public final class KernelDensityEstimateBuilder {
+
+	private final Kernel kernel;
+	private final int[] counts;
+	private final int halfKernelSize;
+
+	/**
+	 * Creates a builder for a kernel density estimate.
+	 * 
+	 * @param kernel
+	 *            The kernel, see
+	 *            {@link KernelDensityEstimate.GaussianKernel#getInstance(double)}.
+	 * @param size
+	 *            The number of bins of the estimate.
+	 */
+	public KernelDensityEstimateBuilder(final Kernel kernel, final int size) {
+		if (kernel.size() > size) {
+			throw new IllegalArgumentException("The kernel size should be smaller than the acummulator size.");
+		}
+		this.kernel = kernel;
+		this.counts = new int[size];
+		this.halfKernelSize = kernel.size() / 2;
+	}
+
+	/**
+	 * Adds a value.
+	 * 
+	 * @param value
+	 *            The value to add.
+	 */
+	public void add(final double value) {
+		// The bin where the kernel starts, as in KernelDensityEstimate.add.
+		final int start = (int) (value + counts.length - halfKernelSize) % counts.length;
+		counts[start < 0 ? start + counts.length : start]++;
+	}
+
+	/**
+	 * Adds a number of values.
+	 * 
+	 * @param values
+	 *            The values to add.
+	 */
+	public void add(final double[] values) {
+		for (final double value : values) {
+			add(value);
+		}
+	}
+
+	/**
+	 * Removes all values.
+	 */
+	public void clear() {
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = 0;
+		}
+	}
+
+	/**
+	 * Convolves the counted values with the kernel.
+	 * 
+	 * @return A new kernel density estimate with all values added.
+	 */
+	public KernelDensityEstimate build() {
+		final int size = counts.length;
+		final double[] kernelValues = new double[kernel.size()];
+		for (int i = 0; i < kernelValues.length; i++) {
+			kernelValues[i] = kernel.value(i);
+		}
+		final double[] accumulator = new double[size];
+		for (int start = 0; start < size; start++) {
+			final int count = counts[start];
+			if (count != 0) {
+				// Split the kernel where it wraps around.
+				final int beforeWrap = Math.min(kernelValues.length, size - start);
+				for (int i = 0; i < beforeWrap; i++) {
+					accumulator[start + i] += count * kernelValues[i];
+				}
+				for (int i = beforeWrap; i < kernelValues.length; i++) {
+					accumulator[start + i - size] += count * kernelValues[i];
+				}
+			}
+		}
+		return new KernelDensityEstimate(kernel, accumulator);
+	}
+}
@@ -26,7 +26,6 @@
 package be.tarsos.util;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -36,11 +35,14 @@ import javax.sound.sampled.AudioInputStream;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.UnsupportedAudioFileException;
 
-import com.sun.media.sound.AudioFloatInputStream;
+import be.tarsos.sampled.ExtractionSession;
+import be.tarsos.sampled.PcmFile;
+import be.tarsos.sampled.PowerEnvelope;
 
 /**
  * An utility class to calculate and access the power of an audio file at any
- * given time.
+ * given time. The power is kept in a {@link PowerEnvelope} stored with the
+ * file: it is calculated once for each file.
  * 
  * @author Joren Six
  */
@@ -78,30 +80,38 @@ public final class SignalPowerExtractor {
 	 */
 	public SignalPowerExtractor(final AudioFile file) {
 		this.audioFile = file;
-		AudioInputStream ais = null;
-		final File inputFile = new File(audioFile.transcodedPath());
-		AudioFormat format = null;
-		try {
-			ais = AudioSystem.getAudioInputStream(inputFile);
-			format = ais.getFormat();
-		} catch (final UnsupportedAudioFileException e) {
-			LOG.log(Level.SEVERE, e.getLocalizedMessage(), e);
-		} catch (final IOException e) {
-			LOG.log(Level.SEVERE, e.getLocalizedMessage(), e);
-		} finally {
+		readWindow = 1.0 / POWER_SAMPLE_RATE;
+		final PcmFile pcm = PcmFile.open(audioFile);
+		if (pcm != null) {
+			sampleRate = pcm.getSampleRate();
+			frameSize = pcm.getFrameSize();
+			frameRate = pcm.getSampleRate();
+			audioLengtInSecs = pcm.getDuration();
+		} else {
+			AudioInputStream ais = null;
+			final File inputFile = new File(audioFile.transcodedPath());
+			AudioFormat format = null;
 			try {
-				ais.close();
+				ais = AudioSystem.getAudioInputStream(inputFile);
+				format = ais.getFormat();
+			} catch (final UnsupportedAudioFileException e) {
+				LOG.log(Level.SEVERE, e.getLocalizedMessage(), e);
 			} catch (final IOException e) {
-				LOG.log(Level.SEVERE, "Failed to close audio input stream.", e);
-			} catch (final NullPointerException e) {
-				LOG.log(Level.SEVERE, "Failed to initialize audio input stream.", e);
+				LOG.log(Level.SEVERE, e.getLocalizedMessage(), e);
+			} finally {
+				try {
+					ais.close();
+				} catch (final IOException e) {
+					LOG.log(Level.SEVERE, "Failed to close audio input stream.", e);
+				} catch (final NullPointerException e) {
+					LOG.log(Level.SEVERE, "Failed to initialize audio input stream.", e);
+				}
 			}
+			sampleRate = format.getSampleRate();
+			frameSize = format.getFrameSize();
+			frameRate = format.getFrameRate();
+			audioLengtInSecs = inputFile.length() / (frameSize * frameRate);
 		}
-		sampleRate = format.getSampleRate();
-		frameSize = format.getFrameSize();
-		frameRate = format.getFrameRate();
-		audioLengtInSecs = inputFile.length() / (frameSize * frameRate);
-		readWindow = 1.0 / POWER_SAMPLE_RATE;
 	}
 
 	/**
@@ -137,95 +147,72 @@ public final class SignalPowerExtractor {
 		return (int) Math.ceil(seconds / readWindow);
 	}
 
+	/**
+	 * @return The number of samples of a window.
+	 */
+	private int hopSize() {
+		return (int) (readWindow * sampleRate);
+	}
+
 	/**
 	 * Fills the power array with linear power values. Also stores the min and
-	 * max linear power.
+	 * max linear power. The power is read from the stored
+	 * {@link PowerEnvelope} of the file, it is only calculated the first time.
 	 */
 	private void extractPower() {
-		final File inputFile = new File(audioFile.transcodedPath());
-		AudioInputStream ais = null;
-		try {
-			ais = AudioSystem.getAudioInputStream(inputFile);
-			final AudioFloatInputStream afis = AudioFloatInputStream.getInputStream(ais);
-
-			linearPowerArray = new double[secondsToIndex(audioLengtInSecs) + 1];
-			final int readAmount = (int) (readWindow * sampleRate);
-			final float[] buffer = new float[readAmount];
-
-			int index = 0;
-			while (afis.read(buffer, 0, readAmount) != -1) {
-				final double power = SignalPowerExtractor.localEnergy(buffer);
-				minLinearPower = Math.min(power, minLinearPower);
-				maxLinearPower = Math.max(power, maxLinearPower);
-				linearPowerArray[index] = power;
-				index++;
-			}
-		} catch (final UnsupportedAudioFileException e) {
-			LOG.log(Level.SEVERE, e.getLocalizedMessage(), e);
-		} catch (final IOException e) {
-			LOG.log(Level.SEVERE, e.getLocalizedMessage(), e);
-		} finally {
-			try {
-				ais.close();
-			} catch (final IOException e) {
-				LOG.log(Level.SEVERE, "Failed to close audio input stream.", e);
-			} catch (final NullPointerException e) {
-				LOG.log(Level.SEVERE, "Failed to initialize audio input stream.", e);
+		final double[] powers = new double[secondsToIndex(audioLengtInSecs) + 1];
+		final PowerEnvelope envelope = PowerEnvelope.create(audioFile, hopSize());
+		double min = Double.MAX_VALUE;
+		double max = -1;
+		if (envelope != null) {
+			final double[] windows = envelope.getPowers(hopSize());
+			for (int index = 0; index < powers.length && index < windows.length; index++) {
+				powers[index] = windows[index];
+				min = Math.min(windows[index], min);
+				max = Math.max(windows[index], max);
 			}
 		}
+		minLinearPower = min;
+		maxLinearPower = max;
+		linearPowerArray = powers;
 	}
 
 	/**
-	 * Creates a wave from plot.
+	 * Adds a processor to a session that calculates and stores the power
+	 * envelope of the file, so the power can be extracted while the audio is
+	 * decoded for e.g. pitch detection. Nothing is added if the envelope is
+	 * stored already.
 	 * 
+	 * @param session
+	 *            The session decoding the audio of the file.
+	 */
+	public void addTo(final ExtractionSession session) {
+		PowerEnvelope.addTo(session, audioFile, hopSize());
+	}
+
+	/**
+	 * Creates a wave form plot: the value of the first sample of each window,
+	 * read from the transcoded audio.
 	 * 
 	 * @param aggregator
 	 *            The aggregator to save to.
 	 */
-	public void waveFormPlot(WaveFormDataAggregator aggregator) {
-		FileInputStream file = null;
-		try {
-			final File inputFile = new File(audioFile.transcodedPath());
-			file = new FileInputStream(inputFile);
-			final double timeFactor = 1.0 / (frameSize * frameRate);
-
-			// TODO This method expects the file to be a WAV
-			// Skip WAV header (44 bytes, fixed length).
-			for (int i = 0; i < 44; i++) {
-				file.read();
-			}
-
-			int intByte;
-			int index = 0;
-			// read a window at a time (in bytes)
-			int bufferSize = (int) (readWindow / timeFactor);
-			// make buffer size even so byteBuffer[0] and 1 are correctly
-			// aligned.
-			if (bufferSize % 2 != 0) {
-				bufferSize++;
-			}
-			final byte[] byteBuffer = new byte[bufferSize];
-			intByte = file.read(byteBuffer);
-			index = bufferSize;
-
-			// TODO This method expects the file to be a WAV with 16 as bit
-			// depth
-			while (intByte != -1) {
-				final double seconds = index * timeFactor;
-				final double power = (byteBuffer[0] << 8 | byteBuffer[1] & 0xFF) / 32767.0;
-				aggregator.addDataPoint(seconds, power);
-				index += bufferSize;
-				intByte = file.read(byteBuffer);
-			}
-		} catch (final IOException e) {
-			LOG.log(Level.SEVERE, "Failed to write audio file.", e);
-		} finally {
+	public void waveFormPlot(final WaveFormDataAggregator aggregator) {
+		final PcmFile pcm = PcmFile.open(audioFile);
+		if (pcm == null) {
+			LOG.warning("Could not read the transcoded audio of " + audioFile.originalBasename());
+		} else {
+			PcmFile.Reader reader = null;
 			try {
-				file.close();
+				reader = pcm.reader();
+				final long step = Math.max(1, (long) (readWindow * pcm.getSampleRate()));
+				for (long frame = 0; frame < pcm.getNumberOfFrames(); frame += step) {
+					aggregator.addDataPoint(pcm.timeAt(frame), reader.sample(frame, 0));
+				}
 			} catch (final IOException e) {
-				LOG.log(Level.SEVERE, "Failed to close audio file.", e);
-			} catch (final NullPointerException e) {
-				LOG.log(Level.SEVERE, "Failed to initialize audio file stream.", e);
+				LOG.log(Level.WARNING, "Could not read the transcoded audio of " + audioFile.originalBasename(), e);
+			} finally {
+				BinaryFiles.close(reader);
 			}
 		}
 	}
@@ -0,0 +1,498 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+
+package be.tarsos.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * Scores one needle against a lot of references at once. The references, e.g.
+ * pitch class kernel density estimates or histograms, are packed row after row
+ * into one contiguous float matrix. Scoring a needle against each row, for
+ * one or for all shifts, is done with tight loops over primitive arrays which
+ * the JIT compiler can unroll and vectorize. The rows are divided in blocks
+ * which are scored in parallel on the {@link ExtractionExecutor}.
+ * </p>
+ * <p>
+ * The similarities are the ones of {@link KernelDensityEstimate} and the
+ * {@link be.tarsos.util.histogram.CorrelationMeasure}s, see {@link Measure}.
+ * The values are kept with float precision, the sums are accumulated in
+ * double precision: the overlap is derived from the difference of large sums
+ * and a float accumulator would lose the small differences between
+ * references. When a reference is shifted, the value of the reference at
+ * index <code>(i + shift) % n</code> is compared with the value of the needle
+ * at index i, like
+ * {@link KernelDensityEstimate#correlation(KernelDensityEstimate, int)}.
+ * </p>
+ * <p>
+ * Adding rows is not thread safe, scoring is: the matrix should not be
+ * changed while it is scored. Do not score from a task running on the
+ * {@link ExtractionExecutor}: it waits for the blocks queued on the same
+ * executor.
+ * </p>
+ * 
+ * @author Joren Six
+ */
+public final class SimilarityMatrix {
+
+	private static final Logger LOG = Logger.getLogger(SimilarityMatrix.class.getName());
+
+	/**
+	 * A block scored in parallel has at least this number of values (rows
+	 * times columns times shifts), smaller jobs are scored on the calling
+	 * thread.
+	 */
+	private static final long MIN_VALUES_PER_BLOCK = 1 << 18;
+
+	/**
+	 * The number of blocks per thread, more blocks balance the load better.
+	 */
+	private static final int BLOCKS_PER_THREAD = 4;
+
+	/**
+	 * A similarity between a needle and a (shifted) reference row. With a the
+	 * needle and b the reference:
+	 */
+	public static enum Measure {
+		/**
+		 * The matching area: <code>sum(min(a,b)) / max(sum(a), sum(b))</code>.
+		 * The correlation of
+		 * {@link KernelDensityEstimate#correlation(KernelDensityEstimate, int)}
+		 * and the intersection of histograms. Between 0 and 1.
+		 */
+		OVERLAP,
+		/**
+		 * The cosine similarity: <code>sum(a * b) / (|a| * |b|)</code>, see
+		 * {@link KernelDensityEstimate.Cosine}.
+		 */
+		COSINE,
+		/**
+		 * The cross-correlation: <code>sum(a * b) / n</code>.
+		 */
+		CROSS_CORRELATION,
+		/**
+		 * The negated euclidean distance: <code>-sqrt(sum((a - b)^2))</code>.
+		 */
+		EUCLIDEAN,
+		/**
+		 * The city block distance: <code>1 - sum(|a - b|) / sum(a)</code>.
+		 */
+		CITY_BLOCK,
+		/**
+		 * The Bhattacharya distance: <code>log(sum(sqrt(a * b)))</code>.
+		 */
+		BHATTACHARYA
+	}
+
+	private final int columns;
+	private float[] data;
+	private double[] sums;
+	private double[] norms;
+	private int rows;
+
+	/**
+	 * Create an empty matrix.
+	 * 
+	 * @param numberOfColumns
+	 *            The length of each row, e.g. 1200 for a pitch class kernel
+	 *            density estimate with a bin per cent.
+	 */
+	public SimilarityMatrix(final int numberOfColumns) {
+		if (numberOfColumns <= 0) {
+			throw new IllegalArgumentException("The number of columns should be positive: " + numberOfColumns);
+		}
+		columns = numberOfColumns;
+		data = new float[columns * 16];
+		sums = new double[16];
+		norms = new double[16];
+	}
+
+	/**
+	 * Adds a reference row.
+	 * 
+	 * @param values
+	 *            The values of the reference, the length should be equal to
+	 *            the number of columns.
+	 * @return The index of the row.
+	 */
+	public int addRow(final double[] values) {
+		if (values.length != columns) {
+			throw new IllegalArgumentException("A row should have " + columns + " values, not "
+					+ values.length + ".");
+		}
+		if (rows == sums.length) {
+			final int capacity = sums.length * 2;
+			data = Arrays.copyOf(data, capacity * columns);
+			sums = Arrays.copyOf(sums, capacity);
+			norms = Arrays.copyOf(norms, capacity);
+		}
+		final int offset = rows * columns;
+		double sum = 0;
+		double squaredSum = 0;
+		for (int i = 0; i < columns; i++) {
+			final float value = (float) values[i];
+			data[offset + i] = value;
+			sum += value;
+			squaredSum += value * value;
+		}
+		sums[rows] = sum;
+		norms[rows] = Math.sqrt(squaredSum);
+		return rows++;
+	}
+
+	/**
+	 * Adds the estimate of a kernel density estimate as a reference row.
+	 * 
+	 * @param kde
+	 *            The kernel density estimate.
+	 * @return The index of the row.
+	 */
+	public int addRow(final KernelDensityEstimate kde) {
+		return addRow(kde.getEstimate());
+	}
+
+	/**
+	 * @return The number of rows (references).
+	 */
+	public int getRows() {
+		return rows;
+	}
+
+	/**
+	 * @return The number of columns.
+	 */
+	public int getColumns() {
+		return columns;
+	}
+
+	/**
+	 * Scores a needle against each row, without shifting.
+	 * 
+	 * @param needle
+	 *            The needle, the length should be equal to the number of
+	 *            columns.
+	 * @param measure
+	 *            The similarity measure.
+	 * @return The similarity with each row.
+	 */
+	public double[] score(final double[] needle, final Measure measure) {
+		return score(needle, measure, false, null);
+	}
+
+	/**
+	 * Scores a needle against each row for each shift of the row and keeps the
+	 * best: the first shift with the maximum similarity.
+	 * 
+	 * @param needle
+	 *            The needle, the length should be equal to the number of
+	 *            columns.
+	 * @param measure
+	 *            The similarity measure.
+	 * @param shifts
+	 *            An array to store the optimal shift for each row in, or null.
+	 * @return The optimal similarity with each row.
+	 */
+	public double[] scoreBestShift(final double[] needle, final Measure measure, final int[] shifts) {
+		if (shifts != null && shifts.length < rows) {
+			throw new IllegalArgumentException("The shifts array should have room for " + rows + " rows.");
+		}
+		return score(needle, measure, true, shifts);
+	}
+
+	private double[] score(final double[] needle, final Measure measure, final boolean allShifts,
+			final int[] shifts) {
+		if (needle.length != columns) {
+			throw new IllegalArgumentException("The needle should have " + columns + " values, not "
+					+ needle.length + ".");
+		}
+		final float[] needleValues = new float[columns];
+		double total = 0;
+		double squaredSum = 0;
+		for (int i = 0; i < columns; i++) {
+			final float value = (float) needle[i];
+			needleValues[i] = value;
+			total += value;
+			squaredSum += value * value;
+		}
+		final double needleSum = total;
+		final double needleNorm = Math.sqrt(squaredSum);
+		final boolean squareRoot = measure == Measure.BHATTACHARYA;
+
+		// For all shifts the needle is reversed and repeated:
+		// reversed[s + n - 1 - j] == needle[(j - s) % n]. For a column j of a
+		// row the sums for all shifts s are updated at once, in a loop over s
+		// without modulo calculations.
+		final float[] reversed;
+		if (allShifts) {
+			reversed = new float[2 * columns];
+			for (int t = 0; t < reversed.length; t++) {
+				final float value = needleValues[(2 * columns - 1 - t) % columns];
+				reversed[t] = squareRoot ? (float) Math.sqrt(value) : value;
+			}
+		} else {
+			reversed = null;
+		}
+
+		final double[] scores = new double[rows];
+		final float[] matrix = data;
+		final Runnable[] blocks = blocks(allShifts ? (long) columns * columns : columns, new BlockFactory() {
+			public Runnable block(final int from, final int to) {
+				return new Runnable() {
+					public void run() {
+						final double[] sumsPerShift = allShifts ? new double[columns] : null;
+						for (int row = from; row < to; row++) {
+							if (allShifts) {
+								Arrays.fill(sumsPerShift, 0);
+								accumulate(measure, reversed, matrix, row * columns, sumsPerShift);
+								double best = Double.NEGATIVE_INFINITY;
+								int bestShift = 0;
+								for (int shift = 0; shift < columns; shift++) {
+									double sum = sumsPerShift[shift];
+									if (measure == Measure.OVERLAP) {
+										// sum(min(a,b)) = (sum(a) + sum(b) - sum(|a - b|)) / 2
+										sum = Math.max(0, (needleSum + sums[row] - sum) / 2);
+									}
+									final double similarity = similarity(measure, sum, needleSum, needleNorm,
+											row);
+									// NaN is only kept if all shifts are NaN
+									if (shift == 0 || similarity > best || Double.isNaN(best)) {
+										best = similarity;
+										bestShift = shift;
+									}
+								}
+								scores[row] = best;
+								if (shifts != null) {
+									shifts[row] = bestShift;
+								}
+							} else {
+								final double sum = sum(measure, needleValues, matrix, row * columns, columns);
+								scores[row] = similarity(measure, sum, needleSum, needleNorm, row);
+							}
+						}
+					}
+				};
+			}
+		});
+		execute(blocks);
+		return scores;
+	}
+
+	/**
+	 * Calculates the similarity from the sum calculated by the kernels.
+	 */
+	private double similarity(final Measure measure, final double sum, final double needleSum,
+			final double needleNorm, final int row) {
+		final double similarity;
+		switch (measure) {
+		case OVERLAP:
+			similarity = sum == 0.0 ? 0.0 : sum / Math.max(needleSum, sums[row]);
+			break;
+		case COSINE:
+			similarity = sum / (needleNorm * norms[row]);
+			break;
+		case CROSS_CORRELATION:
+			similarity = sum / columns;
+			break;
+		case EUCLIDEAN:
+			similarity = -Math.sqrt(sum);
+			break;
+		case CITY_BLOCK:
+			similarity = 1 - sum / needleSum;
+			break;
+		case BHATTACHARYA:
+			similarity = Math.log(sum);
+			break;
+		default:
+			throw new IllegalArgumentException("Unsupported measure " + measure);
+		}
+		return similarity;
+	}
+
+	// The kernels below use four independent accumulators: the additions do
+	// not wait for each other and the loop bodies can be vectorized.
+
+	private static double sum(final Measure measure, final float[] a, final float[] b, final int bOffset,
+			final int length) {
+		double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+		int i = 0;
+		switch (measure) {
+		case OVERLAP:
+			for (; i + 3 < length; i += 4) {
+				s0 += Math.min(a[i], b[bOffset + i]);
+				s1 += Math.min(a[i + 1], b[bOffset + i + 1]);
+				s2 += Math.min(a[i + 2], b[bOffset + i + 2]);
+				s3 += Math.min(a[i + 3], b[bOffset + i + 3]);
+			}
+			for (; i < length; i++) {
+				s0 += Math.min(a[i], b[bOffset + i]);
+			}
+			break;
+		case COSINE:
+		case CROSS_CORRELATION:
+			for (; i + 3 < length; i += 4) {
+				s0 += a[i] * b[bOffset + i];
+				s1 += a[i + 1] * b[bOffset + i + 1];
+				s2 += a[i + 2] * b[bOffset + i + 2];
+				s3 += a[i + 3] * b[bOffset + i + 3];
+			}
+			for (; i < length; i++) {
+				s0 += a[i] * b[bOffset + i];
+			}
+			break;
+		case EUCLIDEAN:
+			for (; i + 3 < length; i += 4) {
+				final float d0 = a[i] - b[bOffset + i];
+				final float d1 = a[i + 1] - b[bOffset + i + 1];
+				final float d2 = a[i + 2] - b[bOffset + i + 2];
+				final float d3 = a[i + 3] - b[bOffset + i + 3];
+				s0 += d0 * d0;
+				s1 += d1 * d1;
+				s2 += d2 * d2;
+				s3 += d3 * d3;
+			}
+			for (; i < length; i++) {
+				final float d = a[i] - b[bOffset + i];
+				s0 += d * d;
+			}
+			break;
+		case CITY_BLOCK:
+			for (; i + 3 < length; i += 4) {
+				s0 += Math.abs(a[i] - b[bOffset + i]);
+				s1 += Math.abs(a[i + 1] - b[bOffset + i + 1]);
+				s2 += Math.abs(a[i + 2] - b[bOffset + i + 2]);
+				s3 += Math.abs(a[i + 3] - b[bOffset + i + 3]);
+			}
+			for (; i < length; i++) {
+				s0 += Math.abs(a[i] - b[bOffset + i]);
+			}
+			break;
+		case BHATTACHARYA:
+			for (; i < length; i++) {
+				s0 += (float) Math.sqrt(a[i] * b[bOffset + i]);
+			}
+			break;
+		default:
+			throw new IllegalArgumentException("Unsupported measure " + measure);
+		}
+		return s0 + s1 + s2 + s3;
+	}
+
+	/**
+	 * Adds, for each shift, the contribution of each column of a row to the
+	 * sums. The inner loops run over the shifts with the value of the row
+	 * fixed: element wise operations on contiguous arrays, which are
+	 * vectorized. For the overlap the absolute differences are summed, the
+	 * minimum of floats is not vectorized.
+	 */
+	private void accumulate(final Measure measure, final float[] reversed, final float[] matrix,
+			final int rowOffset, final double[] sumsPerShift) {
+		final int n = columns;
+		for (int j = 0; j < n; j++) {
+			final float value = matrix[rowOffset + j];
+			final int offset = n - 1 - j;
+			switch (measure) {
+			case COSINE:
+			case CROSS_CORRELATION:
+				for (int s = 0; s < n; s++) {
+					sumsPerShift[s] += reversed[offset + s] * value;
+				}
+				break;
+			case EUCLIDEAN:
+				for (int s = 0; s < n; s++) {
+					final float difference = reversed[offset + s] - value;
+					sumsPerShift[s] += difference * difference;
+				}
+				break;
+			case OVERLAP:
+			case CITY_BLOCK:
+				for (int s = 0; s < n; s++) {
+					sumsPerShift[s] += Math.abs(reversed[offset + s] - value);
+				}
+				break;
+			case BHATTACHARYA:
+				// the reversed needle holds the square roots
+				final float root = (float) Math.sqrt(value);
+				for (int s = 0; s < n; s++) {
+					sumsPerShift[s] += reversed[offset + s] * root;
+				}
+				break;
+			default:
+				throw new IllegalArgumentException("Unsupported measure " + measure);
+			}
+		}
+	}
+
+	/**
+	 * Creates the work for a block of rows.
+	 */
+	private static interface BlockFactory {
+		Runnable block(int from, int to);
+	}
+
+	private Runnable[] blocks(final long valuesPerRow, final BlockFactory factory) {
+		final long totalValues = valuesPerRow * rows;
+		final int maxBlocks = ExtractionExecutor.numberOfThreads() * BLOCKS_PER_THREAD;
+		final int numberOfBlocks = (int) Math.max(1,
+				Math.min(Math.min(rows, maxBlocks), totalValues / MIN_VALUES_PER_BLOCK));
+		final Runnable[] blocks = new Runnable[numberOfBlocks];
+		for (int block = 0; block < numberOfBlocks; block++) {
+			final int from = (int) ((long) rows * block / numberOfBlocks);
+			final int to = (int) ((long) rows * (block + 1) / numberOfBlocks);
+			blocks[block] = factory.block(from, to);
+		}
+		return blocks;
+	}
+
+	private static void execute(final Runnable[] blocks) {
+		if (blocks.length == 1) {
+			blocks[0].run();
+		} else {
+			final List<Future<?>> futures = new ArrayList<Future<?>>(blocks.length);
+			for (final Runnable block : blocks) {
+				futures.add(ExtractionExecutor.getInstance().submit(block));
+			}
+			try {
+				for (final Future<?> future : futures) {
+					future.get();
+				}
+			} catch (final InterruptedException e) {
+				for (final Future<?> future : futures) {
+					future.cancel(true);
+				}
+				Thread.currentThread().interrupt();
+				LOG.warning("Scoring interrupted, the scores are incomplete.");
+			} catch (final ExecutionException e) {
+				throw new IllegalStateException("Scoring failed.", e.getCause());
+			}
+		}
+	}
+}
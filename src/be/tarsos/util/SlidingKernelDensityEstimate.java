@@ -0,0 +1,216 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+
+package be.tarsos.util;
+
+import be.tarsos.util.KernelDensityEstimate.Kernel;
+
+/**
+ * <p>
+ * Calculates a time series of kernel density estimates, e.g. time-resolved
+ * pitch class profiles. Values are added in time order and are summarized in
+ * windows of a fixed duration, a new window starts every hop. Window
+ * <code>k</code> contains the values with a time in
+ * <code>[k * hop, k * hop + windowDuration[</code>.
+ * </p>
+ * <p>
+ * The estimate is kept up to date incrementally: adding a value adds a kernel,
+ * a value leaving the window removes a kernel again. Each value costs
+ * O(kernel width), independent of the number of bins or the number of values
+ * in a window. The values in the current window are kept in a ring buffer.
+ * </p>
+ * <p>
+ * Each completed window is reported to a {@link WindowHandler}. Windows before
+ * the first value are skipped, windows in a silence between values are
+ * reported as empty estimates. Call {@link #finish()} after the last value to
+ * report the windows that are still open.
+ * </p>
+ * 
+ * @author Joren Six
+ */
+public final class SlidingKernelDensityEstimate {
+
+	/**
+	 * Receives the estimate of each completed window.
+	 */
+	public static interface WindowHandler {
+		/**
+		 * Called for each window, in time order.
+		 * 
+		 * @param windowStart
+		 *            The start of the window in seconds.
+		 * @param windowStop
+		 *            The end of the window in seconds (exclusive).
+		 * @param estimate
+		 *            The estimate for the window. It is updated when the
+		 *            next values are added: use
+		 *            {@link KernelDensityEstimate#getEstimate()} to keep a
+		 *            copy.
+		 */
+		void handleWindow(double windowStart, double windowStop, KernelDensityEstimate estimate);
+	}
+
+	private final KernelDensityEstimate estimate;
+	private final double windowDuration;
+	private final double hop;
+	private final WindowHandler handler;
+
+	/**
+	 * The times and values in the current window, a ring buffer.
+	 */
+	private double[] times;
+	private double[] values;
+	private int head;
+	private int count;
+
+	/**
+	 * The index of the current window, -1 before the first value.
+	 */
+	private long windowIndex;
+	private double windowStart;
+	private double windowStop;
+	private double lastTime;
+
+	/**
+	 * Creates a new sliding window estimate.
+	 * 
+	 * @param kernel
+	 *            The kernel to add for each value.
+	 * @param size
+	 *            The number of bins, 1200 for pitch classes in cents.
+	 * @param windowDuration
+	 *            The duration of a window in seconds.
+	 * @param hop
+	 *            The time between the start of two windows in seconds.
+	 * @param handler
+	 *            Receives the estimate of each window.
+	 */
+	public SlidingKernelDensityEstimate(final Kernel kernel, final int size, final double windowDuration,
+			final double hop, final WindowHandler handler) {
+		if (!(windowDuration > 0) || !(hop > 0)) {
+			throw new IllegalArgumentException("The window duration and hop should be positive.");
+		}
+		this.estimate = new KernelDensityEstimate(kernel, size);
+		this.windowDuration = windowDuration;
+		this.hop = hop;
+		this.handler = handler;
+		times = new double[64];
+		values = new double[64];
+		windowIndex = -1;
+		lastTime = Double.NEGATIVE_INFINITY;
+	}
+
+	/**
+	 * Adds a value. Values should be added in time order.
+	 * 
+	 * @param time
+	 *            The time of the value in seconds.
+	 * @param value
+	 *            The value, e.g. a pitch class in cents.
+	 */
+	public void add(final double time, final double value) {
+		if (time < lastTime) {
+			throw new IllegalArgumentException(String.format(
+					"Values should be added in time order: %.4fs is before %.4fs.", time, lastTime));
+		}
+		lastTime = time;
+		if (windowIndex < 0) {
+			// The first window that contains the value.
+			moveTo(Math.max(0, (long) Math.floor((time - windowDuration) / hop) + 1));
+			while (time >= windowStop) {
+				moveTo(windowIndex + 1);
+			}
+		}
+		while (time >= windowStop) {
+			handler.handleWindow(windowStart, windowStop, estimate);
+			moveTo(windowIndex + 1);
+		}
+		// With a hop larger than the window some values are in no window.
+		if (time >= windowStart) {
+			estimate.add(value);
+			push(time, value);
+		}
+	}
+
+	/**
+	 * Reports the windows that contain values but are not completed yet. The
+	 * estimate is reset afterwards, the next value should not be before the
+	 * last value added.
+	 */
+	public void finish() {
+		if (windowIndex >= 0) {
+			while (windowStart <= lastTime) {
+				handler.handleWindow(windowStart, windowStop, estimate);
+				moveTo(windowIndex + 1);
+			}
+			windowIndex = -1;
+			count = 0;
+			estimate.clear();
+		}
+	}
+
+	/**
+	 * @return The number of values in the current window.
+	 */
+	public int getNumberOfValues() {
+		return count;
+	}
+
+	private void moveTo(final long index) {
+		windowIndex = index;
+		windowStart = index * hop;
+		windowStop = windowStart + windowDuration;
+		boolean removed = false;
+		while (count > 0 && times[head] < windowStart) {
+			estimate.remove(values[head]);
+			head = (head + 1) % times.length;
+			count--;
+			removed = true;
+		}
+		if (removed && count == 0) {
+			// Removes the rounding errors of the subtractions.
+			estimate.clear();
+		}
+	}
+
+	private void push(final double time, final double value) {
+		if (count == times.length) {
+			final double[] newTimes = new double[times.length * 2];
+			final double[] newValues = new double[values.length * 2];
+			for (int i = 0; i < count; i++) {
+				newTimes[i] = times[(head + i) % times.length];
+				newValues[i] = values[(head + i) % values.length];
+			}
+			times = newTimes;
+			values = newValues;
+			head = 0;
+		}
+		final int tail = (head + count) % times.length;
+		times[tail] = time;
+		values[tail] = value;
+		count++;
+	}
+}
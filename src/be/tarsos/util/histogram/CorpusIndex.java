@@ -0,0 +1,590 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+
+package be.tarsos.util.histogram;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import be.tarsos.util.BinaryFiles;
+import be.tarsos.util.ExtractionExecutor;
+
+/**
+ * <p>
+ * A persistent index of tone scale profiles for a corpus of audio (or scala)
+ * files. For each file the peaks of its pitch class histogram are stored
+ * together with the tone scale created from those peaks (see
+ * {@link PitchClassHistogram#createToneScale(double[])}). Ranking a needle
+ * against the corpus then only compares precomputed profiles: no pitch
+ * detection, histogram construction or peak detection is needed at query time.
+ * </p>
+ * <p>
+ * Profiles are keyed by the MD5 hash of the file contents (see
+ * {@link be.tarsos.util.AudioFile#md5()}). A second table maps file names on
+ * hashes: files with the same contents share one profile and a file whose
+ * contents changed is detected and can be indexed again.
+ * </p>
+ * <p>
+ * The index is stored in a versioned binary file (big endian): a header with
+ * the magic number, the version, the name of the pitch detector, the number of
+ * classes of a profile and the number of profiles, then the profiles (hash,
+ * peaks and tone scale), then the number of files followed by a file name and
+ * hash for each file.
+ * </p>
+ * 
+ * @author Joren Six
+ */
+public final class CorpusIndex {
+
+	/**
+	 * Log messages.
+	 */
+	private static final Logger LOG = Logger.getLogger(CorpusIndex.class.getName());
+
+	/**
+	 * Identifies an index file: "TIDX".
+	 */
+	private static final int MAGIC = 0x54494458;
+
+	/**
+	 * The version of the format. Files with another version are ignored.
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * The precomputed data for one file.
+	 */
+	public static final class Profile {
+		private final double[] peaks;
+		private final float[] toneScale;
+		private final double sum;
+
+		private Profile(final double[] peakPositions, final float[] toneScaleProfile) {
+			peaks = peakPositions;
+			toneScale = toneScaleProfile;
+			double total = 0;
+			for (final float value : toneScale) {
+				total += value;
+			}
+			sum = total;
+		}
+
+		/**
+		 * @return The positions of the peaks in cents.
+		 */
+		public double[] getPeaks() {
+			return peaks.clone();
+		}
+
+		/**
+		 * @return The tone scale created from the peaks, as a count for each
+		 *         class of a pitch class histogram.
+		 */
+		public float[] getToneScale() {
+			return toneScale.clone();
+		}
+	}
+
+	/**
+	 * A file in the corpus and its similarity with a needle.
+	 */
+	public static final class Match {
+		private final String fileName;
+		private final double correlation;
+		private final int displacement;
+
+		private Match(final String name, final double score, final int shift) {
+			fileName = name;
+			correlation = score;
+			displacement = shift;
+		}
+
+		/**
+		 * @return The name of the matching file.
+		 */
+		public String getFileName() {
+			return fileName;
+		}
+
+		/**
+		 * @return The correlation with the needle.
+		 */
+		public double getCorrelation() {
+			return correlation;
+		}
+
+		/**
+		 * @return The number of classes the file is displaced to get the
+		 *         correlation with the needle, between
+		 *         <code>-classes/2</code> and <code>classes/2</code>. Zero
+		 *         for a ranking that is not shift invariant.
+		 */
+		public int getDisplacement() {
+			return displacement;
+		}
+	}
+
+	/**
+	 * Orders matches: the highest correlation first, equal correlations are
+	 * ordered by file name. The order is total, which keeps rankings
+	 * deterministic.
+	 */
+	private static final Comparator<Match> BEST_FIRST = new Comparator<Match>() {
+		public int compare(final Match first, final Match second) {
+			int result = Double.compare(second.correlation, first.correlation);
+			if (result == 0) {
+				result = first.fileName.compareTo(second.fileName);
+			}
+			return result;
+		}
+	};
+
+	/**
+	 * The reverse of {@link #BEST_FIRST}: the head of a priority queue
+	 * ordered with it is the worst match.
+	 */
+	private static final Comparator<Match> WORST_FIRST = Collections.reverseOrder(BEST_FIRST);
+
+	/**
+	 * The number of parts the files are split into for each worker thread.
+	 * More parts than threads balance the load.
+	 */
+	private static final int PARTS_PER_THREAD = 4;
+
+	private final String detectorName;
+	private final int numberOfClasses;
+	/**
+	 * MD5 hash to profile.
+	 */
+	private final Map<String, Profile> profiles;
+	/**
+	 * File name to MD5 hash.
+	 */
+	private final Map<String, String> files;
+
+	/**
+	 * Create an empty index.
+	 * 
+	 * @param detector
+	 *            The name of the pitch detector used to create the profiles.
+	 */
+	public CorpusIndex(final String detector) {
+		this(detector, new PitchClassHistogram().getNumberOfClasses());
+	}
+
+	private CorpusIndex(final String detector, final int classes) {
+		detectorName = detector;
+		numberOfClasses = classes;
+		profiles = new HashMap<String, Profile>();
+		files = new LinkedHashMap<String, String>();
+	}
+
+	/**
+	 * Checks if a file is indexed with the current contents.
+	 * 
+	 * @param fileName
+	 *            The name of the file.
+	 * @param md5
+	 *            The hash of the current contents of the file.
+	 * @return True if the file is indexed and its contents did not change.
+	 */
+	public boolean isIndexed(final String fileName, final String md5) {
+		return md5.equals(files.get(fileName)) && profiles.containsKey(md5);
+	}
+
+	/**
+	 * Checks if a profile is available for contents with a hash, e.g. a copy
+	 * of a file that is already indexed.
+	 * 
+	 * @param md5
+	 *            The hash of the contents.
+	 * @return True if a profile for the contents is available.
+	 */
+	public boolean containsProfile(final String md5) {
+		return profiles.containsKey(md5);
+	}
+
+	/**
+	 * Adds a file to the index, or updates its profile if the file changed.
+	 * 
+	 * @param fileName
+	 *            The name of the file.
+	 * @param md5
+	 *            The hash of the contents of the file.
+	 * @param peaks
+	 *            The positions of the peaks of the pitch class histogram of
+	 *            the file, in cents. If null, the profile for the hash should
+	 *            already be available.
+	 */
+	public void put(final String fileName, final String md5, final double[] peaks) {
+		if (peaks != null) {
+			final PitchClassHistogram toneScale = PitchClassHistogram.createToneScale(peaks.clone());
+			final float[] profile = new float[numberOfClasses];
+			for (int i = 0; i < numberOfClasses; i++) {
+				profile[i] = toneScale.getCountForClass(i);
+			}
+			profiles.put(md5, new Profile(peaks.clone(), profile));
+		} else if (!profiles.containsKey(md5)) {
+			throw new IllegalArgumentException("No profile available for " + fileName);
+		}
+		files.put(fileName, md5);
+	}
+
+	/**
+	 * Removes a file from the index.
+	 * 
+	 * @param fileName
+	 *            The file to remove.
+	 */
+	public void remove(final String fileName) {
+		files.remove(fileName);
+	}
+
+	/**
+	 * @param fileName
+	 *            The name of a file.
+	 * @return The profile of the file or null if it is not indexed.
+	 */
+	public Profile getProfile(final String fileName) {
+		final String md5 = files.get(fileName);
+		Profile profile = null;
+		if (md5 != null) {
+			profile = profiles.get(md5);
+		}
+		return profile;
+	}
+
+	/**
+	 * @return The number of indexed files.
+	 */
+	public int size() {
+		return files.size();
+	}
+
+	/**
+	 * @return The name of the pitch detector used to create the profiles.
+	 */
+	public String getDetectorName() {
+		return detectorName;
+	}
+
+	/**
+	 * Ranks the indexed files on similarity with a needle. The similarity is
+	 * the histogram intersection of the tone scales, see {@link Intersection}.
+	 * 
+	 * @param needle
+	 *            The tone scale to look for, a pitch class histogram with the
+	 *            same number of classes as the profiles.
+	 * @param limit
+	 *            The maximum number of matches to return, zero or more.
+	 * @return The best matching files, the best match first.
+	 */
+	public List<Match> query(final PitchClassHistogram needle, final int limit) {
+		return query(needle, limit, null, false);
+	}
+
+	/**
+	 * Ranks a subset of the indexed files on similarity with a needle. The
+	 * files are scored concurrently on the {@link ExtractionExecutor}, each
+	 * worker keeps only its best matches in a bounded heap, so memory use does
+	 * not grow with the size of the corpus. The calling thread waits for the
+	 * result: do not call it from a task on the extraction executor.
+	 * 
+	 * @param needle
+	 *            The tone scale to look for, a pitch class histogram with the
+	 *            same number of classes as the profiles.
+	 * @param limit
+	 *            The maximum number of matches to return, zero or more.
+	 * @param fileNames
+	 *            The files to rank, or null to rank all indexed files. Files
+	 *            that are not indexed are ignored.
+	 * @param shiftInvariant
+	 *            If true, each file is compared at the displacement with the
+	 *            best correlation (see
+	 *            {@link Histogram#displacementForOptimalCorrelation(Histogram)}
+	 *            ) so a transposed tone scale matches. If false the tone
+	 *            scales are compared without displacement.
+	 * @return The best matching files, the best match first. Equal
+	 *         correlations are ordered by file name.
+	 * @throws IllegalArgumentException
+	 *             If the limit is negative or the needle has a different
+	 *             number of classes.
+	 */
+	public List<Match> query(final PitchClassHistogram needle, final int limit, final Set<String> fileNames,
+			final boolean shiftInvariant) {
+		if (limit < 0) {
+			throw new IllegalArgumentException("The limit should be zero or more, it is " + limit + ".");
+		}
+		if (needle.getNumberOfClasses() != numberOfClasses) {
+			throw new IllegalArgumentException("The needle should have " + numberOfClasses + " classes.");
+		}
+		final float[] needleProfile = new float[numberOfClasses];
+		double total = 0;
+		for (int i = 0; i < numberOfClasses; i++) {
+			needleProfile[i] = needle.getCountForClass(i);
+			total += needleProfile[i];
+		}
+		final double needleSum = total;
+
+		final List<String> names = new ArrayList<String>(files.size());
+		final List<Profile> candidates = new ArrayList<Profile>(files.size());
+		for (final Map.Entry<String, String> file : files.entrySet()) {
+			if (fileNames == null || fileNames.contains(file.getKey())) {
+				names.add(file.getKey());
+				candidates.add(profiles.get(file.getValue()));
+			}
+		}
+
+		final int parts = Math.max(1, Math.min(candidates.size(), ExtractionExecutor.numberOfThreads()
+				* PARTS_PER_THREAD));
+		final List<Future<PriorityQueue<Match>>> futures = new ArrayList<Future<PriorityQueue<Match>>>(parts);
+		for (int part = 0; part < parts; part++) {
+			final int from = (int) ((long) candidates.size() * part / parts);
+			final int to = (int) ((long) candidates.size() * (part + 1) / parts);
+			futures.add(ExtractionExecutor.getInstance().submit(new Callable<PriorityQueue<Match>>() {
+				public PriorityQueue<Match> call() {
+					final PriorityQueue<Match> best = new PriorityQueue<Match>(limit + 1, WORST_FIRST);
+					for (int i = from; i < to; i++) {
+						final Profile profile = candidates.get(i);
+						final Match match;
+						if (shiftInvariant) {
+							match = optimalIntersection(names.get(i), needleProfile, needleSum, profile);
+						} else {
+							match = new Match(names.get(i), intersection(needleProfile, needleSum,
+									profile.toneScale, profile.sum), 0);
+						}
+						offer(best, match, limit);
+					}
+					return best;
+				}
+			}));
+		}
+
+		final PriorityQueue<Match> best = new PriorityQueue<Match>(limit + 1, WORST_FIRST);
+		try {
+			for (final Future<PriorityQueue<Match>> future : futures) {
+				for (final Match match : future.get()) {
+					offer(best, match, limit);
+				}
+			}
+		} catch (final InterruptedException e) {
+			for (final Future<PriorityQueue<Match>> future : futures) {
+				future.cancel(true);
+			}
+			Thread.currentThread().interrupt();
+			LOG.warning("Ranking interrupted, the result is incomplete.");
+		} catch (final ExecutionException e) {
+			throw new IllegalStateException("Ranking failed.", e.getCause());
+		}
+		final List<Match> matches = new ArrayList<Match>(best);
+		Collections.sort(matches, BEST_FIRST);
+		return matches;
+	}
+
+	/**
+	 * Adds a match to a bounded heap, if it is better than the worst match in
+	 * a full heap.
+	 */
+	private static void offer(final PriorityQueue<Match> best, final Match match, final int limit) {
+		if (best.size() < limit) {
+			best.add(match);
+		} else if (limit > 0 && BEST_FIRST.compare(match, best.peek()) < 0) {
+			best.poll();
+			best.add(match);
+		}
+	}
+
+	/**
+	 * The intersection at the displacement with the best correlation. As in
+	 * {@link Histogram#displacementForOptimalCorrelation(Histogram)} the
+	 * first best displacement is used, and displacements of more than half
+	 * the number of classes are negative.
+	 */
+	private static Match optimalIntersection(final String fileName, final float[] needle, final double needleSum,
+			final Profile profile) {
+		final float[] other = profile.toneScale;
+		final int classes = needle.length;
+		final double biggestArea = Math.max(needleSum, profile.sum);
+		double maximumCorrelation = -1;
+		int optimalDisplacement = 0;
+		for (int displacement = 0; displacement < classes; displacement++) {
+			double matchingArea = 0.0;
+			final int wrap = classes - displacement;
+			for (int i = 0; i < wrap; i++) {
+				matchingArea += Math.min(needle[i], other[i + displacement]);
+			}
+			for (int i = wrap; i < classes; i++) {
+				matchingArea += Math.min(needle[i], other[i - wrap]);
+			}
+			double correlation = 0.0;
+			if (matchingArea != 0.0) {
+				correlation = matchingArea / biggestArea;
+			}
+			if (maximumCorrelation < correlation) {
+				maximumCorrelation = correlation;
+				optimalDisplacement = displacement;
+			}
+		}
+		if (optimalDisplacement > classes / 2.0) {
+			optimalDisplacement = optimalDisplacement - classes;
+		}
+		return new Match(fileName, maximumCorrelation, optimalDisplacement);
+	}
+
+	/**
+	 * The histogram intersection of two profiles without displacement, the
+	 * same as {@link Intersection} for histograms.
+	 */
+	private static double intersection(final float[] first, final double firstSum, final float[] second,
+			final double secondSum) {
+		double matchingArea = 0.0;
+		for (int i = 0; i < first.length; i++) {
+			matchingArea += Math.min(first[i], second[i]);
+		}
+		double correlation = 0.0;
+		if (matchingArea != 0.0) {
+			correlation = matchingArea / Math.max(firstSum, secondSum);
+		}
+		return correlation;
+	}
+
+	/**
+	 * Writes the index to a file. The index is written to a temporary file
+	 * first, so an interrupted write does not corrupt an existing index, see
+	 * {@link BinaryFiles#write(File, BinaryFiles.Writer)}. Profiles no longer
+	 * used by any file are not written.
+	 * 
+	 * @param fileName
+	 *            The file to write to.
+	 */
+	public void write(final String fileName) {
+		final Set<String> usedHashes = new HashSet<String>(files.values());
+		BinaryFiles.write(new File(fileName), new BinaryFiles.Writer() {
+			public void write(final DataOutputStream out) throws IOException {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				BinaryFiles.writeString(out, detectorName);
+				out.writeInt(numberOfClasses);
+				out.writeInt(usedHashes.size());
+				for (final String md5 : usedHashes) {
+					final Profile profile = profiles.get(md5);
+					BinaryFiles.writeString(out, md5);
+					out.writeInt(profile.peaks.length);
+					for (final double peak : profile.peaks) {
+						out.writeDouble(peak);
+					}
+					for (final float value : profile.toneScale) {
+						out.writeFloat(value);
+					}
+				}
+				out.writeInt(files.size());
+				for (final Map.Entry<String, String> file : files.entrySet()) {
+					BinaryFiles.writeString(out, file.getKey());
+					BinaryFiles.writeString(out, file.getValue());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Reads an index from a file.
+	 * 
+	 * @param fileName
+	 *            The file to read.
+	 * @param detector
+	 *            The name of the pitch detector that should have been used to
+	 *            create the profiles.
+	 * @return The index in the file, or an empty index if the file does not
+	 *         exist, is not valid, was created with another detector or
+	 *         another histogram configuration.
+	 */
+	public static CorpusIndex read(final String fileName, final String detector) {
+		CorpusIndex index = null;
+		final File file = new File(fileName);
+		if (file.exists()) {
+			try {
+				index = read(BinaryFiles.read(file), detector);
+			} catch (final IOException e) {
+				LOG.log(Level.WARNING, "Could not read corpus index " + fileName, e);
+			} catch (final RuntimeException e) {
+				// Truncated file.
+				LOG.log(Level.WARNING, "Corrupt corpus index " + fileName, e);
+				index = null;
+			}
+		}
+		if (index == null) {
+			index = new CorpusIndex(detector);
+		}
+		return index;
+	}
+
+	private static CorpusIndex read(final ByteBuffer buffer, final String detector) throws IOException {
+		CorpusIndex index = null;
+		if (buffer.getInt() == MAGIC && buffer.getInt() == VERSION
+				&& BinaryFiles.readString(buffer).equals(detector)) {
+			final int classes = buffer.getInt();
+			if (classes == new PitchClassHistogram().getNumberOfClasses()) {
+				index = new CorpusIndex(detector, classes);
+				final int numberOfProfiles = buffer.getInt();
+				for (int i = 0; i < numberOfProfiles; i++) {
+					final String md5 = BinaryFiles.readString(buffer);
+					final double[] peaks = new double[BinaryFiles.readLength(buffer, 8)];
+					buffer.asDoubleBuffer().get(peaks);
+					buffer.position(buffer.position() + peaks.length * 8);
+					final float[] toneScale = new float[classes];
+					buffer.asFloatBuffer().get(toneScale);
+					buffer.position(buffer.position() + classes * 4);
+					index.profiles.put(md5, new Profile(peaks, toneScale));
+				}
+				final int numberOfFiles = buffer.getInt();
+				for (int i = 0; i < numberOfFiles; i++) {
+					final String fileName = BinaryFiles.readString(buffer);
+					index.files.put(fileName, BinaryFiles.readString(buffer));
+				}
+			} else {
+				LOG.info("Histogram configuration changed, the corpus index is rebuilt.");
+			}
+		}
+		return index;
+	}
+}
@@ -26,15 +26,17 @@
 package be.tarsos.util.histogram;
 
 import java.text.NumberFormat;
-import java.util.ArrayList;
+import java.util.AbstractSet;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.TreeMap;
 import java.util.logging.Logger;
 
 import org.apache.commons.math.stat.StatUtils;
 
+import be.tarsos.util.CircularCorrelation;
 import be.tarsos.util.FileUtils;
 
 /**
@@ -45,10 +47,10 @@ import be.tarsos.util.FileUtils;
  * {[0,1[;[1,2[;[2,3[;[3,4];[4,5[} with [0,1[ meaning the interval between 0
  * inclusive and 1 exclusive.
  * <p>
- * The histogram uses a red and black tree as underlying structure: Search,
- * insert and delete are O(LOG n). The tree keeps the keys in order and makes
- * iteration (in order) easy. Optimization is possible by replacing the tree
- * with arrays.
+ * The histogram uses two plain arrays as underlying structure: one with the
+ * (ordered) keys and one with the count for each class. The class of a value
+ * is found with a calculation, so adding a value or looking up a count is
+ * O(1) and no objects are created.
  * </p>
  * <p>
  * The histogram uses doubles as key values. Java doubles are prone to rounding
@@ -73,11 +75,18 @@ public class Histogram implements Cloneable {
 	 */
 	private final int numberOfClasses;
 	/**
-	 * A red black tree backing the frequency table, easy to iterate (in order)
-	 * TODO Optimization: serious optimization possible by using a plain array
-	 * (or two).
+	 * The key (middle) of each class, in order.
 	 */
-	private final TreeMap<Double, Long> freqTable;
+	private final double[] keys;
+	/**
+	 * The number of items in each class. Not final because a clone needs its
+	 * own copy.
+	 */
+	private long[] counts;
+	/**
+	 * A read only view on the keys.
+	 */
+	private final Set<Double> keySet;
 	/**
 	 * The starting value != the first class middle start == the first class
 	 * middle - classWidth / 2.
@@ -142,7 +151,6 @@ public class Histogram implements Cloneable {
 		this.classWidth = preventRoundingErrors((stopVal - startVal) / totalClasses);
 		this.start = startVal;
 		this.stop = stopVal;
-		this.freqTable = new TreeMap<Double, Long>();
 		this.wraps = wrapping;
 		this.ignoreValuesOutsideRange = ignoreOutsideRange;
 
@@ -154,13 +162,19 @@ public class Histogram implements Cloneable {
 		} else {
 			stopValue = lastKey + getClassWidth() / 2;
 		}
-		freqTable.put(preventRoundingErrors(startVal + getClassWidth() / 2), 0L);
+		int classes = 0;
 		for (double current = startVal + getClassWidth() / 2; current <= stopValue;) {
-			freqTable.put(valueToKey(current), 0L);
+			classes++;
 			current = current + getClassWidth();
 		}
+		this.numberOfClasses = Math.max(1, classes);
 
-		this.numberOfClasses = freqTable.keySet().size();
+		this.keys = new double[numberOfClasses];
+		for (int i = 0; i < numberOfClasses; i++) {
+			keys[i] = preventRoundingErrors(start + i * classWidth + classWidth / 2.0);
+		}
+		this.counts = new long[numberOfClasses];
+		this.keySet = new KeySet(keys);
 	}
 
 	/**
@@ -241,15 +255,7 @@ public class Histogram implements Cloneable {
 	 * @return the key for class with index bufferCount
 	 */
 	public final double getKeyForClass(final int i) {
-		int classIndex = i;
-		// make sure classIndex is positive
-		while (classIndex < 0) {
-			classIndex += getNumberOfClasses();
-		}
-		// make sure bufferCount is within range
-		classIndex = classIndex % getNumberOfClasses();
-		final double key = getStart() + classIndex * getClassWidth() + getClassWidth() / 2.0;
-		return preventRoundingErrors(key);
+		return keys[wrapClassIndex(i)];
 	}
 
 	/**
@@ -262,16 +268,67 @@ public class Histogram implements Cloneable {
 	 * @return the number of items in bin with index bufferCount
 	 */
 	public final long getCountForClass(final int i) {
-		return getCount(getKeyForClass(i));
+		return counts[wrapClassIndex(i)];
+	}
+
+	/**
+	 * Maps a class index to the interval <code>[0,getNumberOfClasses()[</code>
+	 * using a modulo calculation.
+	 */
+	private int wrapClassIndex(final int i) {
+		final int classIndex = i % numberOfClasses;
+		return classIndex < 0 ? classIndex + numberOfClasses : classIndex;
 	}
 
 	/**
-	 * @return the set with histogram keys; Do not add keys to the set directly.
-	 *         Use histogram methods instead. For performance reasons it is not
-	 *         wrapped in an immutable set so handle with care.
+	 * @return the ordered set with histogram keys. The set is read only: use
+	 *         histogram methods to change the counts.
 	 */
 	public final Set<Double> keySet() {
-		return freqTable.keySet();
+		return keySet;
+	}
+
+	/**
+	 * A read only set view on the ordered array with keys.
+	 */
+	private static final class KeySet extends AbstractSet<Double> {
+		private final double[] keys;
+
+		private KeySet(final double[] keys) {
+			this.keys = keys;
+		}
+
+		@Override
+		public Iterator<Double> iterator() {
+			return new Iterator<Double>() {
+				private int index = 0;
+
+				public boolean hasNext() {
+					return index < keys.length;
+				}
+
+				public Double next() {
+					if (index >= keys.length) {
+						throw new NoSuchElementException();
+					}
+					return keys[index++];
+				}
+
+				public void remove() {
+					throw new UnsupportedOperationException("The keys of a histogram are fixed.");
+				}
+			};
+		}
+
+		@Override
+		public int size() {
+			return keys.length;
+		}
+
+		@Override
+		public boolean contains(final Object o) {
+			return o instanceof Double && Arrays.binarySearch(keys, (Double) o) >= 0;
+		}
 	}
 
 	/**
@@ -295,11 +352,9 @@ public class Histogram implements Cloneable {
 		}
 
 		if (value > 0) {
-			final double key = valueToKey(value);
-			final Long count = freqTable.get(key);
-			assert count != null : "All key values should be initialized, " + key + " is not.";
-			if (count != null) {
-				freqTable.put(key, Long.valueOf(count.longValue() + 1));
+			final int index = valueToIndex(value);
+			if (index != -1) {
+				counts[index]++;
 			}
 		} else {
 			LOG.warning("Using values below zero in is not tested, "
@@ -338,37 +393,38 @@ public class Histogram implements Cloneable {
 	}
 
 	/**
-	 * returns the key for a value. E.g. if the bin width is 1 then
-	 * valueToKey(3.2) returns 3.5
+	 * Returns the index of the class a value belongs to. E.g. if the histogram
+	 * starts at 0 and the bin width is 1 then valueToIndex(3.2) returns 3, the
+	 * index of the class with key 3.5.
 	 * 
 	 * @param value
-	 *            the value to get the key to
-	 * @return the key closest to the value
+	 *            the value to get the class index for
+	 * @return the index of the class or -1 if the histogram does not wrap and
+	 *         the value lays outside the range of the histogram.
 	 */
-	private double valueToKey(final double value) {
+	private int valueToIndex(final double value) {
 		// TODO remove the value below zero limitation
 		// by changing the wraps modulo calculation and test
 		if (value < 0) {
 			throw new IllegalArgumentException("Currently no values below zero are accepted");
 		}
 
-		double roundedValue = value;
+		double offset = value - start;
 		if (wraps) {
 			final double interval = stop - start;
-			while (roundedValue < freqTable.firstKey()) {
-				roundedValue = preventRoundingErrors(roundedValue + interval);
+			offset = offset % interval;
+			if (offset < 0) {
+				offset += interval;
 			}
-			roundedValue = preventRoundingErrors(start + (roundedValue - start) % interval);
 		}
 
-		// assert validValue(roundedValue);
-
-		final double classes = Math.floor((roundedValue + start) / classWidth);
-		final double offset = classWidth / 2 - start;
-		final double key = preventRoundingErrors(classes * classWidth + offset);
-		// assert key >= freqTable.firstKey();
-		// assert key <= freqTable.lastKey();
-		return key;
+		int index = (int) Math.floor(offset / classWidth);
+		if (index >= numberOfClasses || offset < 0) {
+			// The class width is rounded down: with wrapping the last bit of
+			// the interval belongs to the last class.
+			index = wraps && offset >= 0 ? numberOfClasses - 1 : -1;
+		}
+		return index;
 	}
 
 	/**
@@ -379,18 +435,14 @@ public class Histogram implements Cloneable {
 	 * @return the frequency of v.
 	 */
 	public final long getCount(final double value) {
-		final double key = valueToKey(value);
-		long result = 0;
-		final Long count = freqTable.get(key);
-		if (count != null) {
-			result = count.longValue();
-		}
-		return result;
+		final int index = valueToIndex(value);
+		return index == -1 ? 0 : counts[index];
 	}
 
 	/**
 	 * Sets the number of values for a key (bin) The value is automatically
-	 * mapped to a key.
+	 * mapped to a key. If the histogram does not wrap, values outside its
+	 * range are ignored.
 	 * 
 	 * @param value
 	 *            the value mapped to a key of the class to set the count for.
@@ -398,8 +450,10 @@ public class Histogram implements Cloneable {
 	 *            the number of items in the bin
 	 */
 	public final void setCount(final double value, final long count) {
-		final double key = valueToKey(value);
-		freqTable.put(key, count);
+		final int index = valueToIndex(value);
+		if (index != -1) {
+			counts[index] = count;
+		}
 	}
 
 	/**
@@ -423,7 +477,7 @@ public class Histogram implements Cloneable {
 	 * @return the starting value
 	 */
 	public final double getStart() {
-		// assert Math.abs(start - freqTable.firstKey() - classWidth / 2.0) <
+		// assert Math.abs(start - keys[0] - classWidth / 2.0) <
 		// 0.0001;
 		return start;
 	}
@@ -435,7 +489,7 @@ public class Histogram implements Cloneable {
 	 * @return the stop value
 	 */
 	public double getStop() {
-		// assert Math.abs(stop - freqTable.lastKey() + classWidth / 2.0) <
+		// assert Math.abs(stop - keys[numberOfClasses - 1] + classWidth / 2.0) <
 		// 0.001;
 		// stop is cached for performance reasons
 		return stop;
@@ -455,7 +509,7 @@ public class Histogram implements Cloneable {
 	 *         {@link Histogram#lastValidValue()}]
 	 */
 	private double firstValidValue() {
-		return this.freqTable.firstKey() - classWidth / 2.0;
+		return keys[0] - classWidth / 2.0;
 	}
 
 	/**
@@ -464,7 +518,7 @@ public class Histogram implements Cloneable {
 	 *         {@link Histogram#lastValidValue()}]
 	 */
 	private double lastValidValue() {
-		return this.freqTable.lastKey() + classWidth / 2.0;
+		return keys[numberOfClasses - 1] + classWidth / 2.0;
 	}
 
 	/**
@@ -497,30 +551,25 @@ public class Histogram implements Cloneable {
 		long cumulativeFreq = -1;
 		if (getSumFreq() == 0) {
 			cumulativeFreq = 0;
-		} else if (v.compareTo(freqTable.firstKey()) < 0) {
+		} else if (v.compareTo(keys[0]) < 0) {
 			cumulativeFreq = 0;
-		} else if (v.compareTo(freqTable.lastKey()) >= 0) {
+		} else if (v.compareTo(keys[numberOfClasses - 1]) >= 0) {
 			cumulativeFreq = getSumFreq();
 		} else {
-
-			// the frequency of this key
+			// the frequency of this key, if v is a key
+			int index = Arrays.binarySearch(keys, v);
 			long result = 0;
-			final Long value = freqTable.get(v);
-			if (value != null) {
-				result = value.longValue();
+			if (index >= 0) {
+				result = counts[index];
+			} else {
+				index = -index - 1;
 			}
 
-			// add the frequencies of values smaller than this key
-			final Iterator<Double> values = freqTable.keySet().iterator();
-			while (values.hasNext()) {
-				final Double nextValue = values.next();
-				if (v.compareTo(nextValue) > 0) {
-					result += getCount(nextValue);
-				} else {
-					cumulativeFreq = result;
-					break;
-				}
+			// add the frequencies of keys smaller than v
+			for (int i = 0; i < index; i++) {
+				result += counts[i];
 			}
+			cumulativeFreq = result;
 		}
 		if (cumulativeFreq == -1) {
 			throw new AssertionError("The key is greather than te last key but this is impossible."
@@ -559,9 +608,8 @@ public class Histogram implements Cloneable {
 	 */
 	public long getSumFreq() {
 		long result = 0;
-		final Iterator<Long> iterator = freqTable.values().iterator();
-		while (iterator.hasNext()) {
-			result += iterator.next().longValue();
+		for (int i = 0; i < numberOfClasses; i++) {
+			result += counts[i];
 		}
 		return result;
 	}
@@ -574,9 +622,8 @@ public class Histogram implements Cloneable {
 	 */
 	public long getAbsoluteSumFreq() {
 		long result = 0;
-		final Iterator<Long> iterator = freqTable.values().iterator();
-		while (iterator.hasNext()) {
-			result += Math.abs(iterator.next().longValue());
+		for (int i = 0; i < numberOfClasses; i++) {
+			result += Math.abs(counts[i]);
 		}
 		return result;
 	}
@@ -642,10 +689,8 @@ public class Histogram implements Cloneable {
 	 */
 	public double getMean() {
 		final double[] binCounts = new double[this.getNumberOfClasses() + 1];
-		int i = 0;
-		for (final double key : this.keySet()) {
-			binCounts[i] = this.getCount(key);
-			i++;
+		for (int i = 0; i < numberOfClasses; i++) {
+			binCounts[i] = counts[i];
 		}
 		return StatUtils.mean(binCounts);
 	}
@@ -659,10 +704,8 @@ public class Histogram implements Cloneable {
 	 */
 	public double getMedian() {
 		final double[] binCounts = new double[this.getNumberOfClasses() + 1];
-		int i = 0;
-		for (final double key : this.keySet()) {
-			binCounts[i] = this.getCount(key);
-			i++;
+		for (int i = 0; i < numberOfClasses; i++) {
+			binCounts[i] = counts[i];
 		}
 		return StatUtils.percentile(binCounts, 50);
 	}
@@ -695,7 +738,7 @@ public class Histogram implements Cloneable {
 		if (asciiArt) {
 			final StringBuffer outBuffer = new StringBuffer();
 			outBuffer.append('\n');
-			final Iterator<Double> iter = freqTable.keySet().iterator();
+			final Iterator<Double> iter = keySet.iterator();
 			while (iter.hasNext()) {
 				final Double value = iter.next();
 				outBuffer.append(value).append("\t\t|");
@@ -710,7 +753,7 @@ public class Histogram implements Cloneable {
 			final NumberFormat nf = NumberFormat.getPercentInstance();
 			final StringBuffer outBuffer = new StringBuffer();
 			outBuffer.append("\nValue \t Freq. \t Pct. \t Cum Pct. \n");
-			final Iterator<Double> iter = freqTable.keySet().iterator();
+			final Iterator<Double> iter = keySet.iterator();
 			while (iter.hasNext()) {
 				final Double value = iter.next();
 				outBuffer.append(value);
@@ -743,14 +786,10 @@ public class Histogram implements Cloneable {
 	 * @return a Histogram with normalized peak.
 	 */
 	public Histogram normalize() {
-		final List<Long> normalizedCounts = new ArrayList<Long>();
-		for (final double key : freqTable.keySet()) {
-			normalizedCounts.add((long) (getPct(key) * 10000));
-		}
-		int index = 0;
-		for (final double key : freqTable.keySet()) {
-			this.setCount(key, normalizedCounts.get(index));
-			index++;
+		final double sumFreq = getSumFreq();
+		for (int i = 0; i < numberOfClasses; i++) {
+			// an empty histogram stays empty
+			counts[i] = sumFreq == 0 ? 0 : (long) (counts[i] / sumFreq * 10000);
 		}
 		return this;
 	}
@@ -771,8 +810,8 @@ public class Histogram implements Cloneable {
 	public Histogram addToEachBin(final long value) {
 		// do nothing if value == 0
 		if (value != 0) {
-			for (final double key : freqTable.keySet()) {
-				this.setCount(key, getCount(key) + value);
+			for (int i = 0; i < numberOfClasses; i++) {
+				counts[i] += value;
 			}
 		}
 		return this;
@@ -798,8 +837,8 @@ public class Histogram implements Cloneable {
 	 */
 	public Histogram baselineHistogram() {
 		long smallestValue = Long.MAX_VALUE;
-		for (final double key : freqTable.keySet()) {
-			smallestValue = Math.min(getCount(key), smallestValue);
+		for (int i = 0; i < numberOfClasses; i++) {
+			smallestValue = Math.min(counts[i], smallestValue);
 		}
 		final long valueToAdd = (long) -1.0 * smallestValue;
 		return addToEachBin(valueToAdd);
@@ -821,11 +860,11 @@ public class Histogram implements Cloneable {
 	 *         the bins.
 	 */
 	public Histogram add(final Histogram other) {
-		assert freqTable.keySet().size() == other.keySet().size();
+		assert numberOfClasses == other.numberOfClasses;
 		assert start == other.start;
 		assert stop == other.stop;
-		for (final double key : freqTable.keySet()) {
-			this.setCount(key, this.getCount(key) + other.getCount(key));
+		for (int i = 0; i < numberOfClasses; i++) {
+			counts[i] += other.getCount(keys[i]);
 		}
 		return this;
 	}
@@ -848,13 +887,12 @@ public class Histogram implements Cloneable {
 	 *         the bins.
 	 */
 	public Histogram add(final Histogram other,final int offset) {
-		assert freqTable.keySet().size() == other.keySet().size();
+		assert numberOfClasses == other.numberOfClasses;
 		assert start == other.start;
 		assert stop == other.stop;
-		final int size = keySet().size();
-		Double[] keys = this.keySet().toArray(new Double[size]);
-		for(int i = 0 ; i < other.keySet().size() ; i++){			
-			this.setCount(keys[i], this.getCount(keys[i]) + other.getCount(keys[(size+i+offset)%size]));
+		final int size = numberOfClasses;
+		for (int i = 0; i < other.numberOfClasses; i++) {
+			counts[i] += other.getCount(keys[(size + i + offset) % size]);
 		}
 		return this;
 	}
@@ -870,11 +908,11 @@ public class Histogram implements Cloneable {
 	 *         histogram, not a new one.
 	 */
 	public Histogram max(final Histogram other){
-		assert freqTable.keySet().size() == other.keySet().size();
+		assert numberOfClasses == other.numberOfClasses;
 		assert start == other.start;
 		assert stop == other.stop;
-		for (final double key : freqTable.keySet()) {
-			this.setCount(key, Math.max(this.getCount(key),other.getCount(key)));
+		for (int i = 0; i < numberOfClasses; i++) {
+			counts[i] = Math.max(counts[i], other.getCount(keys[i]));
 		}
 		return this;
 	}
@@ -926,8 +964,8 @@ public class Histogram implements Cloneable {
 	 * @return histogram with each bin value multiplied by the factor.
 	 */
 	public Histogram multiply(final double factor) {
-		for (final double key : this.freqTable.keySet()) {
-			this.setCount(key, Math.round(this.getCount(key) * factor));
+		for (int i = 0; i < numberOfClasses; i++) {
+			counts[i] = Math.round(counts[i] * factor);
 		}
 		return this;
 	}
@@ -946,8 +984,8 @@ public class Histogram implements Cloneable {
 	 * @return Histogram with each bin count raised with exponent.
 	 */
 	public Histogram raise(final double exponent) {
-		for (final double key : this.freqTable.keySet()) {
-			this.setCount(key, Math.round(Math.pow(this.getCount(key), exponent)));
+		for (int i = 0; i < numberOfClasses; i++) {
+			counts[i] = Math.round(Math.pow(counts[i], exponent));
 		}
 		return this;
 	}
@@ -961,9 +999,8 @@ public class Histogram implements Cloneable {
 	@Override
 	public Histogram clone() throws CloneNotSupportedException {
 		final Histogram clone = (Histogram) super.clone();
-		for (final double key : this.freqTable.keySet()) {
-			clone.setCount(key, this.getCount(key));
-		}
+		// The keys are shared, the counts are copied.
+		clone.counts = counts.clone();
 		return clone;
 	}
 
@@ -982,7 +1019,8 @@ public class Histogram implements Cloneable {
 		if (!histograms.isEmpty()) {
 			final Histogram first = histograms.get(0);
 			mean = new Histogram(first);
-			for (final double key : first.freqTable.keySet()) {
+			for (int i = 0; i < first.numberOfClasses; i++) {
+				final double key = first.keys[i];
 				final double[] values = new double[histograms.size()];
 				int countIndex = 0;
 				for (final Histogram h : histograms) {
@@ -993,8 +1031,7 @@ public class Histogram implements Cloneable {
 					values[countIndex] = h.getCount(key);
 					countIndex++;
 				}
-				final long currentMean = Math.round(StatUtils.mean(values));
-				mean.setCount(key, currentMean);
+				mean.counts[i] = Math.round(StatUtils.mean(values));
 			}
 		}
 		return mean;
@@ -1080,7 +1117,7 @@ public class Histogram implements Cloneable {
 				double weightTotal = 0;
 				for (int i = min; i < max; i++) {
 					final double w = weights[offset++];
-					acc += getCountForClass(i) * w;
+					acc += counts[i] * w;
 					weightTotal += w;
 				}
 
@@ -1099,7 +1136,7 @@ public class Histogram implements Cloneable {
 				// Accumulate the total for the range.
 				int acc = 0;
 				for (int i = min; i < max; i++) {
-					acc += getCountForClass(i);
+					acc += counts[i];
 				}
 
 				// Calculate the average for the range.
@@ -1114,9 +1151,7 @@ public class Histogram implements Cloneable {
 		// the same as for the same band of the original histogram.
 		final double factor = getSumFreq() / (double) sum;
 		for (int b = 0; b < numberOfClasses; b++) {
-			final int smoothedCount = (int) (smoothedCounts[b] * factor + 0.5);
-			final double key = getKeyForClass(b);
-			this.setCount(key, smoothedCount);
+			counts[b] = (int) (smoothedCounts[b] * factor + 0.5);
 		}
 
 		return this;
@@ -1192,7 +1227,7 @@ public class Histogram implements Cloneable {
 			double weightTotal = 0;
 			for (int i = min; i < max; i++) {
 				final double w = weights[offset++];
-				acc += getCountForClass(i) * w;
+				acc += counts[i] * w;
 				weightTotal += w;
 			}
 
@@ -1207,9 +1242,7 @@ public class Histogram implements Cloneable {
 		// the same as for the same band of the original histogram.
 		final double factor = getSumFreq() / (double) sum;
 		for (int b = 0; b < numberOfClasses; b++) {
-			final int smoothedCount = (int) (smoothedCounts[b] * factor + 0.5);
-			final double key = getKeyForClass(b);
-			this.setCount(key, smoothedCount);
+			counts[b] = (int) (smoothedCounts[b] * factor + 0.5);
 		}
 		return this;
 	}
@@ -1226,18 +1259,11 @@ public class Histogram implements Cloneable {
 	}
 
 	public void displace(final int displacement) {
-		try {
-			Histogram original = clone();
-			// Makes sure the displacement is positive.
-			final int actualDisplacement = (displacement + numberOfClasses) % numberOfClasses;
-
-			for (final double key : freqTable.keySet()) {
-				final double displacedValue = (key + actualDisplacement * classWidth)
-						% (numberOfClasses * classWidth);
-				this.setCount(key, original.getCount(displacedValue));
-			}
-		} catch (CloneNotSupportedException e) {
-			throw new AssertionError("Cloning a histogram is supported!");
+		final long[] original = counts.clone();
+		// Makes sure the displacement is positive.
+		final int actualDisplacement = wrapClassIndex(displacement);
+		for (int i = 0; i < numberOfClasses; i++) {
+			counts[i] = original[(i + actualDisplacement) % numberOfClasses];
 		}
 	}
 
@@ -1297,13 +1323,40 @@ public class Histogram implements Cloneable {
 		double maximumCorrelation = -1; // best found correlation
 		final int numberOfClasses = getNumberOfClasses();
 
-		// current displacement, incremented with class width
-		for (int currentDisplacement = 0; currentDisplacement < numberOfClasses; currentDisplacement++) {
-			final double currentCorrelation = correlationWithDisplacement(currentDisplacement,
-					otherHistogram, correlationMeasure);
-			if (maximumCorrelation < currentCorrelation) {
-				maximumCorrelation = currentCorrelation;
-				optimalDisplacement = currentDisplacement;
+		if (sameLayout(otherHistogram) && isSumOfProducts(correlationMeasure)) {
+			// The cross-correlation is monotone with the correlation measure:
+			// only displacements within the precision of the FFT of the
+			// maximum can be optimal, the correlation is calculated exactly
+			// for those.
+			final boolean squareRoot = correlationMeasure == CorrelationMeasure.BHATTACHARYA;
+			final double[] first = countsAsDoubles(squareRoot);
+			final double[] second = otherHistogram.countsAsDoubles(squareRoot);
+			final double[] crossCorrelation = CircularCorrelation.crossCorrelation(first, second);
+			double maximum = Double.NEGATIVE_INFINITY;
+			for (final double value : crossCorrelation) {
+				maximum = Math.max(maximum, value);
+			}
+			final double threshold = maximum - CircularCorrelation.tolerance(first, second);
+			for (int currentDisplacement = 0; currentDisplacement < numberOfClasses; currentDisplacement++) {
+				// NaN values (and thresholds) are calculated exactly
+				if (!(crossCorrelation[currentDisplacement] < threshold)) {
+					final double currentCorrelation = correlationWithDisplacement(currentDisplacement,
+							otherHistogram, correlationMeasure);
+					if (maximumCorrelation < currentCorrelation) {
+						maximumCorrelation = currentCorrelation;
+						optimalDisplacement = currentDisplacement;
+					}
+				}
+			}
+		} else {
+			final double[] profile = correlationProfile(otherHistogram, correlationMeasure);
+			// current displacement, incremented with class width
+			for (int currentDisplacement = 0; currentDisplacement < numberOfClasses; currentDisplacement++) {
+				final double currentCorrelation = profile[currentDisplacement];
+				if (maximumCorrelation < currentCorrelation) {
+					maximumCorrelation = currentCorrelation;
+					optimalDisplacement = currentDisplacement;
+				}
 			}
 		}
 		if (optimalDisplacement > getNumberOfClasses() / 2.0) {
@@ -1313,6 +1366,98 @@ public class Histogram implements Cloneable {
 		return optimalDisplacement;
 	}
 
+	/**
+	 * Returns the correlation with the other histogram for each displacement
+	 * of the other histogram, so
+	 * <code>profile[d] == correlationWithDisplacement(d, other, measure)</code>
+	 * for d in <code>[0,getNumberOfClasses()[</code>.
+	 * <p>
+	 * The measures that are a sum of products of the bin counts (cross
+	 * correlation, euclidean and Bhattacharya) are calculated for all
+	 * displacements at once with an FFT in O(n log n), up to the float
+	 * precision of the FFT, see {@link CircularCorrelation}. For the euclidean
+	 * distance the error is the square root of the error of the FFT. The
+	 * intersection and city block distance are not linear: they are calculated
+	 * exactly for each displacement.
+	 * </p>
+	 * 
+	 * @param otherHistogram
+	 *            The other histogram.
+	 * @param correlationMeasure
+	 *            The correlation strategy.
+	 * @return The correlation for each displacement.
+	 */
+	public double[] correlationProfile(final Histogram otherHistogram, final CorrelationMeasure correlationMeasure) {
+		final double[] profile = new double[numberOfClasses];
+		if (sameLayout(otherHistogram) && isSumOfProducts(correlationMeasure)) {
+			final boolean squareRoot = correlationMeasure == CorrelationMeasure.BHATTACHARYA;
+			final double[] first = countsAsDoubles(squareRoot);
+			final double[] second = otherHistogram.countsAsDoubles(squareRoot);
+			final double[] crossCorrelation = CircularCorrelation.crossCorrelation(first, second);
+			double squaredSum = 0;
+			for (int i = 0; i < numberOfClasses; i++) {
+				squaredSum += first[i] * first[i] + second[i] * second[i];
+			}
+			for (int d = 0; d < numberOfClasses; d++) {
+				if (correlationMeasure == CorrelationMeasure.CROSSCORRELATION) {
+					profile[d] = crossCorrelation[d] / numberOfClasses;
+				} else if (correlationMeasure == CorrelationMeasure.EUCLIDEAN) {
+					profile[d] = -1 * Math.sqrt(Math.max(0, squaredSum - 2 * crossCorrelation[d]));
+				} else {
+					// the FFT can make an empty overlap slightly negative
+					profile[d] = Math.log(Math.max(0, crossCorrelation[d]));
+				}
+			}
+		} else if (sameLayout(otherHistogram) && correlationMeasure == CorrelationMeasure.INTERSECTION) {
+			// The same calculation as Intersection, with the sums calculated
+			// once.
+			final double biggestHistogramArea = Math.max(getSumFreq(), otherHistogram.getSumFreq());
+			for (int d = 0; d < numberOfClasses; d++) {
+				double matchingArea = 0.0;
+				for (int i = 0; i < numberOfClasses; i++) {
+					final int j = i + d < numberOfClasses ? i + d : i + d - numberOfClasses;
+					matchingArea += Math.min(counts[i], otherHistogram.counts[j]);
+				}
+				profile[d] = matchingArea == 0.0 ? 0.0 : matchingArea / biggestHistogramArea;
+			}
+		} else {
+			for (int d = 0; d < numberOfClasses; d++) {
+				profile[d] = correlationWithDisplacement(d, otherHistogram, correlationMeasure);
+			}
+		}
+		return profile;
+	}
+
+	/**
+	 * The correlation measures iterate the classes and displace the other
+	 * histogram with a modulo calculation on the keys. If both histograms
+	 * start at zero and have the same classes, displacing by d maps class i to
+	 * class <code>(i + d) % n</code>, so the counts can be used directly.
+	 */
+	private boolean sameLayout(final Histogram other) {
+		return start == 0 && other.start == 0 && numberOfClasses == other.numberOfClasses
+				&& classWidth == other.classWidth;
+	}
+
+	/**
+	 * @return True if the measure is a monotone function of a sum of products
+	 *         of (a function of) the bin counts, so it can be calculated with a
+	 *         cross-correlation.
+	 */
+	private static boolean isSumOfProducts(final CorrelationMeasure correlationMeasure) {
+		return correlationMeasure == CorrelationMeasure.CROSSCORRELATION
+				|| correlationMeasure == CorrelationMeasure.EUCLIDEAN
+				|| correlationMeasure == CorrelationMeasure.BHATTACHARYA;
+	}
+
+	private double[] countsAsDoubles(final boolean squareRoot) {
+		final double[] values = new double[numberOfClasses];
+		for (int i = 0; i < numberOfClasses; i++) {
+			values[i] = squareRoot ? Math.pow(counts[i], 0.5) : counts[i];
+		}
+		return values;
+	}
+
 
 	
 
@@ -1357,10 +1502,8 @@ public class Histogram implements Cloneable {
 	 */
 	public final long getMaxBinCount() {
 		long maxValue = -1;
-		if (!freqTable.values().isEmpty()) {
-			for (final long value : freqTable.values()) {
-				maxValue = Math.max(maxValue, value);
-			}
+		for (int i = 0; i < numberOfClasses; i++) {
+			maxValue = Math.max(maxValue, counts[i]);
 		}
 		return maxValue;
 	}
@@ -1369,8 +1512,6 @@ public class Histogram implements Cloneable {
 	 * Sets each bin to 0.
 	 */
 	public void clear() {
-		for (final double key : keySet()) {
-			setCount(key, 0);
-		}
+		Arrays.fill(counts, 0);
 	}
 }
@@ -31,13 +31,18 @@ import java.util.List;
 import java.util.logging.Logger;
 
 import be.tarsos.sampled.pitch.Annotation;
+import be.tarsos.sampled.pitch.AnnotationStore;
 import be.tarsos.sampled.pitch.PitchUnit;
 import be.tarsos.util.ConfKey;
 import be.tarsos.util.Configuration;
 import be.tarsos.util.KernelDensityEstimate;
+import be.tarsos.util.KernelDensityEstimateBuilder;
+import be.tarsos.util.SlidingKernelDensityEstimate;
+import be.tarsos.util.SlidingKernelDensityEstimate.WindowHandler;
 import be.tarsos.util.ScalaFile;
 import be.tarsos.util.TimeUnit;
 import be.tarsos.util.KernelDensityEstimate.GaussianKernel;
+import be.tarsos.util.KernelDensityEstimate.Kernel;
 
 /**
  * This class creates different kinds of histograms from either a list of annotations 
@@ -68,6 +73,22 @@ public class HistogramFactory {
 		return histogram;
 	}
 	
+	/**
+	 * Creates a pitch class histogram directly from a store of annotations
+	 * (without kernels). No annotation objects are created.
+	 * 
+	 * @param annotations
+	 *            The store of annotations.
+	 * @return A pitch class histogram with the annotations added.
+	 */
+	public static PitchClassHistogram createPitchClassHistogram(final AnnotationStore annotations) {
+		final PitchClassHistogram histogram = new PitchClassHistogram();
+		for (double pitch : annotations.getPitches(PitchUnit.RELATIVE_CENTS)) {
+			histogram.add(pitch);
+		}
+		return histogram;
+	}
+	
 	/**
 	 * Creates a pitch class histogram directly from a list of annotations (without kernels).
 	 * @param kde
@@ -164,20 +185,37 @@ public class HistogramFactory {
 		return pitchHistogram;
 	}
 	
+	/**
+	 * Create a pitch histogram based on a store of annotations. No annotation
+	 * objects are created.
+	 * 
+	 * @param annotations
+	 *            A store of annotations.
+	 * @return a pitch histogram with the annotations added.
+	 */
+	public static PitchHistogram createPitchHistogram(final AnnotationStore annotations) {
+		final PitchHistogram pitchHistogram = new PitchHistogram();
+		for (double pitch : annotations.getPitches(PitchUnit.ABSOLUTE_CENTS)) {
+			pitchHistogram.add(pitch);
+		}
+		return pitchHistogram;
+	}
+	
 	public static PitchHistogram createPitchHistogram(final List<Annotation> annotations,
 			final double width) {
 		int start = Configuration.getInt(ConfKey.pitch_histogram_start); 
 		int stop = Configuration.getInt(ConfKey.pitch_histogram_stop);
 		int size = stop - start;
-		KernelDensityEstimate kde = new KernelDensityEstimate(new GaussianKernel(width),size);
+		KernelDensityEstimateBuilder builder = new KernelDensityEstimateBuilder(GaussianKernel.getInstance(width),size);
 		for (Annotation annotation : annotations) {
 			double pitch = annotation.getPitch(PitchUnit.ABSOLUTE_CENTS);
 			if(pitch >= start && pitch <= stop){
-				kde.add(pitch);
+				builder.add(pitch);
 			}else{
 				LOG.finer("Ignored pitch: " + pitch + " not between " + start + " and " + stop);
 			}
 		}
+		KernelDensityEstimate kde = builder.build();
 		PitchHistogram pitchHistogram = new PitchHistogram();
 		for (int i = start; i < size; i++) {
 			pitchHistogram.setCount(i, (long) kde.getValue(i));
@@ -196,12 +234,29 @@ public class HistogramFactory {
 	 */
 	public static KernelDensityEstimate createPichClassKDE(final List<Annotation> annotations,
 			final double width){
-		KernelDensityEstimate kde = new KernelDensityEstimate(new GaussianKernel(width),1200);
+		KernelDensityEstimateBuilder builder = new KernelDensityEstimateBuilder(GaussianKernel.getInstance(width),1200);
 		for (Annotation annotation : annotations) {
 			double pitch = annotation.getPitch(PitchUnit.RELATIVE_CENTS);
-			kde.add(pitch);
+			builder.add(pitch);
 		}
-		return kde;
+		return builder.build();
+	}
+
+	/**
+	 * Creates a pitch class {@link KernelDensityEstimate} for a store of
+	 * annotations. No annotation objects are created.
+	 * 
+	 * @param annotations
+	 *            A store of annotations.
+	 * @param width
+	 *            The width of the Gaussian kernel.
+	 * @return A kernel density estimate with the annotations added.
+	 */
+	public static KernelDensityEstimate createPichClassKDE(final AnnotationStore annotations,
+			final double width){
+		KernelDensityEstimateBuilder builder = new KernelDensityEstimateBuilder(GaussianKernel.getInstance(width),1200);
+		builder.add(annotations.getPitches(PitchUnit.RELATIVE_CENTS));
+		return builder.build();
 	}
 
 	/**
@@ -217,7 +272,7 @@ public class HistogramFactory {
 	public static KernelDensityEstimate createPichClassKDE(
 			final ScalaFile scalaFile, final double width) {
 		KernelDensityEstimate kde = new KernelDensityEstimate(
-				new GaussianKernel(width), 1200);
+				GaussianKernel.getInstance(width), 1200);
 		for (double pitch : scalaFile.getPitches()) {
 			kde.add(pitch);
 		}
@@ -225,38 +280,100 @@ public class HistogramFactory {
 	}
 	
 	/**
-	 * Creates a pitch class {@link KernelDensityEstimate} for a list of pitches
-	 * defined by the annotations.
+	 * Creates a pitch class {@link KernelDensityEstimate} that holds, for each
+	 * bin, the maximum of the estimates for windows of annotations. A window
+	 * holds the number of annotations of the first window longer than the
+	 * given duration, it moves one annotation at a time. See
+	 * {@link #createPitchClassKDESeries(List, double, double, double)} for
+	 * windows of a fixed duration.
 	 * 
 	 * @param width
 	 *            The width of the Gaussian kernel.
 	 * @param annotations
-	 *            A list of annotations.
+	 *            A list of annotations, the list is not modified.
 	 * @param windowDuration
 	 *            The duration for one window in seconds.
-	 * @return A kernel density estimate with the annotations added.
+	 * @return A kernel density estimate with the maximum of the windows.
 	 */
 	public static KernelDensityEstimate createPichClassKDE(final List<Annotation> annotations,
 			final double width,final double windowDuration) {
-		KernelDensityEstimate maxKde = new KernelDensityEstimate(
-				new GaussianKernel(width), 1200);
-		KernelDensityEstimate currentKde = new KernelDensityEstimate(
-				new GaussianKernel(width), 1200);
-		//sort by time
-		Collections.sort(annotations);
+		final Kernel kernel = GaussianKernel.getInstance(width);
+		final KernelDensityEstimate maxKde = new KernelDensityEstimate(kernel, 1200);
+		final KernelDensityEstimate currentKde = new KernelDensityEstimate(kernel, 1200);
+		final List<Annotation> sorted = sortedByStart(annotations);
 		int startWindowIndex = -1;
-		for(int i = 0 ; i < annotations.size() ; i++){
-			currentKde.add(annotations.get(i).getPitch(PitchUnit.RELATIVE_CENTS));
-			if(startWindowIndex >= 0){
-				currentKde.remove(annotations.get(startWindowIndex).getPitch(PitchUnit.RELATIVE_CENTS));
+		for (int i = 0; i < sorted.size(); i++) {
+			final double pitch = sorted.get(i).getPitch(PitchUnit.RELATIVE_CENTS);
+			currentKde.add(pitch);
+			if (startWindowIndex >= 0) {
+				currentKde.remove(sorted.get(startWindowIndex).getPitch(PitchUnit.RELATIVE_CENTS));
+				if (startWindowIndex == 0) {
+					maxKde.max(currentKde);
+				} else {
+					// Only the bins of the added kernel can exceed the maximum.
+					maxKde.max(currentKde, pitch);
+				}
 				startWindowIndex++;
-				maxKde.max(currentKde);
-			} else if(annotations.get(i).getStart() - annotations.get(0).getStart() > windowDuration) {
-				startWindowIndex=0;
+			} else if (sorted.get(i).getStart() - sorted.get(0).getStart() > windowDuration) {
+				startWindowIndex = 0;
 			}
 		}
 		return maxKde;
 	}
 
-	
+	/**
+	 * Creates a time series of pitch class {@link KernelDensityEstimate}s, one
+	 * for each window. A window <code>k</code> contains the annotations
+	 * starting in <code>[k * hop, k * hop + windowDuration[</code>.
+	 * 
+	 * @param annotations
+	 *            A list of annotations, the list is not modified.
+	 * @param width
+	 *            The width of the Gaussian kernel.
+	 * @param windowDuration
+	 *            The duration for one window in seconds.
+	 * @param hop
+	 *            The time between the start of two windows in seconds.
+	 * @return A list of estimates, in time order. The first one is for the
+	 *         first window that contains an annotation.
+	 */
+	public static List<KernelDensityEstimate> createPitchClassKDESeries(final List<Annotation> annotations,
+			final double width, final double windowDuration, final double hop) {
+		final Kernel kernel = GaussianKernel.getInstance(width);
+		final List<KernelDensityEstimate> series = new ArrayList<KernelDensityEstimate>();
+		slidePitchClassKDE(annotations, kernel, windowDuration, hop, new WindowHandler() {
+			public void handleWindow(final double windowStart, final double windowStop,
+					final KernelDensityEstimate estimate) {
+				series.add(new KernelDensityEstimate(kernel, estimate.getEstimate()));
+			}
+		});
+		return series;
+	}
+
+	private static void slidePitchClassKDE(final List<Annotation> annotations, final Kernel kernel,
+			final double windowDuration, final double hop, final WindowHandler handler) {
+		final SlidingKernelDensityEstimate sliding = new SlidingKernelDensityEstimate(kernel, 1200,
+				windowDuration, hop, handler);
+		for (final Annotation annotation : sortedByStart(annotations)) {
+			sliding.add(annotation.getStart(), annotation.getPitch(PitchUnit.RELATIVE_CENTS));
+		}
+		sliding.finish();
+	}
+
+	/**
+	 * @return The annotations ordered by start time: the list itself if it is
+	 *         ordered, a sorted copy otherwise. The list of the caller is left
+	 *         untouched.
+	 */
+	private static List<Annotation> sortedByStart(final List<Annotation> annotations) {
+		List<Annotation> sorted = annotations;
+		for (int i = 1; i < annotations.size() && sorted == annotations; i++) {
+			if (annotations.get(i).getStart() < annotations.get(i - 1).getStart()) {
+				sorted = new ArrayList<Annotation>(annotations);
+				Collections.sort(sorted);
+			}
+		}
+		return sorted;
+	}
+
 }
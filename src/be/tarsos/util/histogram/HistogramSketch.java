@@ -0,0 +1,472 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+
+package be.tarsos.util.histogram;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import be.tarsos.util.BinaryFiles;
+import be.tarsos.util.KernelDensityEstimate;
+import be.tarsos.util.KernelDensityEstimate.Kernel;
+
+/**
+ * <p>
+ * A compact, mergeable summary of a histogram or a kernel density estimate.
+ * Sketches of the same type and layout can be merged in any order: merging
+ * sums the bins and the number of summarized files. Per-file sketches can be
+ * written by parallel workers or by other processes (on other machines), and
+ * reduced in a tree, without keeping every histogram of a corpus in memory.
+ * </p>
+ * <p>
+ * The binary format is stable and versioned (big endian): the magic number,
+ * the version, the type, the start, stop, number of classes and wrapping of
+ * the layout, the number of merged sketches, and then the bins. Histogram
+ * counts are written as variable length integers so empty bins take one
+ * byte; estimates are written as doubles.
+ * </p>
+ * 
+ * @author Joren Six
+ */
+public final class HistogramSketch {
+
+	/**
+	 * Log messages.
+	 */
+	private static final Logger LOG = Logger.getLogger(HistogramSketch.class.getName());
+
+	/**
+	 * Identifies a sketch: "TSKT".
+	 */
+	private static final int MAGIC = 0x54534B54;
+
+	/**
+	 * The version of the format. Increment it when the layout changes.
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * The number of bytes before the bins.
+	 */
+	private static final int HEADER_SIZE = 38;
+
+	/**
+	 * The kind of data summarized by a sketch.
+	 */
+	public enum Type {
+		/**
+		 * A general histogram.
+		 */
+		HISTOGRAM,
+		/**
+		 * A {@link PitchHistogram}.
+		 */
+		PITCH_HISTOGRAM,
+		/**
+		 * A {@link PitchClassHistogram}.
+		 */
+		PITCH_CLASS_HISTOGRAM,
+		/**
+		 * The accumulator of a {@link KernelDensityEstimate}.
+		 */
+		KERNEL_DENSITY_ESTIMATE
+	}
+
+	private final Type type;
+	private final double start;
+	private final double stop;
+	private final int numberOfClasses;
+	private final boolean wraps;
+	/**
+	 * The bins of a histogram, null for an estimate.
+	 */
+	private final long[] counts;
+	/**
+	 * The bins of an estimate, null for a histogram.
+	 */
+	private final double[] estimate;
+	private long numberOfSketches;
+
+	private HistogramSketch(final Type type, final double start, final double stop, final int numberOfClasses,
+			final boolean wraps, final long numberOfSketches) {
+		this.type = type;
+		this.start = start;
+		this.stop = stop;
+		this.numberOfClasses = numberOfClasses;
+		this.wraps = wraps;
+		this.numberOfSketches = numberOfSketches;
+		if (type == Type.KERNEL_DENSITY_ESTIMATE) {
+			counts = null;
+			estimate = new double[numberOfClasses];
+		} else {
+			counts = new long[numberOfClasses];
+			estimate = null;
+		}
+	}
+
+	/**
+	 * Creates a sketch of a histogram. The type follows the class of the
+	 * histogram.
+	 * 
+	 * @param histogram
+	 *            The histogram to summarize.
+	 * @return A new sketch of one histogram.
+	 */
+	public static HistogramSketch of(final Histogram histogram) {
+		final Type type;
+		if (histogram instanceof PitchHistogram) {
+			type = Type.PITCH_HISTOGRAM;
+		} else if (histogram instanceof PitchClassHistogram) {
+			type = Type.PITCH_CLASS_HISTOGRAM;
+		} else {
+			type = Type.HISTOGRAM;
+		}
+		final HistogramSketch sketch = new HistogramSketch(type, histogram.getStart(), histogram.getStop(),
+				histogram.getNumberOfClasses(), histogram.isWrapped(), 1);
+		for (int i = 0; i < sketch.numberOfClasses; i++) {
+			sketch.counts[i] = histogram.getCountForClass(i);
+		}
+		return sketch;
+	}
+
+	/**
+	 * Creates a sketch of a kernel density estimate.
+	 * 
+	 * @param kde
+	 *            The estimate to summarize.
+	 * @return A new sketch of one estimate.
+	 */
+	public static HistogramSketch of(final KernelDensityEstimate kde) {
+		final HistogramSketch sketch = new HistogramSketch(Type.KERNEL_DENSITY_ESTIMATE, 0, kde.size(), kde.size(),
+				true, 1);
+		for (int i = 0; i < sketch.numberOfClasses; i++) {
+			sketch.estimate[i] = kde.getValue(i);
+		}
+		return sketch;
+	}
+
+	/**
+	 * Adds the bins of another sketch to this sketch.
+	 * 
+	 * @param other
+	 *            A sketch of the same type and layout.
+	 * @return This sketch, to chain merges.
+	 * @throws IllegalArgumentException
+	 *             If the type or layout differ.
+	 */
+	public HistogramSketch merge(final HistogramSketch other) {
+		if (!isMergeableWith(other)) {
+			throw new IllegalArgumentException(String.format(
+					"Can not merge a %s sketch with %s classes with a %s sketch with %s classes.", type,
+					numberOfClasses, other.type, other.numberOfClasses));
+		}
+		if (counts != null) {
+			for (int i = 0; i < numberOfClasses; i++) {
+				counts[i] += other.counts[i];
+			}
+		} else {
+			for (int i = 0; i < numberOfClasses; i++) {
+				estimate[i] += other.estimate[i];
+			}
+		}
+		numberOfSketches += other.numberOfSketches;
+		return this;
+	}
+
+	/**
+	 * @param other
+	 *            Another sketch.
+	 * @return True if both sketches have the same type and layout.
+	 */
+	public boolean isMergeableWith(final HistogramSketch other) {
+		return type == other.type && start == other.start && stop == other.stop
+				&& numberOfClasses == other.numberOfClasses && wraps == other.wraps;
+	}
+
+	/**
+	 * @return The type of the summarized data.
+	 */
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * @return The number of classes (or bins).
+	 */
+	public int getNumberOfClasses() {
+		return numberOfClasses;
+	}
+
+	/**
+	 * @return The number of histograms or estimates merged in this sketch.
+	 */
+	public long getNumberOfSketches() {
+		return numberOfSketches;
+	}
+
+	/**
+	 * @param index
+	 *            The index of a class.
+	 * @return The summed value of the class.
+	 */
+	public double getValue(final int index) {
+		return counts != null ? counts[index] : estimate[index];
+	}
+
+	/**
+	 * Creates a histogram with the summed counts. Pitch and pitch class
+	 * sketches create a {@link PitchHistogram} or {@link PitchClassHistogram},
+	 * if the configured layout still matches the sketch.
+	 * 
+	 * @return A new histogram with the summed counts.
+	 */
+	public Histogram toHistogram() {
+		return toHistogram(false);
+	}
+
+	/**
+	 * Creates a histogram with the mean counts, rounded, as
+	 * {@link Histogram#mean(List)} does for the merged histograms.
+	 * 
+	 * @return A new histogram with the mean counts.
+	 */
+	public Histogram toMeanHistogram() {
+		return toHistogram(true);
+	}
+
+	private Histogram toHistogram(final boolean mean) {
+		if (counts == null) {
+			throw new IllegalStateException("A kernel density estimate sketch has no counts.");
+		}
+		Histogram histogram;
+		if (type == Type.PITCH_HISTOGRAM) {
+			histogram = new PitchHistogram();
+		} else if (type == Type.PITCH_CLASS_HISTOGRAM) {
+			histogram = new PitchClassHistogram();
+		} else {
+			histogram = null;
+		}
+		if (histogram == null || histogram.getStart() != start || histogram.getStop() != stop
+				|| histogram.getNumberOfClasses() != numberOfClasses) {
+			if (histogram != null) {
+				LOG.warning("The histogram configuration changed, a general histogram is created for the sketch.");
+			}
+			histogram = new Histogram(start, stop, numberOfClasses, wraps);
+		}
+		for (int i = 0; i < numberOfClasses; i++) {
+			final long count = mean ? Math.round(counts[i] / (double) numberOfSketches) : counts[i];
+			histogram.setCount(histogram.getKeyForClass(i), count);
+		}
+		if (histogram instanceof PitchHistogram) {
+			((PitchHistogram) histogram).rebuildOctaves();
+		}
+		return histogram;
+	}
+
+	/**
+	 * Creates a kernel density estimate with the summed values.
+	 * 
+	 * @param kernel
+	 *            The kernel used to build the estimates.
+	 * @return A new estimate.
+	 */
+	public KernelDensityEstimate toKernelDensityEstimate(final Kernel kernel) {
+		if (estimate == null) {
+			throw new IllegalStateException("A histogram sketch has no kernel density estimate.");
+		}
+		return new KernelDensityEstimate(kernel, estimate.clone());
+	}
+
+	/**
+	 * Writes the sketch to a stream.
+	 * 
+	 * @param out
+	 *            The stream to write to.
+	 * @throws IOException
+	 *             If the stream can not be written.
+	 */
+	public void writeTo(final DataOutputStream out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeByte(type.ordinal());
+		out.writeDouble(start);
+		out.writeDouble(stop);
+		out.writeInt(numberOfClasses);
+		out.writeBoolean(wraps);
+		out.writeLong(numberOfSketches);
+		if (counts != null) {
+			for (final long count : counts) {
+				writeVariableLength(out, count);
+			}
+		} else {
+			for (final double value : estimate) {
+				out.writeDouble(value);
+			}
+		}
+	}
+
+	/**
+	 * Reads a sketch from a buffer. The number of classes is checked against
+	 * the remaining bytes before the bins are allocated.
+	 * 
+	 * @param buffer
+	 *            The buffer to read from, e.g. the contents of a file.
+	 * @return The sketch.
+	 * @throws IOException
+	 *             If the buffer does not contain a complete sketch of a
+	 *             supported version.
+	 */
+	public static HistogramSketch readFrom(final ByteBuffer buffer) throws IOException {
+		if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+			throw new IOException("Not a histogram sketch.");
+		}
+		final int version = buffer.getInt();
+		if (version != VERSION) {
+			throw new IOException("Unsupported histogram sketch version " + version);
+		}
+		final int typeIndex = buffer.get();
+		if (typeIndex < 0 || typeIndex >= Type.values().length) {
+			throw new IOException("Unknown histogram sketch type " + typeIndex);
+		}
+		final Type type = Type.values()[typeIndex];
+		final double start = buffer.getDouble();
+		final double stop = buffer.getDouble();
+		final int numberOfClasses = buffer.getInt();
+		final boolean wraps = buffer.get() != 0;
+		final long numberOfSketches = buffer.getLong();
+		// A count takes at least one byte, a value of an estimate eight.
+		final int classSize = type == Type.KERNEL_DENSITY_ESTIMATE ? 8 : 1;
+		if (numberOfClasses <= 0 || (long) numberOfClasses * classSize > buffer.remaining()) {
+			throw new IOException(String.format("Invalid number of classes %s, %s bytes remain.", numberOfClasses,
+					buffer.remaining()));
+		}
+		final HistogramSketch sketch = new HistogramSketch(type, start, stop, numberOfClasses, wraps,
+				numberOfSketches);
+		if (sketch.counts != null) {
+			for (int i = 0; i < numberOfClasses; i++) {
+				sketch.counts[i] = readVariableLength(buffer);
+			}
+		} else {
+			buffer.asDoubleBuffer().get(sketch.estimate);
+			buffer.position(buffer.position() + numberOfClasses * 8);
+		}
+		return sketch;
+	}
+
+	/**
+	 * Writes the sketch to a file. It is written to a temporary file first,
+	 * so readers never see a partial sketch.
+	 * 
+	 * @param fileName
+	 *            The file to write to.
+	 * @return True if the sketch is written, false otherwise.
+	 */
+	public boolean write(final String fileName) {
+		return BinaryFiles.write(new File(fileName), new BinaryFiles.Writer() {
+			public void write(final DataOutputStream out) throws IOException {
+				writeTo(out);
+			}
+		});
+	}
+
+	/**
+	 * Reads a sketch from a file.
+	 * 
+	 * @param fileName
+	 *            The file to read.
+	 * @return The sketch or null if the file is not a (valid) sketch.
+	 */
+	public static HistogramSketch read(final String fileName) {
+		HistogramSketch sketch = null;
+		try {
+			sketch = readFrom(BinaryFiles.read(new File(fileName)));
+		} catch (final IOException e) {
+			LOG.log(Level.WARNING, "Could not read histogram sketch " + fileName, e);
+		}
+		return sketch;
+	}
+
+	/**
+	 * Merges the sketches stored in a list of files, reading one file at a
+	 * time. Merging the results of several calls (a tree reduction) gives the
+	 * same sums.
+	 * 
+	 * @param fileNames
+	 *            The files to merge.
+	 * @return The merged sketch or null if no file could be read. Files that
+	 *         can not be read or merged are skipped with a warning.
+	 */
+	public static HistogramSketch merge(final List<String> fileNames) {
+		HistogramSketch merged = null;
+		for (final String fileName : fileNames) {
+			final HistogramSketch sketch = read(fileName);
+			if (sketch == null) {
+				continue;
+			}
+			if (merged == null) {
+				merged = sketch;
+			} else if (merged.isMergeableWith(sketch)) {
+				merged.merge(sketch);
+			} else {
+				LOG.warning("Skipped " + fileName + ": the type or layout of the sketch differs.");
+			}
+		}
+		return merged;
+	}
+
+	/**
+	 * Writes a long with a variable length: zig zag encoded, seven bits per
+	 * byte. Small counts take one byte.
+	 */
+	private static void writeVariableLength(final DataOutputStream out, final long value) throws IOException {
+		long remaining = (value << 1) ^ (value >> 63);
+		while ((remaining & ~0x7FL) != 0) {
+			out.writeByte((int) ((remaining & 0x7F) | 0x80));
+			remaining >>>= 7;
+		}
+		out.writeByte((int) remaining);
+	}
+
+	private static long readVariableLength(final ByteBuffer buffer) throws IOException {
+		long encoded = 0;
+		int shift = 0;
+		int b;
+		do {
+			if (shift > 63 || !buffer.hasRemaining()) {
+				throw new IOException("Corrupt variable length integer.");
+			}
+			b = buffer.get() & 0xFF;
+			encoded |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return (encoded >>> 1) ^ -(encoded & 1);
+	}
+}
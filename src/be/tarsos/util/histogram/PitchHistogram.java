@@ -35,6 +35,8 @@ import be.tarsos.sampled.pitch.Annotation;
 import be.tarsos.sampled.pitch.PitchUnit;
 import be.tarsos.util.ConfKey;
 import be.tarsos.util.Configuration;
+import be.tarsos.util.KernelDensityEstimate.GaussianKernel;
+import be.tarsos.util.KernelDensityEstimate.Kernel;
 
 /**
  * The PitchHistogram accepts values from 0 to 9600 cents or +- from 16Hz to
@@ -79,6 +81,25 @@ public final class PitchHistogram extends Histogram {
 		}
 	}
 
+	/**
+	 * Rebuilds the histogram of each octave from the counts. Counts set
+	 * directly, e.g. when restoring a {@link HistogramSketch}, do not reach the
+	 * octave histograms.
+	 */
+	void rebuildOctaves() {
+		for (final PitchClassHistogram octave : toneScaleHistogramPerOctave) {
+			octave.clear();
+		}
+		for (int i = 0; i < getNumberOfClasses(); i++) {
+			final double key = getKeyForClass(i);
+			final int octaveIndex = (int) (key / 1200);
+			if (toneScaleHistogramPerOctave.size() > octaveIndex && octaveIndex >= 0) {
+				final PitchClassHistogram octave = toneScaleHistogramPerOctave.get(octaveIndex);
+				octave.setCount(key, octave.getCount(key) + getCountForClass(i));
+			}
+		}
+	}
+
 	/**
 	 * @param numberOfOctaves
 	 *            The number of energy rich octaves
@@ -172,41 +193,8 @@ public final class PitchHistogram extends Histogram {
 	 */
 	public static PitchHistogram createPitchHistogram(final List<Annotation> annotations,
 			final double width) {
-		int pitchHistogramMaximum = Configuration.getInt(ConfKey.pitch_histogram_stop);
 		int pitchHistogramMinimum = Configuration.getInt(ConfKey.pitch_histogram_start);
-		int octaves = (int) Math.ceil((pitchHistogramMaximum - pitchHistogramMinimum)/1200.0);
-		
-		// 1200 pitch classes should be enough for everybody!
-		double[] accumulator = new double[1200 * octaves];
-
-		double calculationAria = 5 * width;// hehe aria, not area
-		double halfwit = width / 2.0; //hehe halfwit, not halfwidth, hehe
-		
-		//Compute a kernel: a lookup table with e.g. a gaussian curve
-		double kernel[] = new double[(int)calculationAria*2+1];
-		double difference =  - calculationAria;
-		for(int i = 0 ; i < kernel.length; i++){
-			double power = Math.pow(difference / halfwit, 2.0);
-			kernel[i] = Math.pow(Math.E, -0.5 * power);
-			difference++;
-		}
-
-		/*
-		 * Add the kernel to an accumulator for each annotation.
-		 */
-	
-		for (Annotation annotation : annotations) {
-			double pitch = annotation.getPitch(PitchUnit.ABSOLUTE_CENTS);
-			int start = (int) (pitch + - calculationAria);
-			int stop = (int) (pitch  + calculationAria);
-			int kernelIndex = 0;
-			for (int i = start; i < stop && i < pitchHistogramMaximum; i++) {
-				if(i > pitchHistogramMinimum){					
-					accumulator[i] += kernel[kernelIndex];
-				}
-				kernelIndex++;
-			}
-		}
+		double[] accumulator = createAccumulator(annotations, width);
 
 		PitchHistogram histo = new PitchHistogram();
 		for (int i = 0; i < accumulator.length; i++) {
@@ -225,34 +213,54 @@ public final class PitchHistogram extends Histogram {
 		double[] accumulator = new double[1200 * octaves];
 
 		double calculationAria = 5 * width;// hehe aria, not area
-		double halfWidth = width / 2.0;
 		
-		//Compute a kernel: a lookup table with e.g. a gaussian curve
-		double kernel[] = new double[(int)calculationAria*2+1];
-		double difference =  - calculationAria;
-		for(int i = 0 ; i < kernel.length; i++){
-			double power = Math.pow(difference / halfWidth, 2.0);
-			kernel[i] = Math.pow(Math.E, -0.5 * power);
-			difference++;
-		}
+		// A lookup table with a gaussian curve, shared for each width.
+		final Kernel kernel = GaussianKernel.getInstance(width);
 
 		/*
-		 * Add the kernel to an accumulator for each annotation.
+		 * Count the annotations by the index where their kernel starts. The
+		 * kernel covers one index more for some fractional parts of the pitch,
+		 * those are counted separately. Then add the kernel once per index.
 		 */
-	
+		final int shortLength = (int) (2 * calculationAria);
+		final int offset = pitchHistogramMinimum - shortLength - 1;
+		final int[][] counts = new int[2][Math.max(0, pitchHistogramMaximum - offset)];
 		for (Annotation annotation : annotations) {
 			double pitch = annotation.getPitch(PitchUnit.ABSOLUTE_CENTS);
 			int start = (int) (pitch + - calculationAria);
 			int stop = (int) (pitch  + calculationAria);
-			int kernelIndex = 0;
-			for (int i = start; i < stop && i < pitchHistogramMaximum; i++) {
-				if(i > pitchHistogramMinimum){					
-					accumulator[i] += kernel[kernelIndex];
+			int extra = stop - start - shortLength;
+			if (start >= offset && start < pitchHistogramMaximum && (extra == 0 || extra == 1)) {
+				counts[extra][start - offset]++;
+			} else {
+				addKernel(accumulator, kernel, start, stop, 1, pitchHistogramMinimum, pitchHistogramMaximum);
+			}
+		}
+		for (int extra = 0; extra < 2; extra++) {
+			for (int index = 0; index < counts[extra].length; index++) {
+				if (counts[extra][index] != 0) {
+					int start = index + offset;
+					addKernel(accumulator, kernel, start, start + shortLength + extra, counts[extra][index],
+							pitchHistogramMinimum, pitchHistogramMaximum);
 				}
-				kernelIndex++;
 			}
 		}
 
 		return accumulator;
 	}
+
+	/**
+	 * Adds a kernel a number of times to the accumulator, within the pitch
+	 * histogram range.
+	 */
+	private static void addKernel(final double[] accumulator, final Kernel kernel, final int start,
+			final int stop, final int count, final int pitchHistogramMinimum, final int pitchHistogramMaximum) {
+		int kernelIndex = 0;
+		for (int i = start; i < stop && i < pitchHistogramMaximum; i++) {
+			if(i > pitchHistogramMinimum){
+				accumulator[i] += count * kernel.value(kernelIndex);
+			}
+			kernelIndex++;
+		}
+	}
 }
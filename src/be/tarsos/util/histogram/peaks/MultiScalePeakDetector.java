@@ -0,0 +1,392 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+
+package be.tarsos.util.histogram.peaks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import be.tarsos.util.histogram.Histogram;
+
+/**
+ * <p>
+ * Detects peaks in a histogram at several scales (window sizes) at once. The
+ * candidate peaks, local maxima above a threshold relative to the median, do
+ * not depend on the window size: they are determined once. Only the removal
+ * of peaks that are closer than the window size to a higher peak is repeated
+ * for each scale, without copying or shrinking lists.
+ * </p>
+ * <p>
+ * Running sums of the counts and the squared counts are calculated once, so
+ * the local height score (height relative to the mean and standard deviation
+ * in a window) of any bin at any scale is available in constant time.
+ * </p>
+ * <p>
+ * The scale-space stability of a peak is the number of window sizes it is
+ * detected at: stable peaks survive a broad range of scales.
+ * </p>
+ * 
+ * @author Joren Six
+ */
+public final class MultiScalePeakDetector {
+
+	private final Histogram histogram;
+	private final int numberOfClasses;
+	private final long[] counts;
+	/**
+	 * sums[i] is the sum of the counts of the classes before i, squaredSums[i]
+	 * the sum of their squares.
+	 */
+	private final double[] sums;
+	private final double[] squaredSums;
+
+	/**
+	 * Prepares the detection of peaks in a histogram. The histogram should
+	 * not be modified while the detector is used.
+	 * 
+	 * @param histogram
+	 *            The histogram.
+	 */
+	public MultiScalePeakDetector(final Histogram histogram) {
+		this.histogram = histogram;
+		numberOfClasses = histogram.getNumberOfClasses();
+		counts = new long[numberOfClasses];
+		sums = new double[numberOfClasses + 1];
+		squaredSums = new double[numberOfClasses + 1];
+		for (int i = 0; i < numberOfClasses; i++) {
+			counts[i] = histogram.getCountForClass(i);
+			sums[i + 1] = sums[i] + counts[i];
+			squaredSums[i + 1] = squaredSums[i] + (double) counts[i] * counts[i];
+		}
+	}
+
+	/**
+	 * The sum of a wrapped prefix: the classes before index, where negative
+	 * indexes or indexes beyond the number of classes wrap around.
+	 */
+	private double prefix(final double[] prefixSums, final int index) {
+		final int wraps = (int) Math.floor(index / (double) numberOfClasses);
+		return wraps * prefixSums[numberOfClasses] + prefixSums[index - wraps * numberOfClasses];
+	}
+
+	/**
+	 * The local height score of a bin: the height minus the mean height in the
+	 * window, divided by the standard deviation of the heights in the window.
+	 * It equals {@link PeakDetector#calculateLocalHeightScore(Histogram, int, int)}
+	 * but is calculated in constant time.
+	 * 
+	 * @param index
+	 *            The index of the bin.
+	 * @param windowSize
+	 *            The odd window size, in number of classes.
+	 * @return The local height score, negative infinity if all values in the
+	 *         window are equal.
+	 */
+	public double getLocalHeightScore(final int index, final int windowSize) {
+		assert windowSize % 2 != 0 : "Window size should be odd";
+		final int half = (windowSize - 1) / 2;
+		final double sum = prefix(sums, index + half + 1) - prefix(sums, index - half);
+		final double squaredSum = prefix(squaredSums, index + half + 1) - prefix(squaredSums, index - half);
+		final double scatter = windowSize * squaredSum - sum * sum;
+		final double localHeightScore;
+		if (scatter <= 0) {
+			// All values are equal, as low as possible.
+			localHeightScore = Double.NEGATIVE_INFINITY;
+		} else {
+			final double mean = sum / windowSize;
+			final double standardDeviation = Math.sqrt(scatter / (windowSize * (windowSize - 1.0)));
+			localHeightScore = (histogram.getCountForClass(index) - mean) / standardDeviation;
+		}
+		return localHeightScore;
+	}
+
+	/**
+	 * Detects peaks at one scale. The result equals
+	 * {@link PeakDetector#detect(Histogram, int, int)}.
+	 * 
+	 * @param windowSize
+	 *            Peaks closer than this number of classes to a higher peak are
+	 *            removed.
+	 * @param thresholdFactor
+	 *            Peaks should be higher than the median times the threshold
+	 *            factor divided by ten.
+	 * @return The peaks ordered by height, descending. The position is in
+	 *         cents, the height the count of the bin.
+	 */
+	public List<Peak> detect(final int windowSize, final int thresholdFactor) {
+		return detect(windowSize, windowSize + 1, thresholdFactor).get(0);
+	}
+
+	/**
+	 * Detects peaks at one scale, ranked by local height score instead of
+	 * height. Local maxima with a local height score above the threshold
+	 * factor divided by ten are candidates. Starting from the best score,
+	 * peaks closer than the window size (not wrapping around) to a remaining
+	 * peak are removed.
+	 * 
+	 * @param windowSize
+	 *            The odd window size of the local height score and the
+	 *            removal, in number of classes.
+	 * @param thresholdFactor
+	 *            Ten times the minimum local height score.
+	 * @return The peaks ordered by local height score, descending. The
+	 *         position is in cents, the height the count of the bin.
+	 */
+	public List<Peak> detectByLocalHeightScore(final int windowSize, final int thresholdFactor) {
+		final double threshold = thresholdFactor / 10.0;
+		final List<Peak> scores = new ArrayList<Peak>();
+		for (int i = 0; i < numberOfClasses; i++) {
+			final long currentValue = counts[i];
+			final long previousValue = counts[(i - 1 + numberOfClasses) % numberOfClasses];
+			final long nextValue = counts[(i + 1) % numberOfClasses];
+			final boolean isPeak = currentValue >= previousValue && currentValue >= nextValue;
+			final double score = isPeak ? getLocalHeightScore(i, windowSize) : 0.0;
+			if (score > threshold) {
+				scores.add(new Peak(i, score));
+			}
+		}
+		// Best score first, equal scores keep their order.
+		Collections.sort(scores, new Comparator<Peak>() {
+			public int compare(final Peak first, final Peak second) {
+				return Double.valueOf(second.getHeight()).compareTo(first.getHeight());
+			}
+		});
+		final int[] candidates = new int[scores.size()];
+		for (int rank = 0; rank < candidates.length; rank++) {
+			candidates[rank] = (int) scores.get(rank).getPosition();
+		}
+		final boolean[] detected = sweep(candidates, false, windowSize, windowSize + 1)[0];
+		final List<Peak> peaks = new ArrayList<Peak>();
+		for (int rank = 0; rank < candidates.length; rank++) {
+			if (detected[rank]) {
+				peaks.add(newPeak(candidates[rank]));
+			}
+		}
+		return peaks;
+	}
+
+	/**
+	 * Detects peaks at the window sizes
+	 * <code>minimumWindowSize, minimumWindowSize + 2, ...</code> smaller than
+	 * the maximum window size.
+	 * 
+	 * @param minimumWindowSize
+	 *            The smallest window size.
+	 * @param maximumWindowSize
+	 *            The window sizes are smaller than this value.
+	 * @param thresholdFactor
+	 *            Peaks should be higher than the median times the threshold
+	 *            factor divided by ten.
+	 * @return A list of peaks for each window size, see
+	 *         {@link #detect(int, int)}.
+	 */
+	public List<List<Peak>> detect(final int minimumWindowSize, final int maximumWindowSize,
+			final int thresholdFactor) {
+		final int[] candidates = candidates(thresholdFactor);
+		final boolean[][] detected = sweep(candidates, true, minimumWindowSize, maximumWindowSize);
+		final List<List<Peak>> peaksPerWindowSize = new ArrayList<List<Peak>>(detected.length);
+		for (final boolean[] scale : detected) {
+			final List<Peak> peaks = new ArrayList<Peak>();
+			for (int rank = 0; rank < candidates.length; rank++) {
+				if (scale[rank]) {
+					peaks.add(newPeak(candidates[rank]));
+				}
+			}
+			peaksPerWindowSize.add(peaks);
+		}
+		return peaksPerWindowSize;
+	}
+
+	/**
+	 * Detects peaks at the window sizes
+	 * <code>minimumWindowSize, minimumWindowSize + 2, ...</code> smaller than
+	 * the maximum window size and returns each peak once, with its
+	 * {@link Peak#getStability() stability}: the number of window sizes it is
+	 * detected at.
+	 * 
+	 * @param minimumWindowSize
+	 *            The smallest window size.
+	 * @param maximumWindowSize
+	 *            The window sizes are smaller than this value.
+	 * @param thresholdFactor
+	 *            Peaks should be higher than the median times the threshold
+	 *            factor divided by ten.
+	 * @return The peaks detected at one scale or more, the most stable first.
+	 *         Peaks with the same stability are ordered by height, descending.
+	 */
+	public List<Peak> detectStablePeaks(final int minimumWindowSize, final int maximumWindowSize,
+			final int thresholdFactor) {
+		final int[] candidates = candidates(thresholdFactor);
+		final boolean[][] detected = sweep(candidates, true, minimumWindowSize, maximumWindowSize);
+		final List<Peak> peaks = new ArrayList<Peak>();
+		for (int rank = 0; rank < candidates.length; rank++) {
+			int stability = 0;
+			for (final boolean[] scale : detected) {
+				if (scale[rank]) {
+					stability++;
+				}
+			}
+			if (stability > 0) {
+				final Peak peak = newPeak(candidates[rank]);
+				peak.setStability(stability);
+				peaks.add(peak);
+			}
+		}
+		Collections.sort(peaks, new Comparator<Peak>() {
+			public int compare(final Peak first, final Peak second) {
+				return second.getStability() - first.getStability();
+			}
+		});
+		return peaks;
+	}
+
+	private Peak newPeak(final int index) {
+		return new Peak(histogram.getKeyForClass(index), counts[index]);
+	}
+
+	/**
+	 * @return The indexes of the local maxima above the threshold, highest
+	 *         first. Equal heights are ordered by descending index.
+	 */
+	private int[] candidates(final int thresholdFactor) {
+		final double threshold = histogram.getMedian() * thresholdFactor / 10;
+		final List<Peak> peaks = new ArrayList<Peak>();
+		for (int i = 0; i < numberOfClasses; i++) {
+			final long currentValue = counts[i];
+			final long previousValue = counts[(i - 1 + numberOfClasses) % numberOfClasses];
+			final long nextValue = counts[(i + 1) % numberOfClasses];
+			if (currentValue >= previousValue && currentValue >= nextValue && currentValue > threshold) {
+				peaks.add(new Peak(i, currentValue));
+			}
+		}
+		Collections.sort(peaks);
+		Collections.reverse(peaks);
+		final int[] candidates = new int[peaks.size()];
+		for (int rank = 0; rank < candidates.length; rank++) {
+			candidates[rank] = (int) peaks.get(rank).getPosition();
+		}
+		return candidates;
+	}
+
+	/**
+	 * The distance between two classes, measured around the histogram.
+	 */
+	private int distance(final int first, final int second) {
+		int diff = Math.abs(first - second);
+		final int halfSize = numberOfClasses / 2;
+		if (diff > halfSize) {
+			diff = halfSize - (diff % halfSize);
+		}
+		return diff;
+	}
+
+	/**
+	 * Determines for each scale which candidates are detected: a candidate is
+	 * removed if a detected candidate with a higher rank is closer than the
+	 * window size. The candidates within the window of a candidate are a range
+	 * of the candidates sorted by position, found with two pointers for each
+	 * scale.
+	 * 
+	 * @param candidates
+	 *            The class indexes of the candidates, by rank.
+	 * @param wrap
+	 *            True if the distance is measured around the histogram.
+	 */
+	private boolean[][] sweep(final int[] candidates, final boolean wrap, final int minimumWindowSize,
+			final int maximumWindowSize) {
+		final int numberOfScales = Math.max(0, (maximumWindowSize - minimumWindowSize + 1) / 2);
+		final int k = candidates.length;
+		final long[] sorted = new long[k];
+		for (int rank = 0; rank < k; rank++) {
+			sorted[rank] = ((long) candidates[rank] << 32) | rank;
+		}
+		Arrays.sort(sorted);
+		final int[] positions = new int[k];
+		final int[] ranks = new int[k];
+		final int[] order = new int[k];
+		for (int i = 0; i < k; i++) {
+			positions[i] = (int) (sorted[i] >>> 32);
+			ranks[i] = (int) sorted[i];
+			order[ranks[i]] = i;
+		}
+
+		// The range [first[i], last[i][ of virtual indexes holds the candidates
+		// near the i-th candidate by position. Around the histogram, virtual
+		// index v is candidate v mod k, shifted a number of histogram lengths.
+		final int[] first = new int[k];
+		final int[] last = new int[k];
+		final boolean[][] detected = new boolean[numberOfScales][k];
+		for (int scale = 0; scale < numberOfScales; scale++) {
+			final int windowSize = minimumWindowSize + 2 * scale;
+			// The wrapping distance can be one less than the distance around
+			// the histogram, the range is wide enough for both.
+			final int reach = wrap ? windowSize + 1 : windowSize;
+			int lo = wrap ? 1 - k : 0;
+			int hi = lo;
+			for (int i = 0; i < k; i++) {
+				lo = Math.max(lo, wrap ? i + 1 - k : 0);
+				while (lo < i && virtualPosition(positions, lo) <= positions[i] - reach) {
+					lo++;
+				}
+				hi = Math.max(hi, lo);
+				while (hi < (wrap ? i + k : k) && virtualPosition(positions, hi) < positions[i] + reach) {
+					hi++;
+				}
+				first[i] = lo;
+				last[i] = hi;
+			}
+
+			final boolean[] current = detected[scale];
+			for (int rank = 0; rank < k; rank++) {
+				final int i = order[rank];
+				boolean removed = false;
+				for (int v = first[i]; v < last[i] && !removed; v++) {
+					final int neighbour = (v % k + k) % k;
+					if (neighbour != i && current[ranks[neighbour]]) {
+						final int diff = wrap ? distance(positions[i], positions[neighbour]) : Math.abs(positions[i]
+								- positions[neighbour]);
+						removed = diff < windowSize;
+					}
+				}
+				current[rank] = !removed;
+			}
+		}
+		return detected;
+	}
+
+	/**
+	 * The position of a virtual index: the position of candidate v mod k,
+	 * shifted a histogram length for each time v wraps.
+	 */
+	private int virtualPosition(final int[] positions, final int v) {
+		final int k = positions.length;
+		final int i = (v % k + k) % k;
+		return positions[i] + (v - i) / k * numberOfClasses;
+	}
+}
@@ -39,6 +39,10 @@ public final class Peak implements Comparable<Peak> {
 	 * The peak height
 	 */
 	private double height;
+	/**
+	 * The number of scales (window sizes) the peak is detected at.
+	 */
+	private int stability;
 
 	/**
 	 * Creates a new peak.
@@ -87,7 +91,26 @@ public final class Peak implements Comparable<Peak> {
 		this.height = newHeight;
 	}
 
-	
+	/**
+	 * The scale-space stability of the peak: the number of window sizes the
+	 * peak is detected at, see {@link MultiScalePeakDetector}. Zero for peaks
+	 * detected at a single scale.
+	 *
+	 * @return the number of scales the peak is detected at
+	 */
+	public int getStability() {
+		return stability;
+	}
+
+	/**
+	 *
+	 * @param newStability
+	 */
+	public void setStability(final int newStability) {
+		this.stability = newStability;
+	}
+
+
 	public int compareTo(Peak o) {
 		return Double.valueOf(height).compareTo(o.height);
 	}
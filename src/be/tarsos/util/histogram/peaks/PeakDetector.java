@@ -62,73 +62,10 @@ public final class PeakDetector {
 		
 		public List<Peak> detect(Histogram histogram, int windowSize,
 				int thresholdFactor) {
-			// 1. CALCULATE SCORES
-			final double[] localHeightScores = new double[histogram.getNumberOfClasses()];
-			for (int i = 0; i < histogram.getNumberOfClasses(); i++) {
-				final double currentValue = histogram.getCountForClass(i);
-				final double previousValue = histogram.getCountForClass(i - 1);
-				final double nextValue = histogram.getCountForClass(i + 1);
-
-				final boolean isPeak = currentValue >= previousValue && currentValue >= nextValue;
-
-				// Don't bother calculating the local height score if it is not a
-				// peak. This is not strictly needed, only for performance.
-				if (isPeak) {
-					localHeightScores[i] = calculateLocalHeightScore(histogram, i, windowSize);
-				}
-			}
-
-			// 2. TRESHOLD
-			// Add the peaks to a list if the value is bigger than a threshold
-			// value. This step is not strictly needed but it improves the
-			// performance of the next steps.
-			final double localHeightScoreTreshold = thresholdFactor/10.0;
-			final List<Peak> peaks = new ArrayList<Peak>();
-			for (int i = 0; i < histogram.getNumberOfClasses(); i++) {
-				if (localHeightScores[i] > localHeightScoreTreshold) {
-					peaks.add(new Peak(i, localHeightScores[i]));
-				}
-			}
-
-			// 3. FILTER
-			// Sort the peaks on local height score, descending.
-			Collections.sort(peaks, new Comparator<Peak>() {
-				public int compare(final Peak first, final Peak second) {
-					final Double firstHeight = Double.valueOf(first.getHeight());
-					final Double secondHeight = Double.valueOf(second.getHeight());
-					return secondHeight.compareTo(firstHeight);
-				}
-			});
-			// Remove peaks that are too close to each other.
-			// If peaks are closer than the window size they are too close.
-			// We are starting from the one with the best local height score and
-			// remove the ones with lower scores (within the window).
-			for (int i = 0; i < peaks.size(); i++) {
-				final int firstPeakIndex = (int) peaks.get(i).getPosition();
-				for (int j = i + 1; j < peaks.size(); j++) {
-					final int secondPeakIndex = (int) peaks.get(j).getPosition();
-					if (Math.abs(firstPeakIndex - secondPeakIndex) < windowSize) {
-						peaks.remove(j);
-						// Removed a peak, so shift index j;
-						j--;
-					}
-				}
-			}
-
-			// 4. SANITIZE RESULTS
-			// Correct the peak units. The caller expects position in <em>cents</em>
-			// and height in <em>number of annotations</em> and not position as a
-			// bin index and height as a local height score.
-			for (int i = 0; i < peaks.size(); i++) {
-				final Peak peak = peaks.get(i);
-				final int peakIndex = (int) peak.getPosition();
-				final double position = histogram.getKeyForClass(peakIndex);
-				final double height = histogram.getCountForClass(peakIndex);
-				peak.setPosition(position);
-				peak.setHeight(height);
-			}
-
-			return peaks;
+			// Local maxima with a local height score above a threshold.
+			// Starting from the best score, peaks closer than the window size
+			// to a remaining peak with a better score are removed.
+			return new MultiScalePeakDetector(histogram).detectByLocalHeightScore(windowSize, thresholdFactor);
 		}
 	};
 	
@@ -137,58 +74,10 @@ public final class PeakDetector {
 		
 		public List<Peak> detect(Histogram histogram, int windowSize,
 				int thresholdFactor) {
-			final double threshold = histogram.getMedian() * thresholdFactor / 10;
-			
-			final List<Peak> peaks = new ArrayList<Peak>();
-			
-			for (int i = 0; i < histogram.getNumberOfClasses(); i++) {
-				final double currentValue = histogram.getCountForClass(i);
-				final double previousValue = histogram.getCountForClass(i - 1);
-				final double nextValue = histogram.getCountForClass(i + 1);
-
-				final boolean isPeak = currentValue >= previousValue && currentValue >= nextValue && currentValue > threshold;
-				
-
-				// Don't bother calculating the local height score if it is not a
-				// peak. This is not strictly needed, only for performance.
-				if (isPeak) {
-					peaks.add(new Peak(i, currentValue));
-				}
-			}
-			
-			Collections.sort(peaks);
-			Collections.reverse(peaks);
-			
-			for (int i = 0; i < peaks.size(); i++) {
-				final int firstPeakIndex = (int) peaks.get(i).getPosition();
-				for (int j = i + 1; j < peaks.size(); j++) {
-					final int secondPeakIndex = (int) peaks.get(j).getPosition();
-					int diff = Math.abs(firstPeakIndex - secondPeakIndex);
-					//wrapping code:
-					int halfSize = histogram.getNumberOfClasses() / 2;
-					if (diff > halfSize )
-						diff = halfSize - (diff % halfSize);
-					
-					if (diff < windowSize) {
-						peaks.remove(j);
-						// Removed a peak, so shift index j;
-						j--;
-					}
-				}
-			}
-
-			// 4. SANITIZE RESULTS
-			// Correct the peak units. The caller expects position in <em>cents</em>
-			// and height in <em>number of annotations</em> and not position as a
-			// bin index and height as a local height score.
-			for (int i = 0; i < peaks.size(); i++) {
-				final Peak peak = peaks.get(i);
-				final int peakIndex = (int) peak.getPosition();
-				final double position = histogram.getKeyForClass(peakIndex);
-				peak.setPosition(position);
-			}
-			
-			return peaks;
+			// Local maxima higher than a threshold relative to the median.
+			// Starting from the highest peak, peaks closer than the window
+			// size (wrapping around) to a remaining, higher peak are removed.
+			return new MultiScalePeakDetector(histogram).detect(windowSize, thresholdFactor);
 		}
 	};
 	
@@ -276,66 +165,36 @@ public final class PeakDetector {
 	}
 
 	/**
-	 * Finds the requested number of (most salient) peaks in the histogram.
+	 * Finds the requested number of (most salient) peaks in the histogram. The
+	 * most salient peaks are detected at the most window sizes, see
+	 * {@link Peak#getStability()}.
 	 * 
 	 * @param histogram
 	 *            The histogram.
 	 * @param numberOfPeaks
 	 *            The number of peaks.
 	 * @return A list of peaks equal in size as the requested number of peaks.
+	 *         Equally stable peaks are ordered by height, descending.
 	 */
 	public static List<Peak> detectNumberOfPeaks(final Histogram histogram, final int numberOfPeaks) {
-		final List<Peak> peaks = new ArrayList<Peak>();
+		// 1. Count the number of window sizes each peak is detected at, in
+		// one sweep, and order the peaks by that count (descending).
+		final List<Peak> stablePeaks = new MultiScalePeakDetector(histogram).detectStablePeaks(5,
+				histogram.getNumberOfClasses() / 2, 15);
 
-		// 1. Calculate a list of peaks for each window size.
-		HashMap<Integer, List<Peak>> peaksPerWindowSize = new HashMap<Integer, List<Peak>>();
-		for (int i = 3; i < histogram.getNumberOfClasses() / 2; i += 2) {
-			peaksPerWindowSize.put(i, detect(histogram, i,15));
-		}
-
-		// 2. Count the number of times each peak occurs (for each window size).
-		HashMap<Double, Integer> peakPositionCount = new HashMap<Double, Integer>();
-		for (int i = 5; i < histogram.getNumberOfClasses() / 2; i += 2) {
-			for (Peak p : peaksPerWindowSize.get(i)) {
-				Double key = p.getPosition();
-				if (peakPositionCount.containsKey(key)) {
-					int current = peakPositionCount.get(key);
-					peakPositionCount.put(key, current + 1);
-				} else {
-					peakPositionCount.put(key, 1);
-				}
-			}
-		}
-
-		// 3. Order a list by the number of times a peak occurs (descending).
-		List<Map.Entry<Double, Integer>> entryList = new Vector<Map.Entry<Double, Integer>>(
-				peakPositionCount.entrySet());
-		Collections.sort(entryList, new Comparator<Map.Entry<Double, Integer>>() {
-			public int compare(final Entry<Double, Integer> firstEntry,
-					final Entry<Double, Integer> secondEntry) {
-				final Integer firstEntryCount = firstEntry.getValue();
-				final Integer secondEntryCount = secondEntry.getValue();
-				return secondEntryCount.compareTo(firstEntryCount);
-			}
-		});
-
-		// 4. Adds the requested number of peaks to the list.
-		for (int i = 0; i < numberOfPeaks; i++) {
-			double positionOfPeak = entryList.get(i).getKey();
-			double heightOfPeak = histogram.getCount(positionOfPeak);
-			peaks.add(new Peak(positionOfPeak, heightOfPeak));
-		}
-
-		return peaks;
+		// 2. Adds the requested number of peaks to the list.
+		return new ArrayList<Peak>(stablePeaks.subList(0, numberOfPeaks));
 	}
 
 	public static List<Peak> detect(final Histogram histogram) {
 		List<Peak> peaks = new ArrayList<Peak>();
 
-		// 1. Calculate a list of peaks for each window size.
+		// 1. Calculate a list of peaks for each window size, in one sweep.
+		final List<List<Peak>> peaksPerScale = new MultiScalePeakDetector(histogram).detect(3,
+				histogram.getNumberOfClasses() / 5, 15);
 		HashMap<Integer, List<Peak>> peaksPerWindowSize = new HashMap<Integer, List<Peak>>();
 		for (int i = 3; i < histogram.getNumberOfClasses() / 5; i += 2) {
-			peaksPerWindowSize.put(i, detect(histogram, i,15));
+			peaksPerWindowSize.put(i, peaksPerScale.get((i - 3) / 2));
 		}
 
 		// 2. Count the number of times each number of detected peaks occurs